@@ -17,6 +17,8 @@ import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
 import java.io.InputStream;
 import java.util.List;
 
+import it.pgp.xfiles.io.RobustLocalFileInputStream;
+
 /**
  * Default implementation of {@link com.davemorrissey.labs.subscaleview.decoder.ImageDecoder}
  * using Android's {@link android.graphics.BitmapFactory}, based on the Skia library. This
@@ -84,7 +86,9 @@ public class SkiaImageDecoder implements ImageDecoder {
             String assetName = uriString.substring(ASSET_PREFIX.length());
             bitmap = BitmapFactory.decodeStream(context.getAssets().open(assetName), null, options);
         } else if (uriString.startsWith(FILE_PREFIX)) {
-            bitmap = BitmapFactory.decodeFile(uriString.substring(FILE_PREFIX.length()), options);
+            // root-only files are copied once through roothelper (a stream would be read into memory as a whole)
+            String path = RobustLocalFileInputStream.getSeekablePath(context, uriString.substring(FILE_PREFIX.length()));
+            bitmap = BitmapFactory.decodeFile(path, options);
         } else {
             InputStream inputStream = null;
             try {
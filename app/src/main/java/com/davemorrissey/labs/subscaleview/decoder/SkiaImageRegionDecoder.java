@@ -21,6 +21,8 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import it.pgp.xfiles.io.RobustLocalFileInputStream;
+
 /**
  * Default implementation of {@link com.davemorrissey.labs.subscaleview.decoder.ImageRegionDecoder}
  * using Android's {@link android.graphics.BitmapRegionDecoder}, based on the Skia library. This
@@ -93,7 +95,9 @@ public class SkiaImageRegionDecoder implements ImageRegionDecoder {
             String assetName = uriString.substring(ASSET_PREFIX.length());
             decoder = BitmapRegionDecoder.newInstance(context.getAssets().open(assetName, AssetManager.ACCESS_RANDOM), false);
         } else if (uriString.startsWith(FILE_PREFIX)) {
-            decoder = BitmapRegionDecoder.newInstance(uriString.substring(FILE_PREFIX.length()), false);
+            // root-only files are copied once through roothelper, the decoder needs a seekable file
+            String path = RobustLocalFileInputStream.getSeekablePath(context, uriString.substring(FILE_PREFIX.length()));
+            decoder = BitmapRegionDecoder.newInstance(path, false);
         } else {
             InputStream inputStream = null;
             try {
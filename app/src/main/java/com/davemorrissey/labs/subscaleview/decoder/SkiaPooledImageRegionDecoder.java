@@ -35,6 +35,8 @@ import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
+import it.pgp.xfiles.io.RobustLocalFileInputStream;
+
 import static android.content.Context.ACTIVITY_SERVICE;
 
 /**
@@ -198,7 +200,9 @@ public class SkiaPooledImageRegionDecoder implements ImageRegionDecoder {
             }
             decoder = BitmapRegionDecoder.newInstance(context.getAssets().open(assetName, AssetManager.ACCESS_RANDOM), false);
         } else if (uriString.startsWith(FILE_PREFIX)) {
-            decoder = BitmapRegionDecoder.newInstance(uriString.substring(FILE_PREFIX.length()), false);
+            // root-only files are copied once through roothelper, the decoder needs a seekable file
+            String path = RobustLocalFileInputStream.getSeekablePath(context, uriString.substring(FILE_PREFIX.length()));
+            decoder = BitmapRegionDecoder.newInstance(path, false);
             try {
                 File file = new File(uriString);
                 if (file.exists()) {
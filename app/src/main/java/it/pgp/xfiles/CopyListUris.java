@@ -2,16 +2,33 @@ package it.pgp.xfiles;
 
 import android.net.Uri;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import it.pgp.xfiles.utils.SelectionStore;
+
 public class CopyListUris extends CopyMoveListPathContent {
 
-    public List<String> contentUris;
+    public transient List<String> contentUris; // view over uriStore, only its handle is serialized
+    private SelectionStore uriStore;
 
     public CopyListUris(List<String> contentUris) {
         super();
-        this.contentUris = contentUris;
+        uriStore = SelectionStore.ofNames(contentUris);
+        this.contentUris = uriStore.asNames();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        contentUris = uriStore.asNames();
+    }
+
+    @Override
+    public void releaseSelection() {
+        super.releaseSelection();
+        uriStore.release();
     }
 
     public static CopyListUris getFromUriList(List<Uri> uris) {
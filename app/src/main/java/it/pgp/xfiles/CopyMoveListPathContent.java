@@ -2,6 +2,8 @@ package it.pgp.xfiles;
 
 import android.support.annotation.NonNull;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.AbstractMap;
 import java.util.ArrayList;
@@ -12,42 +14,48 @@ import java.util.Map;
 
 import it.pgp.xfiles.adapters.BrowserAdapter;
 import it.pgp.xfiles.enums.CopyMoveMode;
+import it.pgp.xfiles.utils.SelectionStore;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 /**
  * Created by pgp on 15/05/17
  * Stores parent dir as BasePathContent, and items as BrowserItem (size and attributes known in advance)
+ * Items are kept in a compact {@link SelectionStore}, {@link #files} is a view over it;
+ * when serialized, only the store handle is written
  */
 
-public class CopyMoveListPathContent implements Serializable,Iterable<String> {
-    public List<BrowserItem> files; // only filenames, to be concatenated with parentDir (full path of parent folder)
+public class CopyMoveListPathContent implements Serializable,Iterable<String>,SelectionStore.Holder {
+    public transient List<BrowserItem> files; // only filenames, to be concatenated with parentDir (full path of parent folder)
     public CopyMoveMode copyOrMove;
     public BasePathContent parentDir;
 
+    private SelectionStore store;
+
     // multiple selection
     public CopyMoveListPathContent(BrowserAdapter ba, CopyMoveMode copyOrMove, BasePathContent parentDir) {
         this.copyOrMove = copyOrMove;
         this.parentDir = parentDir;
-        this.files = new ArrayList<>();
+        List<BrowserItem> selected = new ArrayList<>();
 
         for(int i=0; i<ba.getCount(); i++) {
             BrowserItem b = ba.getItem(i);
-            if (b != null && b.isChecked()) this.files.add(b);
+            if (b != null && b.isChecked()) selected.add(b);
         }
+        setFiles(selected);
     }
 
     // single-file
     public CopyMoveListPathContent(BrowserItem b, CopyMoveMode copyOrMove, BasePathContent parentDir) {
         this.copyOrMove = copyOrMove;
         this.parentDir = parentDir;
-        this.files = Collections.singletonList(b);
+        setFiles(Collections.singletonList(b));
     }
 
     // multiple selection, for XREDirectShareActivity
     public CopyMoveListPathContent(List<BrowserItem> files, CopyMoveMode copyOrMove, BasePathContent parentDir) {
         this.copyOrMove = copyOrMove;
         this.parentDir = parentDir;
-        this.files = files;
+        setFiles(files);
     }
 
     // for handling received content URIs from third-party apps
@@ -55,6 +63,28 @@ public class CopyMoveListPathContent implements Serializable,Iterable<String> {
         copyOrMove = CopyMoveMode.COPY;
     }
 
+    private void setFiles(List<BrowserItem> items) {
+        store = SelectionStore.ofItems(items);
+        files = store.asBrowserItems();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (store != null) files = store.asBrowserItems();
+    }
+
+    /**
+     * Full paths of the items in the given folder, built on access (e.g. while writing a request)
+     */
+    public List<String> getPathsIn(BasePathContent dir) {
+        return store.asPaths(dir.dir+"/");
+    }
+
+    @Override
+    public void releaseSelection() {
+        if (store != null) store.release();
+    }
+
     @NonNull
     @Override
     public Iterator<String> iterator() {
@@ -106,17 +136,6 @@ public class CopyMoveListPathContent implements Serializable,Iterable<String> {
     }
 
     public Iterable<String> asNameOnlyStrings() {
-        return () -> new Iterator<String>() {
-            final Iterator<BrowserItem> i = files.iterator();
-            @Override
-            public boolean hasNext() {
-                return i.hasNext();
-            }
-
-            @Override
-            public String next() {
-                return i.next().filename;
-            }
-        };
+        return store.asNames();
     }
 }
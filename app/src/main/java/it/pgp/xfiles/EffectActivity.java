@@ -8,6 +8,8 @@ import android.content.Intent;
 import android.os.Bundle;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 public abstract class EffectActivity extends Activity {
 
@@ -41,13 +43,44 @@ public abstract class EffectActivity extends Activity {
         if(this instanceof MainActivity) currentlyOnFocus = null;
     }
 
-    public static Serializable serviceParams;
+    // params of start intents not yet received by their services, by token put in the intent
+    // (tasks of different services may be started and run concurrently, so there is one slot per intent)
+    private static final Map<Long,Serializable> serviceParams = new HashMap<>();
+    private static long lastServiceParamsToken = 0;
+    private static final String SERVICE_PARAMS_TOKEN = "paramsToken";
+
+    public static void putServiceParams(Intent service, Serializable params) {
+        long token;
+        synchronized (serviceParams) {
+            token = ++lastServiceParamsToken;
+            serviceParams.put(token, params);
+        }
+        service.putExtra(SERVICE_PARAMS_TOKEN, token);
+    }
+
+    /**
+     * @return the params handed over with the intent (once), or the parcelled ones if the intent
+     * has not been started through {@link #startService}, null if none
+     */
+    public static Serializable takeServiceParams(Intent service) {
+        if (service == null) return null;
+        if (!service.hasExtra(SERVICE_PARAMS_TOKEN)) return service.getSerializableExtra("params");
+        long token = service.getLongExtra(SERVICE_PARAMS_TOKEN, 0);
+        synchronized (serviceParams) {
+            return serviceParams.remove(token);
+        }
+    }
 
     // useful for removing usage of parcelization (which prevents using lazy iterables as params)
     @Override
     public ComponentName startService(Intent service) {
-        serviceParams = service.getSerializableExtra("params");
-        service.putExtra("params",(Serializable)null);
-        return super.startService(service);
+        Serializable params = service.getSerializableExtra("params");
+        if (params != null) {
+            putServiceParams(service, params);
+            service.putExtra("params",(Serializable)null);
+        }
+        ComponentName started = super.startService(service);
+        if (started == null) takeServiceParams(service); // service not found, would never take them
+        return started;
     }
 }
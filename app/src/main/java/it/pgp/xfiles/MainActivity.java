@@ -69,7 +69,6 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Future;
 
 import it.pgp.xfiles.adapters.BrowserAdapter;
 import it.pgp.xfiles.adapters.BrowserPagerAdapter;
@@ -88,6 +87,7 @@ import it.pgp.xfiles.dialogs.OpenAsDialog;
 import it.pgp.xfiles.dialogs.PropertiesDialog;
 import it.pgp.xfiles.dialogs.RemoteRHServerManagementDialog;
 import it.pgp.xfiles.dialogs.RenameDialog;
+import it.pgp.xfiles.dialogs.TaskQueueDialog;
 import it.pgp.xfiles.dialogs.SSHAlreadyInKnownHostsDialog;
 import it.pgp.xfiles.dialogs.SSHNotInKnownHostsDialog;
 import it.pgp.xfiles.dialogs.UpdateCheckDialog;
@@ -103,6 +103,7 @@ import it.pgp.xfiles.enums.FileMode;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.enums.ForegroundServiceType;
 import it.pgp.xfiles.enums.ProviderType;
+import it.pgp.xfiles.enums.conflicthandling.ConflictPolicy;
 import it.pgp.xfiles.fileservers.FileServer;
 import it.pgp.xfiles.roothelperclient.RemoteClientManager;
 import it.pgp.xfiles.roothelperclient.RemoteServerManager;
@@ -115,12 +116,12 @@ import it.pgp.xfiles.service.HTTPUploadService;
 import it.pgp.xfiles.service.NonInteractiveSftpService;
 import it.pgp.xfiles.service.NonInteractiveSmbService;
 import it.pgp.xfiles.service.NonInteractiveXFilesRemoteTransferService;
+import it.pgp.xfiles.service.TaskScheduler;
 import it.pgp.xfiles.service.TestService;
 import it.pgp.xfiles.service.params.CopyMoveParams;
 import it.pgp.xfiles.service.params.DownloadParams;
 import it.pgp.xfiles.service.params.ExtractParams;
 import it.pgp.xfiles.service.params.TestParams;
-import it.pgp.xfiles.service.visualization.ProgressIndicator;
 import it.pgp.xfiles.sftpclient.InteractiveHostKeyVerifier;
 import it.pgp.xfiles.sftpclient.SFTPProvider;
 import it.pgp.xfiles.sftpclient.VaultActivity;
@@ -130,8 +131,12 @@ import it.pgp.xfiles.utils.ContentProviderUtils;
 import it.pgp.xfiles.utils.DirCommander;
 import it.pgp.xfiles.utils.FileOperationHelper;
 import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.utils.NavigationScheduler;
 import it.pgp.xfiles.utils.SelectImageButtonListener;
+import it.pgp.xfiles.utils.SelectionStore;
+import it.pgp.xfiles.utils.TransferJournal;
 import it.pgp.xfiles.utils.XFilesUtils;
+import it.pgp.xfiles.utils.dircontent.DirListingListener;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
 import it.pgp.xfiles.utils.dircontent.SftpDirWithContent;
 import it.pgp.xfiles.utils.pathcontent.ArchivePathContent;
@@ -280,6 +285,7 @@ public class MainActivity extends EffectActivity {
         public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
 
             BrowserAdapter ba = getCurrentBrowserAdapter();
+            if (!ba.isInteractive()) return; // partial content, the commander still points to the previous dir
             BrowserItem browserItem = ba.getItem(position);
 
             if (browserPagerAdapter.multiSelectModes[browserPager.getCurrentItem()]) {
@@ -484,6 +490,7 @@ public class MainActivity extends EffectActivity {
                     break;
                 case R.id.openCredsFavsMenu:
                     inflater.inflate(R.menu.menu_credentials_favorites, menu);
+                    menu.findItem(R.id.toggleResumableTransfers).setChecked(TransferJournal.enabled);
                     break;
                 default: // chooseBrowserViewButton
                     inflater.inflate(R.menu.menu_browserview, menu);
@@ -533,6 +540,19 @@ public class MainActivity extends EffectActivity {
             case R.id.openAboutDialog:
                 openAboutDialog();
                 return true;
+            case R.id.openTaskQueueDialog:
+                new TaskQueueDialog(this).show();
+                return true;
+            case R.id.chooseConflictPolicy:
+                showConflictPolicyDialog();
+                return true;
+            case R.id.toggleResumableTransfers:
+                TransferJournal.enabled = !TransferJournal.enabled;
+                sharedPrefs.edit().putBoolean(TransferJournal.PREF_KEY, TransferJournal.enabled).apply();
+                Toast.makeText(this, TransferJournal.enabled ?
+                        "Local copy/move jobs will be resumable (conflicts prompted per file)" :
+                        "Local copy/move jobs will not be resumable", Toast.LENGTH_SHORT).show();
+                return true;
             case R.id.openPermissionActivity:
                 startPermissionManagementActivity();
                 return true;
@@ -665,6 +685,17 @@ public class MainActivity extends EffectActivity {
             editor.putBoolean("SOFTKEYS",hasSoftKeys());
             editor.apply();
         }
+        try {
+            TaskScheduler.instance.setPolicy(TaskScheduler.Policy.valueOf(
+                    sharedPrefs.getString(TaskScheduler.POLICY_PREF_KEY, TaskScheduler.Policy.PER_RESOURCE.name())));
+        }
+        catch (IllegalArgumentException ignored) {}
+        try {
+            ConflictPolicy.selected = ConflictPolicy.valueOf(
+                    sharedPrefs.getString(ConflictPolicy.PREF_KEY, ConflictPolicy.ASK.name()));
+        }
+        catch (IllegalArgumentException ignored) {}
+        TransferJournal.enabled = sharedPrefs.getBoolean(TransferJournal.PREF_KEY, false);
         String label = "DEVICETYPE";
         int deviceTypeOrdinal_ = sharedPrefs.getInt(label,-1);
         if(deviceTypeOrdinal_ < 0) {
@@ -680,6 +711,71 @@ public class MainActivity extends EffectActivity {
         hasPermanentMenuKey = !(sharedPrefs.getBoolean("SOFTKEYS",true));
     }
 
+    // applied to copy/move jobs started afterwards
+    private void showConflictPolicyDialog() {
+        ConflictPolicy[] policies = ConflictPolicy.values();
+        String[] labels = new String[policies.length];
+        for (int i=0;i<policies.length;i++) labels[i] = policies[i].label;
+        AlertDialog.Builder bld = new AlertDialog.Builder(MainActivity.this);
+        bld.setTitle("On copy/move conflicts");
+        bld.setSingleChoiceItems(labels, ConflictPolicy.selected.ordinal(), (dialog, which) -> {
+            ConflictPolicy.selected = policies[which];
+            sharedPrefs.edit().putString(ConflictPolicy.PREF_KEY, policies[which].name()).apply();
+            dialog.dismiss();
+        });
+        bld.setNegativeButton(android.R.string.cancel, null);
+        bld.create().show();
+    }
+
+    private static boolean interruptedTransfersOffered = false; // once per process, not on every activity recreation
+
+    // copy/move jobs killed before completion (journals are deleted on completion or user cancel)
+    private void offerInterruptedTransfers() {
+        if (!TaskScheduler.instance.isIdle()) return; // app process still alive, jobs may be running
+        if (interruptedTransfersOffered) return;
+        interruptedTransfersOffered = true;
+        offerNextInterruptedTransfer();
+    }
+
+    private void offerNextInterruptedTransfer() {
+        List<File> pending = TransferJournal.listPending(TransferJournal.getJournalDir(this));
+        if (pending.isEmpty()) return;
+        File f = pending.get(0);
+        TransferJournal j;
+        try {
+            j = TransferJournal.open(f);
+        }
+        catch (IOException e) {
+            Log.e(getClass().getName(), "Discarding unreadable transfer journal "+f, e);
+            f.delete();
+            offerNextInterruptedTransfer();
+            return;
+        }
+
+        AlertDialog.Builder bld = new AlertDialog.Builder(MainActivity.this);
+        bld.setTitle("Resume interrupted "+j.mode.name().toLowerCase()+"?");
+        bld.setMessage(j.topLevel.size()+" item(s) from "+j.srcParent+"\nto "+j.destDir);
+        bld.setCancelable(true); // kept for the next app start
+        bld.setPositiveButton("Resume", (dialog, which) -> resumeTransfer(j, false));
+        if (j.mode == CopyMoveMode.COPY)
+            bld.setNeutralButton("Resume, verify MD5", (dialog, which) -> resumeTransfer(j, true));
+        bld.setNegativeButton("Discard", (dialog, which) -> {
+            j.delete();
+            offerNextInterruptedTransfer();
+        });
+        bld.create().show();
+    }
+
+    private void resumeTransfer(TransferJournal j, boolean verifyChecksum) {
+        CopyMoveParams params = new CopyMoveParams(j.getCopyMoveList(), j.getDestPath());
+        params.journalPath = j.file.getAbsolutePath();
+        params.verifyChecksum = verifyChecksum;
+        Intent startIntent = new Intent(MainActivity.this,CopyMoveService.class);
+        startIntent.setAction(BaseBackgroundService.START_ACTION);
+        startIntent.putExtra("params",params);
+        startService(startIntent);
+    }
+
     // 2 bits: LSB for dang, MSB for sign
     static int permMask = 0; // 0: nothing enabled, 1: dang enabled, 2: sign enabled, 3: both
 
@@ -721,6 +817,7 @@ public class MainActivity extends EffectActivity {
 
         refreshAppContext(getApplicationContext());
         mainActivity = this;
+        RootHelperClient.archiveCache.setDiskDir(new File(getCacheDir(),"archiveIndexes"));
 
         // ensure at least storage permissions are granted, it's useless to proceed otherwise
         if((Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && !Environment.isExternalStorageManager()) ||
@@ -754,7 +851,9 @@ public class MainActivity extends EffectActivity {
         defaultUIVisibility = getWindow().getDecorView().getSystemUiVisibility();
         getWindow().getDecorView().setSystemUiVisibility(horizontalVisibility);
 
+        SelectionStore.init(this);
         firstRunCheck();
+        offerInterruptedTransfers();
 
         progressCircleForGoDirOps = findViewById(R.id.progressCircleForGoDirOps);
         showNavLayoutBtn = findViewById(R.id.showNavLayoutBtn);
@@ -1371,15 +1470,35 @@ public class MainActivity extends EffectActivity {
         return gdwc.errorCode;
     }
 
+    // entries are shown in pages while the listing is still in progress, see BrowserPagerAdapter#showDirContentBatch
+    // a new request supersedes the one in progress on the same page, see NavigationScheduler
     public void goDir_async(Object dirOrOffset, @Nullable String targetFilenameToHighlight) {
-        Future<FileOpsErrorCodes> ff = browserPagerAdapter.goDirExecutors[browserPager.getCurrentItem()].submit(() -> goDir(
-                dirOrOffset,
-                browserPager.getCurrentItem(),
-                targetFilenameToHighlight,
-                () -> toggleGoDirOpsIndeterminateProgress(true)));
-        if(ff == null) return;
+        final int position = browserPager.getCurrentItem();
+        final NavigationScheduler.Task task = n -> {
+            // back/ahead offset may have been merged with the one of a superseded request
+            Object target = (dirOrOffset instanceof Integer) ? (Integer) n.offset : dirOrOffset;
+            DirListingListener listener = browserPagerAdapter.newStreamingListener(position,n);
+            GenericDirWithContent gdwc;
+            try {
+                gdwc = goDir_inner(target,listener);
+            }
+            catch (NavigationScheduler.Cancelled e) {
+                throw e;
+            }
+            catch (RuntimeException e) {
+                // e.g. commander errors, shown as a failed listing (which also resets the progress indicator)
+                Log.e(getClass().getName(), "Navigation to "+target+" failed", e);
+                gdwc = new GenericDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
+            }
+            completeGoDir(gdwc,target,position,targetFilenameToHighlight,n,
+                    () -> {if (n.isLatest()) toggleGoDirOpsIndeterminateProgress(true);});
+        };
+        DirCommander.prefetcher.cancel(); // don't compete with the real listing
+        NavigationScheduler scheduler = browserPagerAdapter.navigationSchedulers[position];
+        final NavigationScheduler.Navigation nav = (dirOrOffset instanceof Integer) ?
+                scheduler.submit((Integer) dirOrOffset, task) : scheduler.submit(task);
         handler.postDelayed(() -> {
-            if (!ff.isDone())
+            if (!nav.isFinished() && nav.isLatest())
                 toggleGoDirOpsIndeterminateProgress(false);
         },250);
     }
@@ -1388,14 +1507,18 @@ public class MainActivity extends EffectActivity {
      * @param dirOrOffset Target path to be loaded, or direction as boolean (back or ahead)
      */
     public GenericDirWithContent goDir_inner(Object dirOrOffset) {
+        return goDir_inner(dirOrOffset,null);
+    }
+
+    public GenericDirWithContent goDir_inner(Object dirOrOffset, @Nullable DirListingListener listener) {
         GenericDirWithContent dwc;
         int prevPos = getCurrentMainBrowserView().getFirstVisiblePosition();
         if (dirOrOffset instanceof Integer) {
             int offset = (Integer)dirOrOffset;
-            dwc = getCurrentDirCommander().shiftNPlaces(offset, prevPos);
+            dwc = getCurrentDirCommander().shiftNPlaces(offset, prevPos, listener);
         }
         else if (dirOrOffset instanceof BasePathContent) {
-            dwc = getCurrentDirCommander().setDir((BasePathContent) dirOrOffset, prevPos);
+            dwc = getCurrentDirCommander().setDir((BasePathContent) dirOrOffset, prevPos, listener);
         }
         else return new GenericDirWithContent(FileOpsErrorCodes.ILLEGAL_ARGUMENT);
 
@@ -1404,8 +1527,21 @@ public class MainActivity extends EffectActivity {
 
     // this part can be submitted to UI
     public void completeGoDir(GenericDirWithContent dwc, Object dirOrOffset, int position, @Nullable String targetFilenameToHighlight, Runnable... onCompletion) {
+        completeGoDir(dwc,dirOrOffset,position,targetFilenameToHighlight,null,onCompletion);
+    }
+
+    /**
+     * @param nav the scheduled navigation producing dwc, nothing is shown if it has been superseded
+     */
+    public void completeGoDir(GenericDirWithContent dwc, Object dirOrOffset, int position, @Nullable String targetFilenameToHighlight,
+                              @Nullable NavigationScheduler.Navigation nav, Runnable... onCompletion) {
         runOnUiThread(()->{
+            if(nav != null && !nav.claimUi()) {
+                if(onCompletion.length > 0) onCompletion[0].run();
+                return;
+            }
             if(dwc.errorCode != null && dwc.errorCode != FileOpsErrorCodes.OK) {
+                browserPagerAdapter.discardStreamedContent(position);
                 switch(dwc.errorCode) {
                     case ILLEGAL_ARGUMENT:
                         showToast("Invalid object type for dir browsing");
@@ -1442,7 +1578,12 @@ public class MainActivity extends EffectActivity {
                         break;
                 }
             }
-            else browserPagerAdapter.showDirContent(dwc,position,targetFilenameToHighlight);
+            else {
+                browserPagerAdapter.showDirContent(dwc,position,targetFilenameToHighlight);
+                if (dwc.fromCache) browserPagerAdapter.revalidate(dwc,position);
+                if (nav != null) nav.done();
+                browserPagerAdapter.schedulePrefetch(position);
+            }
 
             if(onCompletion.length > 0) onCompletion[0].run();
         });
@@ -1800,6 +1941,16 @@ public class MainActivity extends EffectActivity {
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // large selections (clipboard, queued tasks) are reloaded from cache dir when needed
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            SelectionStore.spillAll();
+            DirCommander.listingCache.clear(); // dirs are listed again on next access
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -1811,39 +1962,34 @@ public class MainActivity extends EffectActivity {
 
         // kill RH server only if there aren't foreground services using it, and if XRE remote server is not active
 
-        // if busy, terminate all the rest, if not, terminate everything
-        synchronized (ProgressIndicator.busy) {
-            ForegroundServiceType f = ProgressIndicator.busy.get();
-            if (f == null) {
-                // close all
-                if (sftpProvider != null) sftpProvider.closeAllSessions();
-                if (smbProvider != null) smbProvider.closeAllSessions();
-                rootHelperRemoteClientManager.closeAllSessions();
-                if (RemoteServerManager.rhssManagerRef.get() == null)
-                    killRHWrapper();
-            }
-            else {
-                // TODO apply a better construct for set exclusion
-                switch (f) {
-                    case FILE_TRANSFER:
-                    case FILE_ARCHIVING:
-                    case XRE_TRANSFER:
-                    case URL_DOWNLOAD:
-                        if (sftpProvider != null) sftpProvider.closeAllSessions();
-                        if (smbProvider != null) smbProvider.closeAllSessions();
-                        break;
-                    case SFTP_TRANSFER:
-                        if (smbProvider != null) smbProvider.closeAllSessions();
-                        rootHelperRemoteClientManager.closeAllSessions(); // FIXME this shouldn't be done anymore since the use of RobustLocal file streams, to be checked
-                        if (RemoteServerManager.rhssManagerRef.get() == null)
-                            killRHWrapper();
-                        break;
-                    case SMB_TRANSFER:
-                        if (sftpProvider != null) sftpProvider.closeAllSessions();
-                        break;
-                }
+        // terminate everything not used by running or queued tasks
+        boolean keepSftp = false, keepSmb = false, keepRH = false;
+        for (ForegroundServiceType f : TaskScheduler.instance.getActiveTypes()) {
+            switch (f) {
+                case FILE_TRANSFER:
+                case FILE_ARCHIVING:
+                case XRE_TRANSFER:
+                case URL_DOWNLOAD:
+                    keepRH = true;
+                    break;
+                case SFTP_TRANSFER:
+                    keepSftp = true; // FIXME closing remote sessions shouldn't be needed anymore since the use of RobustLocal file streams, to be checked
+                    break;
+                case SMB_TRANSFER:
+                    keepSmb = true;
+                    keepRH = true;
+                    break;
+                default:
+                    keepSftp = keepSmb = keepRH = true;
             }
         }
+        if (!keepSftp && sftpProvider != null) sftpProvider.closeAllSessions();
+        if (!keepSmb && smbProvider != null) smbProvider.closeAllSessions();
+        if (!keepRH) {
+            rootHelperRemoteClientManager.closeAllSessions();
+            if (RemoteServerManager.rhssManagerRef.get() == null)
+                killRHWrapper();
+        }
 
         usingRootHelperForLocal = false;
 //        context = null; // FIXME may cause NPE? better to leave it non-null and check null-check usages
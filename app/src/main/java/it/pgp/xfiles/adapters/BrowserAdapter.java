@@ -68,6 +68,11 @@ public abstract class BrowserAdapter extends ArrayAdapter<BrowserItem> {
     protected int containerLayout; // to be assigned in subclasses constructors
     public List<BrowserItem> objects,currentObjects;
     // "objects" (full objects) as reference list, and currentObjects for quick find currently shown results
+    public final QuickFindIndex quickFind = new QuickFindIndex(this);
+
+    // false for partial content of a listing in progress: items do not belong yet to the dir of the commander,
+    // so they cannot be opened, selected or acted upon (would resolve against the previous dir)
+    private boolean interactive = true;
 
     BrowserAdapter(MainActivity mainActivity, List<BrowserItem> objects) {
         super(mainActivity, android.R.layout.simple_list_item_1, objects);
@@ -97,6 +102,20 @@ public abstract class BrowserAdapter extends ArrayAdapter<BrowserItem> {
         return currentObjects.size();
     }
 
+    public boolean isInteractive() {
+        return interactive;
+    }
+
+    public void setInteractive(boolean interactive) {
+        this.interactive = interactive;
+    }
+
+    // disabled items get no click and long click events from the list view
+    @Override
+    public boolean isEnabled(int position) {
+        return interactive;
+    }
+
     @Override
     public boolean areAllItemsEnabled() {
         for(int i=0; i<getCount() ; i++) {
@@ -173,6 +192,7 @@ public abstract class BrowserAdapter extends ArrayAdapter<BrowserItem> {
 
 
     public void toggleSelectOne(BrowserItem b) {
+        if (!interactive) return;
         b.toggle();
         notifyDataSetChanged();
     }
@@ -184,6 +204,7 @@ public abstract class BrowserAdapter extends ArrayAdapter<BrowserItem> {
 //    }
 
     public void selectAll() {
+        if (!interactive) return;
         for(int i=0; i<getCount() ; i++) {
             BrowserItem b = getItem(i);
             b.setChecked(true);
@@ -192,6 +213,7 @@ public abstract class BrowserAdapter extends ArrayAdapter<BrowserItem> {
     }
 
     public void selectNone() {
+        if (!interactive) return;
         for(int i=0; i<getCount() ; i++) {
             BrowserItem b = getItem(i);
             b.setChecked(false);
@@ -200,6 +222,7 @@ public abstract class BrowserAdapter extends ArrayAdapter<BrowserItem> {
     }
 
     public void invertSelection() {
+        if (!interactive) return;
         for(int i=0; i<getCount() ; i++) {
             BrowserItem b = getItem(i);
             b.toggle();
@@ -209,6 +232,7 @@ public abstract class BrowserAdapter extends ArrayAdapter<BrowserItem> {
 
     // from RAR UI
     public void filterSelection(String content, boolean selectOrDeselect, boolean ignoreCase) {
+        if (!interactive) return;
         for(int i=0; i<getCount() ; i++) {
             BrowserItem b = getItem(i);
             String f = b.getFilename();
@@ -219,25 +243,21 @@ public abstract class BrowserAdapter extends ArrayAdapter<BrowserItem> {
         notifyDataSetChanged();
     }
 
+    // results are published asynchronously, see QuickFindIndex
     public void filterObjects(CharSequence content, boolean ignoreCase) {
-        if (content.equals("")) {
-            // no filter, revert to full list of objects
-            currentObjects = objects;
-        }
-        else {
-            currentObjects = new ArrayList<>();
-            // TODO to be replaced with recursive filtering (on currentObjects)
-            if (ignoreCase) {
-                for (BrowserItem b : objects) {
-                    if (b.getFilename().toLowerCase().contains(content.toString().toLowerCase())) currentObjects.add(b);
-                }
-            }
-            else {
-                for (BrowserItem b : objects) {
-                    if (b.getFilename().contains(content)) currentObjects.add(b);
-                }
-            }
-        }
+        quickFind.filter(content.toString(), ignoreCase);
+    }
+
+    /**
+     * To be called after adding, removing or reordering objects in place, keeps quick find results up to date
+     */
+    public void onObjectsChanged() {
+        quickFind.invalidate();
+        notifyDataSetChanged();
+    }
+
+    void setFilterResult(List<BrowserItem> result) {
+        currentObjects = result;
         notifyDataSetChanged();
     }
 
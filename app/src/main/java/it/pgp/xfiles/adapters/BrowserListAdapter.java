@@ -72,6 +72,7 @@ public class BrowserListAdapter extends BrowserAdapter {
         imageView.setImageBitmap(getBitmapByExtension(item));
 
         imageView.setOnClickListener(v-> {
+            if(!isInteractive()) return;
             boolean multiselect = mainActivity.browserPagerAdapter.multiSelectModes[mainActivity.browserPager.getCurrentItem()];
             boolean inFind = BrowserListAdapter.this instanceof FindResultsAdapter;
 
@@ -19,8 +19,12 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
+import it.pgp.xfiles.BrowserItem;
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.SortingItem;
@@ -28,17 +32,19 @@ import it.pgp.xfiles.SwipeRefreshLayoutChildCanScroll;
 import it.pgp.xfiles.adapters.continuousselection.CSCheckboxes;
 import it.pgp.xfiles.adapters.continuousselection.ContSelHandlingLayout;
 import it.pgp.xfiles.adapters.continuousselection.ContSelListener;
-import it.pgp.xfiles.comparators.AdvancedComparator;
 import it.pgp.xfiles.comparators.FilenameComparator;
+import it.pgp.xfiles.comparators.KeyedSorter;
 import it.pgp.xfiles.dialogs.CreateFileOrDirectoryDialog;
 import it.pgp.xfiles.enums.BrowserViewMode;
 import it.pgp.xfiles.enums.ComparatorField;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.exceptions.DirCommanderException;
-import it.pgp.xfiles.utils.CheckableSingleExecutor;
 import it.pgp.xfiles.utils.DirCommander;
 import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.utils.NavigationScheduler;
 import it.pgp.xfiles.utils.Pair;
+import it.pgp.xfiles.utils.dircontent.ArchiveSubDirWithContent;
+import it.pgp.xfiles.utils.dircontent.DirListingListener;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
@@ -54,8 +60,9 @@ public class BrowserPagerAdapter extends PagerAdapter {
     private final MainActivity mainActivity;
 
     private static final int ADAPTER_SIZE = 2;
+    private static final int PREFETCH_VISIBLE_DIRS = 4;
 
-    public final CheckableSingleExecutor[] goDirExecutors;
+    public final NavigationScheduler[] navigationSchedulers;
 
     private final ViewGroup[] rootLayouts = new ViewGroup[ADAPTER_SIZE];
 
@@ -102,7 +109,7 @@ public class BrowserPagerAdapter extends PagerAdapter {
     public BrowserPagerAdapter(Context context, final MainActivity mainActivity) {
         mContext = context;
         this.mainActivity = mainActivity;
-        this.goDirExecutors = new CheckableSingleExecutor[]{new CheckableSingleExecutor(context),new CheckableSingleExecutor(context)};
+        this.navigationSchedulers = new NavigationScheduler[]{new NavigationScheduler(),new NavigationScheduler()};
         createStandardCommanders();
     }
 
@@ -141,34 +148,43 @@ public class BrowserPagerAdapter extends PagerAdapter {
                                int position) {
         browserViewModes[position] = browserViewMode;
 
-        final Runnable refreshRunnable = () -> {
+        final NavigationScheduler.Task refreshTask = n -> {
             GenericDirWithContent dwc = mainActivity.getCurrentDirCommander().refresh_background();
 
-            if(dwc.errorCode == FileOpsErrorCodes.CURRENT_DIR_NO_LONGER_AVAILABLE) {
-                mainActivity.runOnUiThread(()-> {
+            mainActivity.runOnUiThread(() -> {
+                if (n.isLatest()) mainActivity.toggleGoDirOpsIndeterminateProgress(true);
+                if (!n.claimUi()) {
+                    swipeRefreshLayouts[position].setRefreshing(false);
+                    return;
+                }
+                if(dwc.errorCode == FileOpsErrorCodes.CURRENT_DIR_NO_LONGER_AVAILABLE) {
                     if(dwc.listViewPosition == null) {
                         Toast.makeText(mainActivity, "Current dir was no longer available, unable to go back even to start folder, exiting...", Toast.LENGTH_SHORT).show();
                         mainActivity.finishAffinity();
                     }
                     else Toast.makeText(mainActivity,"Current dir is no longer available, went back of " + dwc.listViewPosition + " positions", Toast.LENGTH_SHORT).show();
-                });
-            }
+                }
 
-            if(dwc.listViewPosition != null)
-                mainActivity.runOnUiThread(()->showDirContent(dwc,position,null));
+                if(dwc.listViewPosition != null) {
+                    showDirContent(dwc,position,null);
+                    n.done();
+                    schedulePrefetch(position);
+                }
+            });
         };
 
         swipeRefreshLayouts[position] = browserPageLayout.findViewById(R.id.activity_main_swipe_refresh_layout);
         swipeRefreshLayouts[position].setParentActivity(mainActivity);
         swipeRefreshLayouts[position].setOnRefreshListener(() -> {
+            DirCommander.prefetcher.cancel();
             if(browserAdapters[position].getSelectedCount() == 0) {
-                goDirExecutors[position].submit(refreshRunnable);
+                navigationSchedulers[position].submit(refreshTask);
             }
             else {
                 AlertDialog.Builder bld = new AlertDialog.Builder(mainActivity);
                 bld.setTitle("Refreshing will clear active selection");
                 bld.setNegativeButton(android.R.string.cancel, (dialog, which) -> swipeRefreshLayouts[position].setRefreshing(false));
-                bld.setPositiveButton(android.R.string.ok, (dialog, which) -> goDirExecutors[position].submit(refreshRunnable));
+                bld.setPositiveButton(android.R.string.ok, (dialog, which) -> navigationSchedulers[position].submit(refreshTask));
                 bld.create().show();
             }
         });
@@ -247,6 +263,7 @@ public class BrowserPagerAdapter extends PagerAdapter {
 
     public void setLongClickListener(int position) {
         mainBrowserViews[position].setOnItemLongClickListener((parent, view, position1, id) -> {
+            if(!browserAdapters[position].isInteractive()) return true; // partial content of a listing in progress
             if(fastRenameModeViews[position]==null) {
                 mainActivity.showPopup(parent, view, position1, null);
                 return true;
@@ -271,11 +288,156 @@ public class BrowserPagerAdapter extends PagerAdapter {
         PopupWindowUtils.toggleSoftKeyBoard(mainBrowserViews[position],false);
     }
 
+    // partial content shown while a listing is in progress, per browser page
+    private static class StreamedListing {
+        final BasePathContent dir;
+        final List<BrowserItem> items = new ArrayList<>(); // kept sorted with FilenameComparator
+        final BrowserAdapter previousAdapter;
+
+        StreamedListing(BasePathContent dir, BrowserAdapter previousAdapter) {
+            this.dir = dir;
+            this.previousAdapter = previousAdapter;
+        }
+    }
+
+    private final StreamedListing[] streamedListings = new StreamedListing[ADAPTER_SIZE];
+
+    // batches are posted to the UI thread in arrival order, before the final showDirContent or discardStreamedContent;
+    // batches of a stale navigation are dropped
+    public DirListingListener newStreamingListener(int position, NavigationScheduler.Navigation n) {
+        return (dir, batch) -> {
+            NavigationScheduler.checkCancelled();
+            mainActivity.runOnUiThread(() -> {
+                if (!n.isCancelled()) showDirContentBatch(dir,batch,position);
+            });
+        };
+    }
+
+    public void showDirContentBatch(BasePathContent dir, List<BrowserItem> batch, int position) {
+        Comparator<BrowserItem> c = new FilenameComparator();
+        Collections.sort(batch,c);
+
+        StreamedListing sl = streamedListings[position];
+        if (sl == null || !sl.dir.equals(dir)) {
+            sl = new StreamedListing(dir, sl == null ? browserAdapters[position] : sl.previousAdapter);
+            sl.items.addAll(batch);
+            streamedListings[position] = sl;
+            currentDirectoryTextViews[position].setText(dir.toString());
+            CreateFileOrDirectoryDialog.resetCreateMode(browserAdapters[position], mainBrowserViews[position]);
+            browserAdapters[position] = browserViewModes[position].newAdapter(mainActivity,sl.items);
+            browserAdapters[position].setInteractive(false); // until showDirContent commits the listing
+            mainBrowserViews[position].setAdapter(browserAdapters[position]);
+            return;
+        }
+
+        mergeSorted(sl.items,batch,c);
+        browserAdapters[position].onObjectsChanged();
+    }
+
+    // merges the sorted batch into the sorted items
+    private static void mergeSorted(List<BrowserItem> items, List<BrowserItem> batch, Comparator<BrowserItem> c) {
+        List<BrowserItem> merged = new ArrayList<>(items.size()+batch.size());
+        int i=0,j=0;
+        while (i<items.size() && j<batch.size())
+            merged.add(c.compare(items.get(i),batch.get(j)) <= 0 ? items.get(i++) : batch.get(j++));
+        while (i<items.size()) merged.add(items.get(i++));
+        while (j<batch.size()) merged.add(batch.get(j++));
+        items.clear();
+        items.addAll(merged);
+    }
+
+    // children of an archive dir found after it has been shown (archive still being enumerated)
+    public DirListingListener newArchiveUpdatesListener(int position) {
+        return (dir, batch) -> mainActivity.runOnUiThread(() -> appendDirContent(dir,batch,position));
+    }
+
+    public void appendDirContent(BasePathContent dir, List<BrowserItem> batch, int position) {
+        // ignore updates for a dir no longer shown
+        if (streamedListings[position] != null ||
+                !dir.equals(dirCommanders[position].getCurrentDirectoryPathname())) return;
+        Comparator<BrowserItem> c = new FilenameComparator();
+        Collections.sort(batch,c);
+        mergeSorted(browserAdapters[position].objects,batch,c);
+        browserAdapters[position].onObjectsChanged();
+    }
+
+    // archive enumeration interrupted after dir has been shown, its content is incomplete
+    public void onArchiveListingFailed(BasePathContent dir, int position) {
+        if (streamedListings[position] != null ||
+                !dir.equals(dirCommanders[position].getCurrentDirectoryPathname())) return;
+        MainActivity.showToast("Archive listing interrupted, content shown is incomplete (refresh to list it again)");
+    }
+
+    // listing failed after some partial content had been shown, restore the previous dir view
+    public void discardStreamedContent(int position) {
+        StreamedListing sl = streamedListings[position];
+        if (sl == null) return;
+        streamedListings[position] = null;
+        browserAdapters[position] = sl.previousAdapter;
+        mainBrowserViews[position].setAdapter(browserAdapters[position]);
+        currentDirectoryTextViews[position].setText(
+                dirCommanders[position].getCurrentDirectoryPathname().toString());
+    }
+
+    // a cached listing has just been shown, replace it if the dir has changed meanwhile (unless multi-selecting on it)
+    public void revalidate(GenericDirWithContent shown, int position) {
+        final List<BrowserItem> shownContent = shown.content;
+        DirCommander.listingCache.revalidate(dirCommanders[position].getCurrentDirectoryPathname(), shown, fresh -> mainActivity.runOnUiThread(() -> {
+            if (browserAdapters[position].objects != shownContent || multiSelectModes[position]) return;
+            if (fresh.errorCode != null) { // dir no longer accessible
+                showDirContent(dirCommanders[position].refresh(),position,null);
+                return;
+            }
+            fresh.listViewPosition = mainBrowserViews[position].getFirstVisiblePosition();
+            showDirContent(fresh,position,null);
+        }));
+    }
+
+    // lists in background the likely next dirs of a shown page, see DirPrefetcher
+    public void schedulePrefetch(int position) {
+        DirCommander dc = dirCommanders[position];
+        DirCommander.prefetcher.schedule(dc.getCurrentDirectoryPathname(), () -> getPrefetchCandidates(position));
+    }
+
+    // in decreasing likelihood order: nearest back/ahead history entries, parent, first visible subdirs,
+    // then the rest of the history
+    private List<BasePathContent> getPrefetchCandidates(int position) {
+        DirCommander dc = dirCommanders[position];
+        List<Pair<Integer,BasePathContent>> back = dc.splitPositions(false); // farthest first
+        List<Pair<Integer,BasePathContent>> ahead = dc.splitPositions(true); // farthest first
+        List<BasePathContent> candidates = new ArrayList<>();
+        if (!back.isEmpty()) candidates.add(back.get(back.size()-1).j);
+        if (!ahead.isEmpty()) candidates.add(ahead.get(ahead.size()-1).j);
+        BasePathContent current = dc.getCurrentDirectoryPathname();
+        candidates.add(current.getParent());
+
+        BrowserAdapter ba = browserAdapters[position];
+        int last = Math.min(mainBrowserViews[position].getLastVisiblePosition(), ba.getCount()-1);
+        for (int k=mainBrowserViews[position].getFirstVisiblePosition(), visibleDirs=0;
+             k<=last && visibleDirs<PREFETCH_VISIBLE_DIRS; k++) {
+            BrowserItem b = ba.getItem(k);
+            if (!Boolean.TRUE.equals(b.isDirectory)) continue;
+            candidates.add(current.concat(b.getFilename()));
+            visibleDirs++;
+        }
+
+        for (int k=back.size()-2; k>=0; k--) candidates.add(back.get(k).j);
+        for (int k=ahead.size()-2; k>=0; k--) candidates.add(ahead.get(k).j);
+        return candidates;
+    }
+
     public void showDirContent(GenericDirWithContent dirWithContent,
                                int position,
                                @Nullable Object targetFilenameToHighlight) { // with filename comparator
 
-        Collections.sort(dirWithContent.content,new FilenameComparator());
+        // if partial content of this same listing has been scrolled meanwhile, stay there
+        StreamedListing sl = streamedListings[position];
+        streamedListings[position] = null;
+        int streamedScrollPosition = (sl != null &&
+                sl.dir.equals(dirCommanders[position].getCurrentDirectoryPathname())) ?
+                mainBrowserViews[position].getFirstVisiblePosition() : 0;
+
+        KeyedSorter.sort(dirWithContent.content, KeyedSorter.DIRS_FIRST_BY_NAME);
 
         currentDirectoryTextViews[position].setText(
                 dirCommanders[position].getCurrentDirectoryPathname().toString());
@@ -296,16 +458,31 @@ public class BrowserPagerAdapter extends PagerAdapter {
                 mainBrowserViews[position].setSelection(locatedPos);
             }
         }
+        else if (streamedScrollPosition > 0) {
+            mainBrowserViews[position].setSelection(streamedScrollPosition);
+        }
         else { // reposition listview when going back in dir navigation
             mainBrowserViews[position].setSelection(dirWithContent.listViewPosition);
         }
         swipeRefreshLayouts[position].setRefreshing(false);
         mainActivity.quickPathsLayout.setVisibility(View.GONE); // close quick paths menu if open, once a showDirContent is complete
+
+        if (dirWithContent instanceof ArchiveSubDirWithContent) {
+            ArchiveSubDirWithContent a = (ArchiveSubDirWithContent) dirWithContent;
+            if (a.pendingListing != null) {
+                BasePathContent shownDir = dirCommanders[position].getCurrentDirectoryPathname();
+                a.pendingListing.watch(position,
+                        shownDir,
+                        a,
+                        newArchiveUpdatesListener(position),
+                        () -> mainActivity.runOnUiThread(() -> onArchiveListingFailed(shownDir,position)));
+            }
+        }
     }
 
     public void showSortedDirContent(GenericDirWithContent dirWithContent, Pair<ComparatorField,Boolean> whichAttribute_reverse, int position) {
-        Collections.sort(dirWithContent.content,
-                new AdvancedComparator(new SortingItem(whichAttribute_reverse.i, true, whichAttribute_reverse.j)));
+        KeyedSorter.sort(dirWithContent.content,
+                new SortingItem(whichAttribute_reverse.i, true, whichAttribute_reverse.j));
 
         currentDirectoryTextViews[position].setText(
                 dirCommanders[position].getCurrentDirectoryPathname().toString());
@@ -392,7 +569,7 @@ public class BrowserPagerAdapter extends PagerAdapter {
 
                 @Override
                 public void onTextChanged(CharSequence s, int start, int before, int count) {
-                    // reload filter results on every typed character
+                    // filter results are reloaded in background, once typing pauses
                     browserAdapters[position].filterObjects(s,quickFindIgnoreCases[position].isChecked());
                 }
 
@@ -15,6 +15,7 @@ import it.pgp.xfiles.utils.pathcontent.BasePathContent;
  * - It is created using the first available activity reference, in order to perform add method via runOnUIThread
  * - Current activity instance is kept updated via static instance, and it is used for runOnUIThread;
  *   moreover, by construction the static instance is never null at the time runOnUIThread is invoked
+ * - Find results are not added directly, but through {@link #results}, which delivers them in batches
  */
 
 public class FindResultsAdapter extends BrowserListAdapter { // uses FindBrowserItem instead of BrowserItem
@@ -23,6 +24,8 @@ public class FindResultsAdapter extends BrowserListAdapter { // uses FindBrowser
 
     public List<BasePathContent> basePaths; // base path from which search was started
 
+    public final FindResultsBatcher results = new FindResultsBatcher(this); // producers add results here
+
     private FindResultsAdapter(@NonNull MainActivity mainActivity) {
 //        super(context,android.R.layout.simple_list_item_1);
         super(mainActivity,new ArrayList<>());
@@ -38,6 +41,7 @@ public class FindResultsAdapter extends BrowserListAdapter { // uses FindBrowser
         createIfNotExisting();
         if(basePaths != null)
             instance.basePaths = basePaths;
+        instance.results.clear();
         FindActivity.instance.runOnUiThread(()->FindResultsAdapter.instance.clear());
     }
 }
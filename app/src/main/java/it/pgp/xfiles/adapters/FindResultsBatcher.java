@@ -0,0 +1,101 @@
+package it.pgp.xfiles.adapters;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.MainActivity;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Delivery of find results from producer threads (RH find response reader, archive index search)
+ * to {@link FindResultsAdapter}, in batches instead of one main looper message and adapter update per match.
+ *
+ * Matches are appended to a bounded ring buffer; the first match after a flush schedules the next one
+ * on the UI thread at the following frame boundary, so that the adapter is updated (and notified) at most
+ * once per frame, with at most {@link #MAX_FLUSH_ITEMS} results per flush.
+ * When the ring is full, producers wait for the UI to drain it: the RH reader stops reading the find socket,
+ * so backpressure reaches the RH find thread, while searches not outpacing the UI never wait.
+ */
+
+public class FindResultsBatcher {
+
+    public static final int CAPACITY = 8192;
+    public static final int MAX_FLUSH_ITEMS = 2048;
+    public static final long FRAME_MS = 16;
+
+    private final FindResultsAdapter adapter;
+
+    // guarded by this
+    private final BrowserItem[] ring = new BrowserItem[CAPACITY];
+    private int head = 0;
+    private int count = 0;
+    private boolean flushScheduled = false;
+    private long lastFlush = 0;
+
+    private final Runnable flush = this::flush;
+
+    FindResultsBatcher(FindResultsAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * To be called on producer threads, waits while the ring is full
+     * @return false if interrupted while waiting (the result is discarded)
+     */
+    public boolean add(BrowserItem b) {
+        long delay;
+        synchronized (this) {
+            try {
+                while (count == CAPACITY) wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            ring[(head+count) % CAPACITY] = b;
+            count++;
+            if (flushScheduled) return true;
+            flushScheduled = true;
+            delay = Math.max(0, lastFlush + FRAME_MS - SystemClock.uptimeMillis());
+        }
+        MainActivity.handler.postDelayed(flush, delay);
+        return true;
+    }
+
+    /**
+     * Discards results not yet delivered (e.g. on adapter reset), releasing waiting producers
+     */
+    public synchronized void clear() {
+        Arrays.fill(ring, null);
+        head = 0;
+        count = 0;
+        notifyAll();
+    }
+
+    // UI thread
+    private void flush() {
+        List<BrowserItem> batch;
+        boolean more;
+        synchronized (this) {
+            int n = Math.min(count, MAX_FLUSH_ITEMS);
+            batch = new ArrayList<>(n);
+            for (int k=0; k<n; k++) {
+                batch.add(ring[head]);
+                ring[head] = null;
+                head = (head+1) % CAPACITY;
+            }
+            count -= n;
+            lastFlush = SystemClock.uptimeMillis();
+            more = count > 0;
+            flushScheduled = more;
+            notifyAll();
+        }
+        if (!batch.isEmpty()) adapter.addAll(batch); // single notify for the whole batch
+        if (more) MainActivity.handler.postDelayed(flush, FRAME_MS);
+    }
+}
@@ -0,0 +1,194 @@
+package it.pgp.xfiles.adapters;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.utils.dircontent.DirListing;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Quick find filtering for a {@link BrowserAdapter}, off the UI thread.
+ *
+ * Requests are debounced on the UI thread, then run on a single shared worker; a request makes all the previous
+ * ones stale, and stale ones stop scanning and never publish their results.
+ * Filenames (and their lowercased form, on the first case-insensitive query) are extracted once per listing,
+ * from a snapshot of the adapter objects taken on the UI thread, and kept until the objects change.
+ * A query containing the previous one (same case sensitivity) only scans the previous matches.
+ *
+ * Results are positions in the snapshot, shown through a list view on the same items of the adapter,
+ * so that selection state is shared with the unfiltered list; for listing views, matches are resolved
+ * by listing entry, since the view may be reordered in place (e.g. sorted) while a result is still shown.
+ */
+
+public class QuickFindIndex {
+
+    public static final long DEBOUNCE_MS = 100;
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor();
+
+    // positions of adapter objects, as of when the index was built
+    private static final class Snapshot {
+        final Object[] items; // null if view is not null
+        final DirListing.View view;
+        final int[] entries; // listing entry for each view position
+
+        Snapshot(List<BrowserItem> objects) {
+            if (objects instanceof DirListing.View) {
+                view = (DirListing.View) objects;
+                items = null;
+                entries = new int[view.size()];
+                for (int i=0; i<entries.length; i++) entries[i] = view.entryAt(i);
+            }
+            else {
+                view = null;
+                items = objects.toArray();
+                entries = null;
+            }
+        }
+
+        int size() {
+            return view != null ? entries.length : items.length;
+        }
+
+        // names are read from the listing columns, without materializing view items
+        String getName(int i) {
+            return view != null ? view.listing.getName(entries[i]) : ((BrowserItem) items[i]).getFilename();
+        }
+
+        BrowserItem get(int i) {
+            return view != null ? view.getByEntry(entries[i]) : (BrowserItem) items[i];
+        }
+    }
+
+    private static final class Result extends AbstractList<BrowserItem> implements RandomAccess {
+        final Snapshot snapshot;
+        final int[] positions;
+        final int size;
+
+        Result(Snapshot snapshot, int[] positions, int size) {
+            this.snapshot = snapshot;
+            this.positions = positions;
+            this.size = size;
+        }
+
+        @Override
+        public BrowserItem get(int index) {
+            if (index >= size) throw new IndexOutOfBoundsException();
+            return snapshot.get(positions[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private final BrowserAdapter adapter;
+
+    // UI thread only
+    private boolean snapshotNeeded = true;
+    private Runnable pendingRequest;
+    private String query = "";
+    private boolean ignoreCase;
+
+    private volatile int generation = 0; // written on UI thread, latest request
+
+    // worker only
+    private Snapshot snapshot;
+    private String[] names, lowerNames;
+    private String lastQuery = "";
+    private boolean lastIgnoreCase;
+    private int[] lastMatches; // null means all
+    private int lastMatchCount;
+
+    QuickFindIndex(BrowserAdapter adapter) {
+        this.adapter = adapter;
+    }
+
+    public boolean isActive() {
+        return !query.isEmpty();
+    }
+
+    /**
+     * To be called on the UI thread, results are published to the adapter when ready
+     */
+    public void filter(String query, boolean ignoreCase) {
+        this.query = query;
+        this.ignoreCase = ignoreCase;
+        final int gen = ++generation;
+        if (pendingRequest != null) MainActivity.handler.removeCallbacks(pendingRequest);
+        pendingRequest = null;
+
+        if (query.isEmpty()) { // no filter, revert to full list of objects
+            adapter.setFilterResult(adapter.objects);
+            return;
+        }
+
+        pendingRequest = () -> {
+            pendingRequest = null;
+            final Snapshot s = snapshotNeeded ? new Snapshot(adapter.objects) : null;
+            snapshotNeeded = false;
+            worker.execute(() -> run(gen, s, query, ignoreCase));
+        };
+        MainActivity.handler.postDelayed(pendingRequest, DEBOUNCE_MS);
+    }
+
+    /**
+     * Adapter objects have been added, removed or reordered: rebuilds the index, and filters again if active
+     */
+    public void invalidate() {
+        snapshotNeeded = true;
+        if (isActive()) filter(query, ignoreCase);
+    }
+
+    private void run(int gen, Snapshot newSnapshot, String q, boolean ic) {
+        if (newSnapshot != null) {
+            snapshot = newSnapshot;
+            int n = snapshot.size();
+            names = new String[n];
+            for (int i=0; i<n; i++) names[i] = snapshot.getName(i);
+            lowerNames = null;
+            lastQuery = "";
+            lastMatches = null;
+        }
+        if (gen != generation) return;
+
+        String[] target = names;
+        if (ic) {
+            if (lowerNames == null) {
+                lowerNames = new String[names.length];
+                for (int i=0; i<names.length; i++) lowerNames[i] = names[i].toLowerCase();
+            }
+            target = lowerNames;
+            q = q.toLowerCase();
+        }
+
+        // narrow previous matches if possible, any name containing q contains its substrings as well
+        boolean narrow = lastMatches != null && ic == lastIgnoreCase && q.contains(lastQuery);
+        int candidates = narrow ? lastMatchCount : target.length;
+        int[] matches = new int[candidates];
+        int count = 0;
+        for (int k=0; k<candidates; k++) {
+            if (k % CANCEL_CHECK_INTERVAL == 0 && gen != generation) return;
+            int i = narrow ? lastMatches[k] : k;
+            if (target[i].contains(q)) matches[count++] = i;
+        }
+
+        lastQuery = q;
+        lastIgnoreCase = ic;
+        lastMatches = matches;
+        lastMatchCount = count;
+
+        final Result r = new Result(snapshot, matches, count);
+        MainActivity.handler.post(() -> {
+            if (gen == generation) adapter.setFilterResult(r);
+        });
+    }
+}
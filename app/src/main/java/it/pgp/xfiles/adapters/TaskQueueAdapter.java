@@ -0,0 +1,119 @@
+package it.pgp.xfiles.adapters;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.pgp.xfiles.R;
+import it.pgp.xfiles.service.TaskScheduler;
+import it.pgp.xfiles.service.visualization.ProgressCounters;
+
+/**
+ * Created by pgp on 18/10/26
+ * Running and queued background tasks, followed by start requests waiting for their service to be free
+ */
+
+public class TaskQueueAdapter extends BaseAdapter {
+    private final LayoutInflater inflater;
+    private List<TaskScheduler.Job> jobs = new ArrayList<>();
+    private List<TaskScheduler.PendingStart> pendingStarts = new ArrayList<>();
+
+    public TaskQueueAdapter(Context context) {
+        this.inflater = LayoutInflater.from(context);
+        refresh();
+    }
+
+    public void refresh() {
+        jobs = TaskScheduler.instance.getJobs();
+        pendingStarts = TaskScheduler.instance.getPendingStarts();
+        notifyDataSetChanged();
+    }
+
+    public static class TaskQueueViewHolder {
+        public TextView label, status;
+        public ProgressBar progress;
+        public Button cancel;
+
+        TaskQueueViewHolder(TextView label, TextView status, ProgressBar progress, Button cancel) {
+            this.label = label;
+            this.status = status;
+            this.progress = progress;
+            this.cancel = cancel;
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return jobs.size() + pendingStarts.size();
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return position < jobs.size() ? jobs.get(position) : pendingStarts.get(position - jobs.size());
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, @Nullable View convertView, ViewGroup parent) {
+        TaskQueueViewHolder h;
+        if(convertView == null) {
+            convertView = inflater.inflate(R.layout.task_queue_item, null);
+            h = new TaskQueueViewHolder(
+                    convertView.findViewById(R.id.task_queue_label),
+                    convertView.findViewById(R.id.task_queue_status),
+                    convertView.findViewById(R.id.task_queue_progress),
+                    convertView.findViewById(R.id.task_queue_cancel));
+            h.progress.setMax(100);
+            convertView.setTag(h);
+        }
+        else h = (TaskQueueViewHolder) convertView.getTag();
+
+        if(position < jobs.size()) {
+            TaskScheduler.Job j = jobs.get(position);
+            h.label.setText(j.label);
+            ProgressCounters c = j.progress;
+            if(!j.isRunning())
+                h.status.setText("Queued, waiting for "+j.resources);
+            else if(c == null)
+                h.status.setText("Running");
+            else
+                h.status.setText(String.format("Running, %s - %.2f Mb - %s - %s\n%s",
+                        c.isTotalPending() ? "scanning" : ProgressCounters.percent(c.getOuterDone(), c.getOuterTotal())+"%",
+                        c.getBytes()/1000000.0,
+                        c.throughput.formatSpeed(),
+                        c.throughput.formatEta(c),
+                        c.throughput.getPhase().name().toLowerCase()));
+            h.progress.setIndeterminate(c != null && c.isTotalPending());
+            h.progress.setProgress(c == null ? 0 : ProgressCounters.percent(c.getOuterDone(), c.getOuterTotal()));
+            h.progress.setVisibility(j.isRunning() ? View.VISIBLE : View.INVISIBLE);
+            h.cancel.setOnClickListener(v -> {
+                TaskScheduler.instance.cancel(j);
+                refresh();
+            });
+        }
+        else {
+            TaskScheduler.PendingStart p = pendingStarts.get(position - jobs.size());
+            h.label.setText(p.label);
+            h.status.setText("Waiting for the current task of the same kind to end");
+            h.progress.setVisibility(View.INVISIBLE);
+            h.cancel.setOnClickListener(v -> {
+                TaskScheduler.instance.cancel(p);
+                refresh();
+            });
+        }
+        return convertView;
+    }
+}
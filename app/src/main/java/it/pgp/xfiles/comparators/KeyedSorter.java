@@ -0,0 +1,250 @@
+package it.pgp.xfiles.comparators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.SortingItem;
+import it.pgp.xfiles.enums.ComparatorField;
+import it.pgp.xfiles.utils.dircontent.DirListing;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Sorts listings on keys extracted once per item, instead of comparing boxed fields (and allocating extensions)
+ * on each of the O(n log n) comparisons: only the keys needed by the sorting attributes are extracted,
+ * into parallel primitive arrays (extensions as ranks in their sorted set), then a permutation of item indexes
+ * is sorted with a stable merge sort, by slices in parallel above {@link #PARALLEL_THRESHOLD} items.
+ * For {@link DirListing.View} lists, keys are read from the listing columns, without materializing items.
+ *
+ * Resulting order is the same as {@link AdvancedComparator} with the same attributes
+ * ({@link #DIRS_FIRST_BY_NAME} is the one of {@link FilenameComparator}).
+ */
+
+public class KeyedSorter {
+
+    public static final int PARALLEL_THRESHOLD = 16384;
+    public static final int MAX_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    public static final SortingItem[] DIRS_FIRST_BY_NAME = {
+            new SortingItem(ComparatorField.DIR, true, false),
+            new SortingItem(ComparatorField.FILENAME, true, false)
+    };
+
+    public interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    private static ExecutorService pool; // created on first parallel sort
+
+    private final ComparatorField[] fields;
+    private final boolean[] reversed;
+
+    // keys of item i, only the ones needed by fields are filled
+    private DirListing listing; // names compared on the listing pool, if sorting a view
+    private int[] entries; // listing entry of item i
+    private String[] names;
+    private int[] extRanks;
+    private long[] sizes;
+    private long[] mtimes;
+    private boolean[] dirs;
+
+    private KeyedSorter(List<BrowserItem> items, SortingItem[] attributes) {
+        fields = new ComparatorField[attributes.length];
+        reversed = new boolean[attributes.length];
+        for (int k=0; k<attributes.length; k++) {
+            fields[k] = attributes[k].comparatorField;
+            reversed[k] = attributes[k].isReversed();
+        }
+        extractKeys(items);
+    }
+
+    private boolean uses(ComparatorField f) {
+        for (ComparatorField x : fields) if (x == f) return true;
+        return false;
+    }
+
+    private void extractKeys(List<BrowserItem> items) {
+        int n = items.size();
+        DirListing.View view = (items instanceof DirListing.View) ? (DirListing.View) items : null;
+        if (view != null) {
+            listing = view.listing;
+            entries = new int[n];
+            for (int i=0; i<n; i++) entries[i] = view.entryAt(i);
+        }
+
+        if (uses(ComparatorField.FILENAME) && view == null) {
+            names = new String[n];
+            for (int i=0; i<n; i++) names[i] = items.get(i).filename;
+        }
+        if (uses(ComparatorField.SIZE)) {
+            sizes = new long[n];
+            for (int i=0; i<n; i++) {
+                if (view != null) sizes[i] = listing.size[entries[i]];
+                else {
+                    Long s = items.get(i).size;
+                    sizes[i] = s == null ? 0 : s;
+                }
+            }
+        }
+        if (uses(ComparatorField.DATE)) {
+            mtimes = new long[n];
+            for (int i=0; i<n; i++) {
+                if (view != null) mtimes[i] = listing.mtime[entries[i]];
+                else mtimes[i] = items.get(i).date == null ? 0 : items.get(i).date.getTime();
+            }
+        }
+        if (uses(ComparatorField.DIR) || uses(ComparatorField.TYPE)) {
+            dirs = new boolean[n];
+            for (int i=0; i<n; i++) {
+                if (view != null) dirs[i] = listing.isDirectory(entries[i]);
+                else dirs[i] = items.get(i).isDirectory != null && items.get(i).isDirectory;
+            }
+        }
+        if (uses(ComparatorField.TYPE)) extractExtRanks(items, view);
+    }
+
+    // extensions as ranks in the sorted set of distinct ones, so that they compare as ints
+    private void extractExtRanks(List<BrowserItem> items, DirListing.View view) {
+        int n = items.size();
+        String[] exts = new String[n];
+        Map<String,Integer> ranks = new HashMap<>();
+        for (int i=0; i<n; i++) {
+            String name = (view != null) ? listing.getName(entries[i]) : items.get(i).filename;
+            int dot = name.lastIndexOf('.');
+            exts[i] = dot > 0 ? name.substring(dot+1) : ""; // same as BrowserItem.getFileExt
+            ranks.put(exts[i], 0);
+        }
+        List<String> distinct = new ArrayList<>(ranks.keySet());
+        Collections.sort(distinct);
+        for (int r=0; r<distinct.size(); r++) ranks.put(distinct.get(r), r);
+        extRanks = new int[n];
+        for (int i=0; i<n; i++) extRanks[i] = ranks.get(exts[i]);
+    }
+
+    private int compare(int a, int b) {
+        for (int k=0; k<fields.length; k++) {
+            int r;
+            switch (fields[k]) {
+                case FILENAME:
+                    r = (listing != null) ? listing.compareNames(entries[a], entries[b]) : names[a].compareTo(names[b]);
+                    break;
+                case DATE:
+                    r = Long.compare(mtimes[a], mtimes[b]);
+                    break;
+                case SIZE:
+                    r = Long.compare(sizes[a], sizes[b]);
+                    break;
+                case TYPE:
+                    // directories before files, so that they don't mix with files without extension
+                    if (dirs[a] != dirs[b]) r = dirs[a] ? -1 : 1;
+                    else r = Integer.compare(extRanks[a], extRanks[b]);
+                    break;
+                case DIR:
+                    r = -Boolean.compare(dirs[a], dirs[b]); // directories first, unless reversed
+                    break;
+                default:
+                    throw new RuntimeException("Guard block");
+            }
+            if (reversed[k]) r = -r;
+            if (r != 0) return r;
+        }
+        return 0;
+    }
+
+    /**
+     * Sorts items in place, stable
+     */
+    public static void sort(List<BrowserItem> items, SortingItem... attributes) {
+        int n = items.size();
+        if (n < 2) return;
+        KeyedSorter s = new KeyedSorter(items, attributes);
+        int[] pos = new int[n];
+        for (int i=0; i<n; i++) pos[i] = i;
+        sort(pos, s::compare);
+
+        if (items instanceof DirListing.View) ((DirListing.View) items).permute(pos);
+        else {
+            Object[] copy = items.toArray();
+            for (int i=0; i<n; i++) items.set(i, (BrowserItem) copy[pos[i]]);
+        }
+    }
+
+    /**
+     * Stable sort of a permutation, comparator must be safe for concurrent use
+     */
+    public static void sort(int[] a, IntComparator c) {
+        int[] tmp = new int[a.length];
+        int threads = Math.min(MAX_THREADS, a.length / (PARALLEL_THRESHOLD/2));
+        if (a.length < PARALLEL_THRESHOLD || threads < 2) {
+            mergeSort(a, tmp, 0, a.length, c);
+            return;
+        }
+
+        int[] bounds = new int[threads+1];
+        for (int t=0; t<=threads; t++) bounds[t] = (int)((long)a.length * t / threads);
+
+        ExecutorService p = getPool();
+        List<Future<?>> l = new ArrayList<>(threads);
+        for (int t=0; t<threads; t++) {
+            final int lo = bounds[t], hi = bounds[t+1];
+            l.add(p.submit(() -> mergeSort(a, tmp, lo, hi, c)));
+        }
+        await(l);
+
+        // pairwise merges of sorted slices, each round in parallel
+        for (int step=1; step<threads; step<<=1) {
+            l.clear();
+            for (int t=0; t+step<threads; t+=step<<1) {
+                final int lo = bounds[t], mid = bounds[t+step], hi = bounds[Math.min(t+(step<<1), threads)];
+                l.add(p.submit(() -> merge(a, tmp, lo, mid, hi, c)));
+            }
+            await(l);
+        }
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) pool = Executors.newFixedThreadPool(MAX_THREADS);
+        return pool;
+    }
+
+    private static void await(List<Future<?>> l) {
+        for (Future<?> f : l) {
+            for (;;) {
+                try {
+                    f.get();
+                    break;
+                }
+                catch (InterruptedException ignored) {}
+                catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        }
+    }
+
+    // bottom-up, on a[lo,hi)
+    private static void mergeSort(int[] a, int[] tmp, int lo, int hi, IntComparator c) {
+        for (int width = 1; width < hi - lo; width <<= 1) {
+            for (int l = lo; l < hi - width; l += width << 1)
+                merge(a, tmp, l, l + width, Math.min(l + (width << 1), hi), c);
+        }
+    }
+
+    // merges sorted a[lo,mid) and a[mid,hi), equal elements of the left run first
+    private static void merge(int[] a, int[] tmp, int lo, int mid, int hi, IntComparator c) {
+        if (c.compare(a[mid-1], a[mid]) <= 0) return; // already in order
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) tmp[k++] = (c.compare(a[i], a[j]) <= 0) ? a[i++] : a[j++];
+        while (i < mid) tmp[k++] = a[i++];
+        while (j < hi) tmp[k++] = a[j++];
+        System.arraycopy(tmp, lo, a, lo, hi - lo);
+    }
+}
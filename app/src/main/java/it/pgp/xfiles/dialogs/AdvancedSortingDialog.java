@@ -11,7 +11,7 @@ import java.util.ArrayList;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.SortingItem;
 import it.pgp.xfiles.adapters.BrowserAdapter;
-import it.pgp.xfiles.comparators.AdvancedComparator;
+import it.pgp.xfiles.comparators.KeyedSorter;
 import it.pgp.xfiles.dragdroplist.DragDropItemTouchHelperCallback;
 import it.pgp.xfiles.dragdroplist.DragNDropAdapter;
 import it.pgp.xfiles.enums.ComparatorField;
@@ -25,8 +25,6 @@ public class AdvancedSortingDialog extends BaseDialog {
     private DragNDropAdapter dragNDropAdapter;
     private RecyclerView listView;
 
-    private AdvancedComparator advancedComparator;
-
     public AdvancedSortingDialog(final Activity activity, final BrowserAdapter browserAdapter) {
         super(activity);
         setTitle("Advanced sort");
@@ -48,9 +46,9 @@ public class AdvancedSortingDialog extends BaseDialog {
 
         Button okButton = findViewById(R.id.advancedSortOKButton);
         okButton.setOnClickListener(v -> {
-            advancedComparator = new AdvancedComparator(dragNDropAdapter.getSelectedItems());
 //            dragNDropAdapter.printContent(); // DEBUG
-            browserAdapter.sort(advancedComparator);
+            KeyedSorter.sort(browserAdapter.objects, dragNDropAdapter.getSelectedItems());
+            browserAdapter.onObjectsChanged();
             dismiss();
         });
 
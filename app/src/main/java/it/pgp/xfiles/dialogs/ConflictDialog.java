@@ -13,7 +13,7 @@ import android.widget.Toast;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.enums.conflicthandling.ConflictDecision;
 import it.pgp.xfiles.enums.conflicthandling.ConflictType;
-import it.pgp.xfiles.utils.ProgressConflictHandler;
+import it.pgp.xfiles.utils.ConflictDecisionHolder;
 
 public class ConflictDialog extends Dialog implements View.OnClickListener {
     private final TextView srcPathTv,destPathTv;
@@ -28,7 +28,7 @@ public class ConflictDialog extends Dialog implements View.OnClickListener {
 
     private ImageView srcImage,destImage;
 
-    private final ProgressConflictHandler handler;
+    private final ConflictDecisionHolder handler;
 
     // srcType == cflType
 //    public FileConflictDialog(Context context, ConflictType cflType) {
@@ -37,7 +37,7 @@ public class ConflictDialog extends Dialog implements View.OnClickListener {
                           String srcPath,
                           ConflictType destType,
                           String destPath,
-                          ProgressConflictHandler handler) {
+                          ConflictDecisionHolder handler) {
         super(context);
         this.handler = handler;
         setCancelable(false);
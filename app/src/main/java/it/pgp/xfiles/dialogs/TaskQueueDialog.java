@@ -0,0 +1,89 @@
+package it.pgp.xfiles.dialogs;
+
+import android.app.Activity;
+import android.app.Dialog;
+import android.text.TextUtils;
+import android.text.method.ScrollingMovementMethod;
+import android.view.View;
+import android.view.Window;
+import android.widget.Button;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.List;
+
+import it.pgp.xfiles.EffectActivity;
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.R;
+import it.pgp.xfiles.adapters.TaskQueueAdapter;
+import it.pgp.xfiles.service.TaskScheduler;
+
+/**
+ * Created by pgp on 18/10/26
+ * Background tasks with their progress, and scheduling policy selection;
+ * throughput summaries of recently ended tasks at the bottom
+ */
+
+public class TaskQueueDialog extends Dialog {
+
+    public static final int REFRESH_INTERVAL = 500;
+
+    final TaskQueueAdapter adapter;
+    final TextView empty;
+    final TextView summaries; // of recently ended tasks
+    final Button policyButton;
+
+    private final Runnable refreshTick = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            MainActivity.handler.postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+
+    public TaskQueueDialog(final Activity context) {
+        super(context);
+        requestWindowFeature(Window.FEATURE_NO_TITLE);
+        setOnShowListener(d->{
+            EffectActivity.defaultDialogShowListener.onShow(d);
+            MainActivity.handler.post(refreshTick);
+        });
+        setOnDismissListener(d->{
+            MainActivity.handler.removeCallbacks(refreshTick);
+            EffectActivity.currentlyOnFocus = MainActivity.mainActivity;
+        });
+
+        setContentView(R.layout.task_queue_dialog);
+
+        empty = findViewById(R.id.task_queue_empty);
+        policyButton = findViewById(R.id.task_queue_policy);
+        summaries = findViewById(R.id.task_queue_summaries);
+        summaries.setMovementMethod(new ScrollingMovementMethod());
+        ListView lv = findViewById(R.id.task_queue_view);
+        adapter = new TaskQueueAdapter(context);
+        lv.setAdapter(adapter);
+
+        showPolicy();
+        policyButton.setOnClickListener(v->{
+            TaskScheduler.Policy[] policies = TaskScheduler.Policy.values();
+            TaskScheduler.Policy next = policies[(TaskScheduler.instance.getPolicy().ordinal()+1) % policies.length];
+            TaskScheduler.instance.setPolicy(next);
+            if (MainActivity.mainActivity != null && MainActivity.mainActivity.sharedPrefs != null)
+                MainActivity.mainActivity.sharedPrefs.edit().putString(TaskScheduler.POLICY_PREF_KEY, next.name()).apply();
+            showPolicy();
+        });
+    }
+
+    private void showPolicy() {
+        policyButton.setText("Scheduling policy: "+TaskScheduler.instance.getPolicy().name());
+    }
+
+    private void refresh() {
+        adapter.refresh();
+        empty.setVisibility(adapter.getCount() == 0 ? View.VISIBLE : View.GONE);
+        List<String> l = TaskScheduler.instance.getSummaries();
+        summaries.setVisibility(l.isEmpty() ? View.GONE : View.VISIBLE);
+        String text = TextUtils.join("\n\n", l);
+        if (!text.contentEquals(summaries.getText())) summaries.setText(text); // keep scroll position otherwise
+    }
+}
@@ -31,9 +31,9 @@ import java.util.Map;
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.R;
 import it.pgp.xfiles.service.BaseBackgroundService;
-import it.pgp.xfiles.service.BaseBackgroundTask;
 import it.pgp.xfiles.service.ExtractService;
 import it.pgp.xfiles.service.HTTPDownloadService;
+import it.pgp.xfiles.service.TaskScheduler;
 import it.pgp.xfiles.service.params.DownloadParams;
 import it.pgp.xfiles.service.params.ExtractParams;
 import it.pgp.xfiles.service.visualization.ViewType;
@@ -194,32 +194,31 @@ public class UpdateCheckDialog extends Dialog {
         final File zipFile = new File(srcArchive.dir);
         final File apkFile = new File(outDir.concat(expectedApkName).dir);
 
-        // add extract task
-        BaseBackgroundTask.nextAutoTasks.add(()->{
-            if(!zipFile.exists()) {
-                BaseBackgroundTask.nextAutoTasks.clear();
-                return;
-            }
+        final DownloadParams downloadParams = new DownloadParams(
+                latestVersionDownloadUrl,
+                Misc.internalStorageDir.getAbsolutePath(),
+                zipname,
+                true);
+        final ExtractParams extractParams = new ExtractParams(
+                Collections.singletonList(srcArchive),
+                outDir,
+                null,
+                null,
+                false
+        );
+
+        // add extract task, after download
+        TaskScheduler.instance.chain(downloadParams, ()->{
+            if(!zipFile.exists()) return;
             Intent startIntent = new Intent(activity, ExtractService.class);
             startIntent.setAction(BaseBackgroundService.START_ACTION);
-            startIntent.putExtra(
-                    "params",
-                    new ExtractParams(
-                            Collections.singletonList(srcArchive),
-                            outDir,
-                            null,
-                            null,
-                            false
-                    ));
+            startIntent.putExtra("params", extractParams);
             activity.startService(startIntent);
         });
 
-        // add install task (delete zipped apk file as well
-        BaseBackgroundTask.nextAutoTasks.add(()->{
-            if(!apkFile.exists()) {
-                BaseBackgroundTask.nextAutoTasks.clear();
-                return;
-            }
+        // add install task, after extract (delete zipped apk file as well
+        TaskScheduler.instance.chain(extractParams, ()->{
+            if(!apkFile.exists()) return;
             try {
                 MainActivity.getRootHelperClient().deleteFilesOrDirectories(Collections.singletonList(srcArchive));
             }
@@ -248,11 +247,7 @@ public class UpdateCheckDialog extends Dialog {
         // run download task, subsequent tasks will be run automatically after download end
         Intent relDownloadIntent = new Intent(activity, HTTPDownloadService.class);
         relDownloadIntent.setAction(BaseBackgroundService.START_ACTION);
-        relDownloadIntent.putExtra("params",new DownloadParams(
-                latestVersionDownloadUrl,
-                Misc.internalStorageDir.getAbsolutePath(),
-                zipname,
-                true));
+        relDownloadIntent.putExtra("params",downloadParams);
         activity.startService(relDownloadIntent);
         dismiss();
     }
@@ -28,8 +28,8 @@ import it.pgp.xfiles.enums.OutputArchiveType;
 import it.pgp.xfiles.enums.ProviderType;
 import it.pgp.xfiles.service.BaseBackgroundService;
 import it.pgp.xfiles.service.CompressService;
+import it.pgp.xfiles.service.TaskScheduler;
 import it.pgp.xfiles.service.params.CompressParams;
-import it.pgp.xfiles.service.visualization.ProgressIndicator;
 import it.pgp.xfiles.utils.FileSaveFragment;
 import it.pgp.xfiles.utils.IntentUtil;
 import it.pgp.xfiles.utils.Misc;
@@ -358,7 +358,7 @@ public class CompressActivity extends EffectActivity implements FileSaveFragment
         if (MainActivity.mainActivity == null) MainActivity.context = null;
 
         if(!standaloneMode)
-            if (MainActivity.mainActivity == null && ProgressIndicator.busy.get() == null)
+            if (MainActivity.mainActivity == null && TaskScheduler.instance.isIdle())
                 MainActivity.killRHWrapper();
     }
 }
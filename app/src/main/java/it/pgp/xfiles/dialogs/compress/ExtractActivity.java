@@ -38,6 +38,7 @@ public class ExtractActivity extends EffectActivity implements FileSelectFragmen
     String password;
 
     private EditText destDirectoryEditText;
+    private EditText workersEditText; // only enabled when extracting whole archives
 
     private BasePathContent srcArchiveWithSubDir;
 
@@ -130,17 +131,23 @@ public class ExtractActivity extends EffectActivity implements FileSelectFragmen
             // else if (idx == 1) {} // nothing to be done for no subdirectory creation
         }
 
+        ExtractParams params = new ExtractParams(
+                srcArchives != null ? srcArchives: Collections.singletonList(srcArchiveWithSubDir),
+                destDir,
+                password,
+                selectedItems,
+                smartDirectoryCreation
+        );
+        if(isWholeArchiveExtract) {
+            try {
+                params.setWorkers(Integer.parseInt(workersEditText.getText().toString()));
+            }
+            catch (NumberFormatException ignored) {} // sequential extraction
+        }
+
         Intent startIntent = new Intent(MainActivity.mainActivity,ExtractService.class);
         startIntent.setAction(BaseBackgroundService.START_ACTION);
-        startIntent.putExtra(
-                "params",
-                new ExtractParams(
-                        srcArchives != null ? srcArchives: Collections.singletonList(srcArchiveWithSubDir),
-                        destDir,
-                        password,
-                        selectedItems,
-                        smartDirectoryCreation
-                ));
+        startIntent.putExtra("params", params);
         startService(startIntent);
 
         finish();
@@ -185,9 +192,12 @@ public class ExtractActivity extends EffectActivity implements FileSelectFragmen
         destDirectoryEditText = findViewById(R.id.extractDirectoryEditText);
         destDirectoryEditText.setText(getCandidateExtractDirectory().dir);
         intermediateDirectoryPolicyRadioGroup = findViewById(R.id.intermediateDirectoryPolicyRadioGroup);
+        workersEditText = findViewById(R.id.extractWorkersEditText);
+        workersEditText.setText(String.valueOf(ExtractParams.DEFAULT_WORKERS));
         if(!isWholeArchiveExtract) {
             intermediateDirectoryPolicyRadioGroup.setVisibility(View.GONE);
             findViewById(R.id.intermediateDirectoryPolicyTextView).setVisibility(View.GONE);
+            findViewById(R.id.extractWorkersLayout).setVisibility(View.GONE);
         }
     }
 }
@@ -0,0 +1,35 @@
+package it.pgp.xfiles.enums.conflicthandling;
+
+/**
+ * Created by pgp on 18/10/26
+ * Rules for resolving copy/move conflicts without asking, chosen before starting the transfer
+ * (see {@link it.pgp.xfiles.utils.ConflictPolicyResolver}).
+ * Directory over directory conflicts are always merged, conflicts between a file and a directory
+ * are skipped, or resolved by renaming for the keep-both rules
+ */
+
+public enum ConflictPolicy {
+    ASK("Ask for each conflict"),
+    SKIP("Skip all"),
+    OVERWRITE("Overwrite all"),
+    OVERWRITE_IF_NEWER("Overwrite if source is newer, otherwise skip"),
+    SKIP_SAME_ELSE_OVERWRITE("Skip if same size and date, otherwise overwrite"),
+    SKIP_SAME_ELSE_RENAME("Skip if same size and date, otherwise keep both"),
+    SKIP_IDENTICAL_ELSE_RENAME("Skip if same content (MD5 for equal sizes), otherwise keep both"),
+    RENAME("Keep both (rename copied item)");
+
+    public static final String PREF_KEY = "CONFLICT_POLICY";
+
+    // applied to copy/move jobs created from now on
+    public static volatile ConflictPolicy selected = ASK;
+
+    public final String label;
+
+    ConflictPolicy(String label) {
+        this.label = label;
+    }
+
+    public boolean keepsBoth() {
+        return this == SKIP_SAME_ELSE_RENAME || this == SKIP_IDENTICAL_ELSE_RENAME || this == RENAME;
+    }
+}
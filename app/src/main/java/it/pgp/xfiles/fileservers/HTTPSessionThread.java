@@ -118,7 +118,7 @@ public class HTTPSessionThread extends Thread {
     private static void sendFile(InputStream in, OutputStream out)
     {
         try {
-            byte[] buffer = new byte[1000];
+            byte[] buffer = new byte[65536];
             for(;;) {
                 int readBytes = in.read(buffer);
                 if (readBytes <= 0) {
@@ -0,0 +1,22 @@
+package it.pgp.xfiles.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Read-only subset of {@link java.nio.channels.SeekableByteChannel} (which is only available from API 24),
+ * plus {@link java.nio.channels.FileChannel}-style positioned reads
+ */
+
+public interface RandomAccessReadChannel extends ReadableByteChannel {
+    long position() throws IOException;
+    RandomAccessReadChannel position(long newPosition) throws IOException;
+    long size() throws IOException;
+
+    /**
+     * Reads starting at the given file position, without changing {@link #position()}
+     * @return number of bytes read, -1 if position is at or beyond the end of file
+     */
+    int read(ByteBuffer dst, long position) throws IOException;
+}
@@ -1,11 +1,18 @@
 package it.pgp.xfiles.io;
 
+import android.content.Context;
 import android.util.Log;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import it.pgp.xfiles.MainActivity;
 
@@ -29,6 +36,122 @@ public class RobustLocalFileInputStream extends InputStream {
         }
     }
 
+    /**
+     * Random access counterpart: plain {@link FileChannel} when the file is readable in-app,
+     * block-cached channel over roothelper otherwise (no full sequential copy of the file)
+     */
+    public static RandomAccessReadChannel openRandomAccess(String path) throws IOException {
+        try {
+            return new FileChannelReader(new FileInputStream(new File(path)).getChannel());
+        }
+        catch (IOException e) {
+            Log.e("XFiles-IO", "RobustLocalFileInputStream: random access open failed in in-app mode, trying with roothelper-proxy channel...", e);
+        }
+        try {
+            return MainActivity.getRootHelperClient().openSeekableChannel(path);
+        }
+        catch (NullPointerException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static final int MAX_SEEKABLE_COPIES = 4;
+    // copies of files not readable in-app, by path, least recently used first (guarded by itself)
+    private static final LinkedHashMap<String,File> seekableCopies = new LinkedHashMap<>(8, 0.75f, true);
+    private static boolean seekableCopiesCleaned = false;
+
+    /**
+     * For consumers needing to seek within a file, which only do that on paths or descriptors
+     * (BitmapRegionDecoder and BitmapFactory read an InputStream into memory as a whole):
+     * the file itself if readable in-app, otherwise a copy in the app cache dir, streamed once through
+     * roothelper and shared by all the consumers of the same file (e.g. pooled decoders), made again
+     * if the file size changes. Evicted copies can be deleted while open, consumers keep their descriptors.
+     */
+    public static String getSeekablePath(Context context, String path) throws IOException {
+        if (new File(path).canRead()) return path;
+        File dir = new File(context.getCacheDir(), "seekableCopies");
+        synchronized (seekableCopies) {
+            if (!seekableCopiesCleaned) { // leftovers of previous processes
+                File[] old = dir.listFiles();
+                if (old != null) for (File f : old) f.delete();
+                seekableCopiesCleaned = true;
+            }
+            try (RandomAccessReadChannel src = openRandomAccess(path)) {
+                long size = src.size();
+                File copy = seekableCopies.get(path);
+                if (copy != null && copy.exists() && copy.length() == size) return copy.getPath();
+
+                if (!dir.exists() && !dir.mkdirs()) throw new IOException("Unable to create dir "+dir);
+                copy = File.createTempFile("copy", null, dir);
+                try (FileOutputStream fos = new FileOutputStream(copy); FileChannel out = fos.getChannel()) {
+                    ByteBuffer b = ByteBuffer.allocate(65536);
+                    while (src.read(b) >= 0) {
+                        b.flip();
+                        while (b.hasRemaining()) out.write(b);
+                        b.clear();
+                    }
+                }
+                catch (IOException e) {
+                    copy.delete();
+                    throw e;
+                }
+
+                File replaced = seekableCopies.put(path, copy);
+                if (replaced != null) replaced.delete();
+                Iterator<Map.Entry<String,File>> it = seekableCopies.entrySet().iterator();
+                while (seekableCopies.size() > MAX_SEEKABLE_COPIES) {
+                    it.next().getValue().delete();
+                    it.remove();
+                }
+                return copy.getPath();
+            }
+        }
+    }
+
+    static class FileChannelReader implements RandomAccessReadChannel {
+        final FileChannel fc;
+
+        FileChannelReader(FileChannel fc) {
+            this.fc = fc;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return fc.position();
+        }
+
+        @Override
+        public RandomAccessReadChannel position(long newPosition) throws IOException {
+            fc.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return fc.size();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return fc.read(dst, position);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return fc.read(dst);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return fc.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            fc.close();
+        }
+    }
+
     @Override
     public int read(byte[] b) throws IOException {
         return i.read(b);
@@ -0,0 +1,46 @@
+package it.pgp.xfiles.roothelperclient;
+
+import java.util.Arrays;
+
+/**
+ * Compact result of {@link RootHelperClient#statBatch}: attributes of the i-th requested path
+ * are at index i of the parallel arrays.
+ */
+
+public class BatchStats {
+
+    // same bits as exists_resp flags
+    public static final byte EXISTS = 1;
+    public static final byte IS_FILE = 2;
+    public static final byte IS_DIR = 4;
+
+    public final int count;
+    public final byte[] flags;
+    public final long[] size; // -1 if not requested or stat failed
+    public final long[] mtime; // seconds, -1 if not requested or stat failed
+
+    public BatchStats(int count) {
+        this.count = count;
+        flags = new byte[count];
+        size = new long[count];
+        mtime = new long[count];
+        Arrays.fill(size,-1);
+        Arrays.fill(mtime,-1);
+    }
+
+    public boolean exists(int i) {
+        return (flags[i] & EXISTS) != 0;
+    }
+
+    public boolean isFile(int i) {
+        return (flags[i] & IS_FILE) != 0;
+    }
+
+    public boolean isDir(int i) {
+        return (flags[i] & IS_DIR) != 0;
+    }
+
+    public boolean hasStats(int i) {
+        return mtime[i] >= 0;
+    }
+}
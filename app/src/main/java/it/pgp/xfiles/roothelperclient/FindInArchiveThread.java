@@ -1,10 +1,11 @@
 package it.pgp.xfiles.roothelperclient;
 
-import it.pgp.xfiles.utils.ArchiveVMap;
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.utils.ArchiveIndex;
 import it.pgp.xfiles.utils.pathcontent.ArchivePathContent;
 
 public class FindInArchiveThread extends FindUpdatesThread {
-    private final ArchiveVMap m;
+    private final ArchivePathContent archive;
     private final String namePattern;
     private final boolean recursiveSearch;
     private final boolean caseInsensitive;
@@ -16,10 +17,9 @@ public class FindInArchiveThread extends FindUpdatesThread {
 
     public FindInArchiveThread(ArchivePathContent basePath, String namePattern, boolean recursiveSearch, boolean caseInsensitive) {
         super(null);
-        this.m = RootHelperClient.archiveMRU.getByPath(basePath.archivePath,null);
-        if(this.m==null) throw new RuntimeException("archive mru item should be present at this point");
+        this.archive = basePath;
         this.namePattern = namePattern;
-        this.recursiveSearch = recursiveSearch; // if false, just retrieve the subtree map at the given path key, and loop over map keys
+        this.recursiveSearch = recursiveSearch; // if false, just loop over the children of the archive root
         this.caseInsensitive = caseInsensitive;
     }
 
@@ -30,7 +30,9 @@ public class FindInArchiveThread extends FindUpdatesThread {
     }
 
     @Override
-    protected void doFind() {
+    protected void doFind() throws Exception {
+        // the archive may still be enumerated in background, in that case wait for its complete index
+        ArchiveIndex m = MainActivity.getRootHelperClient().getArchiveIndex(archive);
         m.findInArchive(this::matchFilename,recursiveSearch?"":null);
     }
 }
@@ -22,9 +22,8 @@ public class FindUpdatesThread extends Thread {
     private static boolean onSearchItemFound(find_resp item) {
         try {
             // TODO when content search will be available, should replace BrowserItem with a subclass including content results
-            FindActivity.instance.runOnUiThread(() ->
-                    FindResultsAdapter.instance.add(new BrowserItem(item.fileItem)));
-            return true;
+            // may wait for the UI to catch up, in the meantime the RH find thread is blocked on the socket
+            return FindResultsAdapter.instance.results.add(new BrowserItem(item.fileItem));
         }
         catch (Exception e) {
             e.printStackTrace();
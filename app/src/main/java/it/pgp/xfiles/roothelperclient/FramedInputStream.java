@@ -0,0 +1,166 @@
+package it.pgp.xfiles.roothelperclient;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Input side of the RH wire codec: a {@link DataInputStream} (so that existing readers keep working)
+ * over a single reusable buffer, refilled with as many bytes as the socket has available per syscall.
+ * Little-endian protocol fields are decoded directly from the buffer, without temporary arrays.
+ *
+ * Before blocking on the socket, any pending deferred frame on the paired {@link FramedOutputStream}
+ * is sent, since the response being waited for may depend on it.
+ */
+
+public class FramedInputStream extends DataInputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    private final Buffer buf;
+
+    public FramedInputStream(InputStream raw, FramedOutputStream pairedOutput) {
+        this(raw, pairedOutput, DEFAULT_BUFFER_SIZE);
+    }
+
+    public FramedInputStream(InputStream raw, FramedOutputStream pairedOutput, int size) {
+        super(new Buffer(raw, pairedOutput, size));
+        buf = (Buffer) in;
+    }
+
+    static class Buffer extends InputStream {
+        final InputStream raw;
+        final FramedOutputStream pairedOutput;
+        final byte[] a;
+        final ByteBuffer bb;
+        int pos = 0, lim = 0;
+
+        Buffer(InputStream raw, FramedOutputStream pairedOutput, int size) {
+            this.raw = raw;
+            this.pairedOutput = pairedOutput;
+            this.a = new byte[size];
+            this.bb = ByteBuffer.wrap(a).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void flushPendingOutput() throws IOException {
+            if (pairedOutput != null) pairedOutput.flushBuffer();
+        }
+
+        // one read syscall, returns the number of bytes added, or -1 on EOF
+        int fill() throws IOException {
+            flushPendingOutput();
+            if (pos == lim) pos = lim = 0;
+            else if (lim == a.length) { // compact
+                System.arraycopy(a,pos,a,0,lim-pos);
+                lim -= pos;
+                pos = 0;
+            }
+            int n = raw.read(a,lim,a.length-lim);
+            if (n > 0) lim += n;
+            return n;
+        }
+
+        void require(int n) throws IOException {
+            if (lim - pos >= n) return;
+            if (a.length - pos < n) { // not enough room after pos
+                System.arraycopy(a,pos,a,0,lim-pos);
+                lim -= pos;
+                pos = 0;
+            }
+            while (lim - pos < n) {
+                if (fill() < 0) throw new EOFException();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == lim && fill() <= 0) return -1;
+            return a[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (pos == lim) {
+                if (len >= a.length) { // large reads bypass the buffer
+                    flushPendingOutput();
+                    return raw.read(b,off,len);
+                }
+                if (fill() <= 0) return -1;
+            }
+            int n = Math.min(len, lim - pos);
+            System.arraycopy(a,pos,b,off,n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (lim - pos) + raw.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            raw.close();
+        }
+    }
+
+    public int readUInt8() throws IOException {
+        buf.require(1);
+        return buf.a[buf.pos++] & 0xFF;
+    }
+
+    public int readUInt16LE() throws IOException {
+        buf.require(2);
+        int v = buf.bb.getShort(buf.pos) & 0xFFFF;
+        buf.pos += 2;
+        return v;
+    }
+
+    public long readUInt32LE() throws IOException {
+        buf.require(4);
+        long v = buf.bb.getInt(buf.pos) & 0xFFFFFFFFL;
+        buf.pos += 4;
+        return v;
+    }
+
+    public long readInt64LE() throws IOException {
+        buf.require(8);
+        long v = buf.bb.getLong(buf.pos);
+        buf.pos += 8;
+        return v;
+    }
+
+    /**
+     * Decodes len bytes as UTF-8 without an intermediate array, when they fit in the buffer
+     */
+    public String readUTF8(int len) throws IOException {
+        if (len > buf.a.length) {
+            byte[] b = new byte[len];
+            readFully(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+        buf.require(len);
+        String s = new String(buf.a, buf.pos, len, StandardCharsets.UTF_8);
+        buf.pos += len;
+        return s;
+    }
+
+    /**
+     * Skips len bytes, blocking until all of them are consumed
+     */
+    public void skipFully(int len) throws IOException {
+        while (len > 0) {
+            if (buf.pos == buf.lim && buf.fill() < 0) throw new EOFException();
+            int n = Math.min(len, buf.lim - buf.pos);
+            buf.pos += n;
+            len -= n;
+        }
+    }
+}
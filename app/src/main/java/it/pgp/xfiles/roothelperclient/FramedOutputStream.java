@@ -0,0 +1,179 @@
+package it.pgp.xfiles.roothelperclient;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Output side of the RH wire codec.
+ *
+ * Outside of a frame, writes go straight to the socket, exactly as before (so interleaving with
+ * native writes on the same descriptor, e.g. fd passing, keeps working).
+ * Inside a frame (opened by {@link #frame(boolean)}, used by all {@link it.pgp.xfiles.roothelperclient.reqs.BaseRHRequest}
+ * writers) everything is accumulated in a reusable buffer, with little-endian fields encoded in place,
+ * and sent with a single write when the frame is closed. A deferred frame is not sent on close,
+ * but only when its buffer fills up or right before the next read on the paired {@link FramedInputStream},
+ * so that several requests can be pipelined in one write.
+ */
+
+public class FramedOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    private final OutputStream raw;
+    private final byte[] a;
+    private final ByteBuffer bb;
+    private int pos = 0;
+    private int openFrames = 0;
+
+    public FramedOutputStream(OutputStream raw) {
+        this(raw, DEFAULT_BUFFER_SIZE);
+    }
+
+    public FramedOutputStream(OutputStream raw, int size) {
+        this.raw = raw;
+        this.a = new byte[size];
+        this.bb = ByteBuffer.wrap(a).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * View to be used in try-with-resources by request writers
+     */
+    public class Frame extends OutputStream {
+        private final boolean deferred;
+        private boolean closed = false;
+
+        Frame(boolean deferred) {
+            this.deferred = deferred;
+            openFrames++;
+        }
+
+        public FramedOutputStream owner() {
+            return FramedOutputStream.this;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            FramedOutputStream.this.write(b);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            FramedOutputStream.this.write(b,off,len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            FramedOutputStream.this.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            openFrames--;
+            // a frame nested in an outer one (e.g. requests written in a pipelined batch) is sent with it
+            if (!deferred && openFrames == 0) flushBuffer();
+        }
+    }
+
+    public Frame frame(boolean deferred) {
+        return new Frame(deferred);
+    }
+
+    private boolean buffering() {
+        return openFrames > 0 || pos > 0;
+    }
+
+    private void ensureRoom(int n) throws IOException {
+        if (a.length - pos < n) flushBuffer();
+    }
+
+    /**
+     * Sends pending buffered bytes, if any, without flushing the underlying stream
+     */
+    public void flushBuffer() throws IOException {
+        if (pos > 0) {
+            raw.write(a,0,pos);
+            pos = 0;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffering()) {
+            raw.write(b);
+            return;
+        }
+        ensureRoom(1);
+        a[pos++] = (byte) b;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        if (!buffering()) {
+            raw.write(b,off,len);
+            return;
+        }
+        if (len >= a.length) { // no point in copying large chunks
+            flushBuffer();
+            raw.write(b,off,len);
+            return;
+        }
+        ensureRoom(len);
+        System.arraycopy(b,off,a,pos,len);
+        pos += len;
+    }
+
+    public void writeUInt8(int v) throws IOException {
+        write(v);
+    }
+
+    public void writeUInt16LE(int v) throws IOException {
+        if (!buffering()) {
+            bb.putShort(0,(short) v);
+            raw.write(a,0,2);
+            return;
+        }
+        ensureRoom(2);
+        bb.putShort(pos,(short) v);
+        pos += 2;
+    }
+
+    public void writeUInt32LE(long v) throws IOException {
+        if (!buffering()) { // buffer is empty here, use it as scratch
+            bb.putInt(0,(int) v);
+            raw.write(a,0,4);
+            return;
+        }
+        ensureRoom(4);
+        bb.putInt(pos,(int) v);
+        pos += 4;
+    }
+
+    public void writeInt64LE(long v) throws IOException {
+        if (!buffering()) {
+            bb.putLong(0,v);
+            raw.write(a,0,8);
+            return;
+        }
+        ensureRoom(8);
+        bb.putLong(pos,v);
+        pos += 8;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        raw.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {flushBuffer();}
+        finally {raw.close();}
+    }
+}
@@ -0,0 +1,229 @@
+package it.pgp.xfiles.roothelperclient;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.enums.FileOpsErrorCodes;
+import it.pgp.xfiles.utils.ArchiveIndex;
+import it.pgp.xfiles.utils.StreamsPair;
+import it.pgp.xfiles.utils.dircontent.ArchiveSubDirWithContent;
+import it.pgp.xfiles.utils.dircontent.DirListingListener;
+import it.pgp.xfiles.utils.dircontent.ListingBatcher;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Archive index built on a background thread from a RH ls archive response, while browsing it.
+ *
+ * A directory listed before the enumeration ends is served from the partial index as soon as it exists
+ * (waiting at most {@link ListingBatcher#MAX_DELAY_MS} for its first entries); the view showing it can then
+ * {@link #watch} it, and gets the children found afterwards in batches, or a failure notification if
+ * the enumeration is interrupted (the content shown is then incomplete).
+ * Once complete, the index is moved to {@link RootHelperClient#archiveCache}, and operations needing
+ * the whole archive content (extract, stats, find) use {@link #await()} meanwhile; the partial index of
+ * a failed enumeration is dropped, and the archive is listed again on next access.
+ *
+ * The index structure is only modified and read under this object's lock, the builder thread
+ * blocks on the socket without holding it.
+ */
+
+public class IncrementalArchiveListing {
+
+    public static final int UPDATE_ENTRIES = 4096;
+    public static final long UPDATE_DELAY_MS = 200;
+
+    // enumerations in progress, by archive path
+    private static final Map<String,IncrementalArchiveListing> running = new HashMap<>();
+
+    public final String archivePath;
+    private final long archiveSize;
+    private final long archiveMtime;
+    private final boolean persistent; // false if the archive needed a password to be listed
+    private final ArchiveIndex index = new ArchiveIndex();
+
+    // guarded by this
+    private boolean done = false;
+    private boolean failed = false;
+
+    private static class Watcher {
+        final BasePathContent dir;
+        final String subpath;
+        final DirListingListener listener;
+        final Runnable onFailure;
+        int lastFirstChild;
+
+        Watcher(BasePathContent dir, String subpath, DirListingListener listener, Runnable onFailure, int lastFirstChild) {
+            this.dir = dir;
+            this.subpath = subpath;
+            this.listener = listener;
+            this.onFailure = onFailure;
+            this.lastFirstChild = lastFirstChild;
+        }
+    }
+
+    // by key (e.g. browser page), so that a view watches only the last directory it has shown
+    private final Map<Object,Watcher> watchers = new HashMap<>();
+
+    private IncrementalArchiveListing(String archivePath, long archiveSize, long archiveMtime, boolean persistent) {
+        this.archivePath = archivePath;
+        this.archiveSize = archiveSize;
+        this.archiveMtime = archiveMtime;
+        this.persistent = persistent;
+    }
+
+    /**
+     * @return the enumeration in progress for the given archive version, if any
+     */
+    public static IncrementalArchiveListing getRunning(String archivePath, long archiveSize, long archiveMtime) {
+        synchronized (running) {
+            IncrementalArchiveListing l = running.get(archivePath);
+            return (l != null && l.archiveSize == archiveSize && l.archiveMtime == archiveMtime) ? l : null;
+        }
+    }
+
+    // regardless of archive version, for operations performed while browsing it
+    public static IncrementalArchiveListing getRunning(String archivePath) {
+        synchronized (running) {
+            return running.get(archivePath);
+        }
+    }
+
+    /**
+     * Starts consuming the ls archive response entries on rs, which is owned (and closed) by the builder thread
+     * from now on. The base response must have already been received.
+     * @param persistent whether the complete index can be stored in the disk tier of the archive cache
+     */
+    public static IncrementalArchiveListing start(String archivePath, long archiveSize, long archiveMtime, boolean persistent, StreamsPair rs) {
+        IncrementalArchiveListing l = new IncrementalArchiveListing(archivePath, archiveSize, archiveMtime, persistent);
+        synchronized (running) {
+            running.put(archivePath, l);
+        }
+        new Thread(() -> l.enumerate(rs)).start();
+        return l;
+    }
+
+    private void enumerate(StreamsPair rs) {
+        boolean ok = false;
+        try (StreamsPair s = rs) {
+            int sinceUpdate = 0;
+            long lastUpdate = SystemClock.uptimeMillis();
+            while (index.readNext(s.i)) {
+                synchronized (this) {
+                    index.addPending();
+                }
+                if (++sinceUpdate >= UPDATE_ENTRIES || SystemClock.uptimeMillis() - lastUpdate >= UPDATE_DELAY_MS) {
+                    synchronized (this) {
+                        notifyWatchers();
+                        notifyAll();
+                    }
+                    sinceUpdate = 0;
+                    lastUpdate = SystemClock.uptimeMillis();
+                }
+            }
+            ok = true;
+        }
+        catch (IOException e) {
+            Log.e(getClass().getName(), "Archive listing interrupted for "+archivePath, e);
+        }
+
+        synchronized (this) {
+            if (ok) index.trim();
+            notifyWatchers();
+            if (!ok) for (Watcher w : watchers.values()) w.onFailure.run();
+            watchers.clear();
+            done = true;
+            failed = !ok;
+            notifyAll();
+        }
+
+        synchronized (running) {
+            if (running.get(archivePath) != this) return; // superseded by a listing of a newer archive version
+            running.remove(archivePath);
+            if (ok) RootHelperClient.archiveCache.put(archivePath, archiveSize, archiveMtime, index, persistent);
+        }
+    }
+
+    private void notifyWatchers() {
+        for (Watcher w : watchers.values()) notifyWatcher(w);
+    }
+
+    private void notifyWatcher(Watcher w) {
+        int node = index.find(w.subpath);
+        if (node == ArchiveIndex.NONE) return;
+        List<BrowserItem> added = index.listChildrenAddedAfter(node, w.lastFirstChild);
+        w.lastFirstChild = index.getFirstChild(node);
+        if (!added.isEmpty()) w.listener.onBatch(w.dir, added);
+    }
+
+    /**
+     * Lists subpath from the partial index, as soon as it exists and had some time to be populated,
+     * or from the complete one if the enumeration ends meanwhile
+     * @return {@link FileOpsErrorCodes#COMMANDER_CANNOT_ACCESS} if the enumeration has failed
+     */
+    public synchronized ArchiveSubDirWithContent snapshot(String subpath) {
+        long deadline = SystemClock.uptimeMillis() + ListingBatcher.MAX_DELAY_MS;
+        int node;
+        for (;;) {
+            node = index.find(subpath);
+            long remaining = deadline - SystemClock.uptimeMillis();
+            if (done || (node != ArchiveIndex.NONE && remaining <= 0)) break;
+            try {
+                wait(remaining > 0 ? remaining : UPDATE_DELAY_MS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (done && failed)
+            return new ArchiveSubDirWithContent(archivePath, FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
+        if (node == ArchiveIndex.NONE) // not present in archive (or waiting interrupted)
+            return new ArchiveSubDirWithContent(archivePath, subpath, new ArrayList<>());
+        ArchiveSubDirWithContent content = new ArchiveSubDirWithContent(archivePath, subpath, index.listChildren(node));
+        if (!done) {
+            content.pendingListing = this;
+            content.listedFirstChild = index.getFirstChild(node);
+        }
+        return content;
+    }
+
+    /**
+     * Delivers to listener, in batches, the children of a directory listed by {@link #snapshot(String)}
+     * found after that listing; a previous watcher with the same key is replaced.
+     * onFailure is run if the enumeration fails instead of completing.
+     * Both are called with this object's lock held, so they should just post elsewhere.
+     */
+    public synchronized void watch(Object key, BasePathContent dir, ArchiveSubDirWithContent listed,
+                                   DirListingListener listener, Runnable onFailure) {
+        Watcher w = new Watcher(dir, listed.dir, listener, onFailure, listed.listedFirstChild);
+        notifyWatcher(w); // children arrived between snapshot and watch
+        if (!done) watchers.put(key, w);
+        else if (failed) onFailure.run();
+    }
+
+    /**
+     * Blocks until the enumeration ends
+     * @return the complete index, or null if the enumeration failed
+     */
+    public synchronized ArchiveIndex await() throws IOException {
+        while (!done) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for archive listing", e);
+            }
+        }
+        return failed ? null : index;
+    }
+}
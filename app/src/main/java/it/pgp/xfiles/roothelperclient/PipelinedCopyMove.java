@@ -0,0 +1,439 @@
+package it.pgp.xfiles.roothelperclient;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.CopyMoveListPathContent;
+import it.pgp.xfiles.enums.CopyMoveMode;
+import it.pgp.xfiles.enums.FileMode;
+import it.pgp.xfiles.enums.ServiceStatus;
+import it.pgp.xfiles.service.visualization.ProgressCounters;
+import it.pgp.xfiles.service.visualization.ThroughputEstimator;
+import it.pgp.xfiles.utils.ConflictPolicyResolver;
+import it.pgp.xfiles.utils.ProgressConflictHandler;
+import it.pgp.xfiles.utils.StreamsPair;
+import it.pgp.xfiles.utils.TransferJournal;
+import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Local copy through roothelper with scan and transfer pipelined, optionally checkpointed in a {@link TransferJournal}.
+ *
+ * The selection is expanded client-side into single file pairs: a scanner thread walks the source trees
+ * (creating destination directories before their children are listed) and hands files over in batches to the
+ * calling thread, which sends each batch to roothelper as a separate request while the scan goes on,
+ * instead of waiting for roothelper to count the whole selection before the first byte is copied.
+ * The first batch is small, so that data starts flowing right away, later ones grow up to
+ * {@link #MAX_BATCH_FILES} files or {@link #MAX_BATCH_BYTES} bytes; the job total grows as files are found,
+ * and is flagged as pending in the task's progress counters until the scan completes.
+ * Without a journal, directories already existing at destination are not expanded, but sent as a whole,
+ * so that roothelper prompts for them (merge, rename...) as for a non-pipelined copy.
+ *
+ * With a journal ({@link #plan}, {@link #resume}), each item found is recorded, as well as each completed file.
+ * On resume the trees are walked again, files recorded as done are checked against their source
+ * (size, modification time, optionally MD5) and only the remaining ones are transferred.
+ * Journaled moves record only top-level items, since each one is moved at once.
+ */
+
+public class PipelinedCopyMove {
+
+    public static final int FIRST_BATCH_FILES = 16;
+    public static final int MAX_BATCH_FILES = 1024;
+    public static final long MAX_BATCH_BYTES = 64*1024*1024;
+    public static final int QUEUE_CAPACITY = 4; // batches ready while the current one is transferred
+
+    // a file found by the scan, with source and destination attributes as of now
+    private static final class Item {
+        final int idx; // in the journal, -1 if not journaled
+        final String relPath;
+        final long size, mtime;
+        final boolean destExists;
+        final long destSize;
+
+        Item(int idx, String relPath, long size, long mtime, boolean destExists, long destSize) {
+            this.idx = idx;
+            this.relPath = relPath;
+            this.size = size;
+            this.mtime = mtime;
+            this.destExists = destExists;
+            this.destSize = destSize;
+        }
+    }
+
+    private static final List<Item> END = new ArrayList<>();
+
+    private final RootHelperClient rh;
+    public final TransferJournal journal; // null if not resumable
+    private final boolean verifyChecksum;
+    private final CopyMoveMode mode;
+    private final String srcParent, destDir;
+    private final List<BrowserItem> topLevel;
+
+    private final BlockingQueue<List<Item>> batches = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile boolean stopped = false; // transfer side has ended, scanner must not wait for it
+    private volatile IOException scanError;
+    private volatile boolean scanComplete = false;
+
+    // scanner thread only, read by the transfer side after it has ended
+    private final BitSet seen = new BitSet(); // entries found by this run's scan
+    private List<Item> pending = new ArrayList<>();
+    private long pendingBytes = 0;
+    private int batchLimit = FIRST_BATCH_FILES;
+    // files found by the scan, plus what roothelper counted in directories sent as a whole
+    private final AtomicLong knownBytes = new AtomicLong();
+
+    private PipelinedCopyMove(RootHelperClient rh, TransferJournal journal, boolean verifyChecksum) {
+        this.rh = rh;
+        this.journal = journal;
+        this.verifyChecksum = verifyChecksum;
+        mode = journal.mode;
+        srcParent = journal.srcParent;
+        destDir = journal.destDir;
+        topLevel = journal.topLevel;
+    }
+
+    private PipelinedCopyMove(RootHelperClient rh, CopyMoveListPathContent files, BasePathContent dstFolder) {
+        if (files.copyOrMove != CopyMoveMode.COPY) throw new RuntimeException("Guard block");
+        this.rh = rh;
+        journal = null;
+        verifyChecksum = false;
+        mode = files.copyOrMove;
+        srcParent = files.parentDir.dir;
+        destDir = dstFolder.dir;
+        topLevel = files.files;
+    }
+
+    /**
+     * Copy without journal, nothing is left to resume if interrupted
+     */
+    public static PipelinedCopyMove copy(RootHelperClient rh, CopyMoveListPathContent files, BasePathContent dstFolder) {
+        return new PipelinedCopyMove(rh, files, dstFolder);
+    }
+
+    /**
+     * Only the selection is stored here, items are recorded while the job runs
+     */
+    public static PipelinedCopyMove plan(RootHelperClient rh, File journalDir,
+                                         CopyMoveListPathContent files, BasePathContent dstFolder) throws IOException {
+        return new PipelinedCopyMove(rh, TransferJournal.create(journalDir, files.copyOrMove, files.parentDir.dir, dstFolder.dir,
+                files.files), false);
+    }
+
+    public static PipelinedCopyMove resume(RootHelperClient rh, File journalFile, boolean verifyChecksum) throws IOException {
+        return new PipelinedCopyMove(rh, TransferJournal.open(journalFile), verifyChecksum);
+    }
+
+    private static boolean isDir(BrowserItem b) {
+        return b.isDirectory != null && b.isDirectory && (b.isLink == null || !b.isLink);
+    }
+
+    private static TransferJournal.Entry entryOf(String relPath, BrowserItem b, boolean destExists) {
+        byte flags = isDir(b) ? TransferJournal.FLAG_DIR : 0;
+        if (destExists) flags |= TransferJournal.FLAG_DEST_EXISTED;
+        return new TransferJournal.Entry(relPath,
+                isDir(b) || b.size == null ? 0 : b.size,
+                b.date == null ? 0 : b.date.getTime()/1000,
+                flags);
+    }
+
+    private boolean isCancelled() {
+        return stopped || (rh.task != null && rh.task.status == ServiceStatus.CANCELLED);
+    }
+
+    /**
+     * Transfers all items not yet recorded as done; the journal, if any, is deleted once all of them are,
+     * otherwise it's left on disk for a later resume
+     */
+    public void run() throws IOException {
+        if (journal == null) {
+            runCopy();
+            return;
+        }
+        try {
+            boolean complete = (mode == CopyMoveMode.COPY) ? runCopy() : runMove();
+            if (complete) journal.delete();
+        }
+        finally {
+            journal.close();
+        }
+    }
+
+    private boolean runCopy() throws IOException {
+        ProgressCounters progress = rh.task == null ? null : rh.task.progress;
+        if (progress != null) {
+            progress.reset();
+            progress.setTotalPending(true);
+            progress.throughput.enterPhase(ThroughputEstimator.Phase.SCAN);
+        }
+        ConflictPolicyResolver resolver = new ConflictPolicyResolver(rh.conflictPolicy, rh);
+        Thread scanner = new Thread(this::scanLoop, "PipelinedCopyMove scan");
+        scanner.start();
+
+        try {
+            long base = 0; // bytes of the job handled by previous batches
+            for (;;) {
+                List<Item> batch = takeBatch();
+                if (batch == END) break;
+                base += transferBatch(batch, resolver, base);
+            }
+        }
+        finally {
+            stopped = true;
+            batches.clear(); // unblock the scanner, if waiting for room
+            for (;;) {
+                try {
+                    scanner.join();
+                    break;
+                }
+                catch (InterruptedException ignored) {}
+            }
+            if (progress != null) progress.setTotalPending(false);
+            ProgressConflictHandler.reportConflicts(resolver, CopyMoveMode.COPY);
+        }
+
+        if (scanError != null) throw scanError;
+        if (!scanComplete) return false;
+        if (journal == null) return true;
+        for (int k = seen.nextSetBit(0); k >= 0; k = seen.nextSetBit(k+1))
+            if (!journal.getEntry(k).isDir() && !journal.isDone(k)) return false;
+        return true;
+    }
+
+    private List<Item> takeBatch() throws IOException {
+        for (;;) {
+            if (isCancelled()) throw new IOException("Copy cancelled");
+            try {
+                List<Item> batch = batches.poll(200, TimeUnit.MILLISECONDS);
+                if (batch != null) return batch;
+            }
+            catch (InterruptedException ignored) {}
+        }
+    }
+
+    /**
+     * @return bytes of the batch, as found by the scan or as counted by roothelper, if more
+     */
+    private long transferBatch(List<Item> batch, ConflictPolicyResolver resolver, long base) throws IOException {
+        List<Integer> todo = new ArrayList<>(batch.size());
+        List<String> srcs = new ArrayList<>(batch.size());
+        List<String> dests = new ArrayList<>(batch.size());
+        long batchBytes = 0, doneBytes = 0;
+        for (Item it : batch) {
+            batchBytes += it.size;
+            if (journal == null) {
+                srcs.add(srcParent+"/"+it.relPath);
+                dests.add(destDir+"/"+it.relPath);
+                continue;
+            }
+            if (journal.isDone(it.idx) && !isStillDone(it)) {
+                Log.d(getClass().getName(), "Transferring again "+journal.getSrc(it.idx));
+                journal.clearDone(it.idx);
+            }
+            if (journal.isDone(it.idx)) {
+                doneBytes += it.size;
+                continue;
+            }
+
+            // leftover of an interrupted transfer of this same job, replaced without asking;
+            // files that were already there before the job go through conflict resolution as usual
+            if (it.destExists && !journal.getEntry(it.idx).destExisted())
+                rh.deleteFilesOrDirectories(Arrays.asList(new LocalPathContent(journal.getDest(it.idx))));
+            todo.add(it.idx);
+            srcs.add(journal.getSrc(it.idx));
+            dests.add(journal.getDest(it.idx));
+        }
+
+        if (rh.task != null && doneBytes > 0)
+            rh.task.progress.set(base+doneBytes, rh.task.progress.getOuterTotal(), 0, 1);
+        if (srcs.isEmpty()) return batchBytes;
+
+        final int[] cursor = {0};
+        long counted = rh.copyMoveBatch(srcs, dests, CopyMoveMode.COPY, journal == null ? null : (count, skipped) -> {
+            for (long c=0; c<count && cursor[0]<todo.size(); c++)
+                journal.markDone(todo.get(cursor[0]++), skipped);
+        }, resolver, base+doneBytes);
+
+        // content of directories sent as a whole was not known to the scan
+        long unknown = counted - (batchBytes - doneBytes);
+        if (unknown > 0) {
+            batchBytes += unknown;
+            long total = knownBytes.addAndGet(unknown);
+            if (rh.task != null) rh.task.progress.setOuterTotal(total);
+        }
+        return batchBytes;
+    }
+
+    private boolean isStillDone(Item it) throws IOException {
+        TransferJournal.Entry e = journal.getEntry(it.idx);
+        if (!it.destExists) return false;
+        if (journal.isSkipped(it.idx)) return true; // conflict resolved by keeping the existing destination
+        if (it.size != e.size || it.mtime != e.mtime) return false; // source modified meanwhile
+        if (it.destSize != e.size) return false;
+        if (!verifyChecksum) return true;
+        StreamsPair transfer = rh.rs; // hashFile exposes its own connection there
+        try {
+            byte[] a = rh.hashFile(new LocalPathContent(journal.getSrc(it.idx)), HashRequestCodes.md5, new BitSet(4));
+            byte[] b = rh.hashFile(new LocalPathContent(journal.getDest(it.idx)), HashRequestCodes.md5, new BitSet(4));
+            return a != null && Arrays.equals(a, b);
+        }
+        finally {
+            rh.rs = transfer;
+        }
+    }
+
+    /////////////////////////////// scanner thread ///////////////////////////////
+
+    private void scanLoop() {
+        try {
+            if (scan()) {
+                if (journal != null) journal.markScanComplete();
+                flush();
+                scanComplete = true;
+                if (rh.task != null) rh.task.progress.setTotalPending(false);
+            }
+        }
+        catch (IOException e) {
+            scanError = e;
+        }
+        finally {
+            put(END);
+        }
+    }
+
+    /**
+     * Depth-first, pre-order walk of the selection
+     * @return false if interrupted by cancellation
+     */
+    private boolean scan() throws IOException {
+        Deque<String> dirs = new ArrayDeque<>(); // relative paths of directories still to be listed
+        addItems("", topLevel, dirs);
+        while (!dirs.isEmpty()) {
+            if (isCancelled()) return false;
+            String relPath = dirs.pop();
+            GenericDirWithContent l = rh.listDirectory(new LocalPathContent(srcParent+"/"+relPath));
+            if (l.errorCode != null) throw new IOException("Unable to list "+srcParent+"/"+relPath+": "+l.errorCode);
+            addItems(relPath+"/", l.content, dirs);
+            // don't keep the transfer side waiting for a full batch while the scan is slow
+            if (batches.isEmpty()) flush();
+        }
+        return !isCancelled();
+    }
+
+    private void addItems(String relPrefix, List<BrowserItem> items, Deque<String> dirs) throws IOException {
+        if (items.isEmpty()) return;
+        List<String> dests = new ArrayList<>(items.size());
+        for (BrowserItem b : items) dests.add(destDir+"/"+relPrefix+b.filename);
+        BatchStats st = rh.statBatch(dests, true);
+
+        for (int k=0; k<items.size(); k++) {
+            BrowserItem b = items.get(k);
+            String relPath = relPrefix+b.filename;
+            TransferJournal.Entry e = entryOf(relPath, b, st.exists(k));
+            if (journal == null && e.isDir() && st.exists(k)) { // conflict left to roothelper, see class doc
+                pending.add(new Item(-1, relPath, 0, e.mtime, true, -1));
+                if (pending.size() >= batchLimit) flush();
+                continue;
+            }
+            int idx = -1;
+            if (journal != null) {
+                idx = journal.indexOf(relPath);
+                if (idx < 0) idx = journal.appendEntry(e);
+                seen.set(idx);
+            }
+
+            if (e.isDir()) {
+                if (!st.exists(k)) rh.createFileOrDirectory(new LocalPathContent(dests.get(k)), FileMode.DIRECTORY);
+                dirs.push(relPath);
+                continue;
+            }
+            long total = knownBytes.addAndGet(e.size);
+            if (rh.task != null) rh.task.progress.setOuterTotal(total);
+            pending.add(new Item(idx, relPath, e.size, e.mtime, st.exists(k), st.size[k]));
+            pendingBytes += e.size;
+            if (pending.size() >= batchLimit || pendingBytes >= MAX_BATCH_BYTES) flush();
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) return;
+        put(pending);
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        batchLimit = Math.min(batchLimit*4, MAX_BATCH_FILES);
+    }
+
+    private void put(List<Item> batch) {
+        while (!stopped) {
+            try {
+                if (batches.offer(batch, 200, TimeUnit.MILLISECONDS)) return;
+            }
+            catch (InterruptedException ignored) {}
+        }
+    }
+
+    /////////////////////////////// move ///////////////////////////////
+
+    private boolean runMove() throws IOException {
+        if (!journal.isScanComplete()) {
+            // record top-level items not recorded yet (all of them, unless killed while doing this)
+            List<String> dests = new ArrayList<>();
+            for (BrowserItem b : journal.topLevel) dests.add(journal.destDir+"/"+b.filename);
+            BatchStats st = rh.statBatch(dests, false);
+            for (int k=0; k<journal.topLevel.size(); k++) {
+                BrowserItem b = journal.topLevel.get(k);
+                if (journal.indexOf(b.filename) < 0) journal.appendEntry(entryOf(b.filename, b, st.exists(k)));
+            }
+            journal.markScanComplete();
+        }
+
+        int n = journal.size();
+        List<String> srcs = new ArrayList<>(n);
+        List<String> dests = new ArrayList<>(n);
+        for (int k=0; k<n; k++) {
+            srcs.add(journal.getSrc(k));
+            dests.add(journal.getDest(k));
+        }
+
+        BatchStats srcSt = rh.statBatch(srcs, false);
+        BatchStats destSt = rh.statBatch(dests, false);
+
+        List<String> s = new ArrayList<>();
+        List<String> d = new ArrayList<>();
+        List<Integer> todo = new ArrayList<>();
+        for (int k=0; k<n; k++) {
+            if (journal.isDone(k)) continue;
+            // moved before the interruption, but not recorded yet
+            if (!srcSt.exists(k) && destSt.exists(k)) journal.markDone(k, false);
+            else {
+                todo.add(k);
+                s.add(srcs.get(k));
+                d.add(dests.get(k));
+            }
+        }
+
+        if (!todo.isEmpty()) {
+            final int[] cursor = {0};
+            rh.copyMovePairs(s, d, CopyMoveMode.MOVE, (count, skipped) -> {
+                for (long c=0; c<count && cursor[0]<todo.size(); c++)
+                    journal.markDone(todo.get(cursor[0]++), skipped);
+            });
+        }
+        return journal.allDone();
+    }
+}
@@ -0,0 +1,98 @@
+package it.pgp.xfiles.roothelperclient;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import it.pgp.xfiles.io.FlushingBufferedOutputStream;
+import it.pgp.xfiles.utils.Misc;
+
+/**
+ * Entry points of the RH wire codec for request writers and response readers.
+ * They use the buffered fast paths when the streams are {@link FramedInputStream}/{@link FramedOutputStream}
+ * (RH local and remote client connections), and fall back to plain stream operations otherwise.
+ */
+
+public class RHCodec {
+
+    /**
+     * Output stream to be used (and closed) by a request writer: on framed connections
+     * the whole request is encoded in the connection buffer and sent with one write on close
+     */
+    public static OutputStream frame(OutputStream o) {
+        if (o instanceof FramedOutputStream) return ((FramedOutputStream) o).frame(false);
+        return new FlushingBufferedOutputStream(o);
+    }
+
+    /**
+     * Like {@link #frame(OutputStream)}, but on framed connections the request is not sent on close,
+     * so that more requests can be appended and sent together (at the latest, before the next read)
+     */
+    public static OutputStream deferredFrame(OutputStream o) {
+        if (o instanceof FramedOutputStream) return ((FramedOutputStream) o).frame(true);
+        return new FlushingBufferedOutputStream(o);
+    }
+
+    public static int readUInt8(DataInputStream i) throws IOException {
+        if (i instanceof FramedInputStream) return ((FramedInputStream) i).readUInt8();
+        return i.readUnsignedByte();
+    }
+
+    public static int readUInt16(DataInputStream i) throws IOException {
+        if (i instanceof FramedInputStream) return ((FramedInputStream) i).readUInt16LE();
+        byte[] b = new byte[2];
+        i.readFully(b);
+        return (int) Misc.castBytesToUnsignedNumber(b,2);
+    }
+
+    public static long readUInt32(DataInputStream i) throws IOException {
+        if (i instanceof FramedInputStream) return ((FramedInputStream) i).readUInt32LE();
+        byte[] b = new byte[4];
+        i.readFully(b);
+        return Misc.castBytesToUnsignedNumber(b,4);
+    }
+
+    public static long readInt64(DataInputStream i) throws IOException {
+        if (i instanceof FramedInputStream) return ((FramedInputStream) i).readInt64LE();
+        byte[] b = new byte[8];
+        i.readFully(b);
+        return Misc.castBytesToUnsignedNumber(b,8);
+    }
+
+    public static String readUTF8(DataInputStream i, int len) throws IOException {
+        if (i instanceof FramedInputStream) return ((FramedInputStream) i).readUTF8(len);
+        byte[] b = new byte[len];
+        i.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    public static void skipFully(DataInputStream i, int len) throws IOException {
+        if (i instanceof FramedInputStream) ((FramedInputStream) i).skipFully(len);
+        else i.readFully(new byte[len]);
+    }
+
+    private static FramedOutputStream framed(OutputStream o) {
+        if (o instanceof FramedOutputStream) return (FramedOutputStream) o;
+        if (o instanceof FramedOutputStream.Frame) return ((FramedOutputStream.Frame) o).owner();
+        return null;
+    }
+
+    public static void writeUInt16(OutputStream o, int v) throws IOException {
+        FramedOutputStream fo = framed(o);
+        if (fo != null) fo.writeUInt16LE(v);
+        else o.write(Misc.castUnsignedNumberToBytes(v,2));
+    }
+
+    public static void writeUInt32(OutputStream o, long v) throws IOException {
+        FramedOutputStream fo = framed(o);
+        if (fo != null) fo.writeUInt32LE(v);
+        else o.write(Misc.castUnsignedNumberToBytes(v,4));
+    }
+
+    public static void writeInt64(OutputStream o, long v) throws IOException {
+        FramedOutputStream fo = framed(o);
+        if (fo != null) fo.writeInt64LE(v);
+        else o.write(Misc.castUnsignedNumberToBytes(v,8));
+    }
+}
@@ -0,0 +1,141 @@
+package it.pgp.xfiles.roothelperclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link java.nio.channels.FileChannel}-like access to a file opened through RH, in read or write mode
+ * (RH file streams are sequential, so position only tracks the bytes transferred so far).
+ *
+ * Heap buffers are filled/drained directly from/into their backing arrays, direct buffers go through
+ * a single scratch array reused for the whole life of the channel.
+ */
+
+public class RHFileChannel implements ReadableByteChannel, WritableByteChannel {
+
+    public static final int TRANSFER_CHUNK_SIZE = 1048576;
+
+    private final InputStream in;
+    private final OutputStream out;
+    private byte[] scratch;
+    private long position = 0;
+    private boolean open = true;
+
+    RHFileChannel(RootHelperClient.RHInputStream in) {
+        this.in = in;
+        this.out = null;
+    }
+
+    RHFileChannel(RootHelperClient.RHOutputStream out) {
+        this.in = null;
+        this.out = out;
+    }
+
+    private byte[] scratch() {
+        if (scratch == null) scratch = new byte[TRANSFER_CHUNK_SIZE];
+        return scratch;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) throw new ClosedChannelException();
+    }
+
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (in == null) throw new NonReadableChannelException();
+        if (!dst.hasRemaining()) return 0;
+        int n;
+        if (dst.hasArray()) {
+            n = in.read(dst.array(), dst.arrayOffset()+dst.position(), dst.remaining());
+            if (n > 0) dst.position(dst.position()+n);
+        }
+        else {
+            byte[] b = scratch();
+            n = in.read(b, 0, Math.min(b.length, dst.remaining()));
+            if (n > 0) dst.put(b, 0, n);
+        }
+        if (n > 0) position += n;
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        if (out == null) throw new NonWritableChannelException();
+        int n = src.remaining();
+        if (src.hasArray()) {
+            out.write(src.array(), src.arrayOffset()+src.position(), n);
+            src.position(src.limit());
+        }
+        else {
+            byte[] b = scratch();
+            for (int left = n; left > 0;) {
+                int chunk = Math.min(b.length, left);
+                src.get(b, 0, chunk);
+                out.write(b, 0, chunk);
+                left -= chunk;
+            }
+        }
+        position += n;
+        return n;
+    }
+
+    /**
+     * Copies the remaining file content (read mode) to target, in chunks of {@link #TRANSFER_CHUNK_SIZE}
+     * @return number of bytes transferred
+     */
+    public long transferTo(OutputStream target) throws IOException {
+        ensureOpen();
+        if (in == null) throw new NonReadableChannelException();
+        byte[] b = scratch();
+        long total = 0;
+        for (int n; (n = in.read(b, 0, b.length)) > 0;) {
+            target.write(b, 0, n);
+            total += n;
+        }
+        position += total;
+        return total;
+    }
+
+    /**
+     * Writes all the content of source to the file (write mode)
+     * @return number of bytes transferred
+     */
+    public long transferFrom(InputStream source) throws IOException {
+        ensureOpen();
+        if (out == null) throw new NonWritableChannelException();
+        byte[] b = scratch();
+        long total = 0;
+        for (int n; (n = source.read(b, 0, b.length)) > 0;) {
+            out.write(b, 0, n);
+            total += n;
+        }
+        position += total;
+        return total;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        open = false;
+        if (in != null) in.close();
+        else out.close();
+    }
+}
@@ -0,0 +1,188 @@
+package it.pgp.xfiles.roothelperclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import it.pgp.xfiles.io.RandomAccessReadChannel;
+import it.pgp.xfiles.items.SingleStatsItem;
+import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
+
+/**
+ * Random access to a file only roothelper can open.
+ *
+ * RH file streams are sequential only, so reads are served from an LRU cache of fixed-size blocks,
+ * filled from one open read stream (the cursor): on a miss, the cursor is advanced up to the missing block
+ * (or reopened from the start, for a backward seek), and the block is read together with
+ * {@link #READ_AHEAD_BLOCKS} following ones. Forward and local accesses (typical of image region decoders
+ * and archive directory readers) thus cost at most one streaming pass over the file, never a full copy.
+ */
+
+public class RHSeekableChannel implements RandomAccessReadChannel {
+
+    public static final int BLOCK_SIZE = 65536;
+    public static final int MAX_CACHED_BLOCKS = 64; // 4 MiB
+    public static final int READ_AHEAD_BLOCKS = 3;
+
+    private final RootHelperClient rhc;
+    private final String path;
+    private final long size;
+
+    private InputStream cursor;
+    private long cursorBlock; // index of the next block the cursor will read
+
+    private long position = 0;
+    private boolean open = true;
+
+    private final ArrayDeque<byte[]> spareBlocks = new ArrayDeque<>();
+    private final LinkedHashMap<Long,byte[]> cache = new LinkedHashMap<Long,byte[]>(MAX_CACHED_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long,byte[]> eldest) {
+            if (size() <= MAX_CACHED_BLOCKS) return false;
+            if (eldest.getValue().length == BLOCK_SIZE) spareBlocks.push(eldest.getValue());
+            return true;
+        }
+    };
+
+    // metrics
+    public long hits, misses, reopens;
+
+    public RHSeekableChannel(RootHelperClient rhc, String path) throws IOException {
+        this.rhc = rhc;
+        this.path = path;
+        SingleStatsItem st = rhc.statFile(new LocalPathContent(path));
+        if (st == null) throw new IOException("Unable to stat "+path);
+        this.size = st.size;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) throw new ClosedChannelException();
+    }
+
+    private void closeCursor() {
+        if (cursor == null) return;
+        try {cursor.close();}
+        catch (IOException ignored) {}
+        cursor = null;
+    }
+
+    private byte[] newBlock() {
+        byte[] b = spareBlocks.poll();
+        return b != null ? b : new byte[BLOCK_SIZE];
+    }
+
+    // reads the next block from the cursor, the last one of the file may be shorter
+    private byte[] readBlockFromCursor(byte[] b) throws IOException {
+        int off = 0;
+        while (off < b.length) {
+            int n = cursor.read(b, off, b.length - off);
+            if (n <= 0) break;
+            off += n;
+        }
+        cursorBlock++;
+        if (off == b.length) return b;
+        if (off == 0) throw new IOException("Unexpected end of file "+path+" at block "+(cursorBlock-1));
+        byte[] tail = new byte[off];
+        System.arraycopy(b,0,tail,0,off);
+        return tail;
+    }
+
+    private byte[] getBlock(long idx) throws IOException {
+        byte[] b = cache.get(idx);
+        if (b != null) {
+            hits++;
+            return b;
+        }
+        misses++;
+
+        if (cursor == null || cursorBlock > idx) { // backward seek, restart from file begin
+            closeCursor();
+            cursor = rhc.getInputStream(path);
+            cursorBlock = 0;
+            reopens++;
+        }
+
+        // advance to the target block, reusing one buffer for skipped blocks
+        byte[] skipBuffer = null;
+        while (cursorBlock < idx) {
+            byte[] cached = cache.get(cursorBlock);
+            if (skipBuffer == null) skipBuffer = newBlock();
+            readBlockFromCursor(cached != null && cached.length == BLOCK_SIZE ? cached : skipBuffer);
+        }
+        if (skipBuffer != null) spareBlocks.push(skipBuffer);
+
+        long lastBlock = (size - 1) / BLOCK_SIZE;
+        long end = Math.min(lastBlock, idx + READ_AHEAD_BLOCKS);
+        byte[] ret = null;
+        while (cursorBlock <= end) {
+            long k = cursorBlock;
+            byte[] existing = cache.get(k);
+            byte[] blk = readBlockFromCursor(existing != null && existing.length == BLOCK_SIZE ? existing : newBlock());
+            cache.put(k, blk);
+            if (k == idx) ret = blk;
+        }
+        if (cursorBlock > lastBlock) closeCursor(); // whole file read, nothing more to stream
+        return ret;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        ensureOpen();
+        if (position < 0) throw new IllegalArgumentException("Negative position");
+        if (position >= size) return -1;
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            byte[] b = getBlock(position / BLOCK_SIZE);
+            int off = (int) (position % BLOCK_SIZE);
+            int n = Math.min(dst.remaining(), b.length - off);
+            dst.put(b, off, n);
+            position += n;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int n = read(dst, position);
+        if (n > 0) position += n;
+        return n;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized RandomAccessReadChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("Negative position");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        closeCursor();
+        cache.clear();
+        spareBlocks.clear();
+    }
+}
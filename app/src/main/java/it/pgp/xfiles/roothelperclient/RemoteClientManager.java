@@ -25,7 +25,6 @@ import it.pgp.xfiles.service.BaseBackgroundTask;
 import it.pgp.xfiles.service.NonInteractiveXFilesRemoteTransferTask;
 import it.pgp.xfiles.utils.ContentProviderUtils;
 import it.pgp.xfiles.utils.Misc;
-import it.pgp.xfiles.utils.Pair;
 import it.pgp.xfiles.utils.ProgressConflictHandler;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.pathcontent.XREPathContent;
@@ -131,10 +130,8 @@ public class RemoteClientManager {
     private void publishReceivedProgress(long progress, long totalSizeSoFar, long totalSize, long currentFileSize) {
         Log.d("XREProgress","It's progress: "+progress);
         if (this.progressTask != null) {
-            this.progressTask.publishProgressWrapper(
-                    new Pair<>(totalSizeSoFar + progress, totalSize),
-                    new Pair<>(progress, currentFileSize)
-            );
+            this.progressTask.progress.set(totalSizeSoFar + progress, totalSize, progress, currentFileSize);
+            this.progressTask.progress.setBytes(totalSizeSoFar + progress);
         }
     }
 
@@ -239,13 +236,9 @@ public class RemoteClientManager {
             return FileOpsErrorCodes.OK;
         }
         else {
-            ArrayList<String> v_fx = new ArrayList<>();
-            ArrayList<String> v_fy = new ArrayList<>();
-
-            for (BrowserItem fname : items.files) {
-                v_fx.add(items.parentDir.dir+"/"+fname.getFilename());
-                v_fy.add(destDir.dir+"/"+fname.getFilename());
-            }
+            // paths are built from the selection while writing the request
+            List<String> v_fx = items.getPathsIn(items.parentDir);
+            List<String> v_fy = items.getPathsIn(destDir);
 
             ListOfPathPairs_rq r = new ListOfPathPairs_rq(action,v_fx,v_fy);
 
@@ -273,10 +266,8 @@ public class RemoteClientManager {
                         hasReceivedSizeForCurrentFile = false;
                         currentFileCount++;
                         totalSizeSoFar += currentFileSize;
-                        this.progressTask.publishProgressWrapper(
-                                new Pair<>(totalSizeSoFar, totalSize),
-                                new Pair<>(0L,1L)
-                        );
+                        this.progressTask.progress.set(totalSizeSoFar, totalSize, 0, 1);
+                        this.progressTask.progress.setBytes(totalSizeSoFar);
                     }
                     else if (tmp == EOFs_ind) {
                         Log.d("XREProgress","Received EOFs");
@@ -293,10 +284,8 @@ public class RemoteClientManager {
                             currentFileSize = tmp;
                             hasReceivedSizeForCurrentFile = true;
                             if (this.progressTask != null) {
-                                this.progressTask.publishProgressWrapper(
-                                        new Pair<>(totalSizeSoFar, totalSize),
-                                        new Pair<>(0L,1L)
-                                );
+                                this.progressTask.progress.set(totalSizeSoFar, totalSize, 0, 1);
+                                this.progressTask.progress.setBytes(totalSizeSoFar);
                             }
                         }
                     }
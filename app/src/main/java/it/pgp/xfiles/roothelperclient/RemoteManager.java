@@ -4,7 +4,6 @@ import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
 import android.util.Log;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 
 import it.pgp.xfiles.service.SocketNames;
@@ -32,13 +31,14 @@ public class RemoteManager extends StreamsPair {
 
         ls = clientSocket;
 
-        o = clientSocket.getOutputStream();
-        i = new DataInputStream(clientSocket.getInputStream());
+        setFramedStreams(clientSocket.getInputStream(), clientSocket.getOutputStream());
         Log.d(getClass().getName(),"Streams acquired");
     }
 
     @Override
     public void close() {
+        try {o.flush();} catch (Exception ignored) {}
+
         // Close method on streams won't work, use shutdown methods
         // Web source:
         // https://stackoverflow.com/questions/10984175/android-localsocket-wont-close-when-in-blocked-read
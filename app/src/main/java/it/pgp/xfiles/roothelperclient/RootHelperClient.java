@@ -20,10 +20,13 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import it.pgp.Native;
 import it.pgp.xfiles.BrowserItem;
@@ -37,7 +40,7 @@ import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.enums.ForegroundServiceType;
 import it.pgp.xfiles.enums.ProviderType;
 import it.pgp.xfiles.enums.SshKeyType;
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
+import it.pgp.xfiles.enums.conflicthandling.ConflictPolicy;
 import it.pgp.xfiles.items.FileCreationAdvancedOptions;
 import it.pgp.xfiles.items.SingleStatsItem;
 import it.pgp.xfiles.roothelperclient.reqs.ListOfPathPairs_rq;
@@ -65,26 +68,29 @@ import it.pgp.xfiles.roothelperclient.reqs.setPermission_rq;
 import it.pgp.xfiles.roothelperclient.reqs.singleStats_rq;
 import it.pgp.xfiles.roothelperclient.resps.exists_resp;
 import it.pgp.xfiles.roothelperclient.resps.folderStats_resp;
-import it.pgp.xfiles.roothelperclient.resps.ls_resp;
 import it.pgp.xfiles.roothelperclient.resps.singleStats_resp;
 import it.pgp.xfiles.roothelperclient.resps.ssh_keygen_resp;
 import it.pgp.xfiles.service.BaseBackgroundTask;
 import it.pgp.xfiles.service.SocketNames;
-import it.pgp.xfiles.service.visualization.ProgressIndicator;
-import it.pgp.xfiles.utils.ArchiveVMap;
+import it.pgp.xfiles.service.TaskScheduler;
+import it.pgp.xfiles.service.visualization.ThroughputEstimator;
+import it.pgp.xfiles.utils.ArchiveIndex;
+import it.pgp.xfiles.utils.ArchiveIndexCache;
+import it.pgp.xfiles.utils.ConflictPolicyResolver;
 import it.pgp.xfiles.utils.ContentProviderUtils;
 import it.pgp.xfiles.utils.FileOperationHelper;
-import it.pgp.xfiles.utils.GenericMRU;
 import it.pgp.xfiles.utils.Misc;
-import it.pgp.xfiles.utils.Pair;
+import it.pgp.xfiles.utils.NavigationScheduler;
 import it.pgp.xfiles.utils.ProgressConflictHandler;
 import it.pgp.xfiles.utils.StreamsPair;
 import it.pgp.xfiles.utils.XFilesUtils;
 import it.pgp.xfiles.utils.dircontent.ArchiveSubDirWithContent;
+import it.pgp.xfiles.utils.dircontent.DirListing;
+import it.pgp.xfiles.utils.dircontent.DirListingListener;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
+import it.pgp.xfiles.utils.dircontent.ListingBatcher;
 import it.pgp.xfiles.utils.dircontent.LocalDirWithContent;
 import it.pgp.xfiles.utils.dircontent.XFilesRemoteDirWithContent;
-import it.pgp.xfiles.utils.iterators.VMapSubTreeIterable;
 import it.pgp.xfiles.utils.pathcontent.ArchivePathContent;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
@@ -131,24 +137,26 @@ public class RootHelperClient implements FileOperationHelper {
         this.address = address;
     }
 
-    public class RootHelperStreams extends StreamsPair {
+    public static class RootHelperStreams extends StreamsPair {
 
         public final LocalSocket ls;
 
-        public RootHelperStreams() throws IOException {
+        public RootHelperStreams(SocketNames address) throws IOException {
             LocalSocket clientSocket = new LocalSocket();
             LocalSocketAddress socketAddress = new LocalSocketAddress(address.name(), LocalSocketAddress.Namespace.ABSTRACT);
             clientSocket.connect(socketAddress);
             Log.d("roothelperclient","Connected");
 
             ls = clientSocket;
-            o = clientSocket.getOutputStream();
-            i = new DataInputStream(clientSocket.getInputStream());
+            setFramedStreams(clientSocket.getInputStream(), clientSocket.getOutputStream());
             Log.d("roothelperclient","Streams acquired");
         }
 
         @Override
         public void close() {
+            // send any pending deferred request bytes before shutting down
+            try {o.flush();} catch (Exception ignored) {}
+
             // Close method on streams won't work, use shutdown methods
             // Web source:
             // https://stackoverflow.com/questions/10984175/android-localsocket-wont-close-when-in-blocked-read
@@ -162,12 +170,12 @@ public class RootHelperClient implements FileOperationHelper {
     }
 
     public StreamsPair getStreams() throws IOException {
-        return new RootHelperStreams();
+        return new RootHelperStreams(address);
     }
 
     public StreamsPair getStreams(BasePathContent bpc, boolean isFastClient) throws IOException {
         if (bpc instanceof LocalPathContent) {
-            return new RootHelperStreams();
+            return new RootHelperStreams(address);
         }
         else if (bpc instanceof XREPathContent) {
             XREPathContent xrpc = (XREPathContent) bpc;
@@ -178,16 +186,59 @@ public class RootHelperClient implements FileOperationHelper {
         else throw new RuntimeException("Guard block");
     }
 
+    // persistent connections for short request/response interactions, shared by all client instances
+    public RootHelperConnectionPool getPool() {
+        return RootHelperConnectionPool.forAddress(address);
+    }
+
     // TODO may be useful in all long-term tasks, change following comment if needed
     public StreamsPair rs; // exposed in order to force closing connection and terminate forked p7zip process on service close
 
+    // archives extracted at the same time in multi-archive extraction, each one over its own connection
+    public int extractWorkers = 1;
+    private final List<StreamsPair> workerStreams = new ArrayList<>(); // guarded by itself
+    private boolean workersClosed = false;
+
+    // conflicts reported during copy/move are resolved with this policy, instead of asking, unless ASK
+    public ConflictPolicy conflictPolicy = ConflictPolicy.ASK;
+
+    private StreamsPair openWorkerStreams() throws IOException {
+        synchronized (workerStreams) {
+            if (workersClosed) throw new IOException("Task cancelled");
+            StreamsPair s = getStreams();
+            workerStreams.add(s);
+            return s;
+        }
+    }
+
+    private void closeWorkerStreams(StreamsPair s) {
+        synchronized (workerStreams) {
+            workerStreams.remove(s);
+        }
+        s.close();
+    }
+
+    /**
+     * Closes the long term connection(s) of the current task, so that the rh side (and any forked p7zip process) terminates;
+     * no further worker connections are opened afterwards
+     */
+    public void closeStreams() {
+        try {rs.close();}
+        catch (Exception ignored) {}
+        synchronized (workerStreams) {
+            workersClosed = true;
+            for (StreamsPair s : workerStreams) s.close();
+            workerStreams.clear();
+        }
+    }
+
     // returns pid on successful connection, -1 otherwise
     public long checkConnection() {
-        try (StreamsPair rs = getStreams()) {
-            rs.o.write(ControlCodes.ACTION_GETPID.getValue());
-            byte[] resp = new byte[4];
-            rs.i.readFully(resp);
-            return Misc.castBytesToUnsignedNumber(resp,4);
+        try {
+            return getPool().execute(rs -> {
+                rs.o.write(ControlCodes.ACTION_GETPID.getValue());
+                return RHCodec.readUInt32(rs.i);
+            });
         }
         catch (IOException e) {
             return -1;
@@ -246,46 +297,21 @@ public class RootHelperClient implements FileOperationHelper {
 
     // only with RESPONSE_OK
     public static List<BrowserItem> assembleContentFromLsResps(DataInputStream clientInStream) throws IOException {
-        List<BrowserItem> dirContent = new ArrayList<>();
-        // read len, if 0 stop reading
-        ls_resp resp = ls_resp.readNext(clientInStream);
-        while (resp != null) {
-            // TODO modify BrowserItem to host all permission instead of only isDirectory
-//            BrowserItem b =
-//                    new BrowserItem(new String(resp.filename,"UTF-8"),
-//                            resp.size,
-//                            new Date(resp.date*1000),
-//                            new String(resp.permissions, "UTF-8").charAt(0) == 'd');
-//            dirContent.add(b);
-            dirContent.add(new BrowserItem(resp));
-            resp = ls_resp.readNext(clientInStream);
-        }
-        return dirContent;
-    }
-
-    private ArchiveVMap fillArchiveVMap(DataInputStream clientInStream) throws IOException {
-        ArchiveVMap v = new ArchiveVMap();
-        // read len, if 0 stop reading
-        ls_resp resp = ls_resp.readNext(clientInStream);
-        int entryCnt = 0; // for extracting selected files, it is necessary to know their position in the archive entries list
-        while (resp != null) {
-            if(resp.permissions[0] != '!') {
-                List<String> inArchivePath = new ArrayList<>(Arrays.asList((new String(resp.filename, StandardCharsets.UTF_8)).split("/")));
-                inArchivePath.add(ArchiveVMap.sentinelKeyForNodeProperties);
-
-                Map<String,Object> nodeProps = new HashMap<>();
-
-                nodeProps.put("i",entryCnt);
-                nodeProps.put("size",resp.size);
-                nodeProps.put("date",new Date(resp.date*1000L));
-                nodeProps.put("isDir",new String(resp.permissions, StandardCharsets.UTF_8).charAt(0) == 'd');
-
-                v.set(nodeProps,inArchivePath.toArray()); // put in vMap with properties
-            }
-            resp = ls_resp.readNext(clientInStream);
-            entryCnt++;
-        }
-        return v;
+        // decoded into columns, BrowserItems are created lazily by the view
+        return DirListing.readLsResps(clientInStream).asList();
+    }
+
+    public static List<BrowserItem> assembleContentFromLsResps(DataInputStream clientInStream, @Nullable ListingBatcher batcher) throws IOException {
+        if (batcher == null) return assembleContentFromLsResps(clientInStream);
+        // streamed items have to be created anyway, keep them in the final view
+        DirListing l = new DirListing();
+        List<BrowserItem> streamed = new ArrayList<>();
+        while (l.readNext(clientInStream)) {
+            BrowserItem b = l.toBrowserItem(l.count-1);
+            streamed.add(b);
+            batcher.add(b);
+        }
+        return l.asList(streamed);
     }
 
     // ls interaction return list of BrowserItem (which is only a representation class, not a business logic one)
@@ -293,84 +319,118 @@ public class RootHelperClient implements FileOperationHelper {
     // an intermediate DirWithContent object
 
     public GenericDirWithContent listDirectory(BasePathContent dirPath) {
+        return listDirectory(dirPath,null);
+    }
+
+    @Override
+    public GenericDirWithContent listDirectory(BasePathContent dirPath, @Nullable DirListingListener listener) {
+        if (dirPath instanceof LocalPathContent) {
+            try {
+                return getPool().execute(rs -> listDirectoryAbortable(rs,dirPath,listener));
+            }
+            catch (IOException e) {
+                return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
+            }
+        }
+
+        // XRE: the fast client of the session is shared (RemoteClientManager), so it is not registered
+        // as abort hook of the navigation, and listings on it are serialized
         StreamsPair rs = null;
         try {
             rs = getStreams(dirPath,true);
+            synchronized (rs) {
+                try {
+                    return listDirectory_(rs,dirPath,listener);
+                }
+                catch (NavigationScheduler.Cancelled e) {
+                    // stopped by a superseded navigation in the middle of the response, session out of sync
+                    dropFastClient(rs,(XREPathContent)dirPath);
+                    throw e;
+                }
+            }
+        }
+        catch (IOException e) {
+            dropFastClient(rs,(XREPathContent)dirPath);
+            return new XFilesRemoteDirWithContent(
+                    ((XREPathContent)dirPath).serverHost,
+                    FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
+        }
+    }
 
-            List<BrowserItem> dirContent;
-            SinglePath_rq req = new ls_rq(dirPath.dir);
+    // a new fast client is created on next access to the session
+    private static void dropFastClient(@Nullable StreamsPair rs, XREPathContent dirPath) {
+        try { rs.close(); } catch (Exception ignored) {}
+        MainActivity.rootHelperRemoteClientManager.fastClients.remove(dirPath.serverHost, rs);
+    }
 
-            // send request
-            req.write(rs.o);
-            Log.d("roothelperclient","Ls request sent");
+    // over a connection owned by the calling thread only
+    private GenericDirWithContent listDirectoryAbortable(StreamsPair rs, BasePathContent dirPath, @Nullable DirListingListener listener) throws IOException {
+        // a superseded navigation aborts the listing by closing the connection
+        NavigationScheduler.setAbortHook(rs);
+        try {
+            return listDirectory_(rs,dirPath,listener);
+        }
+        finally {
+            NavigationScheduler.setAbortHook(null);
+        }
+    }
 
+    private GenericDirWithContent listDirectory_(StreamsPair rs, BasePathContent dirPath, @Nullable DirListingListener listener) throws IOException {
+        List<BrowserItem> dirContent;
+        SinglePath_rq req = new ls_rq(dirPath.dir);
 
-            // read responses (one item per file in directory)
-            // read control byte (ok or error) // TODO embed in constructor? create two response classes (base response -1 file - and full response (accounting length-0 list termination)?
+        // send request
+        req.write(rs.o);
+        Log.d("roothelperclient","Ls request sent");
 
-            // TODO response byte to be embedded in response classes (maybe also request byte)
-            byte responseByte = rs.i.readByte();
-            ResponseCodes c = ResponseCodes.getCode(responseByte);
 
-            switch(c) {
-                case RESPONSE_REDIRECT:
-                    // read and replace redirect path before directory content
-                    dirPath.dir = Misc.receiveStringWithLen(rs.i);
-                    // missing break statement is intentional here
-                case RESPONSE_OK:
-                    dirContent = assembleContentFromLsResps(rs.i);
-                    break;
-                case RESPONSE_ERROR:
-                    // propagate errno within DirWithContent object
-                    byte[] errno_ = new byte[4];
-                    rs.i.readFully(errno_);
-                    int errno = (int) Misc.castBytesToUnsignedNumber(errno_,4);
-                    Log.e("roothelper","Error returned from roothelper server: "+errno);
-                    if(dirPath.equals(XFilesUtils.dataApp))
-                        return XFilesUtils.listDataAppWithoutRoot();
-                    return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS); // TODO errno constants in enum
-                default:
-                    throw new RuntimeException("Unexpected response code from roothelper server: "+(int)responseByte);
-            }
+        // read responses (one item per file in directory)
+        // read control byte (ok or error) // TODO embed in constructor? create two response classes (base response -1 file - and full response (accounting length-0 list termination)?
 
-            if (dirPath instanceof LocalPathContent)
-                return new LocalDirWithContent(dirPath.dir,dirContent);
-            else
-                return new XFilesRemoteDirWithContent(
-                        ((XREPathContent)dirPath).serverHost,
-                        dirPath.dir,
-                        dirContent);
-        }
-        catch (IOException e) {
-            try { rs.close(); } catch (Exception ignored) {}
-            if (dirPath instanceof LocalPathContent)
-                return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
-            else {
-                MainActivity.rootHelperRemoteClientManager.fastClients.remove(((XREPathContent)dirPath).serverHost);
-                return new XFilesRemoteDirWithContent(
-                        ((XREPathContent)dirPath).serverHost,
-                        FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
-            }
-        }
-        finally {
-            if (dirPath instanceof LocalPathContent) {
-                try { rs.close(); } catch (Exception ignored) {}
-            }
+        // TODO response byte to be embedded in response classes (maybe also request byte)
+        byte responseByte = rs.i.readByte();
+        ResponseCodes c = ResponseCodes.getCode(responseByte);
+
+        switch(c) {
+            case RESPONSE_REDIRECT:
+                // read and replace redirect path before directory content
+                dirPath.dir = Misc.receiveStringWithLen(rs.i);
+                // missing break statement is intentional here
+            case RESPONSE_OK:
+                dirContent = assembleContentFromLsResps(rs.i,ListingBatcher.of(dirPath,listener));
+                break;
+            case RESPONSE_ERROR:
+                // propagate errno within DirWithContent object
+                int errno = (int) RHCodec.readUInt32(rs.i);
+                Log.e("roothelper","Error returned from roothelper server: "+errno);
+                if(dirPath.equals(XFilesUtils.dataApp))
+                    return XFilesUtils.listDataAppWithoutRoot();
+                return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS); // TODO errno constants in enum
+            default:
+                throw new RuntimeException("Unexpected response code from roothelper server: "+(int)responseByte);
         }
+
+        if (dirPath instanceof LocalPathContent)
+            return new LocalDirWithContent(dirPath.dir,dirContent);
+        else
+            return new XFilesRemoteDirWithContent(
+                    ((XREPathContent)dirPath).serverHost,
+                    dirPath.dir,
+                    dirContent);
     }
 
     // because there are points when a new RootHelper instance is created locally
-    public static final GenericMRU<String,ArchiveVMap> archiveMRU = new GenericMRU<>(10); // up to 10 entries
+    public static final ArchiveIndexCache archiveCache = new ArchiveIndexCache();
 
     // password may be null
     @Override
     public GenericDirWithContent listArchive(BasePathContent archivePath) {
         SingleStatsItem statForModifiedDate;
-        Date modifiedFileDate;
+        long modifiedFileDate;
         String path;
         String subpath;
         String password;
-        ArchiveVMap archiveMap;
+        ArchiveIndex archiveMap;
 
         try {
             // retrieve modification time of the archive file
@@ -390,15 +450,19 @@ public class RootHelperClient implements FileOperationHelper {
             if (statForModifiedDate == null) {
                 return new GenericDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
             }
-            modifiedFileDate = statForModifiedDate.modificationTime;
+            modifiedFileDate = statForModifiedDate.modificationTime.getTime();
         }
         catch (IOException e) {
             return new GenericDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
         }
 
-        // check if the base archive exists in MRU and has not been modified, or not exists
-        archiveMap = archiveMRU.getByPath(path,modifiedFileDate);
+        // check if the base archive exists in cache (memory or disk) and has not been modified, or not exists
+        archiveMap = archiveCache.get(path,statForModifiedDate.size,modifiedFileDate);
         if (archiveMap == null) { // file not yet in cache or conflicting modified dates
+            // archive already being enumerated, serve the requested dir from the partial index
+            IncrementalArchiveListing pending = IncrementalArchiveListing.getRunning(path,statForModifiedDate.size,modifiedFileDate);
+            if (pending != null) return pending.snapshot(subpath);
+
             // send listArchive request to rootHelper
             // zero-length password not allowed, used by roothelper protocol as indication of no password provided
             ls_archive_rq listArchive_rq = new ls_archive_rq(
@@ -406,58 +470,57 @@ public class RootHelperClient implements FileOperationHelper {
                     password==null?new byte[0]:password.getBytes()
             );
 
-            try (StreamsPair rs = getStreams()) {
+            StreamsPair rs = null;
+            try {
+                rs = getStreams();
                 listArchive_rq.write(rs.o);
 
                 // receive response
                 int errno = Misc.receiveBaseResponse(rs.i);
-                if (errno==0) archiveMap = fillArchiveVMap(rs.i);
-                else if (errno == 0x101010) return new GenericDirWithContent(FileOpsErrorCodes.NULL_OR_WRONG_PASSWORD);
-                else return new GenericDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
+                if (errno != 0) {
+                    rs.close();
+                    return new GenericDirWithContent(errno == 0x101010 ?
+                            FileOpsErrorCodes.NULL_OR_WRONG_PASSWORD :
+                            FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
+                }
             }
             catch (IOException e) {
+                if (rs != null) rs.close();
                 return new GenericDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
             }
 
-            archiveMRU.setLatest(path,archiveMap,modifiedFileDate);
+            // entries are consumed in background, the requested dir is shown as soon as it is available;
+            // RH does not tell whether headers are encrypted, so listings that needed a password are not persisted
+            boolean persistent = password == null || password.isEmpty();
+            return IncrementalArchiveListing.start(path,statForModifiedDate.size,modifiedFileDate,persistent,rs).snapshot(subpath);
         }
-        // at this point, if the file exists, the vmap is non null
         // retrieve subdir-only entries into genericdirwithcontent object
-
-        List<BrowserItem> content = new ArrayList<>();
-        List<String> inArchivePath = Arrays.asList(subpath.split("/"));
-
-        if (inArchivePath.size()>0) { // get subdir children
-            Map<String,Object> map = (Map) archiveMap.get(inArchivePath.toArray());
-            for (Map.Entry entry: map.entrySet()) {
-                if (
-                        entry != null &&
-                                !entry.getKey().equals(ArchiveVMap.sentinelKeyForNodeProperties)) {
-                    content.add(
-                            new BrowserItem(
-                                    (String)(entry.getKey()),
-                                    (Map<String,Object>)((Map<String,Object>)entry.getValue()).get(ArchiveVMap.sentinelKeyForNodeProperties)
-                            )
-                    );
-                }
-            }
-        }
-        else { // get children of root
-            for (Map.Entry entry: archiveMap.h.entrySet()) {
-                if (!entry.getKey().equals(ArchiveVMap.sentinelKeyForNodeProperties)) {
-                    content.add(
-                            new BrowserItem(
-                                    (String)(entry.getKey()),
-                                    (Map<String,Object>)((Map<String,Object>)entry.getValue()).get(ArchiveVMap.sentinelKeyForNodeProperties)
-                            )
-                    );
-                }
-            }
-        }
+        int node = archiveMap.find(subpath);
+        List<BrowserItem> content = (node == ArchiveIndex.NONE) ? new ArrayList<>() : archiveMap.listChildren(node);
 
         return new ArchiveSubDirWithContent(path,subpath,content);
     }
 
+    /**
+     * Index of an archive being browsed: the cached one, or the one still being enumerated, once complete;
+     * if there is none (evicted, or its enumeration failed), the archive is listed again
+     * @throws IOException if the archive cannot be listed
+     */
+    public ArchiveIndex getArchiveIndex(ArchivePathContent archive) throws IOException {
+        ArchiveIndex index = archiveCache.get(archive.archivePath);
+        if (index != null) return index;
+        IncrementalArchiveListing pending = IncrementalArchiveListing.getRunning(archive.archivePath);
+        if (pending != null && (index = pending.await()) != null) return index;
+
+        GenericDirWithContent root = listArchive(new ArchivePathContent(archive.archivePath,"",archive.password));
+        if (root.errorCode != null) throw new IOException("Unable to list archive "+archive.archivePath+": "+root.errorCode);
+        index = archiveCache.get(archive.archivePath);
+        if (index != null) return index;
+        pending = IncrementalArchiveListing.getRunning(archive.archivePath);
+        if (pending != null && (index = pending.await()) != null) return index;
+        throw new IOException("Archive listing interrupted for "+archive.archivePath);
+    }
+
     private int handleCompressProgressAfterConfOK(StreamsPair rs, final long total) throws IOException {
         long last_progress = 0;
         int ret;
@@ -476,7 +539,7 @@ public class RootHelperClient implements FileOperationHelper {
             last_progress = progress;
 //            builder.setProgress((int) total, (int) progress,false);
 //            notifyManager.notify(NOTIF_ID, builder.build());
-            task.publishProgressWrapper(new Pair<>(progress, total));
+            task.progress.set(progress, total);
 
 //            Log.d("setCompleted ","publishProgressWrapper progress:\t"+progress+"\ttotal: "+total);
 //            Log.d("setCompleted ","publishProgressWrapper round:\t"+Math.round(progress*100.0/total));
@@ -494,7 +557,6 @@ public class RootHelperClient implements FileOperationHelper {
     private int handleCompressProgressAfterConfOK(StreamsPair rs, final long total, ContentResolver resolver, List<Uri> uris, int nativeUds) throws IOException {
         long last_progress = 0;
         int ret;
-        byte[] b_idx = new byte[4];
 
         long totalFromRh = Misc.receiveTotalOrProgress(rs.i);
 
@@ -508,8 +570,7 @@ public class RootHelperClient implements FileOperationHelper {
             if (progress == EOF_ind) {
                 // receive index and send corresponding fd
                 Log.d("setCompleted","[RHClient]receiving index after EOF");
-                rs.i.readFully(b_idx);
-                int index = (int) Misc.castBytesToUnsignedNumber(b_idx,4);
+                int index = (int) RHCodec.readUInt32(rs.i);
                 Log.d("setCompleted","[RHClient]index after EOF is "+index+", now sending fd for that index");
                 int fdToSend = resolver.openFileDescriptor(uris.get(index),"r").detachFd(); // will be closed internally by p7zip back-end in rh forked process
                 Native.sendDetachedFD(nativeUds,fdToSend);
@@ -522,7 +583,7 @@ public class RootHelperClient implements FileOperationHelper {
             else {
                 if (progress - last_progress > 1000000) {
                     last_progress = progress;
-                    task.publishProgressWrapper(new Pair<>(progress, total));
+                    task.progress.set(progress, total);
                 }
             }
         }
@@ -683,9 +744,9 @@ public class RootHelperClient implements FileOperationHelper {
 
     /*
     extract from archive:
-        - extract all: assumes file browser is currently OUTSIDE of an archive, so vmap need not exist;
+        - extract all: assumes file browser is currently OUTSIDE of an archive, so archive index need not exist;
           error results (among which, the null or wrong password one) are within GenericDirWithContent return value
-        - extract some: assumes file browser is currently WITHIN an archive, so vmap MUST exist (throw runtimeexception if it doesn't);
+        - extract some: assumes file browser is currently WITHIN an archive, so archive index MUST exist (throw runtimeexception if it doesn't);
      */
     @Override
     public List<FileOpsErrorCodes> extractFromArchive(List<BasePathContent> srcArchives,
@@ -702,7 +763,7 @@ public class RootHelperClient implements FileOperationHelper {
 
         switch (srcArchives.get(0).providerType) {
             case LOCAL:
-                // entryIdxs will be ignored, extract/test all, no need to preload VMap
+                // entryIdxs will be ignored, extract/test all, no need to preload archive index
                 return extract(srcArchives, destDir, password,null,smartDirectoryCreation); // extract/test all
             case LOCAL_WITHIN_ARCHIVE:
                 break;
@@ -714,8 +775,7 @@ public class RootHelperClient implements FileOperationHelper {
         if(srcArchives.size() != 1) throw new RuntimeException("Guard block");
 
         ArchivePathContent srcArchive = (ArchivePathContent) srcArchives.get(0);
-        ArchiveVMap avm = archiveMRU.getByPath(srcArchive.archivePath);
-        if (avm == null) throw new RuntimeException("VMap should be non-null once in archive!");
+        ArchiveIndex avm = getArchiveIndex(srcArchive);
 
         List<Integer> entries = new ArrayList<>();
 
@@ -749,11 +809,13 @@ public class RootHelperClient implements FileOperationHelper {
 
     @Override
     public int setDates(BasePathContent file, @Nullable Date accessDate, @Nullable Date modificationDate) {
-        try (StreamsPair rs = getStreams()) {
-            if (file.providerType!=ProviderType.LOCAL) return -1;
-            setDates_rq rq = new setDates_rq(file.dir,accessDate,modificationDate);
-            rq.write(rs.o);
-            return Misc.receiveBaseResponse(rs.i);
+        if (file.providerType!=ProviderType.LOCAL) return -1;
+        try {
+            return getPool().executeOnce(rs -> {
+                setDates_rq rq = new setDates_rq(file.dir,accessDate,modificationDate);
+                rq.write(rs.o);
+                return Misc.receiveBaseResponse(rs.i);
+            });
         }
         catch (Exception e) {
             return -1;
@@ -762,11 +824,13 @@ public class RootHelperClient implements FileOperationHelper {
 
     @Override
     public int setPermissions(BasePathContent file, int permMask) {
-        try (StreamsPair rs = getStreams()) {
-            if (file.providerType!=ProviderType.LOCAL) return -1;
-            setPermission_rq rq = new setPermission_rq(file.dir,permMask);
-            rq.write(rs.o);
-            return Misc.receiveBaseResponse(rs.i);
+        if (file.providerType!=ProviderType.LOCAL) return -1;
+        try {
+            return getPool().executeOnce(rs -> {
+                setPermission_rq rq = new setPermission_rq(file.dir,permMask);
+                rq.write(rs.o);
+                return Misc.receiveBaseResponse(rs.i);
+            });
         }
         catch (Exception e) {
             return -1;
@@ -775,34 +839,72 @@ public class RootHelperClient implements FileOperationHelper {
 
     @Override
     public int setOwnership(BasePathContent file, @Nullable Integer ownerId, @Nullable Integer groupId) {
-        try (StreamsPair rs = getStreams()) {
-            if (file.providerType!=ProviderType.LOCAL) return -1;
-            setOwnership_rq rq = new setOwnership_rq(file.dir,ownerId,groupId);
-            rq.write(rs.o);
-            return Misc.receiveBaseResponse(rs.i);
+        if (file.providerType!=ProviderType.LOCAL) return -1;
+        try {
+            return getPool().executeOnce(rs -> {
+                setOwnership_rq rq = new setOwnership_rq(file.dir,ownerId,groupId);
+                rq.write(rs.o);
+                return Misc.receiveBaseResponse(rs.i);
+            });
         }
         catch (Exception e) {
             return -1;
         }
     }
 
-    private List<Integer> getEntries(ArchiveVMap vMap, String relToArchivePathname) throws IOException {
+    private List<Integer> getEntries(ArchiveIndex index, String relToArchivePathname) throws IOException {
         List<Integer> entries = new ArrayList<>();
 
         if (relToArchivePathname.equals("") || relToArchivePathname.equals("/"))
             throw new RuntimeException("This condition should be managed earlier than here");
 
-        VMapSubTreeIterable it = new VMapSubTreeIterable(vMap,relToArchivePathname.split("/"));
+        int node = index.find(relToArchivePathname);
+        if (node != ArchiveIndex.NONE) index.collectEntries(node,entries);
 
-        for (Map.Entry me : it) {
-            if (me.getKey().equals(ArchiveVMap.sentinelKeyForNodeProperties)) {
-                Map x = (Map)me.getValue();
-                Integer ii = (Integer) x.get("i");
-                entries.add(ii);
+        return entries;
+    }
+
+    private interface ExtractProgressListener {
+        void onProgress(long progress, long total);
+    }
+
+    /**
+     * Receives the outcome of the extraction of one archive
+     * @return null on success, the error code otherwise
+     */
+    private static FileOpsErrorCodes receiveExtractResult(StreamsPair rs, ExtractProgressListener listener) throws IOException {
+        int errno = Misc.receiveBaseResponse(rs.i);
+        if (errno == 0x101010) return FileOpsErrorCodes.NULL_OR_WRONG_PASSWORD; // null or wrong password for encrypted filenames archive
+        if (errno == 0x03) return FileOpsErrorCodes.CRC_FAILED; // probably, wrong password for plain filenames archive
+        if (errno != 0) return FileOpsErrorCodes.TRANSFER_ERROR;
+
+        // start receiving progress here
+        // receive total
+        long total = Misc.receiveTotalOrProgress(rs.i);
+        long last_progress = 0;
+
+        // receive progress (end progress is -1 as uint64)
+        for(;;) {
+            long progress = Misc.receiveTotalOrProgress(rs.i);
+            if (progress == EOF_ind) {
+                if (last_progress == total) {
+                    // OK
+                }
+                else {
+                    // Warning, last progress before termination value differs from total
+                }
+                break;
             }
+            last_progress = progress;
+            listener.onProgress(progress, total);
         }
 
-        return entries;
+        // receive 1-byte final OK or error response
+        errno = Misc.receiveBaseResponse(rs.i);
+        if (errno == 0) return null;
+        else if (errno == 0x101010) return FileOpsErrorCodes.NULL_OR_WRONG_PASSWORD; // null or wrong password for encrypted filenames archive
+        else if (errno == 0x03) return FileOpsErrorCodes.CRC_FAILED; // probably, wrong password for plain filenames archive
+        else return FileOpsErrorCodes.TRANSFER_ERROR;
     }
 
     private List<FileOpsErrorCodes> extract(List<BasePathContent> archives,
@@ -810,6 +912,9 @@ public class RootHelperClient implements FileOperationHelper {
                                       @Nullable String password,
                                       @Nullable RelativeExtractEntries entries,
                                       boolean smartDirectoryCreation) throws IOException {
+        if(archives.size() > 1 && extractWorkers > 1)
+            return extractParallel(archives, directory, password, smartDirectoryCreation);
+
         rs = getStreams();
 
         if(archives.size() == 1) { // extract/test whole single archive, or extract/test some items from within one single archive
@@ -825,49 +930,94 @@ public class RootHelperClient implements FileOperationHelper {
 
         int nArchives = archives.size();
         boolean multiExtract = nArchives > 1;
+        long[] extractedBytes = {0,0}; // by previous archives and by the current one, for data amount display
         for(int i=0;i<nArchives;i++) {
-            FileOpsErrorCodes ret;
-            int errno = Misc.receiveBaseResponse(rs.i);
-            if (errno == 0x101010) ret = FileOpsErrorCodes.NULL_OR_WRONG_PASSWORD; // null or wrong password for encrypted filenames archive
-            else if (errno == 0x03) ret = FileOpsErrorCodes.CRC_FAILED; // probably, wrong password for plain filenames archive
-            else if (errno == 0) { // start receiving progress here
-                // receive total
-                long total = Misc.receiveTotalOrProgress(rs.i);
-                long last_progress = 0;
-
-                // receive progress (end progress is -1 as uint64)
-                for(;;) {
-                    long progress = Misc.receiveTotalOrProgress(rs.i);
-                    if (progress == EOF_ind) {
-                        if (last_progress == total) {
-                            // OK
-                        }
-                        else {
-                            // Warning, last progress before termination value differs from total
-                        }
-                        break;
-                    }
-                    last_progress = progress;
-                    Pair<Long, Long> inner =  new Pair<>(progress, total);
-                    if(multiExtract)
-                        task.publishProgressWrapper(new Pair<>((long)i,(long)nArchives),inner);
-                    else task.publishProgressWrapper(inner);
+            final int idx = i;
+            extractedBytes[1] = 0;
+            rets.add(receiveExtractResult(rs, (progress, total) -> {
+                extractedBytes[1] = progress;
+                if(multiExtract) {
+                    task.progress.set(idx, nArchives, progress, total);
+                    task.progress.setBytes(extractedBytes[0] + progress);
                 }
-
-                // receive 1-byte final OK or error response
-                errno = Misc.receiveBaseResponse(rs.i);
-                if (errno == 0) ret = null;
-                else if (errno == 0x101010) ret = FileOpsErrorCodes.NULL_OR_WRONG_PASSWORD; // null or wrong password for encrypted filenames archive
-                else if (errno == 0x03) ret = FileOpsErrorCodes.CRC_FAILED; // probably, wrong password for plain filenames archive
-                else ret = FileOpsErrorCodes.TRANSFER_ERROR;
-            }
-            else ret = FileOpsErrorCodes.TRANSFER_ERROR;
-            rets.add(ret);
+                else task.progress.set(progress, total);
+            }));
+            extractedBytes[0] += extractedBytes[1];
         }
         rs.close();
         return rets;
     }
 
+    /**
+     * Whole-archive extraction of several archives at once, each one with its own extract request
+     * over a separate connection (so with its own p7zip process on the rh side).
+     * Outer progress is the number of completed archives, inner progress is aggregated over the archives started so far;
+     * errors, including connection ones, are reported per archive.
+     */
+    private List<FileOpsErrorCodes> extractParallel(List<BasePathContent> archives,
+                                                    String directory,
+                                                    @Nullable String password,
+                                                    boolean smartDirectoryCreation) throws IOException {
+        int nArchives = archives.size();
+        FileOpsErrorCodes[] rets = new FileOpsErrorCodes[nArchives];
+        // null means success, so archives whose worker dies before recording a result count as failed
+        Arrays.fill(rets, FileOpsErrorCodes.TRANSFER_ERROR);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicLong doneBytes = new AtomicLong();
+        AtomicLong totalBytes = new AtomicLong();
+
+        Runnable publish = () -> {
+            long done = doneBytes.get();
+            task.progress.set(completed.get(), nArchives, done, totalBytes.get());
+            task.progress.setBytes(done);
+        };
+
+        Runnable worker = () -> {
+            for(int i = next.getAndIncrement(); i < nArchives; i = next.getAndIncrement()) {
+                long[] archiveProgress = {0,-1}; // done and total of this archive
+                StreamsPair s = null;
+                try {
+                    s = openWorkerStreams();
+                    new extract_rq(archives.get(i).dir, directory, password, null, null, smartDirectoryCreation).write(s.o);
+                    rets[i] = receiveExtractResult(s, (progress, total) -> {
+                        if(archiveProgress[1] < 0) {
+                            archiveProgress[1] = total;
+                            totalBytes.addAndGet(total);
+                        }
+                        doneBytes.addAndGet(progress - archiveProgress[0]);
+                        archiveProgress[0] = progress;
+                        publish.run();
+                    });
+                }
+                catch (IOException | RuntimeException e) {
+                    Log.e("roothelperclient", "Extraction of "+archives.get(i).dir+" failed", e);
+                    rets[i] = FileOpsErrorCodes.TRANSFER_ERROR;
+                }
+                finally {
+                    if(s != null) closeWorkerStreams(s);
+                }
+                completed.incrementAndGet();
+                publish.run();
+            }
+        };
+
+        int nWorkers = Math.min(extractWorkers, nArchives);
+        ExecutorService pool = Executors.newFixedThreadPool(nWorkers);
+        for(int w=0;w<nWorkers;w++) pool.execute(worker);
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            closeStreams();
+            pool.shutdownNow();
+            throw new IOException("Interrupted while waiting for extraction workers", e);
+        }
+
+        return new ArrayList<>(Arrays.asList(rets));
+    }
+
     // TODO Remove find methods from interface, already implemented RH only
 
     @Override
@@ -889,7 +1039,7 @@ public class RootHelperClient implements FileOperationHelper {
                 long total = fopts.size;
                 do {
                     progress = Misc.receiveTotalOrProgress(rs.i);
-                    task.publishProgressWrapper(new Pair<>(progress, total));
+                    task.progress.set(progress, total);
                 }
                 while(progress != EOF_ind);
 
@@ -926,15 +1076,17 @@ public class RootHelperClient implements FileOperationHelper {
         switch (filePath.providerType) {
             case LOCAL:
                 exists_rq rq = new exists_rq(filePath.dir,exists,isFile,isDir);
-                try (StreamsPair rs = getStreams()) {
-                    rq.write(rs.o);
-                    exists_resp resp = new exists_resp(rs.i);
-                    return resp.respFlags;
+                try {
+                    return getPool().execute(rs -> {
+                        rq.write(rs.o);
+                        exists_resp resp = new exists_resp(rs.i);
+                        return resp.respFlags;
+                    });
                 }
                 catch (IOException ignored) {}
                 return ret;
             case LOCAL_WITHIN_ARCHIVE:
-                // TODO check existence in VMap
+                // TODO check existence in archive index
                 return ret;
             case XFILES_REMOTE:
                 // FIXME add exist request for XRE remote checksum request on single file
@@ -956,6 +1108,87 @@ public class RootHelperClient implements FileOperationHelper {
         return existsIsFileIsDir(filePath,false,false,true).get(2);
     }
 
+    // max number of paths whose requests are in flight at once on a pipelined connection
+    // (bounded, so that neither side can block on a full socket buffer while the other is writing)
+    public static final int PIPELINE_WINDOW = 64;
+
+    /**
+     * Exists/isFile/isDir (and optionally stats) of many local paths, with requests written back-to-back
+     * on one pooled connection and responses read in order, instead of one round trip per request.
+     * If the connection breaks in the middle, the remaining paths are resumed on a new one; if pipelining
+     * makes no progress at all, they are queried with one request per interaction, whose errors are propagated.
+     */
+    public BatchStats statBatch(List<String> paths, boolean withStats) throws IOException {
+        BatchStats ret = new BatchStats(paths.size());
+        final int[] done = {0};
+        while (done[0] < paths.size()) {
+            int before = done[0];
+            try {
+                getPool().execute(rs -> {
+                    pipelineStats(rs,paths,withStats,ret,done);
+                    return null;
+                });
+            }
+            catch (IOException e) {
+                if (done[0] > before) continue; // broken connection, resume on a new one
+                Log.w(getClass().getName(),"Pipelined stats failed, falling back to one request per path",e);
+                for (int k=done[0];k<paths.size();k++) statOne(paths.get(k),withStats,ret,k);
+                break;
+            }
+        }
+        return ret;
+    }
+
+    private void statOne(String path, boolean withStats, BatchStats ret, int k) throws IOException {
+        getPool().execute(rs -> {
+            new exists_rq(path,true,true,true).write(rs.o);
+            readExistsResp(rs.i,ret,k);
+            return null;
+        });
+        if (withStats) getPool().execute(rs -> {
+            new singleStats_rq(path,FileMode.FILE).write(rs.o);
+            readStatsResp(rs.i,ret,k);
+            return null;
+        });
+    }
+
+    private static void readExistsResp(DataInputStream i, BatchStats ret, int k) throws IOException {
+        if (i.readByte() != 0) // unconditionally OK for exists requests
+            throw new IOException("Unexpected response byte on exists query");
+        ret.flags[k] = i.readByte();
+    }
+
+    private static void readStatsResp(DataInputStream i, BatchStats ret, int k) throws IOException {
+        if (Misc.receiveBaseResponse(i) != 0) return; // size and mtime left to -1
+        RHCodec.skipFully(i,RHCodec.readUInt8(i)); // group
+        RHCodec.skipFully(i,RHCodec.readUInt8(i)); // owner
+        RHCodec.readUInt32(i); // creation time
+        RHCodec.readUInt32(i); // last access time
+        ret.mtime[k] = RHCodec.readUInt32(i);
+        RHCodec.skipFully(i,10); // permissions
+        ret.size[k] = RHCodec.readInt64(i);
+    }
+
+    private static void pipelineStats(StreamsPair rs, List<String> paths, boolean withStats, BatchStats ret, int[] done) throws IOException {
+        while (done[0] < paths.size()) {
+            int start = done[0];
+            int end = Math.min(paths.size(), start+PIPELINE_WINDOW);
+            try (OutputStream batch = RHCodec.deferredFrame(rs.o)) {
+                for (int k=start;k<end;k++) {
+                    String path = paths.get(k);
+                    new exists_rq(path,true,true,true).write(rs.o);
+                    if (withStats) new singleStats_rq(path,FileMode.FILE).write(rs.o);
+                }
+            }
+            // first read sends the whole window
+            for (int k=start;k<end;k++) {
+                readExistsResp(rs.i,ret,k);
+                if (withStats) readStatsResp(rs.i,ret,k);
+                done[0] = k+1;
+            }
+        }
+    }
+
     // TODO to be tested
     // client test case for delete request-response interaction(s)
     @Override
@@ -981,9 +1214,7 @@ public class RootHelperClient implements FileOperationHelper {
                     Log.d("roothelper","OK returned from roothelper server for delete file: "+filePath.dir);
                     break;
                 case RESPONSE_ERROR:
-                    byte[] errno_ = new byte[4];
-                    rs.i.readFully(errno_);
-                    int errno = (int) Misc.castBytesToUnsignedNumber(errno_,4);
+                    int errno = (int) RHCodec.readUInt32(rs.i);
                     String msg = "Error returned from roothelper server: "+errno+" for file "+filePath.dir;
                     Log.e("roothelper",msg);
                     throw new IOException(msg);
@@ -996,64 +1227,58 @@ public class RootHelperClient implements FileOperationHelper {
     @Override
     public boolean renameFile(BasePathContent oldPathname, BasePathContent newPathname) throws IOException {
         // treat as move request
-        StreamsPair rs = getStreams();
-
-        // send request
         ListOfPathPairs_rq rq = new movelist_rq(
                 Collections.singletonList(oldPathname.dir),
                 Collections.singletonList(newPathname.dir)
         );
-        rq.write(rs.o);
 
-        // receive 1 EOF and 1 EOFs progress since move sends them, then receive OK/error response
-        byte[] b = new byte[8];
-        rs.i.read(b); // EOF
-        rs.i.read(b); // EOFs
+        return getPool().executeOnce(rs -> {
+            // send request
+            rq.write(rs.o);
 
-        boolean ret = false;
-        if (Misc.receiveBaseResponse(rs.i) == 0) ret = true;
+            // receive 1 EOF and 1 EOFs progress since move sends them, then receive OK/error response
+            // (read fully, otherwise a short read would leave the pooled connection out of sync)
+            Misc.receiveTotalOrProgress(rs.i); // EOF
+            Misc.receiveTotalOrProgress(rs.i); // EOFs
 
-        rs.close();
-        return ret;
+            return Misc.receiveBaseResponse(rs.i) == 0;
+        });
     }
 
     @Override
     public SingleStatsItem statFile(BasePathContent pathname) throws IOException {
         switch (pathname.providerType) {
             case LOCAL:
-                StreamsPair rs = getStreams();
-
                 singleStats_rq rq = new singleStats_rq(pathname.dir,FileMode.FILE);
-                rq.write(rs.o);
-
-                if (Misc.receiveBaseResponse(rs.i) != 0) return null;
-
-                // receive and return response
-                singleStats_resp resp = new singleStats_resp(rs.i);
-                rs.close();
-                return new SingleStatsItem(resp);
+                singleStats_resp resp = getPool().execute(rs -> {
+                    rq.write(rs.o);
+                    if (Misc.receiveBaseResponse(rs.i) != 0) return null;
+                    // receive and return response
+                    return new singleStats_resp(rs.i);
+                });
+                return resp == null ? null : new SingleStatsItem(resp);
 
             case LOCAL_WITHIN_ARCHIVE:
-                ArchiveVMap v = archiveMRU.getByPath(((ArchivePathContent)pathname).archivePath);
-                if (v == null)
-                    throw new RuntimeException("ArchiveVMap should already be populated within archive");
-                Map nodeProps = v.getNodeProps(pathname.dir);
+                ArchiveIndex v = getArchiveIndex((ArchivePathContent)pathname);
+                int node = v.find(pathname.dir);
+                // the directory node need not necessarily be present in an archive
+                boolean isDir = node == ArchiveIndex.NONE || v.isDirectory(node);
                 return new SingleStatsItem(
                         "", // empty group
                         "", // empty owner
                         new Date(0L),
                         new Date(0L),
-                        (Date)nodeProps.get("date"),
-                        (boolean)nodeProps.get("isDir")?"d---------":"----------",
-                        (long)nodeProps.get("size")
+                        new Date(node == ArchiveIndex.NONE ? 0L : v.getModificationTime(node)),
+                        isDir?"d---------":"----------",
+                        node == ArchiveIndex.NONE ? 0L : v.getSize(node)
                 );
             case XFILES_REMOTE:
                 XREPathContent xrpc = (XREPathContent) pathname;
                 RemoteManager rm = MainActivity.rootHelperRemoteClientManager.getClient(xrpc.serverHost,true);
                 if (rm == null) return null;
                 // TODO stats_resp
-                rq = new singleStats_rq(pathname.dir,FileMode.FILE);
-                rq.write(rm.o);
+                singleStats_rq xrq = new singleStats_rq(pathname.dir,FileMode.FILE);
+                xrq.write(rm.o);
 
                 if (Misc.receiveBaseResponse(rm.i) != 0) return null;
 
@@ -1066,58 +1291,45 @@ public class RootHelperClient implements FileOperationHelper {
         }
     }
 
+    private static folderStats_resp archiveFolderStats(long[] totals) {
+        return new folderStats_resp(
+                totals[ArchiveIndex.STATS_CHILDREN_DIRS],
+                totals[ArchiveIndex.STATS_CHILDREN_FILES],
+                totals[ArchiveIndex.STATS_TOTAL_DIRS],
+                totals[ArchiveIndex.STATS_TOTAL_FILES],
+                totals[ArchiveIndex.STATS_TOTAL_SIZE]);
+    }
+
     @Override
     public folderStats_resp statFiles(List<BasePathContent> files) throws IOException {
         if (files.isEmpty()) throw new IOException("statfiles list empty, cannot determine provider type");
         switch(files.get(0).providerType) {
             case LOCAL:
-                StreamsPair rs = getStreams();
                 List<String> tmp = new ArrayList<>();
                 for (BasePathContent bpc : files) tmp.add(bpc.dir);
                 multiStats_rq rq = new multiStats_rq(tmp);
-                rq.write(rs.o);
+                return getPool().execute(rs -> {
+                    rq.write(rs.o);
 
-                int errno = Misc.receiveBaseResponse(rs.i);
-                if (errno != 0) {
-                    Log.e("roothelperclient", "statFiles: Some files could not be stat, error code: " + errno);
-                }
+                    int errno_ = Misc.receiveBaseResponse(rs.i);
+                    if (errno_ != 0) {
+                        Log.e("roothelperclient", "statFiles: Some files could not be stat, error code: " + errno_);
+                    }
 
-                // TODO propagate errno along with response
-                // receive and return response
-                folderStats_resp response = new folderStats_resp(rs.i);
-                rs.close();
-                return response;
+                    // TODO propagate errno along with response
+                    // receive and return response
+                    return new folderStats_resp(rs.i);
+                });
             case LOCAL_WITHIN_ARCHIVE:
-                // stat inner folder of archive (that is, archive is already opened and vmap is in memory)
-                ArchiveVMap v = archiveMRU.getByPath(((ArchivePathContent) files.get(0)).archivePath);
-                if (v == null)
-                    throw new RuntimeException("ArchiveVMap should already be populated within archive");
+                // stat selected items of archive (that is, archive is already opened and its index is in memory)
+                ArchiveIndex v = getArchiveIndex((ArchivePathContent) files.get(0));
 
-                long childrenFiles = 0, childrenDirs = 0, totalFiles = 0, totalDirs = 0, totalSize = 0;
+                long[] totals = new long[5];
                 for (BasePathContent pathname : files) {
-                    VMapSubTreeIterable it = new VMapSubTreeIterable(v, pathname.dir.split("/"));
-
-                    // FIXME currently, also the current folder node is taken into account when iterating (so, totalFolders is shifted up by 1)
-                    for (Map.Entry me : it) {
-                        if (me.getKey().equals(ArchiveVMap.sentinelKeyForNodeProperties)) {
-                            Map x = (Map) me.getValue();
-                            // TODO populate children files and dirs as well
-                            boolean isDir = (boolean) x.get("isDir");
-                            if (isDir) totalDirs++;
-                            else {
-                                totalFiles++;
-                                totalSize += (long) x.get("size");
-                            }
-                        }
-                    }
+                    int node = v.find(pathname.dir);
+                    if (node != ArchiveIndex.NONE) v.accumulateStats(node,true,totals);
                 }
-
-                return new folderStats_resp(
-                        childrenDirs,
-                        childrenFiles,
-                        totalDirs,
-                        totalFiles,
-                        totalSize);
+                return archiveFolderStats(totals);
 
             case XFILES_REMOTE:
                 XREPathContent xrpc = (XREPathContent) files.get(0);
@@ -1126,10 +1338,9 @@ public class RootHelperClient implements FileOperationHelper {
 
                 tmp = new ArrayList<>();
                 for (BasePathContent bpc : files) tmp.add(bpc.dir);
-                rq = new multiStats_rq(tmp);
-                rq.write(rm.o);
+                new multiStats_rq(tmp).write(rm.o);
 
-                errno = Misc.receiveBaseResponse(rm.i);
+                int errno = Misc.receiveBaseResponse(rm.i);
                 if (errno != 0) {
                     Log.e("roothelperclient", "Some files could not be stat, error code: " + errno);
                 }
@@ -1146,58 +1357,34 @@ public class RootHelperClient implements FileOperationHelper {
     public folderStats_resp statFolder(BasePathContent pathname) throws IOException {
         switch(pathname.providerType) {
             case LOCAL:
-                StreamsPair rs = getStreams();
                 singleStats_rq rq = new singleStats_rq(pathname.dir, FileMode.DIRECTORY);
-                rq.write(rs.o);
+                return getPool().execute(rs -> {
+                    rq.write(rs.o);
 
-                int errno = Misc.receiveBaseResponse(rs.i);
-                if (errno != 0)
-                    Log.e("roothelperclient", "Some files could not be stat, error code: " + errno);
+                    int errno_ = Misc.receiveBaseResponse(rs.i);
+                    if (errno_ != 0)
+                        Log.e("roothelperclient", "Some files could not be stat, error code: " + errno_);
 
-                // TODO propagate errno along with response
-                // receive and return response
-                folderStats_resp response = new folderStats_resp(rs.i);
-                rs.close();
-                return response;
+                    // TODO propagate errno along with response
+                    // receive and return response
+                    return new folderStats_resp(rs.i);
+                });
             case LOCAL_WITHIN_ARCHIVE:
-                // stat inner folder of archive (that is, archive is already opened and vmap is in memory)
-                ArchiveVMap v = archiveMRU.getByPath(((ArchivePathContent) pathname).archivePath);
-                if (v == null)
-                    throw new RuntimeException("ArchiveVMap should already be populated within archive");
-
-                VMapSubTreeIterable it = new VMapSubTreeIterable(v, pathname.dir.split("/"));
-
-                long childrenFiles = 0, childrenDirs = 0, totalFiles = 0, totalDirs = 0, totalSize = 0;
-
-                // FIXME currently, also the current folder node is taken into account when iterating (so, totalFolders is shifted up by 1)
-                for (Map.Entry me : it) {
-                    if (me.getKey().equals(ArchiveVMap.sentinelKeyForNodeProperties)) {
-                        Map x = (Map) me.getValue();
-                        // TODO populate children files and dirs as well
-                        boolean isDir = (boolean) x.get("isDir");
-                        if (isDir) totalDirs++;
-                        else {
-                            totalFiles++;
-                            totalSize += (long) x.get("size");
-                        }
-                    }
-                }
+                // stat inner folder of archive (that is, archive is already opened and its index is in memory)
+                ArchiveIndex v = getArchiveIndex((ArchivePathContent) pathname);
 
-                return new folderStats_resp(
-                        childrenDirs,
-                        childrenFiles,
-                        totalDirs,
-                        totalFiles,
-                        totalSize);
+                long[] totals = new long[5];
+                int node = v.find(pathname.dir);
+                if (node != ArchiveIndex.NONE) v.accumulateStats(node,false,totals);
+                return archiveFolderStats(totals);
             case XFILES_REMOTE:
                 XREPathContent xrpc = (XREPathContent) pathname;
                 RemoteManager rm = MainActivity.rootHelperRemoteClientManager.getClient(xrpc.serverHost, true);
                 if (rm == null) return null;
 
-                rq = new singleStats_rq(pathname.dir, FileMode.DIRECTORY);
-                rq.write(rm.o);
+                new singleStats_rq(pathname.dir, FileMode.DIRECTORY).write(rm.o);
 
-                errno = Misc.receiveBaseResponse(rm.i);
+                int errno = Misc.receiveBaseResponse(rm.i);
                 if (errno != 0)
                     Log.e("roothelperclient", "Some files could not be stat, error code: " + errno);
 
@@ -1215,37 +1402,57 @@ public class RootHelperClient implements FileOperationHelper {
         // (x , dstFolder + "/" + x.getName() ) // stop on first level, roothelper C code performs dir tree move/copy/delete if needed
         // receive one response per pair
 
+        // new mode: send list of file pairs in one request, then receive progress
+        // (paths are built from the selection store while writing the request, never held all at once)
+        copyMovePairs(files.getPathsIn(files.parentDir),files.getPathsIn(dstFolder),files.copyOrMove,null);
+    }
+
+    /**
+     * Copies or moves each src path to the dest path with the same index, in one request.
+     * If a listener is given, it is notified in order of each pair's end, for checkpointing progress
+     * (for copy, this maps one-to-one to pairs only if all src paths are regular files)
+     */
+    public void copyMovePairs(List<String> srcs, List<String> dests, CopyMoveMode mode,
+                              @Nullable ProgressConflictHandler.ItemCompletionListener listener) throws IOException {
+        copyMovePairs(srcs,dests,mode,listener,null,0);
+    }
+
+    /**
+     * Same as {@link #copyMovePairs(List, List, CopyMoveMode, ProgressConflictHandler.ItemCompletionListener)},
+     * for one batch of a job whose items are still being discovered: progress is reported on top of progressBase
+     * (bytes of the job already transferred), against the job's total as currently set in the task's counters,
+     * and conflicts are resolved by the job's resolver, which is reported by the caller at the end of the job
+     * @return total size of the batch as counted by roothelper (including content of directories), for copy
+     */
+    public long copyMoveBatch(List<String> srcs, List<String> dests, CopyMoveMode mode,
+                              @Nullable ProgressConflictHandler.ItemCompletionListener listener,
+                              ConflictPolicyResolver jobResolver, long progressBase) throws IOException {
+        return copyMovePairs(srcs,dests,mode,listener,jobResolver,progressBase);
+    }
+
+    private long copyMovePairs(List<String> srcs, List<String> dests, CopyMoveMode mode,
+                               @Nullable ProgressConflictHandler.ItemCompletionListener listener,
+                               @Nullable ConflictPolicyResolver jobResolver, long progressBase) throws IOException {
         // this variable must be saved into the corresponding CopyMoveTask
         // in order to interrupt the long-term copy operation by close/shutdown streams
 //        RootHelperStreams rs = getStreams();
         rs = getStreams();
+        if (task != null) task.progress.throughput.enterPhase(ThroughputEstimator.Phase.SCAN); // until first size received
 
-        // new mode: send list of file pairs in one request, then receive progress
-        List<String> srcs = new ArrayList<>();
-        List<String> dests = new ArrayList<>();
-
-        for (String pathname : files) {
-            srcs.add(pathname);
-            dests.add(dstFolder.dir+"/"+(new File(pathname).getName()));
-        }
-
-        ListOfPathPairs_rq rq = (files.copyOrMove == CopyMoveMode.COPY) ?
+        ListOfPathPairs_rq rq = (mode == CopyMoveMode.COPY) ?
                 new copylist_rq(srcs,dests):new movelist_rq(srcs,dests);
         rq.write(rs.o);
 
         // for copy, receive total number of files for outer progress
         // (all regular files in all subfolders at any level of given items)
         long totalFileCount,totalSize = 0;
-        if (files.copyOrMove == CopyMoveMode.COPY) {
-            byte[] tot_ = new byte[8];
-            rs.i.readFully(tot_);
-            totalFileCount = Misc.castBytesToUnsignedNumber(tot_,8);
-            rs.i.readFully(tot_);
-            totalSize = Misc.castBytesToUnsignedNumber(tot_,8);
+        if (mode == CopyMoveMode.COPY) {
+            totalFileCount = RHCodec.readInt64(rs.i);
+            totalSize = RHCodec.readInt64(rs.i);
         }
         // for move, consider only top-level elements (dir and folders)
         else {
-            totalFileCount = files.files.size();
+            totalFileCount = srcs.size();
         }
 
         //////////////////////// BEGIN LEGACY /////////////////////////////
@@ -1289,18 +1496,47 @@ public class RootHelperClient implements FileOperationHelper {
         //////////////////////// END LEGACY /////////////////////////////
 
         //////////////////////// BEGIN NEW /////////////////////////////
-        new ProgressConflictHandler(rs,task,totalFileCount,totalSize,files.copyOrMove).start();
+        ProgressConflictHandler handler = new ProgressConflictHandler(rs,task,totalFileCount,totalSize,mode)
+                .setCompletionListener(listener);
+        if (jobResolver == null) handler.setConflictResolver(new ConflictPolicyResolver(conflictPolicy,this),true);
+        else handler.setConflictResolver(jobResolver,false).setPartOfJob(progressBase);
+        handler.start();
         //////////////////////// END NEW /////////////////////////////
 
         rs.close();
+        return totalSize;
     }
 
     @Override
     public byte[] hashFile(BasePathContent pathname,
                            HashRequestCodes hashAlgorithm,
                            BitSet dirHashOpts) throws IOException {
-        if (pathname instanceof XREPathContent)
-            if (!ProgressIndicator.acquire(ForegroundServiceType.XRE_HASH)) return null;
+        if (pathname instanceof LocalPathContent) {
+            SinglePath_rq rq = new hash_rq(
+                    pathname.dir,
+                    hashAlgorithm,
+                    dirHashOpts
+            );
+            return getPool().execute(rs -> {
+                this.rs = rs; // still exposed for forced close
+                rq.write(rs.o);
+
+                int resp = Misc.receiveBaseResponse(rs.i);
+                if (resp == 0) {
+                    byte[] digest = new byte[hashAlgorithm.getLength()];
+                    rs.i.readFully(digest);
+                    return digest;
+                }
+                return null;
+            });
+        }
+
+        // long term tls connection, counted against the concurrency limit of the remote host
+        TaskScheduler.Job job = null;
+        if (pathname instanceof XREPathContent) {
+            job = TaskScheduler.instance.tryAcquire(ForegroundServiceType.XRE_HASH, TaskScheduler.resourcesOf(pathname));
+            if (job == null) return null;
+        }
 
         try {
             rs = getStreams(pathname,false);
@@ -1329,7 +1565,7 @@ public class RootHelperClient implements FileOperationHelper {
         }
         finally {
             if (pathname instanceof XREPathContent) {
-                ProgressIndicator.release();
+                TaskScheduler.instance.release(job);
             }
             else rs.close();
         }
@@ -1338,6 +1574,7 @@ public class RootHelperClient implements FileOperationHelper {
 
     public void killServer() throws IOException {
         Log.d("RHClient","killserver invoked!!!!!!!!!!!!!!!");
+        getPool().clear();
         try(StreamsPair rs = getStreams()) {
             rs.o.write(ControlCodes.ACTION_EXIT.getValue());
         }
@@ -1372,7 +1609,7 @@ public class RootHelperClient implements FileOperationHelper {
     public void downloadHttpsUrl(String url, String destPath, String[] targetFilename, boolean httpsOnly) throws IOException {
         try {
             rs = getStreams();
-            try (FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(rs.o)) { // send a single packet instead of multiple ones
+            try (OutputStream nbf = RHCodec.frame(rs.o)) { // send a single packet instead of multiple ones
                 byte req = ControlCodes.ACTION_HTTPS_URL_DOWNLOAD.getValue();
                 req ^= ((httpsOnly ? 3 : 1) << 5); // flags: 011 vs 001 (most significant bit unused, httpsOnly variable, download to file true)
                 nbf.write(req);
@@ -1388,9 +1625,7 @@ public class RootHelperClient implements FileOperationHelper {
                         Log.d("RHHttpsClient","End of redirects");
                         break;
                     }
-                    byte[] errno_ = new byte[4];
-                    rs.i.readFully(errno_);
-                    int errno = (int) Misc.castBytesToUnsignedNumber(errno_,4);
+                    int errno = (int) RHCodec.readUInt32(rs.i);
                     throw new IOException("Error returned from roothelper server: " + errno);
                 }
                 byte[] tlsSessionHash = new byte[32];
@@ -1406,7 +1641,7 @@ public class RootHelperClient implements FileOperationHelper {
                 long progress = Misc.receiveTotalOrProgress(rs.i);
                 if (progress == EOF_ind) break;
                 if (downloadSize > 0)
-                    task.publishProgressWrapper(new Pair<>(progress, downloadSize));
+                    task.progress.set(progress, downloadSize);
             }
             Log.d("RHHttpsClient","Download completed");
         }
@@ -1418,7 +1653,7 @@ public class RootHelperClient implements FileOperationHelper {
     public byte[] downloadHttpsUrlInMemory(String url) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try(StreamsPair rs = getStreams()) {
-            try (FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(rs.o)) { // send a single packet instead of multiple ones
+            try (OutputStream nbf = RHCodec.frame(rs.o)) { // send a single packet instead of multiple ones
                 byte req = ControlCodes.ACTION_HTTPS_URL_DOWNLOAD.getValue();
                 req ^= (2 << 5); // flags: 010 -> most significant flag bit: unused; https only: true; download to file: false (i.e. download to memory)
                 nbf.write(req);
@@ -1434,9 +1669,7 @@ public class RootHelperClient implements FileOperationHelper {
                         Log.d("RHHttpsClient","End of redirects");
                         break;
                     }
-                    byte[] errno_ = new byte[4];
-                    rs.i.readFully(errno_);
-                    int errno = (int) Misc.castBytesToUnsignedNumber(errno_,4);
+                    int errno = (int) RHCodec.readUInt32(rs.i);
                     throw new IOException("Error returned from roothelper server: " + errno);
                 }
                 byte[] tlsSessionHash = new byte[32];
@@ -1463,7 +1696,7 @@ public class RootHelperClient implements FileOperationHelper {
     public String uploadHttpsUrl(String domain, String srcPath) throws IOException {
         try {
             rs = getStreams();
-            try (FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(rs.o)) { // send a single packet instead of multiple ones
+            try (OutputStream nbf = RHCodec.frame(rs.o)) { // send a single packet instead of multiple ones
                 nbf.write(ControlCodes.ACTION_CLOUD_SERVICES.getValue());
                 nbf.write(new byte[]{0x12, 0x00}); // HTTP upload selector string
                 Misc.sendStringWithLen(nbf,domain); // upload domain: x0.at or 0x0.st
@@ -1481,7 +1714,7 @@ public class RootHelperClient implements FileOperationHelper {
             for(;;) {
                 long progress = Misc.receiveTotalOrProgress(rs.i);
                 if (progress == EOF_ind) break;
-                task.publishProgressWrapper(new Pair<>(progress, size));
+                task.progress.set(progress, size);
             }
             Log.d("RHHttpsClient","Upload completed");
 
@@ -1536,7 +1769,22 @@ public class RootHelperClient implements FileOperationHelper {
         return new RHOutputStream(destPath);
     }
 
-    // ByteArrayOutputStream to buffer and defer bigger write chunks internally, otherwise IO will be very slow if there are a lot of small writes
+    public RHFileChannel openChannel(String path, FileIOMode mode) throws IOException {
+        return mode == FileIOMode.READFROMFILE ?
+                new RHFileChannel(new RHInputStream(path)) :
+                new RHFileChannel(new RHOutputStream(path));
+    }
+
+    public RHSeekableChannel openSeekableChannel(String path) throws IOException {
+        return new RHSeekableChannel(this,path);
+    }
+
+    /**
+     * After the open request, file content is streamed raw over the connection until EOF (read)
+     * or until the connection is closed (write). Both directions work in bulk on the connection's
+     * framed buffers: small requests are served from/coalesced into them, large ones bypass them
+     * with no intermediate copy.
+     */
 
     public class RHInputStream extends InputStream {
         private final StreamsPair rs;
@@ -1556,7 +1804,12 @@ public class RootHelperClient implements FileOperationHelper {
 
         @Override
         public int read(@NonNull byte[] b) throws IOException {
-            return rs.i.read(b);
+            return rs.i.read(b,0,b.length);
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            return rs.i.read(b,off,len);
         }
 
         @Override
@@ -1564,6 +1817,16 @@ public class RootHelperClient implements FileOperationHelper {
             return rs.i.read();
         }
 
+        @Override
+        public long skip(long n) throws IOException {
+            return rs.i.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return rs.i.available();
+        }
+
         @Override
         public void close() {
             try {rs.close();}
@@ -1573,7 +1836,7 @@ public class RootHelperClient implements FileOperationHelper {
 
     public class RHOutputStream extends OutputStream {
         private final StreamsPair rs;
-        private final ByteArrayOutputStream baos = new ByteArrayOutputStream(1048576);
+        private final OutputStream buffered; // deferred frame on the connection buffer, sent when full or on flush/close
         public RHOutputStream(String destPath) throws IOException {
             rs = getStreams();
 
@@ -1586,39 +1849,33 @@ public class RootHelperClient implements FileOperationHelper {
                 rs.close();
                 throw new IOException("File creation error");
             }
-
-        }
-
-        private void resetOnOverflow() throws IOException {
-            if (baos.size() >= 1048576) {
-                rs.o.write(baos.toByteArray());
-                baos.reset();
-            }
+            buffered = RHCodec.deferredFrame(rs.o);
         }
 
         @Override
         public void write(@NonNull byte[] b) throws IOException {
-            resetOnOverflow();
-            baos.write(b);
+            buffered.write(b,0,b.length);
         }
 
         @Override
         public void write(int i) throws IOException {
-            resetOnOverflow();
-            baos.write(i);
+            buffered.write(i);
         }
 
         @Override
         public void write(@NonNull byte[] b, int off, int len) throws IOException {
-            resetOnOverflow();
-            baos.write(b,off,len);
+            buffered.write(b,off,len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            rs.o.flush();
         }
 
         @Override
         public void close() throws IOException {
-            if (rs!=null) rs.o.write(baos.toByteArray());
-            if (rs!=null) rs.close();
-            baos.reset();
+            try {buffered.close();}
+            finally {rs.close();} // flushes pending data before closing the connection
         }
     }
 
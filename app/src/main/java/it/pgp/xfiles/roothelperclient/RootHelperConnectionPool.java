@@ -0,0 +1,265 @@
+package it.pgp.xfiles.roothelperclient;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.pgp.xfiles.service.SocketNames;
+import it.pgp.xfiles.utils.StreamsPair;
+
+/**
+ * Bounded pool of persistent connections to a local RH server instance, used by short-lived
+ * request/response interactions (stat, exists, ls, set dates, rename...) in place of opening
+ * a new {@link android.net.LocalSocket} for every single call.
+ *
+ * Server contract: reuse relies on the RH server serving further requests on a connection after
+ * completing one, until the client closes it. This is not guaranteed by the protocol, so it is checked
+ * at runtime: after {@link #MAX_CONSECUTIVE_STALE} consecutive reused connections found dropped by the server,
+ * reuse is disabled for the pool, and every interaction runs on its own connection (as before pooling).
+ * Only read-only interactions ({@link #execute}) run on reused connections and are retried;
+ * non-idempotent ones (rename, set dates/permissions/ownership) use {@link #executeOnce},
+ * which always runs them on a new connection and never sends them twice.
+ *
+ * Long-term operations (copy, compress, extract, file streams) must keep using
+ * {@link RootHelperClient#getStreams()}, since their connection is exposed for being
+ * force-closed on task cancellation.
+ */
+
+public class RootHelperConnectionPool {
+
+    public interface Call<T> {
+        T run(StreamsPair rs) throws IOException;
+    }
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    public static final long MAX_IDLE_MS = 30000;
+    public static final int MAX_CONSECUTIVE_STALE = 3;
+
+    private static final Map<SocketNames,RootHelperConnectionPool> pools = new EnumMap<>(SocketNames.class);
+
+    public static synchronized RootHelperConnectionPool forAddress(SocketNames address) {
+        RootHelperConnectionPool pool = pools.get(address);
+        if (pool == null) {
+            pool = new RootHelperConnectionPool(address, DEFAULT_MAX_CONNECTIONS);
+            pools.put(address,pool);
+        }
+        return pool;
+    }
+
+    public final SocketNames address;
+    public final int maxConnections;
+
+    private final ArrayDeque<PooledStreams> idle = new ArrayDeque<>();
+    private int live = 0; // idle + in use
+    private int consecutiveStale = 0;
+    private boolean reuseDisabled = false;
+
+    // metrics
+    public final AtomicLong hits = new AtomicLong();
+    public final AtomicLong creates = new AtomicLong();
+    public final AtomicLong waits = new AtomicLong();
+    public final AtomicLong discards = new AtomicLong();
+    public final AtomicLong retries = new AtomicLong();
+
+    RootHelperConnectionPool(SocketNames address, int maxConnections) {
+        this.address = address;
+        this.maxConnections = maxConnections;
+    }
+
+    public class PooledStreams extends RootHelperClient.RootHelperStreams {
+        long lastUsed;
+        boolean reused;
+        volatile boolean closedExternally;
+
+        PooledStreams() throws IOException {
+            super(address);
+        }
+
+        boolean isHealthy() {
+            if (closedExternally || !ls.isConnected()) return false;
+            if (SystemClock.elapsedRealtime() - lastUsed > MAX_IDLE_MS) return false;
+            try {
+                // leftover bytes from a previous interaction mean the protocol is out of sync
+                return i.available() == 0;
+            }
+            catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Explicit close by the borrower (e.g. task cancellation): the connection is torn down
+         * and will not be given back to the pool nor retried
+         */
+        @Override
+        public void close() {
+            closedExternally = true;
+            super.close();
+        }
+
+        void destroy() {
+            super.close();
+        }
+    }
+
+    public PooledStreams acquire() throws IOException {
+        return acquire(true);
+    }
+
+    /**
+     * @param allowReuse false to get a new connection even if idle ones are available
+     */
+    public PooledStreams acquire(boolean allowReuse) throws IOException {
+        synchronized (this) {
+            boolean waited = false;
+            for(;;) {
+                PooledStreams ps;
+                while (allowReuse && (ps = idle.pollLast()) != null) {
+                    if (ps.isHealthy()) {
+                        hits.incrementAndGet();
+                        ps.reused = true;
+                        return ps;
+                    }
+                    discardLocked(ps);
+                }
+                // a new connection is needed, make room for it if the pool is full of idle ones
+                if (live == maxConnections && !idle.isEmpty()) discardLocked(idle.pollFirst());
+                if (live < maxConnections) {
+                    live++;
+                    break;
+                }
+                if (!waited) {
+                    waits.incrementAndGet();
+                    waited = true;
+                }
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a roothelper connection");
+                }
+            }
+        }
+
+        // slot reserved, connect outside the lock
+        try {
+            PooledStreams ps = new PooledStreams();
+            creates.incrementAndGet();
+            return ps;
+        }
+        catch (IOException e) {
+            synchronized (this) {
+                live--;
+                notify();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param reusable false if the interaction did not complete cleanly, so the protocol state
+     *                 of the connection is unknown and it must not be handed out again
+     */
+    public synchronized void release(PooledStreams ps, boolean reusable) {
+        if (reusable && !ps.closedExternally && !reuseDisabled) {
+            ps.lastUsed = SystemClock.elapsedRealtime();
+            idle.addLast(ps);
+        }
+        else discardLocked(ps);
+        notify();
+    }
+
+    private void discardLocked(PooledStreams ps) {
+        ps.destroy();
+        live--;
+        discards.incrementAndGet();
+    }
+
+    /**
+     * Runs a complete read-only request/response interaction on a pooled connection. If it fails with an
+     * {@link IOException} on a reused connection (e.g. the server side has dropped it while idle),
+     * the interaction is transparently retried once on a freshly created one.
+     */
+    public <T> T execute(Call<T> call) throws IOException {
+        PooledStreams ps = acquire();
+        try {
+            T ret = call.run(ps);
+            if (ps.reused) onReuseOutcome(true);
+            release(ps,true);
+            return ret;
+        }
+        catch (IOException e) {
+            release(ps,false);
+            if (!ps.reused || ps.closedExternally) throw e;
+            Log.w(getClass().getName(),"Stale pooled connection, retrying on a new one",e);
+            retries.incrementAndGet();
+            onReuseOutcome(false);
+        }
+        catch (RuntimeException e) {
+            release(ps,false);
+            throw e;
+        }
+
+        synchronized (this) {
+            // stale connections most likely share the same fate, drop all of them
+            while (!idle.isEmpty()) discardLocked(idle.pollFirst());
+        }
+        return executeOnce(call);
+    }
+
+    /**
+     * Runs a request/response interaction on a new connection, without retries,
+     * for requests that must not be sent twice (the connection is pooled afterwards)
+     */
+    public <T> T executeOnce(Call<T> call) throws IOException {
+        PooledStreams ps = acquire(false);
+        try {
+            T ret = call.run(ps);
+            release(ps,true);
+            return ret;
+        }
+        catch (IOException|RuntimeException e) {
+            release(ps,false);
+            throw e;
+        }
+    }
+
+    // runtime check of the server contract, see class comment
+    private synchronized void onReuseOutcome(boolean served) {
+        if (served) {
+            consecutiveStale = 0;
+            return;
+        }
+        if (++consecutiveStale >= MAX_CONSECUTIVE_STALE && !reuseDisabled) {
+            reuseDisabled = true;
+            while (!idle.isEmpty()) discardLocked(idle.pollFirst());
+            Log.w(getClass().getName(),"Server does not keep connections open, disabling reuse: "+this);
+        }
+    }
+
+    public synchronized void clear() {
+        while (!idle.isEmpty()) discardLocked(idle.pollFirst());
+        Log.d(getClass().getName(),"Pool cleared, "+this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RootHelperConnectionPool{" +
+                "address=" + address +
+                ", live=" + live +
+                ", idle=" + idle.size() +
+                ", hits=" + hits.get() +
+                ", creates=" + creates.get() +
+                ", waits=" + waits.get() +
+                ", discards=" + discards.get() +
+                ", retries=" + retries.get() +
+                ", reuseDisabled=" + reuseDisabled +
+                '}';
+    }
+}
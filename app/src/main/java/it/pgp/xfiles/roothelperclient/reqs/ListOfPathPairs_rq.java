@@ -7,8 +7,8 @@ import java.nio.ByteOrder;
 import java.util.Iterator;
 import java.util.List;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 import it.pgp.xfiles.utils.Misc;
 
 /**
@@ -30,7 +30,7 @@ public class ListOfPathPairs_rq extends BaseRHRequest {
     @Override
     public void write(OutputStream outputStream) throws IOException {
         final byte[] listEnd = new byte[]{0,0,0,0};
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             // write control byte
             nbf.write(requestType.getValue());
 
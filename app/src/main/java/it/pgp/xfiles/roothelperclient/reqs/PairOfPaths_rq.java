@@ -3,9 +3,8 @@ package it.pgp.xfiles.roothelperclient.reqs;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 25/01/17
@@ -39,12 +38,12 @@ public abstract class PairOfPaths_rq extends BaseRHRequest {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             // write control byte
             nbf.write(getRequestByteWithFlags());
             // write lengths and fields
-            nbf.write(Misc.castUnsignedNumberToBytes(lx,2));
-            nbf.write(Misc.castUnsignedNumberToBytes(ly,2));
+            RHCodec.writeUInt16(nbf,lx);
+            RHCodec.writeUInt16(nbf,ly);
             nbf.write(fx);
             nbf.write(fy);
         }
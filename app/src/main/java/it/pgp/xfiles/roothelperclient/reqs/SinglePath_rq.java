@@ -3,9 +3,8 @@ package it.pgp.xfiles.roothelperclient.reqs;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 25/01/17
@@ -37,11 +36,11 @@ public abstract class SinglePath_rq extends BaseRHRequest {
     }
 
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             // write request byte
             nbf.write(getRequestByteWithFlags());
             // write len and field
-            nbf.write(Misc.castUnsignedNumberToBytes(this.pathname_len,2));
+            RHCodec.writeUInt16(nbf,this.pathname_len);
             nbf.write(this.pathname);
         }
     }
@@ -4,12 +4,10 @@ import android.support.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.List;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 30/05/17
@@ -17,7 +15,7 @@ import it.pgp.xfiles.utils.Misc;
 
 public class compress_rq extends PairOfPaths_rq {
 
-    List<byte[]> filenames;
+    List<String> filenames; // encoded while writing, may be a view over a large selection
     byte[] password;
     compress_rq_options compress_options;
 
@@ -33,17 +31,13 @@ public class compress_rq extends PairOfPaths_rq {
 
         if (password == null) this.password = new byte[0];
         else this.password = password.getBytes();
-        if (filenames == null) return;
-        this.filenames = new ArrayList<>();
-        for (String x : filenames) {
-            this.filenames.add(x.getBytes(UTF8));
-        }
+        this.filenames = filenames;
     }
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
         super.write(outputStream);
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             compress_options.writecompress_rq_options(nbf);
 
             nbf.write(password.length); // single byte (8 least significant bits of the 32-bit integer)
@@ -55,9 +49,10 @@ public class compress_rq extends PairOfPaths_rq {
             }
             else {
                 // send n. of filenames
-                nbf.write(Misc.castUnsignedNumberToBytes(filenames.size(),4)); // send as 4-byte integer
-                for (byte[] x : filenames) {
-                    nbf.write(Misc.castUnsignedNumberToBytes(x.length,2));
+                RHCodec.writeUInt32(nbf,filenames.size()); // send as 4-byte integer
+                for (String filename : filenames) {
+                    byte[] x = filename.getBytes(UTF8);
+                    RHCodec.writeUInt16(nbf,x.length);
                     nbf.write(x);
                 }
             }
@@ -4,10 +4,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import it.pgp.xfiles.enums.FileMode;
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.items.FileCreationAdvancedOptions;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 31/01/17
@@ -42,14 +41,14 @@ public class create_rq extends SinglePath_rq {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             // write request byte
             nbf.write(getRequestByteWithFlags());
             // write len and field
-            nbf.write(Misc.castUnsignedNumberToBytes(this.pathname_len,2));
+            RHCodec.writeUInt16(nbf,this.pathname_len);
             nbf.write(this.pathname);
             // write mode
-            nbf.write(Misc.castUnsignedNumberToBytes(fileMode.getDefaultMask(),4));
+            RHCodec.writeUInt32(nbf,fileMode.getDefaultMask());
             if(fileOptions != null) nbf.write(fileOptions.toRootHelperRequestOptions());
         }
     }
@@ -5,8 +5,8 @@ import android.support.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 import it.pgp.xfiles.roothelperclient.RelativeExtractEntries;
 import it.pgp.xfiles.utils.Misc;
 
@@ -46,7 +46,7 @@ public class extract_rq extends PairOfPaths_rq {
     @Override
     public void write(OutputStream outputStream) throws IOException {
         super.write(outputStream);
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             if (password == null) {
                 nbf.write(new byte[]{0}); // password length 0, 1 byte
             }
@@ -58,10 +58,10 @@ public class extract_rq extends PairOfPaths_rq {
                 nbf.write(new byte[]{0,0,0,0}); // 0-length as integer, 4 byte
             }
             else {
-                nbf.write(Misc.castUnsignedNumberToBytes(entries.entries.size(),4));
+                RHCodec.writeUInt32(nbf,entries.entries.size());
                 for (Integer entry : entries.entries)
-                    nbf.write(Misc.castUnsignedNumberToBytes(entry,4));
-                nbf.write(Misc.castUnsignedNumberToBytes(entries.stripPathLen,4));
+                    RHCodec.writeUInt32(nbf,entry);
+                RHCodec.writeUInt32(nbf,entries.stripPathLen);
             }
         }
     }
@@ -4,9 +4,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import it.pgp.xfiles.enums.FileIOMode;
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 06/11/17
@@ -30,10 +29,10 @@ public class fileio_rq extends SinglePath_rq {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             nbf.write(getRequestByteWithFlags());
             // write len and field
-            nbf.write(Misc.castUnsignedNumberToBytes(this.pathname_len,2));
+            RHCodec.writeUInt16(nbf,this.pathname_len);
             nbf.write(this.pathname);
         }
     }
@@ -6,8 +6,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 import it.pgp.xfiles.utils.Misc;
 
 public class find_rq extends BaseRHRequest {
@@ -121,7 +121,7 @@ public class find_rq extends BaseRHRequest {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             nbf.write(getRequestByteWithFlags());
             if (flagBits.cancelCurrentSearch) return;
 
@@ -129,15 +129,15 @@ public class find_rq extends BaseRHRequest {
 
             for(String basepath : basepaths) {
                 byte[] bp = basepath.getBytes();
-                nbf.write(Misc.castUnsignedNumberToBytes(bp.length,2));
+                RHCodec.writeUInt16(nbf,bp.length);
                 nbf.write(bp);
             }
             nbf.write(Misc.EOL);
 
-            nbf.write(Misc.castUnsignedNumberToBytes(filenamePattern.length,2));
+            RHCodec.writeUInt16(nbf,filenamePattern.length);
             if (filenamePattern.length!=0) nbf.write(filenamePattern);
 
-            nbf.write(Misc.castUnsignedNumberToBytes(contentPattern.length,2));
+            RHCodec.writeUInt16(nbf,contentPattern.length);
             if (contentPattern.length!=0) nbf.write(contentPattern);
         }
     }
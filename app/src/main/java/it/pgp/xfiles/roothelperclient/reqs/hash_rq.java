@@ -4,10 +4,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.BitSet;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 import it.pgp.xfiles.roothelperclient.HashRequestCodes;
-import it.pgp.xfiles.utils.Misc;
 
 /**
  * Created by pgp on 03/02/17
@@ -35,7 +34,7 @@ public class hash_rq extends SinglePath_rq {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             // write request byte
             nbf.write(requestType.getValue());
             // write algorithm byte
@@ -49,7 +48,7 @@ public class hash_rq extends SinglePath_rq {
             nbf.write(dirHashOpts_);
 
             // write len and field (digest output length is implicit)
-            nbf.write(Misc.castUnsignedNumberToBytes(this.pathname_len,2));
+            RHCodec.writeUInt16(nbf,this.pathname_len);
             nbf.write(this.pathname);
         }
     }
@@ -3,8 +3,8 @@ package it.pgp.xfiles.roothelperclient.reqs;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 import it.pgp.xfiles.utils.Misc;
 
 /**
@@ -39,9 +39,9 @@ public class ls_archive_rq extends SinglePath_rq {
     }
 
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             nbf.write(getRequestByteWithFlags());
-            nbf.write(Misc.castUnsignedNumberToBytes(this.pathname_len,2));
+            RHCodec.writeUInt16(nbf,this.pathname_len);
             nbf.write(this.pathname);
             nbf.write(Misc.castUnsignedNumberToBytes(this.password_len,1));
             nbf.write(this.password);
@@ -5,8 +5,8 @@ import java.io.OutputStream;
 import java.util.BitSet;
 import java.util.List;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 import it.pgp.xfiles.utils.Misc;
 
 /**
@@ -36,7 +36,7 @@ public class multiStats_rq extends BaseRHRequest {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             byte[] entry,entryLen;
             nbf.write(getRequestByteWithFlags());
 
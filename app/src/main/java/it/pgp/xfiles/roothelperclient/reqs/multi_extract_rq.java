@@ -6,8 +6,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 import it.pgp.xfiles.utils.Misc;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
@@ -39,20 +39,20 @@ public class multi_extract_rq extends BaseRHRequest {
     @Override
     public void write(OutputStream outputStream) throws IOException {
         byte[] b;
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             // send control byte
             nbf.write(getRequestByteWithFlags());
 
             // send source archives list and destination directory
             for(BasePathContent s : fx) {
                 b = s.dir.getBytes(UTF8);
-                nbf.write(Misc.castUnsignedNumberToBytes(b.length,2));
+                RHCodec.writeUInt16(nbf,b.length);
                 nbf.write(b);
             }
             nbf.write(Misc.EOL);
 
             b = fy.getBytes(UTF8);
-            nbf.write(Misc.castUnsignedNumberToBytes(b.length,2));
+            RHCodec.writeUInt16(nbf,b.length);
             nbf.write(b);
 
             if (password == null) {
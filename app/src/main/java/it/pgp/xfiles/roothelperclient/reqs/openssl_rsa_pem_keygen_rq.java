@@ -3,9 +3,8 @@ package it.pgp.xfiles.roothelperclient.reqs;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 09/12/17
@@ -22,9 +21,9 @@ public class openssl_rsa_pem_keygen_rq extends BaseRHRequest {
     }
 
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             nbf.write(getRequestByteWithFlags());
-            if(keySize > 0) nbf.write(Misc.castUnsignedNumberToBytes(keySize,4));
+            if(keySize > 0) RHCodec.writeUInt32(nbf,keySize);
         }
     }
 }
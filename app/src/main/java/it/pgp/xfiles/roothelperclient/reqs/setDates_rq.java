@@ -6,8 +6,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Date;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 22/11/17
@@ -26,7 +25,7 @@ public class setDates_rq extends setAttributes_rq {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             additionalByte = ((accessDateSeconds==null)?0:1) + ((modificationDateSeconds==null)?0:2);
             additionalByte += (SubRequest.SET_DATES.ordinal() << setAttributes_rq.bitOffsetForSubrequest);
 
@@ -37,15 +36,15 @@ public class setDates_rq extends setAttributes_rq {
             nbf.write(additionalByte); // writes only LSB 8 bits of integer, as expected
 
             // write len and filename
-            nbf.write(Misc.castUnsignedNumberToBytes(this.pathname_len,2));
+            RHCodec.writeUInt16(nbf,this.pathname_len);
             nbf.write(this.pathname);
 
             // write timestamps
             if (accessDateSeconds != null) {
-                nbf.write(Misc.castUnsignedNumberToBytes(accessDateSeconds,4));
+                RHCodec.writeUInt32(nbf,accessDateSeconds);
             }
             if (modificationDateSeconds != null) {
-                nbf.write(Misc.castUnsignedNumberToBytes(modificationDateSeconds,4));
+                RHCodec.writeUInt32(nbf,modificationDateSeconds);
             }
         }
     }
@@ -5,8 +5,7 @@ import android.support.annotation.Nullable;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 22/11/17
@@ -24,7 +23,7 @@ public class setOwnership_rq extends setAttributes_rq {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             additionalByte = ((ownerId==null)?0:1) + ((groupId==null)?0:2);
             additionalByte += (SubRequest.SET_OWNERSHIP.ordinal() << setAttributes_rq.bitOffsetForSubrequest);
 
@@ -35,14 +34,14 @@ public class setOwnership_rq extends setAttributes_rq {
             nbf.write(additionalByte); // writes only LSB 8 bits of integer, as expected
 
             // write len and filename
-            nbf.write(Misc.castUnsignedNumberToBytes(pathname_len,2));
+            RHCodec.writeUInt16(nbf,pathname_len);
             nbf.write(pathname);
 
             // write ownerships
             if (ownerId != null)
-                nbf.write(Misc.castUnsignedNumberToBytes(ownerId,4));
+                RHCodec.writeUInt32(nbf,ownerId);
             if (groupId != null)
-                nbf.write(Misc.castUnsignedNumberToBytes(groupId,4));
+                RHCodec.writeUInt32(nbf,groupId);
         }
     }
 }
@@ -3,8 +3,7 @@ package it.pgp.xfiles.roothelperclient.reqs;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 22/11/17
@@ -20,7 +19,7 @@ public class setPermission_rq extends setAttributes_rq {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             additionalByte = SubRequest.SET_PERMISSIONS.ordinal() << setAttributes_rq.bitOffsetForSubrequest;
 
             // write request byte
@@ -30,11 +29,11 @@ public class setPermission_rq extends setAttributes_rq {
             nbf.write(additionalByte); // writes only LSB 8 bits of integer, as expected
 
             // write len and filename
-            nbf.write(Misc.castUnsignedNumberToBytes(pathname_len,2));
+            RHCodec.writeUInt16(nbf,pathname_len);
             nbf.write(pathname);
 
             // write permission
-            nbf.write(Misc.castUnsignedNumberToBytes(permissions,4));
+            RHCodec.writeUInt32(nbf,permissions);
         }
     }
 }
@@ -5,9 +5,8 @@ import java.io.OutputStream;
 import java.util.BitSet;
 
 import it.pgp.xfiles.enums.FileMode;
-import it.pgp.xfiles.io.FlushingBufferedOutputStream;
 import it.pgp.xfiles.roothelperclient.ControlCodes;
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 06/02/17
@@ -32,10 +31,10 @@ public class singleStats_rq extends SinglePath_rq {
 
     @Override
     public void write(OutputStream outputStream) throws IOException {
-        try(FlushingBufferedOutputStream nbf = new FlushingBufferedOutputStream(outputStream)) {
+        try(OutputStream nbf = RHCodec.frame(outputStream)) {
             nbf.write(getRequestByteWithFlags());
             // write len and field
-            nbf.write(Misc.castUnsignedNumberToBytes(pathname_len,2));
+            RHCodec.writeUInt16(nbf,pathname_len);
             nbf.write(pathname);
         }
     }
@@ -3,7 +3,7 @@ package it.pgp.xfiles.roothelperclient.resps;
 import java.io.DataInputStream;
 import java.io.IOException;
 
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 public class find_resp {
 
@@ -18,16 +18,12 @@ public class find_resp {
         resp.fileItem = ls_resp.readNext(inputStream);
         if(resp.fileItem == null) return null; // end of list indication
 
-        byte[] tmp = new byte[1];
-        inputStream.readFully(tmp);
-        int contentAround_len = (int) Misc.castBytesToUnsignedNumber(tmp,1);
+        int contentAround_len = RHCodec.readUInt8(inputStream);
 
         if (contentAround_len != 0) {
             resp.contentAround = new byte[contentAround_len];
             inputStream.readFully(resp.contentAround);
-            tmp = new byte[8];
-            inputStream.readFully(tmp);
-            resp.offset = Misc.castBytesToUnsignedNumber(tmp,8);
+            resp.offset = RHCodec.readInt64(inputStream);
         }
 
         return resp;
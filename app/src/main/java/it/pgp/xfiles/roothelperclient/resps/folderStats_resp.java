@@ -4,6 +4,8 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import it.pgp.xfiles.roothelperclient.RHCodec;
+
 public class folderStats_resp {
 
     public long childrenDirs;
@@ -32,22 +34,11 @@ public class folderStats_resp {
         return o;
     }
     public folderStats_resp(DataInputStream inputStream) throws IOException {
-        byte[] tmp;
-        tmp = new byte[8];
-        inputStream.readFully(tmp);
-        this.childrenDirs = castBytesToUnsignedNumber(tmp);
-        tmp = new byte[8];
-        inputStream.readFully(tmp);
-        this.childrenFiles = castBytesToUnsignedNumber(tmp);
-        tmp = new byte[8];
-        inputStream.readFully(tmp);
-        this.totalDirs = castBytesToUnsignedNumber(tmp);
-        tmp = new byte[8];
-        inputStream.readFully(tmp);
-        this.totalFiles = castBytesToUnsignedNumber(tmp);
-        tmp = new byte[8];
-        inputStream.readFully(tmp);
-        this.totalSize = castBytesToUnsignedNumber(tmp);
+        this.childrenDirs = RHCodec.readInt64(inputStream);
+        this.childrenFiles = RHCodec.readInt64(inputStream);
+        this.totalDirs = RHCodec.readInt64(inputStream);
+        this.totalFiles = RHCodec.readInt64(inputStream);
+        this.totalSize = RHCodec.readInt64(inputStream);
     }
 
     public folderStats_resp() {}
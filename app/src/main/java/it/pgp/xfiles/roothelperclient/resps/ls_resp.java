@@ -3,7 +3,7 @@ package it.pgp.xfiles.roothelperclient.resps;
 import java.io.DataInputStream;
 import java.io.IOException;
 
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 public class ls_resp {
     public byte[] filename;
@@ -14,23 +14,15 @@ public class ls_resp {
     private ls_resp() {}
 
     public static ls_resp readNext(DataInputStream inputStream) throws IOException {
-        ls_resp resp = new ls_resp();
-        byte[] tmp;
-        tmp = new byte[2];
-        inputStream.readFully(tmp);
-        int filename_len = (int) Misc.castBytesToUnsignedNumber(tmp,2);
+        int filename_len = RHCodec.readUInt16(inputStream);
         if (filename_len == 0) return null; // end of list indication
+        ls_resp resp = new ls_resp();
         resp.filename = new byte[filename_len];
         inputStream.readFully(resp.filename);
-        tmp = new byte[4];
-        inputStream.readFully(tmp);
-        resp.date = Misc.castBytesToUnsignedNumber(tmp,4);
-        tmp = new byte[10];
-        inputStream.readFully(tmp);
-        resp.permissions = tmp;
-        tmp = new byte[8];
-        inputStream.readFully(tmp);
-        resp.size = Misc.castBytesToUnsignedNumber(tmp,8);
+        resp.date = RHCodec.readUInt32(inputStream);
+        resp.permissions = new byte[10];
+        inputStream.readFully(resp.permissions);
+        resp.size = RHCodec.readInt64(inputStream);
         return resp;
     }
 
@@ -3,7 +3,7 @@ package it.pgp.xfiles.roothelperclient.resps;
 import java.io.DataInputStream;
 import java.io.IOException;
 
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 public class singleStats_resp {
 
@@ -18,32 +18,18 @@ public class singleStats_resp {
     public long size;
 
     public singleStats_resp(DataInputStream inputStream) throws IOException {
-        byte[] tmp;
-        tmp = new byte[1];
-        inputStream.readFully(tmp);
-        this.group_len = (int) Misc.castBytesToUnsignedNumber(tmp,1);
+        this.group_len = RHCodec.readUInt8(inputStream);
         this.group = new byte[group_len];
         inputStream.readFully(this.group);
-        tmp = new byte[1];
-        inputStream.readFully(tmp);
-        this.owner_len = (int) Misc.castBytesToUnsignedNumber(tmp,1);
+        this.owner_len = RHCodec.readUInt8(inputStream);
         this.owner = new byte[owner_len];
         inputStream.readFully(this.owner);
-        tmp = new byte[4];
-        inputStream.readFully(tmp);
-        this.creationTime = Misc.castBytesToUnsignedNumber(tmp,4);
-        tmp = new byte[4];
-        inputStream.readFully(tmp);
-        this.lastAccessTime = Misc.castBytesToUnsignedNumber(tmp,4);
-        tmp = new byte[4];
-        inputStream.readFully(tmp);
-        this.modificationTime = Misc.castBytesToUnsignedNumber(tmp,4);
-        tmp = new byte[10];
-        inputStream.readFully(tmp);
-        this.permissions = tmp;
-        tmp = new byte[8];
-        inputStream.readFully(tmp);
-        this.size = Misc.castBytesToUnsignedNumber(tmp,8);
+        this.creationTime = RHCodec.readUInt32(inputStream);
+        this.lastAccessTime = RHCodec.readUInt32(inputStream);
+        this.modificationTime = RHCodec.readUInt32(inputStream);
+        this.permissions = new byte[10];
+        inputStream.readFully(this.permissions);
+        this.size = RHCodec.readInt64(inputStream);
     }
 
     public singleStats_resp(byte[] group, byte[] owner, long creationTime, long lastAccessTime, long modificationTime, byte[] permissions, long size)  {
@@ -3,7 +3,7 @@ package it.pgp.xfiles.roothelperclient.resps;
 import java.io.DataInputStream;
 import java.io.IOException;
 
-import it.pgp.xfiles.utils.Misc;
+import it.pgp.xfiles.roothelperclient.RHCodec;
 
 /**
  * Created by pgp on 09/12/17
@@ -15,19 +15,11 @@ public class ssh_keygen_resp {
 
     public ssh_keygen_resp(DataInputStream inputStream) throws IOException {
         // private key
-        byte[] b = new byte[4];
-        inputStream.readFully(b);
-        int len = (int) Misc.castBytesToUnsignedNumber(b,4);
-        b = new byte[len];
-        inputStream.readFully(b);
-        privateKey = new String(b);
+        int len = (int) RHCodec.readUInt32(inputStream);
+        privateKey = RHCodec.readUTF8(inputStream,len);
 
         // public key
-        b = new byte[4];
-        inputStream.readFully(b);
-        len = (int) Misc.castBytesToUnsignedNumber(b,4);
-        b = new byte[len];
-        inputStream.readFully(b);
-        publicKey = new String(b);
+        len = (int) RHCodec.readUInt32(inputStream);
+        publicKey = RHCodec.readUTF8(inputStream,len);
     }
 }
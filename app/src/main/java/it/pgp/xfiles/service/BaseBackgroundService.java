@@ -10,6 +10,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.IBinder;
 import android.os.PowerManager;
@@ -69,7 +70,7 @@ public abstract class BaseBackgroundService extends Service {
         AlertDialog.Builder bld = new AlertDialog.Builder(this);
         bld.setTitle("Cancel "+getClass().getName()+"?");
         bld.setNegativeButton(android.R.string.cancel, null);
-        bld.setPositiveButton(android.R.string.ok, (dialog, which) -> task.cancelTask());
+        bld.setPositiveButton(android.R.string.ok, (dialog, which) -> TaskScheduler.instance.cancel(task.job));
         AlertDialog alertDialog = bld.create();
         alertDialog.getWindow().setType(ViewType.OVERLAY_WINDOW_TYPE);
         alertDialog.show();
@@ -131,7 +132,9 @@ public abstract class BaseBackgroundService extends Service {
 	@Override
     public void onDestroy() {
 	    if (wakeLock.isHeld()) wakeLock.release();
+	    if (task != null) TaskScheduler.instance.release(task.job); // no-op if already released by the task
         super.onDestroy();
+        TaskScheduler.instance.onServiceDestroyed(getApplicationContext(), getClass());
     }
 	
 	@Override
@@ -147,11 +150,6 @@ public abstract class BaseBackgroundService extends Service {
         switch (currentAction) {
             case START_ACTION:
                 task = getTask();
-                if (!task.init(this)) {
-                    Toast.makeText(getApplicationContext(), "Cannot start service, overlay is busy", Toast.LENGTH_SHORT).show();
-                    stopSelf();
-                    return;
-                }
                 wakeLock.acquire();
                 break;
             // Forbidden zone
@@ -174,7 +172,30 @@ public abstract class BaseBackgroundService extends Service {
         Notification notification = getForegroundNotificationBuilder().build();
         createNotificationChannelForService();
         startForeground(getForegroundServiceNotificationId(),notification);
-        task.execute((Void[])null);
+
+        // the task may have to wait for other ones using the same resources
+        final BaseBackgroundTask t = task;
+        t.job = TaskScheduler.instance.submit(getFgServiceType(), foreground_ticker, t.getResources(), t.progress,
+                () -> {
+                    if (!t.init(this)) {
+                        Toast.makeText(getApplicationContext(), "Cannot start service", Toast.LENGTH_SHORT).show();
+                        TaskScheduler.instance.release(t.job);
+                        stopForeground(true);
+                        stopSelf();
+                        return;
+                    }
+                    t.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                },
+                () -> {
+                    if (t.job.isRunning()) t.cancelTask();
+                    else {
+                        stopForeground(true);
+                        stopSelf();
+                    }
+                });
+        if (!t.job.isRunning())
+            notificationManager.notify(getForegroundServiceNotificationId(),
+                    getForegroundNotificationBuilder().setContentText("Queued, waiting for other tasks...").build());
     }
 
     protected abstract BaseBackgroundTask getTask();
@@ -191,7 +212,7 @@ public abstract class BaseBackgroundService extends Service {
                 return START_NOT_STICKY;
             }
 
-            params = EffectActivity.serviceParams;
+            params = EffectActivity.takeServiceParams(intent);
             if (params == null) {
                 throw new RuntimeException("Null params not allowed in start action");
             }
@@ -200,6 +221,8 @@ public abstract class BaseBackgroundService extends Service {
             startAndShowNotificationBar();
         }
         else {
+            Serializable queuedParams = START_ACTION.equals(intent.getAction()) ?
+                    EffectActivity.takeServiceParams(intent) : null;
             // trying to abort?
             if (intent.getAction().equals(CANCEL_ACTION)) {
                 abortServiceWithConfirmation();
@@ -208,7 +231,13 @@ public abstract class BaseBackgroundService extends Service {
                 task.pauseTask();
                 Toast.makeText(getApplicationContext(),"Service paused",Toast.LENGTH_LONG).show();
             }
-            // trying to start another concurrent task?
+            // trying to start another task of the same kind? run it when this one ends
+            else if (queuedParams != null) {
+                TaskScheduler.instance.addPendingStart(getClass(), queuedParams, foreground_ticker);
+                Toast.makeText(getApplicationContext(),
+                        "Service busy, task queued",
+                        Toast.LENGTH_SHORT).show();
+            }
             else {
                 Toast.makeText(getApplicationContext(),
                         "Service already running!",
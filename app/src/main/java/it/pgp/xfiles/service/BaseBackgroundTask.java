@@ -3,21 +3,21 @@ package it.pgp.xfiles.service;
 import android.app.NotificationManager;
 import android.content.Context;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 
 import java.io.Serializable;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Collection;
 
-import it.pgp.xfiles.EffectActivity;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
-import it.pgp.xfiles.enums.ForegroundServiceType;
 import it.pgp.xfiles.enums.ServiceStatus;
+import it.pgp.xfiles.service.visualization.ProgressCounters;
 import it.pgp.xfiles.service.visualization.ProgressIndicator;
-import it.pgp.xfiles.utils.Pair;
+import it.pgp.xfiles.utils.SelectionStore;
 
-public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long>,Object> {
+public abstract class BaseBackgroundTask extends AsyncTask<Object,Void,Object> {
 	
 	protected NotificationCompat.Builder builder;
     // for notifying progress on foreground service progress bar
@@ -25,6 +25,9 @@ public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long
 
     public ProgressIndicator mr;
 
+    // written by workers, sampled by the UI on progressTick
+    public final ProgressCounters progress = new ProgressCounters();
+
     protected BaseBackgroundService service;
 	public ServiceStatus status;
 
@@ -32,7 +35,7 @@ public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long
 
     public Serializable params; // to be down-casted in subclasses
 
-    public static final Deque<Runnable> nextAutoTasks = new ArrayDeque<>();
+    public TaskScheduler.Job job; // admission state in TaskScheduler
 
     public BaseBackgroundTask(Serializable params) {
         this.params = params;
@@ -51,15 +54,17 @@ public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long
         // initialized in subclasses (MovingRibbon for Compress and extract tasks, MovingRibbonTwoBars for copy/move tasks
 //        mr = new MovingRibbon(service,windowManager);
 
-        // before initializing ribbon overlay, ensure to lock that resource (check if already locked)
-
-        // progress interface lock to be done in subclasses
-//        return ProgressIndicator.busy.compareAndSet(false,true); // compareAndSet true -> ok
-
-        ForegroundServiceType f = service.getFgServiceType();
-        return f != null && ProgressIndicator.acquire(f);
+        // called by the scheduler on admission, so the overlay is only shown for running tasks
+        return service.getFgServiceType() != null;
     }
 	
+    /**
+     * Resources used by this task, for concurrency limits in {@link TaskScheduler}
+     */
+    public Collection<String> getResources() {
+        return TaskScheduler.defaultResources();
+    }
+
 	public void cancelTask() {
 		status = ServiceStatus.CANCELLED;
 		// to be explicitly overriden, task has to exit from doInBackground in order to stop foreground notification in onPostExecute
@@ -75,40 +80,78 @@ public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long
         builder.setProgress(100,0,false);
         nm.notify(service.getForegroundServiceNotificationId(), builder.build());
         status = ServiceStatus.ACTIVE;
+        progress.throughput.start();
+        uiHandler.post(progressTick);
     }
 
     /**
-     * throttle UI progress update in order to make the buttons "easily" clickable
+     * Progress is sampled from {@link #progress} at fixed intervals on the UI thread,
+     * instead of receiving one publishProgress message per worker update (most of which would be dropped anyway);
+     * the foreground notification is updated at a coarser rate, in order to make its buttons "easily" clickable
      * Web source:
      * https://stackoverflow.com/questions/6390016/android-notification-progressbar-freezing/28336857
      */
 
-    protected long lastProgressUpdate = 0; // for overlay ribbon (fine)
+    protected final Handler uiHandler = new Handler(Looper.getMainLooper());
+    protected long lastSampledUpdate = 0;
     protected long lastProgressUpdateFgNotif = 0; // for foreground notification (coarse)
 
     public static final int OVERLAY_UPDATE_INTERVAL = 25;
     public static final int FGNOTIF_UPDATE_INTERVAL = 500;
 
-    @Override
-    protected void onProgressUpdate(Pair<Long,Long>... values) {
-        // Update progress
-        long current = System.currentTimeMillis();
-        if(current - lastProgressUpdate > OVERLAY_UPDATE_INTERVAL) { // milliseconds
-            mr.setProgress(values);
-            lastProgressUpdate = current;
+    private final Runnable progressTick = new Runnable() {
+        @Override
+        public void run() {
+            long updates = progress.getUpdates();
+            // rates are refreshed even without new progress, so that they decay during stalls
+            boolean resampled = progress.throughput.sample(progress);
+            if(updates != lastSampledUpdate || resampled) {
+                lastSampledUpdate = updates;
+                onProgressTick();
+            }
+            uiHandler.postDelayed(this, OVERLAY_UPDATE_INTERVAL);
         }
+    };
+
+    // called on UI thread when progress counters have changed since last tick
+    protected void onProgressTick() {
+        mr.update(progress);
+        long current = System.currentTimeMillis();
         if(current - lastProgressUpdateFgNotif > FGNOTIF_UPDATE_INTERVAL) {
-            builder.setProgress(100, (int) Math.round(values[0].i * 100.0 / values[0].j), false);
+            builder.setProgress(100, ProgressCounters.percent(progress.getOuterDone(), progress.getOuterTotal()), progress.isTotalPending());
+            builder.setSubText(progress.throughput.formatSpeed()+" - "+progress.throughput.formatEta(progress));
             nm.notify(service.getForegroundServiceNotificationId(), builder.build());
             lastProgressUpdateFgNotif = current;
         }
+    }
 
-        super.onProgressUpdate(values);
+    // per-job summary of throughput and time spent per phase, kept in the scheduler's recent history
+    private void endTiming() {
+        progress.throughput.finish(progress);
+        String summary = progress.throughput.summary(progress);
+        Log.i(getClass().getName(), summary);
+        TaskScheduler.instance.addSummary(job == null ? getClass().getSimpleName() : job.label, summary);
+    }
+
+    @Override
+    protected void onCancelled() {
+        super.onCancelled();
+        uiHandler.removeCallbacks(progressTick);
+        endTiming();
+        TaskScheduler.instance.release(job);
+        releaseSelection();
+    }
+
+    // selections in params are not needed anymore, once the task has ended
+    private void releaseSelection() {
+        if (params instanceof SelectionStore.Holder) ((SelectionStore.Holder) params).releaseSelection();
     }
 
     @Override
     protected void onPostExecute(Object o) {
         super.onPostExecute(o);
+        uiHandler.removeCallbacks(progressTick);
+        endTiming();
         mr.destroy();
         // in case of user cancelling task, cancel status is set before this
         if (status != ServiceStatus.CANCELLED)
@@ -116,27 +159,12 @@ public abstract class BaseBackgroundTask extends AsyncTask<Object,Pair<Long,Long
         service.stopForeground(true);
         service.stopSelf();
 
-        // unlock ribbon overlay resource
-        ProgressIndicator.release();
-
-        if(!nextAutoTasks.isEmpty()) {
-            if(result == null || result == FileOpsErrorCodes.OK) {
-                Log.d(getClass().getName(),"Starting next auto task...");
-                new Thread(nextAutoTasks.pop()).start();
-            }
-            else {
-                Log.d(getClass().getName(),"Current task failed, clearing next auto tasks...");
-                nextAutoTasks.clear();
-            }
-        }
-
-        EffectActivity.serviceParams = null;
+        // let queued tasks using the same resources start
+        TaskScheduler.instance.release(job);
+        TaskScheduler.instance.onCompleted(params, result == null || result == FileOpsErrorCodes.OK);
+        releaseSelection();
     }
 
     @Override
     protected abstract Object doInBackground(Object[] params);
-
-    public void publishProgressWrapper(Pair<Long,Long>... values) {
-        publishProgress(values);
-    }
 }
\ No newline at end of file
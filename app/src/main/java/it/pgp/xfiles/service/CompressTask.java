@@ -5,6 +5,7 @@ import android.widget.Toast;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
@@ -39,6 +40,11 @@ public class CompressTask extends RootHelperClientTask {
         return true;
     }
 
+    @Override
+    public Collection<String> getResources() {
+        return TaskScheduler.resourcesOf(params.srcDirectory, params.destArchive);
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
@@ -2,25 +2,35 @@ package it.pgp.xfiles.service;
 
 import android.widget.Toast;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 
+import it.pgp.xfiles.CopyListUris;
 import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.enums.CopyMoveMode;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.enums.ServiceStatus;
+import it.pgp.xfiles.roothelperclient.PipelinedCopyMove;
 import it.pgp.xfiles.service.params.CopyMoveParams;
 import it.pgp.xfiles.service.visualization.MovingRibbonTwoBars;
+import it.pgp.xfiles.utils.TransferJournal;
+import it.pgp.xfiles.utils.XFilesUtils;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
 
 /**
  * Created by pgp on 23/06/17
- * Using roothelper only
+ * Using roothelper, or an in-app copy for plain local copies if roothelper cannot be reached
  */
 
 public class CopyMoveTask extends RootHelperClientTask {
 
     CopyMoveParams params;
     private BasePathContent currentDir; // for refreshing dir listview (if not changed meanwhile) on operation end
+    private TransferJournal journal;
+    private XFilesUtils inAppHelper; // used when roothelper is not reachable
 
 
     CopyMoveTask(Serializable params) {
@@ -35,6 +45,11 @@ public class CopyMoveTask extends RootHelperClientTask {
         return true;
     }
 
+    @Override
+    public Collection<String> getResources() {
+        return TaskScheduler.resourcesOf(params.list.parentDir, params.destPath);
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
@@ -43,13 +58,32 @@ public class CopyMoveTask extends RootHelperClientTask {
 
     @Override
     protected Object doInBackground(Object[] unusedParams) {
-        if (rh == null) {
-            result = FileOpsErrorCodes.ROOTHELPER_INIT_ERROR;
-            return null;
-        }
         try {
+            if (rh.checkConnection() < 0) {
+                // in-app copy, with the same conflict handling; move and resumable jobs need roothelper
+                if (!isLocal() || params.list.copyOrMove != CopyMoveMode.COPY || isJournaled()) {
+                    result = FileOpsErrorCodes.ROOTHELPER_INIT_ERROR;
+                    return null;
+                }
+                inAppHelper = new XFilesUtils();
+                inAppHelper.initProgressSupport(this);
+                inAppHelper.conflictPolicy = params.conflictPolicy;
+                inAppHelper.copyFilesToDirectory(params.list, new File(params.destPath.dir));
+                return null;
+            }
             rh.initProgressSupport(this);
-            rh.copyMoveFilesToDirectory(this.params.list,this.params.destPath);
+            rh.conflictPolicy = params.conflictPolicy;
+            if (isJournaled()) {
+                PipelinedCopyMove j = (params.journalPath != null) ?
+                        PipelinedCopyMove.resume(rh, new File(params.journalPath), params.verifyChecksum) :
+                        PipelinedCopyMove.plan(rh, TransferJournal.getJournalDir(service), params.list, params.destPath);
+                journal = j.journal;
+                j.run();
+            }
+            // local copies start transferring while the selection is still being scanned
+            else if (isLocal() && params.list.copyOrMove == CopyMoveMode.COPY)
+                PipelinedCopyMove.copy(rh, params.list, params.destPath).run();
+            else rh.copyMoveFilesToDirectory(this.params.list,this.params.destPath);
 
             // reset progress, in case this object has to be used again after file transfer end
 //            rh.destroyProgressSupport();
@@ -60,10 +94,30 @@ public class CopyMoveTask extends RootHelperClientTask {
         return null;
     }
 
+    private boolean isLocal() {
+        return !(params.list instanceof CopyListUris) &&
+                params.list.parentDir instanceof LocalPathContent &&
+                params.destPath instanceof LocalPathContent;
+    }
+
+    // opt-in, local to local only, content URIs have no stable path to be resumed from
+    private boolean isJournaled() {
+        return params.journalPath != null || (params.journaled && isLocal());
+    }
+
+    @Override
+    public void cancelTask() {
+        super.cancelTask();
+        if (inAppHelper != null) inAppHelper.cancelCopy();
+    }
+
     @Override
     protected void onPostExecute(Object o) {
         super.onPostExecute(o);
 
+        // a job aborted by the user is not to be offered for resume
+        if (status == ServiceStatus.CANCELLED && journal != null) journal.delete();
+
         // not needed anymore, rh server is multithreaded
 //        if (rh != null) {
 //            try {rh.killServer();}
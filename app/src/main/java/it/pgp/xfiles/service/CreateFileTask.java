@@ -8,6 +8,7 @@ import android.widget.Toast;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.enums.FileMode;
@@ -42,6 +43,11 @@ public class CreateFileTask extends RootHelperClientTask {
         return true;
     }
 
+    @Override
+    public Collection<String> getResources() {
+        return TaskScheduler.resourcesOf(params.path);
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
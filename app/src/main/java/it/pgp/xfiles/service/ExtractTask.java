@@ -6,6 +6,7 @@ import android.widget.Toast;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 
 import it.pgp.xfiles.MainActivity;
@@ -32,6 +33,7 @@ public class ExtractTask extends RootHelperClientTask {
     private String password;
     private Iterable<String> filenames;
     private boolean smartDirectoryCreation;
+    private int workers;
 
     private static final FileOpsErrorCodes defaultErrorResult = FileOpsErrorCodes.TRANSFER_ERROR;
     private BasePathContent currentDir;
@@ -56,6 +58,7 @@ public class ExtractTask extends RootHelperClientTask {
         password = params.password;
         filenames = params.filenames;
         smartDirectoryCreation = params.smartDirectoryCreation;
+        workers = params.workers;
         prefix = (params_ instanceof TestParams)?"Test":"Extract";
     }
 
@@ -70,6 +73,11 @@ public class ExtractTask extends RootHelperClientTask {
         }
         return true;
     }
+
+    @Override
+    public Collection<String> getResources() {
+        return TaskScheduler.resourcesOf(srcArchives, destDirectory);
+    }
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
@@ -84,6 +92,7 @@ public class ExtractTask extends RootHelperClientTask {
         }
         try {
             rh.initProgressSupport(this);
+            rh.extractWorkers = workers;
             results = rh.extractFromArchive(
                     srcArchives,
                     destDirectory,
@@ -4,6 +4,8 @@ import android.widget.Toast;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
 
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
@@ -12,7 +14,6 @@ import it.pgp.xfiles.enums.ServiceStatus;
 import it.pgp.xfiles.service.params.DownloadParams;
 import it.pgp.xfiles.service.visualization.MovingRibbon;
 import it.pgp.xfiles.utils.Misc;
-import it.pgp.xfiles.utils.Pair;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 /**
@@ -39,6 +40,11 @@ public class HTTPDownloadTask extends RootHelperClientTask {
         return true;
     }
 
+    @Override
+    public Collection<String> getResources() {
+        return Arrays.asList(TaskScheduler.hostOf(params.url), TaskScheduler.volumeOf(params.destPath));
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
@@ -46,9 +52,9 @@ public class HTTPDownloadTask extends RootHelperClientTask {
     }
 
     @Override
-    protected void onProgressUpdate(Pair<Long,Long>... values) {
+    protected void onProgressTick() {
         ((MovingRibbon)mr).pb.setIndeterminate(false);
-        super.onProgressUpdate(values);
+        super.onProgressTick();
     }
 
     @Override
@@ -8,6 +8,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,7 +19,6 @@ import it.pgp.xfiles.enums.ServiceStatus;
 import it.pgp.xfiles.service.params.DownloadParams;
 import it.pgp.xfiles.service.visualization.MovingRibbon;
 import it.pgp.xfiles.utils.Misc;
-import it.pgp.xfiles.utils.Pair;
 
 public class HTTPUploadTask extends RootHelperClientTask {
 
@@ -39,9 +40,14 @@ public class HTTPUploadTask extends RootHelperClientTask {
     }
 
     @Override
-    protected void onProgressUpdate(Pair<Long,Long>... values) {
+    public Collection<String> getResources() {
+        return Arrays.asList(TaskScheduler.hostOf(params.url), TaskScheduler.volumeOf(params.destPath));
+    }
+
+    @Override
+    protected void onProgressTick() {
         ((MovingRibbon)mr).pb.setIndeterminate(false);
-        super.onProgressUpdate(values);
+        super.onProgressTick();
     }
 
     @Override
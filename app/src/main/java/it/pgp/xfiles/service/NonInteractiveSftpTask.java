@@ -4,6 +4,7 @@ import android.widget.Toast;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
@@ -51,10 +52,15 @@ public class NonInteractiveSftpTask extends BaseBackgroundTask {
     @Override
     public boolean init(BaseBackgroundService service) {
         if (!super.init(service)) return false;
-        mr = new XProgress(service);
+        mr = new XProgress(service, progress);
         return true;
     }
 
+    @Override
+    public Collection<String> getResources() {
+        return TaskScheduler.resourcesOf(params.list.parentDir, params.destPath);
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
@@ -3,6 +3,7 @@ package it.pgp.xfiles.service;
 import android.widget.Toast;
 
 import java.io.Serializable;
+import java.util.Collection;
 
 import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
@@ -44,10 +45,15 @@ public class NonInteractiveSmbTask extends BaseBackgroundTask {
     @Override
     public boolean init(BaseBackgroundService service) {
         if (!super.init(service)) return false;
-        mr = new XProgress(service);
+        mr = new XProgress(service, progress);
         return true;
     }
 
+    @Override
+    public Collection<String> getResources() {
+        return TaskScheduler.resourcesOf(params.list.parentDir, params.destPath);
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
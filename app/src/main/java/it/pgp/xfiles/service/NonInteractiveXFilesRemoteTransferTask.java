@@ -4,6 +4,7 @@ import android.util.Log;
 import android.widget.Toast;
 
 import java.io.Serializable;
+import java.util.Collection;
 
 import it.pgp.xfiles.CopyListUris;
 import it.pgp.xfiles.MainActivity;
@@ -87,6 +88,11 @@ public class NonInteractiveXFilesRemoteTransferTask extends RootHelperClientTask
         return true;
     }
 
+    @Override
+    public Collection<String> getResources() {
+        return TaskScheduler.resourcesOf(params.list.parentDir, params.destPath);
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
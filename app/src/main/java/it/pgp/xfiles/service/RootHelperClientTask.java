@@ -31,16 +31,16 @@ public abstract class RootHelperClientTask extends BaseBackgroundTask {
 
         // TODO may be useful in all long-term tasks, change following comment if needed
         // force close RootHelperStreams so that both the AsyncTask and the forked p7zip C++ process terminate
-        try {rh.rs.close();}
-        catch (Exception ignored) {}
+        if (rh != null) rh.closeStreams();
     }
 
     @Override
     protected void onPostExecute(Object o) {
         super.onPostExecute(o);
 
-        // if main activity has been closed meanwhile, stop the main RH server instance as well
-        if (MainActivity.mainActivity == null) {
+        // if main activity has been closed meanwhile, stop the main RH server instance as well,
+        // unless other scheduled tasks (this one has already been released above) still need it
+        if (MainActivity.mainActivity == null && TaskScheduler.instance.isIdle()) {
             MainActivity.killRHWrapper();
         }
     }
@@ -0,0 +1,404 @@
+package it.pgp.xfiles.service;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.pgp.xfiles.EffectActivity;
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.enums.ForegroundServiceType;
+import it.pgp.xfiles.service.visualization.ProgressCounters;
+import it.pgp.xfiles.utils.pathcontent.ArchivePathContent;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+import it.pgp.xfiles.utils.pathcontent.SFTPPathContent;
+import it.pgp.xfiles.utils.pathcontent.SMBPathContent;
+import it.pgp.xfiles.utils.pathcontent.XREPathContent;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Admission control for background tasks (replaces the single global ProgressIndicator lock).
+ *
+ * Every job declares the resources it uses, as string keys: a storage volume ({@link #VOLUME}),
+ * a remote host ({@link #HOST}) or the local RH process ({@link #RH}); with the {@link Policy#PER_RESOURCE}
+ * policy a job starts as soon as none of its resources is at its concurrency limit, otherwise it waits
+ * in FIFO order (a queued job does not block later ones using other resources).
+ *
+ * Since each background service holds one task at a time, a start request for a service which is
+ * already busy is kept as a pending start, and delivered when that service is destroyed.
+ */
+
+public class TaskScheduler {
+
+    public enum Policy {
+        SINGLE_SLOT, // one job at a time, as with the old overlay lock
+        PER_RESOURCE,
+        UNBOUNDED
+    }
+
+    public static final String POLICY_PREF_KEY = "TASK_SCHEDULING_POLICY";
+
+    // resource kinds (key prefixes)
+    public static final String RH = "rh";
+    public static final String VOLUME = "vol:";
+    public static final String HOST = "host:";
+
+    public static final TaskScheduler instance = new TaskScheduler();
+
+    public static class Job {
+        public final ForegroundServiceType type;
+        public final String label;
+        public final Set<String> resources;
+        public final ProgressCounters progress; // null for jobs without progress indication
+        final Runnable starter; // run on UI thread on admission, null for synchronous acquisitions
+        final Runnable canceller;
+        volatile boolean running;
+
+        Job(ForegroundServiceType type, String label, Set<String> resources, ProgressCounters progress, Runnable starter, Runnable canceller) {
+            this.type = type;
+            this.label = label;
+            this.resources = resources;
+            this.progress = progress;
+            this.starter = starter;
+            this.canceller = canceller;
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+    }
+
+    // start requests for services already busy with another task
+    public static class PendingStart {
+        public final Class<? extends BaseBackgroundService> serviceClass;
+        public final Serializable params;
+        public final String label;
+
+        PendingStart(Class<? extends BaseBackgroundService> serviceClass, Serializable params, String label) {
+            this.serviceClass = serviceClass;
+            this.params = params;
+            this.label = label;
+        }
+    }
+
+    private Policy policy = Policy.PER_RESOURCE;
+    private final Map<String,Integer> limits = new HashMap<>();
+    private final Map<String,Integer> inUse = new HashMap<>();
+    private final List<Job> running = new ArrayList<>();
+    private final List<Job> queued = new ArrayList<>();
+    private final List<PendingStart> pendingStarts = new ArrayList<>();
+    private final Map<Serializable,List<Runnable>> followUps = new IdentityHashMap<>();
+    private final LinkedList<String> summaries = new LinkedList<>(); // most recent first
+
+    public static final int MAX_SUMMARIES = 20;
+
+    private TaskScheduler() {
+        limits.put(RH, 4); // rh server is multithreaded, one connection per task
+        limits.put(VOLUME, 2); // more concurrent streams on the same flash device only add seeks
+        limits.put(HOST, 2);
+    }
+
+    public synchronized Policy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(Policy policy) {
+        List<Job> admitted;
+        synchronized (this) {
+            this.policy = policy;
+            admitted = admitQueued();
+        }
+        start(admitted);
+    }
+
+    public void setLimit(String kind, int limit) {
+        if (limit < 1) throw new RuntimeException("Concurrency limit must be at least 1");
+        List<Job> admitted;
+        synchronized (this) {
+            limits.put(kind, limit);
+            admitted = admitQueued();
+        }
+        start(admitted);
+    }
+
+    private static String kindOf(String resource) {
+        if (resource.startsWith(VOLUME)) return VOLUME;
+        if (resource.startsWith(HOST)) return HOST;
+        return resource;
+    }
+
+    private boolean fits(Job j) {
+        switch (policy) {
+            case SINGLE_SLOT:
+                return running.isEmpty();
+            case UNBOUNDED:
+                return true;
+            case PER_RESOURCE:
+                for (String r : j.resources) {
+                    Integer limit = limits.get(kindOf(r));
+                    Integer n = inUse.get(r);
+                    if (limit != null && n != null && n >= limit) return false;
+                }
+                return true;
+            default:
+                throw new RuntimeException("Guard block");
+        }
+    }
+
+    private void admit(Job j) {
+        for (String r : j.resources) {
+            Integer n = inUse.get(r);
+            inUse.put(r, n == null ? 1 : n+1);
+        }
+        j.running = true;
+        running.add(j);
+    }
+
+    private List<Job> admitQueued() {
+        List<Job> admitted = new ArrayList<>();
+        for (Iterator<Job> it = queued.iterator(); it.hasNext();) {
+            Job j = it.next();
+            if (fits(j)) {
+                it.remove();
+                admit(j);
+                admitted.add(j);
+            }
+        }
+        return admitted;
+    }
+
+    private static void start(List<Job> admitted) {
+        for (Job j : admitted) MainActivity.handler.post(j.starter);
+    }
+
+    /**
+     * Runs starter on the UI thread as soon as the job can be admitted (possibly immediately)
+     * @return the job, already running if admitted immediately, otherwise queued
+     */
+    public Job submit(ForegroundServiceType type, String label, Collection<String> resources, ProgressCounters progress,
+                      Runnable starter, Runnable canceller) {
+        Job j = new Job(type, label, new LinkedHashSet<>(resources), progress, starter, canceller);
+        synchronized (this) {
+            if (!fits(j)) {
+                queued.add(j);
+                return j;
+            }
+            admit(j);
+        }
+        MainActivity.handler.post(starter);
+        return j;
+    }
+
+    /**
+     * For short operations that must not wait (no queueing, no progress indication)
+     * @return the admitted job, to be released by the caller, or null if resources are busy
+     */
+    public synchronized Job tryAcquire(ForegroundServiceType type, Collection<String> resources) {
+        Job j = new Job(type, type.name(), new LinkedHashSet<>(resources), null, null, null);
+        if (!fits(j)) return null;
+        admit(j);
+        return j;
+    }
+
+    public void release(Job j) {
+        List<Job> admitted;
+        synchronized (this) {
+            if (!running.remove(j)) { // queued or already released
+                queued.remove(j);
+                return;
+            }
+            j.running = false;
+            for (String r : j.resources) {
+                Integer n = inUse.get(r);
+                if (n == null || n <= 1) inUse.remove(r);
+                else inUse.put(r, n-1);
+            }
+            admitted = admitQueued();
+        }
+        start(admitted);
+    }
+
+    /**
+     * Cancels a job: running jobs are asked to stop, queued ones are just removed from the queue
+     */
+    public void cancel(Job j) {
+        boolean wasQueued;
+        synchronized (this) {
+            wasQueued = queued.remove(j);
+        }
+        if (j.canceller != null) j.canceller.run();
+        if (wasQueued) Log.d(getClass().getName(), "Removed queued job "+j.label);
+    }
+
+    public synchronized boolean cancel(PendingStart p) {
+        return pendingStarts.remove(p);
+    }
+
+    public synchronized void addPendingStart(Class<? extends BaseBackgroundService> serviceClass, Serializable params, String label) {
+        pendingStarts.add(new PendingStart(serviceClass, params, label));
+    }
+
+    /**
+     * Delivers the oldest pending start request for the given service, called once the service has been destroyed
+     */
+    public void onServiceDestroyed(Context context, Class<? extends BaseBackgroundService> serviceClass) {
+        PendingStart next = null;
+        synchronized (this) {
+            for (Iterator<PendingStart> it = pendingStarts.iterator(); it.hasNext();) {
+                PendingStart p = it.next();
+                if (p.serviceClass == serviceClass) {
+                    it.remove();
+                    next = p;
+                    break;
+                }
+            }
+        }
+        if (next == null) return;
+        Intent startIntent = new Intent(context, serviceClass);
+        startIntent.setAction(BaseBackgroundService.START_ACTION);
+        EffectActivity.putServiceParams(startIntent, next.params);
+        context.startService(startIntent);
+    }
+
+    /**
+     * Follow-up actions to be run (on a new thread, in order) after the task started with these params
+     * (same instance) completes successfully; they are discarded if it fails
+     */
+    public synchronized void chain(Serializable params, Runnable followUp) {
+        List<Runnable> l = followUps.get(params);
+        if (l == null) {
+            l = new ArrayList<>();
+            followUps.put(params, l);
+        }
+        l.add(followUp);
+    }
+
+    public void onCompleted(Serializable params, boolean ok) {
+        List<Runnable> l;
+        synchronized (this) {
+            l = followUps.remove(params);
+        }
+        if (l == null) return;
+        if (!ok) {
+            Log.d(getClass().getName(), "Task failed, discarding its follow-up tasks...");
+            return;
+        }
+        Log.d(getClass().getName(), "Starting follow-up tasks...");
+        new Thread(() -> { for (Runnable r : l) r.run(); }).start();
+    }
+
+    public synchronized List<Job> getJobs() {
+        List<Job> l = new ArrayList<>(running);
+        l.addAll(queued);
+        return l;
+    }
+
+    public synchronized List<PendingStart> getPendingStarts() {
+        return new ArrayList<>(pendingStarts);
+    }
+
+    public synchronized boolean isIdle() {
+        return running.isEmpty() && queued.isEmpty() && pendingStarts.isEmpty();
+    }
+
+    // throughput and phase timing of ended jobs, see ThroughputEstimator
+    public synchronized void addSummary(String label, String summary) {
+        summaries.addFirst(label+": "+summary);
+        if (summaries.size() > MAX_SUMMARIES) summaries.removeLast();
+    }
+
+    public synchronized List<String> getSummaries() {
+        return new ArrayList<>(summaries);
+    }
+
+    // types of running and queued jobs, for deciding which sessions can be closed
+    public synchronized Set<ForegroundServiceType> getActiveTypes() {
+        Set<ForegroundServiceType> s = EnumSet.noneOf(ForegroundServiceType.class);
+        for (Job j : running) s.add(j.type);
+        for (Job j : queued) s.add(j.type);
+        return s;
+    }
+
+    /********** resource keys **********/
+
+    /**
+     * Internal storage paths all map to the data partition, removable volumes
+     * (/storage/XXXX-XXXX, also reachable as /mnt/media_rw/XXXX-XXXX) to their own key
+     */
+    public static String volumeOf(String path) {
+        if (path == null) return VOLUME+"/";
+        if (path.startsWith("/sdcard") || path.startsWith("/storage/emulated") ||
+                path.startsWith("/storage/self") || path.startsWith("/data"))
+            return VOLUME+"/data";
+        String[] p = path.split("/", 5);
+        if (p.length >= 3 && p[1].equals("storage")) return VOLUME+"/storage/"+p[2];
+        if (p.length >= 4 && p[1].equals("mnt") && p[2].equals("media_rw")) return VOLUME+"/storage/"+p[3];
+        return VOLUME+"/";
+    }
+
+    public static String hostOf(String url) {
+        try {
+            String h = new URI(url).getHost();
+            if (h != null) return HOST+h;
+        }
+        catch (Exception ignored) {}
+        return HOST+url;
+    }
+
+    public static Set<String> resourcesOf(BasePathContent... paths) {
+        Set<String> s = new LinkedHashSet<>();
+        for (BasePathContent p : paths) {
+            if (p == null) continue;
+            switch (p.providerType) {
+                case LOCAL:
+                    s.add(volumeOf(p.dir));
+                    s.add(RH);
+                    break;
+                case LOCAL_WITHIN_ARCHIVE:
+                    s.add(volumeOf(((ArchivePathContent)p).archivePath));
+                    s.add(RH);
+                    break;
+                case SFTP:
+                    SFTPPathContent sp = (SFTPPathContent) p;
+                    s.add(HOST+sp.authData.domain+":"+sp.authData.port);
+                    break;
+                case SMB:
+                    SMBPathContent mp = (SMBPathContent) p;
+                    s.add(HOST+mp.smbAuthData.host+":"+mp.smbAuthData.port);
+                    break;
+                case XFILES_REMOTE:
+                    s.add(HOST+((XREPathContent)p).serverHost);
+                    s.add(RH); // remote transfers go through the local rh
+                    break;
+                default:
+                    s.add(RH);
+            }
+        }
+        return s;
+    }
+
+    public static Set<String> resourcesOf(Collection<BasePathContent> paths, BasePathContent other) {
+        Set<String> s = resourcesOf(paths.toArray(new BasePathContent[0]));
+        s.addAll(resourcesOf(other));
+        return s;
+    }
+
+    public static Set<String> defaultResources() {
+        return Collections.singleton(RH);
+    }
+}
@@ -2,17 +2,20 @@ package it.pgp.xfiles.service.params;
 
 import android.support.annotation.Nullable;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.List;
 
 import it.pgp.xfiles.CopyListUris;
+import it.pgp.xfiles.utils.SelectionStore;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 /**
  * Created by pgp on 05/06/17
  */
 
-public class CompressParams implements Serializable {
+public class CompressParams implements Serializable, SelectionStore.Holder {
 
     // direct input to compressArchive
     public BasePathContent srcDirectory;
@@ -21,7 +24,8 @@ public class CompressParams implements Serializable {
     public Boolean encryptHeaders;
     public Boolean solidMode;
     public String password;
-    public List<String> filenames;
+    public transient List<String> filenames; // view over filenameStore, only its handle is serialized
+    private SelectionStore filenameStore;
 
     public CopyListUris uris; // for content provider mode
 
@@ -41,7 +45,10 @@ public class CompressParams implements Serializable {
         this.encryptHeaders = encryptHeaders;
         this.solidMode = solidMode;
         this.password = password;
-        this.filenames = filenames;
+        if (filenames != null) {
+            filenameStore = SelectionStore.ofNames(filenames);
+            this.filenames = filenameStore.asNames();
+        }
         this.standaloneMode = standaloneMode;
     }
 
@@ -61,4 +68,15 @@ public class CompressParams implements Serializable {
         this.password = password;
         this.standaloneMode = standaloneMode;
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (filenameStore != null) filenames = filenameStore.asNames();
+    }
+
+    @Override
+    public void releaseSelection() {
+        if (filenameStore != null) filenameStore.release();
+        if (uris != null) uris.releaseSelection();
+    }
 }
@@ -8,7 +8,9 @@ import java.io.Serializable;
 
 import it.pgp.xfiles.CopyListUris;
 import it.pgp.xfiles.CopyMoveListPathContent;
+import it.pgp.xfiles.enums.conflicthandling.ConflictPolicy;
 import it.pgp.xfiles.utils.ContentProviderUtils;
+import it.pgp.xfiles.utils.TransferJournal;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
 /**
@@ -18,6 +20,12 @@ import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 public class CopyMoveParams implements Serializable {
     public CopyMoveListPathContent list;
     public BasePathContent destPath;
+    public ConflictPolicy conflictPolicy = ConflictPolicy.selected; // as chosen when the job is created
+    public boolean journaled = TransferJournal.enabled; // idem, resumable if killed (local to local only)
+
+    // resume of an interrupted job, list and destPath are rebuilt from the journal
+    public String journalPath;
+    public boolean verifyChecksum; // on resume, compare MD5 of already transferred files against their source
 
     public CopyMoveParams(@NonNull CopyMoveListPathContent list, @NonNull BasePathContent destPath) {
         this.list = list;
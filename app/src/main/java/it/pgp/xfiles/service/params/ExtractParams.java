@@ -20,6 +20,12 @@ public class ExtractParams implements Serializable {
     public Iterable<String> filenames;
     public boolean smartDirectoryCreation;
 
+    // archives extracted at the same time when extracting several whole archives, 1 for sequential extraction
+    public int workers = 1;
+
+    public static final int MAX_WORKERS = 8;
+    public static final int DEFAULT_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()/2));
+
     public ExtractParams(List<BasePathContent> srcArchives,
                          @Nullable BasePathContent destDirectory, // null when testing archive
                          @Nullable String password,
@@ -35,4 +41,8 @@ public class ExtractParams implements Serializable {
     public void setPassword(String password) {
         this.password = password;
     }
+
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, Math.min(MAX_WORKERS, workers));
+    }
 }
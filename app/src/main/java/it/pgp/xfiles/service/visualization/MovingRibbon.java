@@ -12,7 +12,6 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import it.pgp.xfiles.R;
-import it.pgp.xfiles.utils.Pair;
 
 public class MovingRibbon extends ProgressIndicator {
 
@@ -20,9 +19,6 @@ public class MovingRibbon extends ProgressIndicator {
     public TextView pbSpeed;
     public TextView pbDataAmount;
 
-    public long lastProgressTime;
-    public Pair<Long,Long> lastProgress;
-
     public MovingRibbon(final Context context) {
         super(context);
         LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
@@ -31,7 +27,6 @@ public class MovingRibbon extends ProgressIndicator {
         pb = oView.findViewById(R.id.pbInner);
         pbSpeed = oView.findViewById(R.id.pbSpeed);
         pbDataAmount = oView.findViewById(R.id.pbDataAmount);
-        lastProgressTime = System.currentTimeMillis();
 
         pb.setMax(100);
         pb.setIndeterminate(false);
@@ -46,26 +41,12 @@ public class MovingRibbon extends ProgressIndicator {
     }
 
     @Override
-    public void setProgress(Pair<Long,Long>... values) {
-        pb.setProgress((int) Math.round(values[0].i * 100.0 / values[0].j));
-        if(lastProgress == null) {
-            lastProgressTime = System.currentTimeMillis();
-            lastProgress = values[0];
-            pbSpeed.setText("0 Mbps");
-        }
-        else {
-            long dt = lastProgressTime;
-            lastProgressTime = System.currentTimeMillis();
-            dt = lastProgressTime - dt;
-
-            long ds = lastProgress.i;
-            lastProgress = values[0];
-            ds = lastProgress.i - ds;
-
-            double speedMbps = ds/(dt*1000.0);
-            // TODO can we have a single TextView, and a single String.format aligning speed at the start and data amount at line end?
-            pbSpeed.setText(String.format("%.2f Mbps",speedMbps));
-            pbDataAmount.setText(String.format("%.2f Mb",lastProgress.i/1000000.0));
-        }
+    public void update(ProgressCounters c) {
+        boolean pending = c.isTotalPending(); // total not known yet
+        if(pb.isIndeterminate() != pending) pb.setIndeterminate(pending);
+        if(!pending) pb.setProgress(ProgressCounters.percent(c.getOuterDone(), c.getOuterTotal()));
+        // TODO can we have a single TextView, and a single String.format aligning speed at the start and data amount at line end?
+        pbSpeed.setText(c.throughput.formatSpeed());
+        pbDataAmount.setText(String.format("%.2f Mb - %s", c.getBytes()/1000000.0, c.throughput.formatEta(c)));
     }
 }
@@ -7,7 +7,6 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import it.pgp.xfiles.R;
-import it.pgp.xfiles.utils.Pair;
 
 /**
  * Created by pgp on 10/07/17
@@ -21,9 +20,6 @@ public class MovingRibbonTwoBars extends ProgressIndicator {
     public TextView pbSpeed;
     public TextView pbDataAmount;
 
-    public long lastProgressTime;
-    public Pair<Long,Long> lastOuterProgress;
-
     public boolean recursive = false;
 
     public MovingRibbonTwoBars(Context context) {
@@ -36,7 +32,6 @@ public class MovingRibbonTwoBars extends ProgressIndicator {
         pbInner = oView.findViewById(R.id.pbInner);
         pbSpeed = oView.findViewById(R.id.pbSpeed);
         pbDataAmount = oView.findViewById(R.id.pbDataAmount);
-        lastProgressTime = System.currentTimeMillis();
 
         pbOuter.setMax(100);
         pbOuter.setIndeterminate(false);
@@ -55,36 +50,27 @@ public class MovingRibbonTwoBars extends ProgressIndicator {
     }
 
     @Override
-    public void setProgress(Pair<Long,Long>... values) {
-        Pair<Long, Long> O = values[0];
-        Pair<Long, Long> I = values[1];
-        if(recursive)
-            // in recursive mode, outer progress fraction sent by producer doesn't keep into account inner fraction,
-            // so the latter is added to the first before converting to percentage
-            // recursive mode is currently used only by multi archive extract/test
-            pbOuter.setProgress((int) Math.round(100.0*((1.0*O.i / O.j) + (1.0*I.i/(I.j*O.j)))));
-        else
-            pbOuter.setProgress((int) Math.round(O.i * 100.0 / O.j));
-        pbInner.setProgress((int) Math.round(values[1].i * 100.0 / values[1].j));
-
-        if(lastOuterProgress == null) {
-            lastProgressTime = System.currentTimeMillis();
-            lastOuterProgress = values[0];
-            pbSpeed.setText("0 Mbps");
-        }
-        else {
-            long dt = lastProgressTime;
-            lastProgressTime = System.currentTimeMillis();
-            dt = lastProgressTime - dt;
-
-            long ds = lastOuterProgress.i;
-            lastOuterProgress = values[0];
-            ds = lastOuterProgress.i - ds;
-
-            double speedMbps = ds/(dt*1000.0);
-            pbSpeed.setText(String.format("%.2f Mbps",speedMbps));
-            // TODO show smooth progress also for recursive mode (read above)
-            pbDataAmount.setText(String.format("%.2f Mb",lastOuterProgress.i/1000000.0));
+    public void update(ProgressCounters c) {
+        long od = c.getOuterDone(), ot = c.getOuterTotal();
+        long id = c.getInnerDone(), it = c.getInnerTotal();
+        // total still growing while the producer scans, a percentage of it would move backwards
+        boolean pending = c.isTotalPending();
+        if(pbOuter.isIndeterminate() != pending) pbOuter.setIndeterminate(pending);
+        if(!pending) {
+            if(recursive && ot > 0 && it > 0)
+                // in recursive mode, outer progress fraction sent by producer doesn't keep into account inner fraction,
+                // so the latter is added to the first before converting to percentage
+                // recursive mode is currently used only by multi archive extract/test
+                pbOuter.setProgress((int) Math.round(100.0*((1.0*od / ot) + (1.0*id/(it*ot)))));
+            else
+                pbOuter.setProgress(ProgressCounters.percent(od, ot));
         }
+        pbInner.setProgress(ProgressCounters.percent(id, it));
+
+        // smoothed rates from the task's estimator, instead of the noisy difference of the last two samples
+        pbSpeed.setText(c.throughput.formatSpeed());
+        pbDataAmount.setText(pending ?
+                String.format("%.2f of >%.2f Mb - %s", c.getBytes()/1000000.0, ot/1000000.0, c.throughput.formatEta(c)) :
+                String.format("%.2f Mb - %s", c.getBytes()/1000000.0, c.throughput.formatEta(c)));
     }
 }
@@ -0,0 +1,132 @@
+package it.pgp.xfiles.service.visualization;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Progress state of a background task: worker threads only store into these counters
+ * (no allocation, no message posting), the UI samples them on a timer tick
+ * (see {@link it.pgp.xfiles.service.BaseBackgroundTask}) and redraws only when something changed.
+ *
+ * Outer progress is the main one (bytes or files over the whole task, or archives in a multi-archive extraction),
+ * inner progress is the one of the current item; bytes is the amount of data transferred so far,
+ * used for speed and data amount display, files the number of completed items, when the task counts them.
+ * Rates, ETA and phase timing derived from these are kept in {@link #throughput}.
+ * While a producer is still discovering items, the outer total is only a lower bound and is flagged as pending,
+ * so that views show it as indeterminate until the scan is complete.
+ * Counters are stored independently, so a sample may mix values from two consecutive updates, which is
+ * harmless for display purposes.
+ */
+
+public class ProgressCounters {
+
+    private final AtomicLong outerDone = new AtomicLong();
+    private final AtomicLong outerTotal = new AtomicLong();
+    private final AtomicLong innerDone = new AtomicLong();
+    private final AtomicLong innerTotal = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong(); // change counter, for samplers
+    private volatile boolean totalPending = false;
+
+    public final ThroughputEstimator throughput = new ThroughputEstimator();
+
+    // single progress, expressed in bytes
+    public void set(long done, long total) {
+        outerDone.lazySet(done);
+        outerTotal.lazySet(total);
+        bytes.lazySet(done);
+        updates.incrementAndGet();
+    }
+
+    public void set(long outerDone, long outerTotal, long innerDone, long innerTotal) {
+        this.outerDone.lazySet(outerDone);
+        this.outerTotal.lazySet(outerTotal);
+        this.innerDone.lazySet(innerDone);
+        this.innerTotal.lazySet(innerTotal);
+        updates.incrementAndGet();
+    }
+
+    // for producers discovering the total while progressing
+    public void setOuterTotal(long total) {
+        outerTotal.lazySet(total);
+        updates.incrementAndGet();
+    }
+
+    // true while the outer total is still growing
+    public void setTotalPending(boolean totalPending) {
+        this.totalPending = totalPending;
+        updates.incrementAndGet();
+    }
+
+    public boolean isTotalPending() {
+        return totalPending;
+    }
+
+    public void setInner(long done, long total) {
+        innerDone.lazySet(done);
+        innerTotal.lazySet(total);
+        updates.incrementAndGet();
+    }
+
+    public void setBytes(long n) {
+        bytes.lazySet(n);
+        updates.incrementAndGet();
+    }
+
+    // for concurrent workers contributing to the same task
+    public void addOuter(long n) {
+        outerDone.addAndGet(n);
+        updates.incrementAndGet();
+    }
+
+    public void addBytes(long n) {
+        bytes.addAndGet(n);
+        updates.incrementAndGet();
+    }
+
+    public void addFiles(long n) {
+        files.addAndGet(n);
+        updates.incrementAndGet();
+    }
+
+    public void reset() {
+        set(0,0,0,0);
+        setBytes(0);
+        files.lazySet(0);
+        totalPending = false;
+    }
+
+    public long getOuterDone() {
+        return outerDone.get();
+    }
+
+    public long getOuterTotal() {
+        return outerTotal.get();
+    }
+
+    public long getInnerDone() {
+        return innerDone.get();
+    }
+
+    public long getInnerTotal() {
+        return innerTotal.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getFiles() {
+        return files.get();
+    }
+
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    public static int percent(long done, long total) {
+        return total <= 0 ? 0 : (int) Math.round(done * 100.0 / total);
+    }
+}
@@ -5,11 +5,9 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.BitSet;
 
 import it.pgp.xfiles.MainActivity;
-import it.pgp.xfiles.enums.ForegroundServiceType;
-import it.pgp.xfiles.utils.Pair;
 
 /**
  * Created by pgp on 21/08/17
@@ -17,21 +15,20 @@ import it.pgp.xfiles.utils.Pair;
 
 public abstract class ProgressIndicator implements View.OnTouchListener {
 
-    public static final AtomicReference<ForegroundServiceType> busy = new AtomicReference<>(null);
+    // vertical positions taken by the overlays of concurrently running tasks
+    private static final BitSet slots = new BitSet();
 
-    public static boolean acquire(ForegroundServiceType type) {
-        return busy.compareAndSet(null,type);
-    }
-
-    public static void release() {
-        busy.set(null);
-    }
-
-    public abstract void setProgress(Pair<Long,Long>... values);
+    /**
+     * Redraws from the current task progress, called on UI thread only when counters have changed
+     */
+    public abstract void update(ProgressCounters c);
 
     public void destroy() {
         try{ wm.removeView(oView); } catch(Throwable ignored) {}
         try{ wm.removeView(topLeftView); } catch(Throwable ignored) {}
+        synchronized (slots) {
+            slots.clear(slot);
+        }
     }
 
     public final Runnable destroyRef = this::destroy;
@@ -39,10 +36,15 @@ public abstract class ProgressIndicator implements View.OnTouchListener {
     protected final WindowManager wm;
     protected View oView;
     protected View topLeftView;
+    protected final int slot;
 
     protected ProgressIndicator(Context context) {
         this.context = context;
         this.wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        synchronized (slots) {
+            slot = slots.nextClearBit(0);
+            slots.set(slot);
+        }
     }
 
     public void addViewToOverlay(View view, WindowManager.LayoutParams params) {
@@ -59,6 +61,7 @@ public abstract class ProgressIndicator implements View.OnTouchListener {
         WindowManager.LayoutParams params = v.getParams();
         float pixels = dp * context.getResources().getDisplayMetrics().density;
         params.height = (int) pixels;
+        params.y = slot * params.height; // stack ribbons of concurrent tasks
         return params;
     }
 
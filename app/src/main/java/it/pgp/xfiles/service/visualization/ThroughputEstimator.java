@@ -0,0 +1,179 @@
+package it.pgp.xfiles.service.visualization;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Throughput and timing of a background task, owned by its {@link ProgressCounters}.
+ *
+ * Rates (bytes/s, files/s, outer progress units/s) are exponentially weighted moving averages of the counters,
+ * sampled by the UI thread at most every {@link #SAMPLE_INTERVAL} ms; the weight of each sample depends on
+ * the time elapsed since the previous one, so that estimates decay to zero during stalls instead of freezing.
+ * The remaining time estimate is derived from the outer progress rate; while the total is still being
+ * discovered, it's only a lower bound.
+ *
+ * Workers mark the current {@link Phase}, the time spent in each one is accumulated, so that a slow task can be
+ * told apart as limited by data transfer, by per-file overhead, or by waiting for user decisions on conflicts.
+ */
+
+public class ThroughputEstimator {
+
+    public enum Phase {
+        IDLE, // not started or ended, not accounted
+        SCAN, // enumerating and checking items, computing totals before transferring
+        TRANSFER, // moving data of a file
+        CLOSE, // per-file overhead: closing (fsync) of a completed file and opening of the next one
+        CONFLICT_WAIT // waiting for conflict resolution by the user
+    }
+
+    public static final long SAMPLE_INTERVAL = 250; // ms
+    public static final double TIME_CONSTANT = 3000.0; // ms, estimates follow changes within a few seconds
+
+    // phase timing, written by worker threads
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+    private volatile Phase phase = Phase.IDLE;
+    private long phaseStart;
+
+    // rates, updated by the sampling thread only
+    private long startTime = -1, endTime = -1;
+    private long lastSampleTime = -1;
+    private long lastBytes, lastFiles, lastOuter;
+    private boolean primed; // at least one rate sample taken
+    private volatile double bytesRate, filesRate, outerRate;
+
+    public synchronized void enterPhase(Phase p) {
+        long now = System.nanoTime();
+        if (phase != Phase.IDLE) phaseNanos.addAndGet(phase.ordinal(), now - phaseStart);
+        phase = p;
+        phaseStart = now;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public synchronized long getPhaseMillis(Phase p) {
+        long t = phaseNanos.get(p.ordinal());
+        if (p == phase && p != Phase.IDLE) t += System.nanoTime() - phaseStart;
+        return t / 1000000;
+    }
+
+    public void start() {
+        startTime = System.currentTimeMillis();
+        enterPhase(Phase.TRANSFER);
+    }
+
+    public void finish(ProgressCounters c) {
+        sample(c, true);
+        endTime = System.currentTimeMillis();
+        enterPhase(Phase.IDLE);
+    }
+
+    /**
+     * @return true if estimates have been updated
+     */
+    public boolean sample(ProgressCounters c) {
+        return sample(c, false);
+    }
+
+    private boolean sample(ProgressCounters c, boolean force) {
+        long now = System.currentTimeMillis();
+        if (lastSampleTime < 0) {
+            lastSampleTime = now;
+            lastBytes = c.getBytes();
+            lastFiles = c.getFiles();
+            lastOuter = c.getOuterDone();
+            return false;
+        }
+        long dt = now - lastSampleTime;
+        if (dt <= 0 || (dt < SAMPLE_INTERVAL && !force)) return false;
+
+        long bytes = c.getBytes(), files = c.getFiles(), outer = c.getOuterDone();
+        // counters may be reset when a task restarts its progress (e.g. next archive), don't count negative amounts
+        double b = 1000.0 * Math.max(0, bytes - lastBytes) / dt;
+        double f = 1000.0 * Math.max(0, files - lastFiles) / dt;
+        double o = 1000.0 * Math.max(0, outer - lastOuter) / dt;
+
+        if (!primed) { // first interval, no history to average with
+            bytesRate = b;
+            filesRate = f;
+            outerRate = o;
+            primed = true;
+        }
+        else {
+            double alpha = 1 - Math.exp(-dt / TIME_CONSTANT);
+            bytesRate += alpha * (b - bytesRate);
+            filesRate += alpha * (f - filesRate);
+            outerRate += alpha * (o - outerRate);
+        }
+
+        lastSampleTime = now;
+        lastBytes = bytes;
+        lastFiles = files;
+        lastOuter = outer;
+        return true;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesRate;
+    }
+
+    public double getFilesPerSecond() {
+        return filesRate;
+    }
+
+    /**
+     * @return estimated remaining seconds, or -1 if unknown
+     */
+    public long getEtaSeconds(ProgressCounters c) {
+        long remaining = c.getOuterTotal() - c.getOuterDone();
+        if (c.getOuterTotal() <= 0 || remaining < 0 || outerRate <= 0) return -1;
+        return Math.round(remaining / outerRate);
+    }
+
+    public long getElapsedMillis() {
+        if (startTime < 0) return 0;
+        return (endTime < 0 ? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+    public String formatSpeed() {
+        String s = String.format(Locale.US, "%.2f Mbps", bytesRate / 1000000.0);
+        if (filesRate > 0) s += String.format(Locale.US, ", %.1f files/s", filesRate);
+        return s;
+    }
+
+    public String formatEta(ProgressCounters c) {
+        long eta = getEtaSeconds(c);
+        if (eta < 0) return c.isTotalPending() ? "ETA -- (scanning)" : "ETA --";
+        return (c.isTotalPending() ? "ETA >" : "ETA ") + formatDuration(eta * 1000);
+    }
+
+    public static String formatDuration(long ms) {
+        long s = ms / 1000;
+        if (s >= 3600) return String.format(Locale.US, "%d:%02d:%02d", s / 3600, (s / 60) % 60, s % 60);
+        if (s >= 60) return String.format(Locale.US, "%d:%02d", s / 60, s % 60);
+        return ms < 10000 ? String.format(Locale.US, "%.1fs", ms / 1000.0) : s + "s";
+    }
+
+    /**
+     * Totals and time spent per phase, for the end of the task
+     */
+    public String summary(ProgressCounters c) {
+        long elapsed = getElapsedMillis();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%.2f Mb", c.getBytes() / 1000000.0));
+        if (c.getFiles() > 0) sb.append(", ").append(c.getFiles()).append(" files");
+        sb.append(" in ").append(formatDuration(elapsed));
+        if (elapsed > 0)
+            sb.append(String.format(Locale.US, " (avg %.2f Mbps)", c.getBytes() / (elapsed * 1000.0)));
+        for (Phase p : Phase.values()) {
+            if (p == Phase.IDLE) continue;
+            long t = getPhaseMillis(p);
+            if (t > 0) sb.append("\n").append(p.name().toLowerCase()).append(": ").append(formatDuration(t))
+                    .append(elapsed > 0 ? " (" + Math.round(t * 100.0 / elapsed) + "%)" : "");
+        }
+        return sb.toString();
+    }
+}
@@ -6,7 +6,6 @@ import android.view.MotionEvent;
 import android.view.View;
 
 import it.pgp.xfiles.MainActivity;
-import it.pgp.xfiles.utils.Pair;
 import it.pgp.xfiles.utils.popupwindow.PopupWindowUtils;
 
 // actually NOT a ProgressIndicator, only reusing overlay logic, maybe ProgressIndicator itself should be renamed
@@ -38,5 +37,5 @@ public class ViewOverlay extends ProgressIndicator implements View.OnTouchListen
     }
 
     @Override
-    public void setProgress(Pair<Long,Long>... values) {}
+    public void update(ProgressCounters c) {}
 }
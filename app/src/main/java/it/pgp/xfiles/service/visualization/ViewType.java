@@ -61,7 +61,10 @@ public enum ViewType {
         m.put(CONTAINER_WRAP,params);
     }
 
+    // a copy, since overlays of concurrent tasks are resized and moved independently
     public WindowManager.LayoutParams getParams() {
-        return m.get(this);
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams();
+        params.copyFrom(m.get(this));
+        return params;
     }
 }
@@ -38,6 +38,7 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 
 import it.pgp.xfiles.BrowserItem;
@@ -54,7 +55,10 @@ import it.pgp.xfiles.roothelperclient.resps.folderStats_resp;
 import it.pgp.xfiles.service.BaseBackgroundTask;
 import it.pgp.xfiles.utils.FileOperationHelper;
 import it.pgp.xfiles.utils.GenericDBHelper;
+import it.pgp.xfiles.utils.NavigationScheduler;
+import it.pgp.xfiles.utils.dircontent.DirListingListener;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
+import it.pgp.xfiles.utils.dircontent.ListingBatcher;
 import it.pgp.xfiles.utils.dircontent.SftpDirWithContent;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.pathcontent.SFTPPathContent;
@@ -496,6 +500,57 @@ public class SFTPProvider implements FileOperationHelper {
         }
     }
 
+    /**
+     * Counts the total size for detailed progress in background, shown as pending until available.
+     * Tied to the transfer: {@link #cancel()} is to be called once it ends (or is cancelled),
+     * so that the counting is interrupted and a late result does not reach a progress that is no longer shown
+     */
+    private static class SizeCounter extends Thread {
+        private final XProgress xp;
+        private final Callable<Long> counter;
+        private final String failureMsg; // shown if the total is unavailable, may be null
+        private boolean cancelled = false; // guarded by this
+
+        SizeCounter(XProgress xp, Callable<Long> counter, String failureMsg) {
+            super("SFTP size count");
+            this.xp = xp;
+            this.counter = counter;
+            this.failureMsg = failureMsg;
+        }
+
+        @Override
+        public void run() {
+            long total;
+            try {
+                total = counter.call();
+            }
+            catch (Exception e) {
+                Log.e(SFTPProvider.class.getName(), "Unable to count total size", e);
+                total = -1;
+            }
+            synchronized (this) {
+                if (cancelled) return;
+                if (total > 0) xp.setTotalFilesSize(total);
+                else {
+                    xp.setTotalUnavailable();
+                    if (failureMsg != null) MainActivity.showToast(failureMsg);
+                }
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            interrupt();
+        }
+    }
+
+    private static SizeCounter countTotalSizeInBackground(XProgress xp, Callable<Long> counter, String failureMsg) {
+        xp.setTotalPending();
+        SizeCounter c = new SizeCounter(xp, counter, failureMsg);
+        c.start();
+        return c;
+    }
+
     @Override
     public void copyMoveFilesToDirectory(CopyMoveListPathContent files, BasePathContent dstFolder) throws IOException {
         // needs collaboration of fileopshelper handling operations on files in source folder,
@@ -521,27 +576,27 @@ public class SFTPProvider implements FileOperationHelper {
             xp.clear();
             sftpClient.setProgressIndicator(xp);
 
-            // count local files via local roothelper or xfilesopshelper and set them in xprogress
-//            long totalLocalFiles = 0;
-            long totalLocalSize = 0;
-            for (BrowserItem localItem : files.files) {
-                BasePathContent bpc = files.parentDir.concat(localItem.getFilename());
-                if (MainActivity.xFilesUtils.isDir(bpc)) {
-                    folderStats_resp fsr = MainActivity.xFilesUtils.statFolder(bpc);
-//                    totalLocalFiles+=fsr.totalFiles;
-//                    totalLocalFiles+=fsr.totalDirs;
-                    totalLocalSize+=fsr.totalSize;
-                }
-                else {
-//                    totalLocalFiles++;
-                    totalLocalSize+=MainActivity.xFilesUtils.statFile(bpc).size;
+            // count local files via local roothelper or xfilesopshelper and set them in xprogress,
+            // in background, so that the upload starts right away
+            SizeCounter sizeCounter = countTotalSizeInBackground(xp, () -> {
+                long totalLocalSize = 0;
+                for (BrowserItem localItem : files.files) {
+                    BasePathContent bpc = files.parentDir.concat(localItem.getFilename());
+                    if (MainActivity.xFilesUtils.isDir(bpc)) {
+                        folderStats_resp fsr = MainActivity.xFilesUtils.statFolder(bpc);
+                        totalLocalSize+=fsr.totalSize;
+                    }
+                    else totalLocalSize+=MainActivity.xFilesUtils.statFile(bpc).size;
                 }
+                return totalLocalSize;
+            }, null);
+            try {
+                for (BrowserItem localItem : files.files)
+                    sftpClient.put(files.parentDir.concat(localItem.getFilename()).toString(),dstFolder.dir+"/"+localItem.getFilename());
+            }
+            finally {
+                sizeCounter.cancel();
             }
-
-            xp.totalFilesSize = totalLocalSize;
-            xp.isDetailedProgress = true;
-            for (BrowserItem localItem : files.files)
-                sftpClient.put(files.parentDir.concat(localItem.getFilename()).toString(),dstFolder.dir+"/"+localItem.getFilename());
         }
         else if (files.parentDir.providerType == ProviderType.SFTP && dstFolder.providerType == ProviderType.LOCAL) {
             // download
@@ -562,21 +617,21 @@ public class SFTPProvider implements FileOperationHelper {
 //                xp.totalFiles = Long.MAX_VALUE;
 //            }
 
-            // first attempt: launch external commands (du, python, dir) to count remote files
-            long totalRemoteSize = xsshClient.countTotalSizeInItems(files.getSFTPProgressHelperIterableFilenamesOnly(),files.parentDir.dir);
-            if (totalRemoteSize <= 0) {
-                MainActivity.showToast("All external commands for remote size count failed, external progress won't be available");
-                xp.totalFiles = Long.MAX_VALUE;
-            }
-            else {
-                xp.totalFilesSize = totalRemoteSize;
-                xp.isDetailedProgress = true;
-            }
+            // first attempt: launch external commands (du, python, dir) to count remote files,
+            // on a separate channel while the download goes on
+            SizeCounter sizeCounter = countTotalSizeInBackground(xp,
+                    () -> xsshClient.countTotalSizeInItems(files.getSFTPProgressHelperIterableFilenamesOnly(),files.parentDir.dir),
+                    "All external commands for remote size count failed, external progress won't be available");
 
-            for (BrowserItem remoteItemName : files.files) { // iterator over filenames only
-                // remote dir as local path string
-                // ending "/" in order to paste a folder as a child of the destination folder
-                sftpClient.get(files.parentDir.dir+"/"+remoteItemName.getFilename(),dstFolder.dir+"/");
+            try {
+                for (BrowserItem remoteItemName : files.files) { // iterator over filenames only
+                    // remote dir as local path string
+                    // ending "/" in order to paste a folder as a child of the destination folder
+                    sftpClient.get(files.parentDir.dir+"/"+remoteItemName.getFilename(),dstFolder.dir+"/");
+                }
+            }
+            finally {
+                sizeCounter.cancel();
             }
         }
         else if (files.parentDir.providerType == ProviderType.SFTP && dstFolder.providerType == ProviderType.SFTP) {
@@ -793,6 +848,11 @@ public class SFTPProvider implements FileOperationHelper {
 
     @Override
     public GenericDirWithContent listDirectory(BasePathContent directory) {
+        return listDirectory(directory,null);
+    }
+
+    @Override
+    public GenericDirWithContent listDirectory(BasePathContent directory, @Nullable DirListingListener listener) {
         SFTPPathContent g = (SFTPPathContent) directory;
 
         // try to get channel
@@ -808,10 +868,14 @@ public class SFTPProvider implements FileOperationHelper {
 
         // list dir
         try {
-            List<RemoteResourceInfo> lsContent = channelSftp.ls(g.dir);
             List<BrowserItem> l = new ArrayList<>();
+            ListingBatcher batcher = ListingBatcher.of(directory,listener);
 
-            for (RemoteResourceInfo entry : lsContent) {
+            // entries are converted by the filter as soon as each READDIR response arrives,
+            // instead of after the whole directory has been read
+            // (the channel is shared, so a superseded navigation stops the listing here instead of closing it)
+            channelSftp.ls(g.dir, entry -> {
+                NavigationScheduler.checkCancelled();
                 boolean isLink = false;
                 try {
                     FileAttributes fa = entry.getAttributes();
@@ -820,17 +884,20 @@ public class SFTPProvider implements FileOperationHelper {
                         fa = channelSftp.stat(g.dir+"/"+entry.getName());
                     }
 
-                    l.add(new BrowserItem(entry.getName(),
+                    BrowserItem b = new BrowserItem(entry.getName(),
                             fa.getSize(),
                             new Date(fa.getMtime()*1000L),
                             fa.getType() == net.schmizz.sshj.sftp.FileMode.Type.DIRECTORY,
-                            isLink));
+                            isLink);
+                    l.add(b);
+                    if (batcher != null) batcher.add(b);
                 }
                 catch(Exception e) {
                     e.printStackTrace();
                     Log.e(getClass().getName(),"skipping inaccessible entry: "+entry.getName());
                 }
-            }
+                return false; // already collected
+            });
 
             return new SftpDirWithContent(g.authData,directory.dir,l);
         }
@@ -23,6 +23,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Stack;
@@ -32,6 +33,8 @@ import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.enums.FileMode;
 import it.pgp.xfiles.io.RobustLocalFileInputStream;
 import it.pgp.xfiles.io.RobustLocalFileOutputStream;
+import it.pgp.xfiles.items.SingleStatsItem;
+import it.pgp.xfiles.roothelperclient.BatchStats;
 import it.pgp.xfiles.roothelperclient.RootHelperClient;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
 import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
@@ -46,6 +49,11 @@ public class XFileSystemFile implements LocalSourceFile, LocalDestFile {
 
     private String file;
 
+    // exists/type/size/mtime from one pipelined round trip, loaded on first use or by the parent's getChildren;
+    // dropped on every local modification of the file
+    private BatchStats stats;
+    private int statsIndex;
+
     public XFileSystemFile(String path) {
         this.file = path;
     }
@@ -60,29 +68,62 @@ public class XFileSystemFile implements LocalSourceFile, LocalDestFile {
         return file_[file_.length-1];
     }
 
+    private BatchStats stats() {
+        if (stats == null) {
+            try {
+                stats = rhc.statBatch(Collections.singletonList(file),true);
+                statsIndex = 0;
+            }
+            catch (IOException e) {
+                Log.e(getClass().getName(),"Unable to stat "+file+" in batch, falling back to single requests",e);
+                return statsPerFile(); // not cached
+            }
+        }
+        return stats;
+    }
+
+    // same attributes through the single-path requests (size and mtime left to -1 if they fail)
+    private BatchStats statsPerFile() {
+        BatchStats st = new BatchStats(1);
+        LocalPathContent f = new LocalPathContent(file);
+        BitSet x = rhc.existsIsFileIsDir(f,true,true,true);
+        st.flags[0] = (byte)((x.get(0)?BatchStats.EXISTS:0)|(x.get(1)?BatchStats.IS_FILE:0)|(x.get(2)?BatchStats.IS_DIR:0));
+        if (x.get(0)) {
+            try {
+                SingleStatsItem item = rhc.statFile(f);
+                if (item != null) {
+                    st.size[0] = item.size;
+                    st.mtime[0] = item.modificationTime.getTime() / 1000;
+                }
+            }
+            catch (IOException e) {
+                Log.e(getClass().getName(),"Unable to stat "+file,e);
+            }
+        }
+        return st;
+    }
+
+    private int statsIndex() {
+        return stats == null ? 0 : statsIndex;
+    }
+
+    private void invalidateStats() {
+        stats = null;
+    }
+
     @Override
     public boolean isFile() {
-        Log.d(getClass().getName(),"isFile");
-        BitSet x = rhc.existsIsFileIsDir(new LocalPathContent(file),true,true,true);
-        Log.d(getClass().getName(),"isFile completed");
-        return x.get(1);
+        return stats().isFile(statsIndex());
     }
 
     @Override
     public boolean isDirectory() {
-        Log.d(getClass().getName(),"isDirectory");
-        BitSet x = rhc.existsIsFileIsDir(new LocalPathContent(file),true,true,true);
-        Log.d(getClass().getName(),"isDirectory completed");
-        return x.get(2);
+        return stats().isDir(statsIndex());
     }
 
     @Override
     public long getLength() {
-        try {
-            return rhc.statFile(new LocalPathContent(file)).size;
-        } catch (IOException e) {
-            return -1;
-        }
+        return stats().size[statsIndex()];
     }
 
     @Override
@@ -93,6 +134,7 @@ public class XFileSystemFile implements LocalSourceFile, LocalDestFile {
 
     @Override
     public OutputStream getOutputStream() throws IOException {
+        invalidateStats();
         if (fos==null) fos = new RobustLocalFileOutputStream(file);
         return fos;
     }
@@ -104,9 +146,19 @@ public class XFileSystemFile implements LocalSourceFile, LocalDestFile {
         if (gdwc.errorCode != null)
             throw new IOException("Error listing files in directory: " + this);
 
-        List<XFileSystemFile> children = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
         for (BrowserItem b : gdwc.content)
-            children.add(new XFileSystemFile(gdwc.dir+"/"+b.getFilename()));
+            paths.add(gdwc.dir+"/"+b.getFilename());
+
+        // attributes of all children in one pipelined batch, instead of several round trips per child later
+        BatchStats childStats = rhc.statBatch(paths,true);
+        List<XFileSystemFile> children = new ArrayList<>();
+        for (int i=0;i<paths.size();i++) {
+            XFileSystemFile child = new XFileSystemFile(paths.get(i));
+            child.stats = childStats;
+            child.statsIndex = i;
+            children.add(child);
+        }
         return children;
     }
 
@@ -122,19 +174,22 @@ public class XFileSystemFile implements LocalSourceFile, LocalDestFile {
 
     @Override
     public long getLastModifiedTime() throws IOException {
-        return rhc.statFile(new LocalPathContent(file)).modificationTime.getTime() / 1000;
+        BatchStats st = stats();
+        if (!st.hasStats(statsIndex())) throw new IOException("Unable to stat "+file);
+        return st.mtime[statsIndex()];
     }
 
     @Override
     public int getPermissions() throws IOException {
-        BitSet x = rhc.existsIsFileIsDir(new LocalPathContent(file),true,true,true);
-        if (x.get(2)) return FileMode.DIRECTORY.getDefaultMask();
-        else if (x.get(1)) return FileMode.FILE.getDefaultMask();
+        BatchStats st = stats();
+        if (st.isDir(statsIndex())) return FileMode.DIRECTORY.getDefaultMask();
+        else if (st.isFile(statsIndex())) return FileMode.FILE.getDefaultMask();
         else throw new IOException("Unsupported file type or non-existing file");
     }
 
     @Override
     public void setLastAccessedTime(long t) throws IOException {
+        invalidateStats();
         if (rhc.setDates(new LocalPathContent(file),new Date(t),null) != 0) {
 //            throw new IOException("Unable to set last access time");
             Log.e(getClass().getName(),"Unable to set last access time");
@@ -143,6 +198,7 @@ public class XFileSystemFile implements LocalSourceFile, LocalDestFile {
 
     @Override
     public void setLastModifiedTime(long t) throws IOException {
+        invalidateStats();
         if (rhc.setDates(new LocalPathContent(file),null,new Date(t)) != 0) {
 //            throw new IOException("Unable to set last modified time");
             Log.e(getClass().getName(),"Unable to set last modified time");
@@ -151,6 +207,7 @@ public class XFileSystemFile implements LocalSourceFile, LocalDestFile {
 
     @Override
     public void setPermissions(int perms) throws IOException {
+        invalidateStats();
         if (rhc.setPermissions(new LocalPathContent(file),perms) != 0) {
 //            throw new IOException("Unable to set permissions"); // just treat as warning or avoid to call completely, since perms are very limited by default on Android filesystems
             Log.e(getClass().getName(),"Unable to set permissions");
@@ -191,6 +248,7 @@ public class XFileSystemFile implements LocalSourceFile, LocalDestFile {
         BitSet x = rhc.existsIsFileIsDir(ffile,true,true,true);
         if (!x.get(0)) { // not exists
             rhc.createFileOrDirectory(ffile, FileMode.FILE);
+            f.invalidateStats();
         }
         else if (x.get(2))
             throw new IOException("A directory by the same name already exists: " + f);
@@ -211,8 +269,10 @@ public class XFileSystemFile implements LocalSourceFile, LocalDestFile {
             else throw new IOException(f + " - already exists as a file; directory required");
         }
         x = rhc.existsIsFileIsDir(fdir,true,true,true);
-        if (!x.get(0))
+        if (!x.get(0)) {
             rhc.createFileOrDirectory(fdir,FileMode.DIRECTORY);
+            f.invalidateStats();
+        }
         return f;
     }
 
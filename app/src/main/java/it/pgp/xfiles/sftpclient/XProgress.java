@@ -6,7 +6,7 @@ import java.io.IOException;
 
 import it.pgp.xfiles.exceptions.InterruptedTransferAsIOException;
 import it.pgp.xfiles.service.visualization.MovingRibbonTwoBars;
-import it.pgp.xfiles.utils.Pair;
+import it.pgp.xfiles.service.visualization.ProgressCounters;
 
 /**
  * Adapter class preserving external progress state to be used with SSHJ progress listeners
@@ -16,14 +16,16 @@ import it.pgp.xfiles.utils.Pair;
 public class XProgress extends MovingRibbonTwoBars {
 
     public long totalFiles,currentFiles;
-    public long totalSize,currentSize,lastShownSize;
+    public long totalSize,currentSize;
 
     public boolean cancelled = false;
 
-    protected static final long SIZE_THRESHOLD = 1000000;
+    // owned by the task, sampled by the UI
+    protected final ProgressCounters counters;
 
-    public XProgress(Context context) {
+    public XProgress(Context context, ProgressCounters counters) {
         super(context);
+        this.counters = counters;
     }
 
     public void clear() {
@@ -31,44 +33,61 @@ public class XProgress extends MovingRibbonTwoBars {
         this.currentFiles = 0;
         this.totalSize = 0;
         this.currentSize = 0;
-        this.lastShownSize = 0;
+        this.completedFilesSizeSoFar = 0;
+        counters.reset();
     }
 
     // detailed progress variables and methods
     protected long completedFilesSizeSoFar;
-    public long totalFilesSize; // set only in case of upload
+    public volatile long totalFilesSize; // may be set by a counting thread while transferring
+
+    public volatile boolean isDetailedProgress = false;
+
+    /**
+     * Detailed progress, with total size counted in background while the transfer goes on;
+     * until {@link #setTotalFilesSize} is called, the total is shown as pending
+     */
+    public void setTotalPending() {
+        totalFilesSize = 0;
+        isDetailedProgress = true;
+        counters.setTotalPending(true);
+    }
+
+    public void setTotalFilesSize(long totalFilesSize) {
+        this.totalFilesSize = totalFilesSize;
+        isDetailedProgress = true;
+        counters.setTotalPending(false);
+        counters.setOuterTotal(totalFilesSize);
+    }
 
-    public boolean isDetailedProgress = false; // set to true in case of upload
+    // counting failed, fall back to no outer progress
+    public void setTotalUnavailable() {
+        isDetailedProgress = false;
+        totalFiles = Long.MAX_VALUE;
+        counters.setTotalPending(false);
+    }
 
     protected void publish() {
         if(isDetailedProgress)
-            setProgress(
-                    new Pair<>(completedFilesSizeSoFar + currentSize, totalFilesSize),
-                    new Pair<>(currentSize, totalSize)
-            );
+            // while the total is pending, what has been transferred is the best known lower bound
+            counters.set(completedFilesSizeSoFar + currentSize, Math.max(totalFilesSize, completedFilesSizeSoFar + currentSize), currentSize, totalSize);
         else
-            setProgress(
-                    new Pair<>(currentFiles, totalFiles),
-                    new Pair<>(currentSize, totalSize)
-            );
+            counters.set(currentFiles, totalFiles, currentSize, totalSize);
+        counters.setBytes(completedFilesSizeSoFar + currentSize);
     }
 
     public void publishInnerProgress(long innerProgress) throws IOException {
         if (cancelled) throw new InterruptedTransferAsIOException();
         currentSize = innerProgress;
-        if (currentSize - lastShownSize > SIZE_THRESHOLD) {
-            lastShownSize = currentSize;
-            publish();
-        }
+        publish(); // no allocation, no need to throttle here
     }
 
     public void incrementOuterProgressThenPublish(long newFileSize) {
-        if(isDetailedProgress) completedFilesSizeSoFar += totalSize;  // increment of last completed file size
-        else currentFiles++;
+        completedFilesSizeSoFar += totalSize;  // increment of last completed file size
+        if(!isDetailedProgress) currentFiles++;
 
         totalSize = newFileSize;
         currentSize = 0;
-        lastShownSize = 0;
         publish();
     }
 
@@ -30,13 +30,18 @@ import it.pgp.xfiles.service.BaseBackgroundTask;
 import it.pgp.xfiles.sftpclient.XProgress;
 import it.pgp.xfiles.utils.FileOperationHelper;
 import it.pgp.xfiles.utils.GenericDBHelper;
+import it.pgp.xfiles.utils.NavigationScheduler;
+import it.pgp.xfiles.utils.dircontent.DirListingListener;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
+import it.pgp.xfiles.utils.dircontent.ListingBatcher;
 import it.pgp.xfiles.utils.dircontent.SmbDirWithContent;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.pathcontent.SMBPathContent;
 import jcifs.CIFSContext;
 import jcifs.CIFSException;
+import jcifs.CloseableIterator;
 import jcifs.Configuration;
+import jcifs.SmbResource;
 import jcifs.config.DelegatingConfiguration;
 import jcifs.config.PropertyConfiguration;
 import jcifs.context.BaseContext;
@@ -317,24 +322,39 @@ public class SmbProvider implements FileOperationHelper {
 
     @Override
     public GenericDirWithContent listDirectory(BasePathContent directory) {
+        return listDirectory(directory,null);
+    }
+
+    @Override
+    public GenericDirWithContent listDirectory(BasePathContent directory, @Nullable DirListingListener listener) {
         SMBPathContent g = (SMBPathContent) directory;
         CIFSContext cSMB = getChannel(g.smbAuthData);
 
         try {
             SmbFile dirToList = g.getSmbFile(cSMB,true);
             List<BrowserItem> l = new ArrayList<>();
-            for (SmbFile f : dirToList.listFiles()) {
-                l.add(new BrowserItem(
-                        f.getName(),
-                        f.getContentLengthLong(),
-                        new Date(f.getLastModified()),
-                        f.isDirectory(),
-                        false) // TODO get link info
-                );
+            ListingBatcher batcher = ListingBatcher.of(directory,listener);
+            // iterator follows the server's FIND_NEXT pages, unlike listFiles which waits for all of them
+            try (CloseableIterator<SmbResource> children = dirToList.children()) {
+                while (children.hasNext()) {
+                    NavigationScheduler.checkCancelled(); // stop on superseded navigation, between FIND_NEXT pages
+                    SmbFile f = (SmbFile) children.next();
+                    BrowserItem b = new BrowserItem(
+                            f.getName(),
+                            f.getContentLengthLong(),
+                            new Date(f.getLastModified()),
+                            f.isDirectory(),
+                            false); // TODO get link info
+                    l.add(b);
+                    if (batcher != null) batcher.add(b);
+                }
             }
 
             return new SmbDirWithContent(g.smbAuthData,directory.dir,l);
         }
+        catch (NavigationScheduler.Cancelled e) {
+            throw e;
+        }
         catch (Exception e) {
             return new SmbDirWithContent(g.smbAuthData,FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS);
         }
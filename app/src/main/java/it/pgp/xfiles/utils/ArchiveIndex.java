@@ -0,0 +1,457 @@
+package it.pgp.xfiles.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.adapters.FindResultsAdapter;
+import it.pgp.xfiles.roothelperclient.RHCodec;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Compact in-memory index of archive entries (replaces the nested-HashMap ArchiveVMap).
+ *
+ * Paths are stored as a trie: node 0 is the archive root, every other node is one path segment,
+ * linked to the others through parent/first-child/next-sibling int arrays; segment names are interned
+ * in a shared table, so repeated names (src, res, index.js...) are stored once.
+ * Entry metadata (position in archive entry list, size, modification time, type) lives in parallel
+ * primitive arrays. Directories not explicitly present in the archive are implicit nodes,
+ * with entry index -1 and the same defaults ArchiveVMap used (directory, size 0, date 0).
+ *
+ * Child lookup by (parent, name) goes through an open-addressing table of node ids,
+ * so resolving a path is O(depth), and listing a directory or collecting a subtree only follows links.
+ */
+
+public class ArchiveIndex {
+
+    public static final int ROOT = 0;
+    public static final int NONE = -1;
+
+    private static final byte FLAG_DIR = 1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int nodeCount = 1; // root only
+
+    private int[] parent = new int[INITIAL_CAPACITY];
+    private int[] firstChild = new int[INITIAL_CAPACITY];
+    private int[] nextSibling = new int[INITIAL_CAPACITY];
+    private int[] nameId = new int[INITIAL_CAPACITY];
+
+    private int[] entryIndex = new int[INITIAL_CAPACITY];
+    private long[] size = new long[INITIAL_CAPACITY];
+    private long[] mtime = new long[INITIAL_CAPACITY]; // milliseconds
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+
+    // interned segment names
+    private final HashMap<String,Integer> nameIds = new HashMap<>();
+    private String[] names = new String[256];
+    private int nameCount = 0;
+
+    // (parent,nameId) -> child node, open addressing, 0 marks an empty slot (root is never a child)
+    private int[] childTable = new int[INITIAL_CAPACITY*2];
+
+    public ArchiveIndex() {
+        parent[ROOT] = NONE;
+        firstChild[ROOT] = NONE;
+        nextSibling[ROOT] = NONE;
+        nameId[ROOT] = NONE;
+        entryIndex[ROOT] = NONE;
+        flags[ROOT] = FLAG_DIR;
+    }
+
+    // entry decoded by readNext, not yet added
+    private byte[] pendingName = new byte[256];
+    private int pendingNameLen;
+    private long pendingSize, pendingMtime;
+    private int pendingType;
+    // for extracting selected files, it is necessary to know their position in the archive entries list
+    private int entriesRead = 0;
+
+    /**
+     * Builds the index from a RH ls archive response (same wire format as
+     * {@link it.pgp.xfiles.roothelperclient.resps.ls_resp}), decoding entries in place
+     */
+    public static ArchiveIndex read(DataInputStream i) throws IOException {
+        ArchiveIndex index = new ArchiveIndex();
+        while (index.readNext(i)) index.addPending();
+        index.trim();
+        return index;
+    }
+
+    /**
+     * Decodes the next entry of a RH ls archive response, without touching the index structure
+     * (so that an incremental builder can block on the stream without holding the lock its readers use)
+     * @return false on end of list
+     */
+    public boolean readNext(DataInputStream i) throws IOException {
+        int filename_len = RHCodec.readUInt16(i);
+        if (filename_len == 0) return false; // end of list indication
+        if (filename_len > pendingName.length) pendingName = new byte[Math.max(filename_len, pendingName.length*2)];
+        i.readFully(pendingName,0,filename_len);
+        pendingNameLen = filename_len;
+        pendingMtime = RHCodec.readUInt32(i)*1000L;
+        pendingType = RHCodec.readUInt8(i);
+        RHCodec.skipFully(i,9); // only the type char of the permission string is needed
+        pendingSize = RHCodec.readInt64(i);
+        return true;
+    }
+
+    // adds the entry decoded by the last readNext
+    public void addPending() {
+        if (pendingType != '!')
+            add(pendingName, pendingNameLen, entriesRead, pendingSize, pendingMtime, pendingType == 'd');
+        entriesRead++;
+    }
+
+    /**
+     * Adds an archive entry, creating implicit parent directories as needed
+     * (a later entry for an already created implicit directory sets its metadata)
+     */
+    public void add(byte[] path, int len, int entry, long size, long mtime, boolean isDir) {
+        int node = ROOT;
+        for (int start = 0; start < len;) {
+            int end = start;
+            while (end < len && path[end] != '/') end++;
+            if (end > start) // skip empty segments (leading, trailing or double slashes)
+                node = getOrCreateChild(node, intern(new String(path, start, end-start, StandardCharsets.UTF_8)));
+            start = end+1;
+        }
+        if (node == ROOT) return;
+        entryIndex[node] = entry;
+        this.size[node] = size;
+        this.mtime[node] = mtime;
+        flags[node] = isDir ? FLAG_DIR : 0;
+    }
+
+    public void add(String path, int entry, long size, long mtime, boolean isDir) {
+        byte[] b = path.getBytes(StandardCharsets.UTF_8);
+        add(b, b.length, entry, size, mtime, isDir);
+    }
+
+    private int intern(String name) {
+        Integer id = nameIds.get(name);
+        if (id != null) return id;
+        if (nameCount == names.length) names = Arrays.copyOf(names, Math.max(16, nameCount*2));
+        names[nameCount] = name;
+        nameIds.put(name, nameCount);
+        return nameCount++;
+    }
+
+    private static int slot(int parentNode, int name, int mask) {
+        int h = parentNode * 0x9E3779B1 ^ name * 0x85EBCA6B;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int lookupChild(int parentNode, int name) {
+        int mask = childTable.length-1;
+        for (int s = slot(parentNode, name, mask);; s = (s+1) & mask) {
+            int n = childTable[s];
+            if (n == 0) return NONE;
+            if (parent[n] == parentNode && nameId[n] == name) return n;
+        }
+    }
+
+    private void insertInTable(int[] table, int node) {
+        int mask = table.length-1;
+        int s = slot(parent[node], nameId[node], mask);
+        while (table[s] != 0) s = (s+1) & mask;
+        table[s] = node;
+    }
+
+    private int getOrCreateChild(int parentNode, int name) {
+        int n = lookupChild(parentNode, name);
+        if (n != NONE) return n;
+
+        ensureCapacity(nodeCount+1);
+        n = nodeCount++;
+        parent[n] = parentNode;
+        nameId[n] = name;
+        firstChild[n] = NONE;
+        nextSibling[n] = firstChild[parentNode];
+        firstChild[parentNode] = n;
+        // implicit directory until an entry for it is found
+        entryIndex[n] = NONE;
+        size[n] = 0;
+        mtime[n] = 0;
+        flags[n] = FLAG_DIR;
+
+        if (nodeCount*2 > childTable.length) { // keep load factor <= 0.5
+            int[] t = new int[childTable.length*2];
+            for (int k = 1; k < nodeCount; k++) insertInTable(t, k);
+            childTable = t;
+        }
+        else insertInTable(childTable, n);
+        return n;
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (nodes <= parent.length) return;
+        resize(Math.max(nodes, parent.length*2));
+    }
+
+    private void resize(int capacity) {
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        nameId = Arrays.copyOf(nameId, capacity);
+        entryIndex = Arrays.copyOf(entryIndex, capacity);
+        size = Arrays.copyOf(size, capacity);
+        mtime = Arrays.copyOf(mtime, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+    }
+
+    // drops the spare capacity left by geometric growth, once the index is complete
+    public void trim() {
+        pendingName = null;
+        if (nodeCount < parent.length) resize(nodeCount);
+        if (nameCount < names.length) names = Arrays.copyOf(names, nameCount);
+    }
+
+    // rough heap usage, for memory-bounded caching
+    public long estimatedMemorySize() {
+        // per node: 5 int + 2 long + 1 byte arrays, plus 2 child table slots
+        long nodes = (long) nodeCount * (5*4 + 2*8 + 1 + 2*4);
+        // per name: String + backing array + intern map entry
+        long strings = 0;
+        for (int k = 0; k < nameCount; k++) strings += 80 + 2L*names[k].length();
+        return nodes + strings;
+    }
+
+    /**
+     * Serializes the index (node links, metadata and name table), to be restored with {@link #readFrom(DataInputStream)}
+     */
+    public void writeTo(DataOutputStream o) throws IOException {
+        o.writeInt(nameCount);
+        for (int k = 0; k < nameCount; k++) {
+            byte[] b = names[k].getBytes(StandardCharsets.UTF_8);
+            o.writeInt(b.length);
+            o.write(b);
+        }
+        o.writeInt(nodeCount);
+        for (int k = 0; k < nodeCount; k++) {
+            o.writeInt(parent[k]);
+            o.writeInt(firstChild[k]);
+            o.writeInt(nextSibling[k]);
+            o.writeInt(nameId[k]);
+            o.writeInt(entryIndex[k]);
+            o.writeLong(size[k]);
+            o.writeLong(mtime[k]);
+            o.writeByte(flags[k]);
+        }
+    }
+
+    public static ArchiveIndex readFrom(DataInputStream i) throws IOException {
+        ArchiveIndex index = new ArchiveIndex();
+        int nNames = i.readInt();
+        if (nNames < 0) throw new IOException("Corrupted archive index");
+        index.names = new String[nNames];
+        byte[] b = new byte[256];
+        for (int k = 0; k < nNames; k++) {
+            int len = i.readInt();
+            if (len < 0) throw new IOException("Corrupted archive index");
+            if (len > b.length) b = new byte[len];
+            i.readFully(b,0,len);
+            String name = new String(b,0,len,StandardCharsets.UTF_8);
+            index.names[k] = name;
+            index.nameIds.put(name,k);
+        }
+        index.nameCount = nNames;
+
+        int nNodes = i.readInt();
+        if (nNodes < 1) throw new IOException("Corrupted archive index");
+        index.resize(nNodes);
+        for (int k = 0; k < nNodes; k++) {
+            index.parent[k] = i.readInt();
+            index.firstChild[k] = i.readInt();
+            index.nextSibling[k] = i.readInt();
+            index.nameId[k] = i.readInt();
+            index.entryIndex[k] = i.readInt();
+            index.size[k] = i.readLong();
+            index.mtime[k] = i.readLong();
+            index.flags[k] = i.readByte();
+        }
+        index.nodeCount = nNodes;
+
+        index.checkLinks();
+
+        int capacity = Integer.highestOneBit(nNodes)*4; // load factor <= 0.5
+        index.childTable = new int[capacity];
+        for (int k = 1; k < nNodes; k++) index.insertInTable(index.childTable, k);
+        return index;
+    }
+
+    /**
+     * Checks that deserialized links describe a tree as built by {@link #add}, so that a corrupted file
+     * fails with an IOException instead of out-of-bounds accesses (or endless visits) later:
+     * parents precede their children, and every node but the root is reached exactly once,
+     * from the child list of its parent
+     */
+    private void checkLinks() throws IOException {
+        if (parent[ROOT] != NONE || nextSibling[ROOT] != NONE) throw new IOException("Corrupted archive index");
+        for (int k = 1; k < nodeCount; k++)
+            if (parent[k] < 0 || parent[k] >= k || nameId[k] < 0 || nameId[k] >= nameCount)
+                throw new IOException("Corrupted archive index");
+
+        boolean[] reached = new boolean[nodeCount];
+        int reachedCount = 0;
+        for (int p = 0; p < nodeCount; p++) {
+            for (int c = firstChild[p]; c != NONE; c = nextSibling[c]) {
+                if (c <= ROOT || c >= nodeCount || reached[c] || parent[c] != p)
+                    throw new IOException("Corrupted archive index");
+                reached[c] = true;
+                reachedCount++;
+            }
+        }
+        if (reachedCount != nodeCount-1) throw new IOException("Corrupted archive index");
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @param inArchivePath relative to archive root, "" or "/" for the root itself
+     * @return the node for the given path, or {@link #NONE} if not present
+     */
+    public int find(String inArchivePath) {
+        int node = ROOT;
+        if (inArchivePath == null) return node;
+        int len = inArchivePath.length();
+        for (int start = 0; start < len && node != NONE;) {
+            int end = inArchivePath.indexOf('/', start);
+            if (end < 0) end = len;
+            if (end > start) {
+                Integer id = nameIds.get(inArchivePath.substring(start, end));
+                node = (id == null) ? NONE : lookupChild(node, id);
+            }
+            start = end+1;
+        }
+        return node;
+    }
+
+    public String getName(int node) {
+        return node == ROOT ? "" : names[nameId[node]];
+    }
+
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    // -1 for directories not explicitly present in the archive
+    public int getEntryIndex(int node) {
+        return entryIndex[node];
+    }
+
+    public boolean isDirectory(int node) {
+        return (flags[node] & FLAG_DIR) != 0;
+    }
+
+    public long getSize(int node) {
+        return size[node];
+    }
+
+    public long getModificationTime(int node) {
+        return mtime[node];
+    }
+
+    public BrowserItem toBrowserItem(int node, String name) {
+        return new BrowserItem(name, size[node], new Date(mtime[node]), isDirectory(node), false);
+    }
+
+    public List<BrowserItem> listChildren(int node) {
+        return listChildrenAddedAfter(node, NONE);
+    }
+
+    /**
+     * New children are linked at the head of the sibling list, so the ones added to node
+     * after a listing whose first child was previousFirstChild are those preceding it
+     */
+    public List<BrowserItem> listChildrenAddedAfter(int node, int previousFirstChild) {
+        List<BrowserItem> content = new ArrayList<>();
+        for (int c = firstChild[node]; c != previousFirstChild && c != NONE; c = nextSibling[c])
+            content.add(toBrowserItem(c, names[nameId[c]]));
+        return content;
+    }
+
+    // next node of a pre-order visit of the subtree rooted at top, NONE at the end
+    private int nextInSubtree(int node, int top) {
+        if (firstChild[node] != NONE) return firstChild[node];
+        while (node != top && nextSibling[node] == NONE) node = parent[node];
+        return node == top ? NONE : nextSibling[node];
+    }
+
+    /**
+     * Collects the archive entry indexes of node and all its descendants
+     * (implicit directories have no entry, so they are not included)
+     */
+    public void collectEntries(int node, List<Integer> out) {
+        for (int n = node; n != NONE; n = nextInSubtree(n, node))
+            if (entryIndex[n] != NONE) out.add(entryIndex[n]);
+    }
+
+    public static final int STATS_CHILDREN_DIRS = 0;
+    public static final int STATS_CHILDREN_FILES = 1;
+    public static final int STATS_TOTAL_DIRS = 2;
+    public static final int STATS_TOTAL_FILES = 3;
+    public static final int STATS_TOTAL_SIZE = 4;
+
+    /**
+     * Adds to totals (indexed by the STATS_* constants) the counts of the subtree rooted at node
+     * @param includeSelf if true, node itself is counted as a child (e.g. when it is one of several selected items),
+     *                    otherwise only its descendants are counted, and its direct children are the children
+     */
+    public void accumulateStats(int node, boolean includeSelf, long[] totals) {
+        if (includeSelf) totals[isDirectory(node) ? STATS_CHILDREN_DIRS : STATS_CHILDREN_FILES]++;
+        else for (int c = firstChild[node]; c != NONE; c = nextSibling[c])
+            totals[isDirectory(c) ? STATS_CHILDREN_DIRS : STATS_CHILDREN_FILES]++;
+
+        for (int n = includeSelf ? node : nextInSubtree(node, node); n != NONE; n = nextInSubtree(n, node)) {
+            if (isDirectory(n)) totals[STATS_TOTAL_DIRS]++;
+            else {
+                totals[STATS_TOTAL_FILES]++;
+                totals[STATS_TOTAL_SIZE] += size[n];
+            }
+        }
+    }
+
+    // returns false if results can no longer be posted
+    private boolean dfsPaths(int node, String recursivePrefix, Predicate<String> matcher) {
+        for (int c = firstChild[node]; c != NONE; c = nextSibling[c]) {
+            String k = names[nameId[c]];
+
+            // FIXME it would be much better than the condition on recursivePrefix, to add a sanitize/trim slashes method in BasePathContent hierarchy
+            String joinedPath = (recursivePrefix==null || recursivePrefix.isEmpty())?k:recursivePrefix+"/"+k;
+            if(matcher.test(k)) {
+                BrowserItem b = toBrowserItem(c, joinedPath);
+                if (!FindResultsAdapter.instance.results.add(b)) return false;
+            }
+            if(recursivePrefix != null && firstChild[c] != NONE)
+                if (!dfsPaths(c, joinedPath, matcher)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param recursivePrefix null for searching only among root children, "" for searching the whole archive
+     */
+    public void findInArchive(Predicate<String> matcher, String recursivePrefix) {
+        dfsPaths(ROOT, recursivePrefix, matcher);
+    }
+}
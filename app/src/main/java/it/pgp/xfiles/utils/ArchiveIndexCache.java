@@ -0,0 +1,249 @@
+package it.pgp.xfiles.utils;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Two-tier cache of archive indexes (replaces the 10-slot in-memory GenericMRU for archives).
+ *
+ * An entry is valid as long as the archive file has the same canonical path, size and modification time.
+ * The memory tier is an access-ordered LinkedHashMap (O(1) lookup and LRU order), bounded by the
+ * estimated heap size of the cached indexes; the disk tier stores every index built from a RH
+ * listing into one file of the app cache dir, so that reopening an archive after a process restart
+ * does not need a new ls_archive enumeration. Disk files are evicted by last use, beyond a size budget.
+ * Indexes of archives that needed a password to be listed (header-encrypted ones) are kept in memory only,
+ * since their disk copy would expose in plaintext the entry names the encryption hides.
+ */
+
+public class ArchiveIndexCache {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 64L*1024*1024;
+    public static final long DEFAULT_DISK_BUDGET = 256L*1024*1024;
+
+    private static final int MAGIC = 0x58414958; // XAIX
+    private static final int FORMAT_VERSION = 1;
+    private static final String EXT = ".idx";
+
+    private static class Entry {
+        final ArchiveIndex index;
+        final long archiveSize;
+        final long archiveMtime;
+        final long footprint;
+
+        Entry(ArchiveIndex index, long archiveSize, long archiveMtime) {
+            this.index = index;
+            this.archiveSize = archiveSize;
+            this.archiveMtime = archiveMtime;
+            this.footprint = index.estimatedMemorySize();
+        }
+
+        boolean matches(long archiveSize, long archiveMtime) {
+            return this.archiveSize == archiveSize && this.archiveMtime == archiveMtime;
+        }
+    }
+
+    private final long memoryBudget;
+    private final long diskBudget;
+    private long memoryUsed = 0;
+    private final LinkedHashMap<String,Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    private File diskDir; // null until set, memory tier only
+
+    // disk writes and deletions, in submission order
+    private final ExecutorService diskWriter = Executors.newSingleThreadExecutor();
+
+    public ArchiveIndexCache(long memoryBudget, long diskBudget) {
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+    }
+
+    public ArchiveIndexCache() {
+        this(DEFAULT_MEMORY_BUDGET, DEFAULT_DISK_BUDGET);
+    }
+
+    public synchronized void setDiskDir(File diskDir) {
+        if (!diskDir.exists() && !diskDir.mkdirs()) {
+            Log.e(getClass().getName(), "Unable to create archive index cache dir "+diskDir);
+            return;
+        }
+        this.diskDir = diskDir;
+    }
+
+    private static String canonicalize(String archivePath) {
+        try {
+            return new File(archivePath).getCanonicalPath();
+        }
+        catch (IOException e) {
+            return archivePath;
+        }
+    }
+
+    private File diskFile(String key) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(h.length*2+EXT.length());
+            for (byte b : h) sb.append(String.format("%02x", b & 0xFF));
+            return new File(diskDir, sb.append(EXT).toString());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the cached index for the archive, if its size and modification time are unchanged
+     * since the index was built, otherwise null (and stale entries are dropped)
+     */
+    public synchronized ArchiveIndex get(String archivePath, long archiveSize, long archiveMtime) {
+        String key = canonicalize(archivePath);
+        Entry e = memory.get(key);
+        if (e != null) {
+            if (e.matches(archiveSize, archiveMtime)) return e.index;
+            removeFromMemory(key);
+        }
+        e = loadFromDisk(key, archiveSize, archiveMtime, true);
+        if (e == null) return null;
+        putInMemory(key, e);
+        return e.index;
+    }
+
+    /**
+     * Unconditional lookup, for operations performed while browsing an archive
+     * (the index has been validated when the archive was listed)
+     */
+    public synchronized ArchiveIndex get(String archivePath) {
+        String key = canonicalize(archivePath);
+        Entry e = memory.get(key);
+        if (e != null) return e.index;
+        e = loadFromDisk(key, 0, 0, false);
+        if (e == null) return null;
+        putInMemory(key, e);
+        return e.index;
+    }
+
+    /**
+     * Caches a freshly built index, the disk copy is written in background
+     * @param persistent false for indexes that must not be written to disk (e.g. of header-encrypted archives),
+     *                   any disk copy of a previous version of the archive is deleted instead
+     */
+    public void put(String archivePath, long archiveSize, long archiveMtime, ArchiveIndex index, boolean persistent) {
+        String key = canonicalize(archivePath);
+        Entry e = new Entry(index, archiveSize, archiveMtime);
+        File f;
+        synchronized (this) {
+            removeFromMemory(key);
+            putInMemory(key, e);
+            if (diskDir == null) return;
+            f = diskFile(key);
+        }
+        // after any pending write of the same file, being on the same single thread
+        if (persistent) diskWriter.execute(() -> storeToDisk(f, key, e));
+        else diskWriter.execute(f::delete);
+    }
+
+    public synchronized void clear() {
+        memory.clear();
+        memoryUsed = 0;
+        if (diskDir == null) return;
+        File[] files = diskDir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+    }
+
+    private void removeFromMemory(String key) {
+        Entry old = memory.remove(key);
+        if (old != null) memoryUsed -= old.footprint;
+    }
+
+    private void putInMemory(String key, Entry e) {
+        memory.put(key, e);
+        memoryUsed += e.footprint;
+        // evict least recently used indexes, always keeping the one just added
+        Iterator<Map.Entry<String,Entry>> it = memory.entrySet().iterator();
+        while (memoryUsed > memoryBudget && memory.size() > 1) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            memoryUsed -= eldest.footprint;
+        }
+    }
+
+    private Entry loadFromDisk(String key, long archiveSize, long archiveMtime, boolean validate) {
+        if (diskDir == null) return null;
+        File f = diskFile(key);
+        if (!f.exists()) return null;
+        try (DataInputStream i = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 65536))) {
+            if (i.readInt() != MAGIC || i.readInt() != FORMAT_VERSION) throw new IOException("Unknown index format");
+            String path = i.readUTF();
+            long size = i.readLong();
+            long mtime = i.readLong();
+            if (!key.equals(path) || (validate && (size != archiveSize || mtime != archiveMtime))) {
+                f.delete(); // stale or colliding entry
+                return null;
+            }
+            Entry e = new Entry(ArchiveIndex.readFrom(i), size, mtime);
+            f.setLastModified(System.currentTimeMillis()); // used as last access time for disk eviction
+            return e;
+        }
+        catch (IOException ex) {
+            Log.e(getClass().getName(), "Unable to read cached archive index for "+key, ex);
+            f.delete();
+            return null;
+        }
+    }
+
+    private void storeToDisk(File f, String key, Entry e) {
+        File tmp = new File(f.getPath()+".tmp");
+        try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536))) {
+            o.writeInt(MAGIC);
+            o.writeInt(FORMAT_VERSION);
+            o.writeUTF(key);
+            o.writeLong(e.archiveSize);
+            o.writeLong(e.archiveMtime);
+            e.index.writeTo(o);
+        }
+        catch (IOException ex) {
+            Log.e(getClass().getName(), "Unable to store archive index for "+key, ex);
+            tmp.delete();
+            return;
+        }
+        synchronized (this) {
+            if (!tmp.renameTo(f)) {
+                tmp.delete();
+                return;
+            }
+            trimDisk();
+        }
+    }
+
+    // removes least recently used files until the disk budget is met
+    private void trimDisk() {
+        File[] files = diskDir.listFiles((dir, name) -> name.endsWith(EXT));
+        if (files == null) return;
+        long total = 0;
+        for (File f : files) total += f.length();
+        if (total <= diskBudget) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int k = 0; k < files.length-1 && total > diskBudget; k++) {
+            total -= files[k].length();
+            files[k].delete();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package it.pgp.xfiles.utils;
+
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.dialogs.ConflictDialog;
+import it.pgp.xfiles.enums.conflicthandling.ConflictDecision;
+import it.pgp.xfiles.enums.conflicthandling.ConflictType;
+
+/**
+ * Created by pgp on 18/10/26
+ * Decision taken by the user in {@link ConflictDialog}, for the transfer thread waiting for it
+ * (roothelper transfers in {@link ProgressConflictHandler}, in-app ones in {@link ParallelCopyEngine})
+ */
+
+public class ConflictDecisionHolder {
+
+    public String lastNewName;
+    public ConflictDecision lastDecision;
+
+    /**
+     * Shows the conflict dialog and blocks the calling (non-UI) thread until it is dismissed
+     * @return false if there is no activity to show the dialog in
+     */
+    public boolean ask(ConflictType srcType, String src, ConflictType destType, String dest) {
+        MainActivity activity = MainActivity.mainActivity;
+        if (activity == null) return false;
+        activity.runOnUiThread(()->new ConflictDialog(
+                activity,
+                srcType,
+                src,
+                destType,
+                dest,
+                this // to set taken decision and optionally new filename
+        ).show());
+        synchronized (ConflictDecision.m) {
+            try {
+                ConflictDecision.m.wait();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,180 @@
+package it.pgp.xfiles.utils;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import it.pgp.xfiles.enums.conflicthandling.ConflictDecision;
+import it.pgp.xfiles.enums.conflicthandling.ConflictPolicy;
+import it.pgp.xfiles.enums.conflicthandling.ConflictType;
+import it.pgp.xfiles.roothelperclient.BatchStats;
+import it.pgp.xfiles.roothelperclient.HashRequestCodes;
+import it.pgp.xfiles.roothelperclient.RootHelperClient;
+import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
+
+/**
+ * Created by pgp on 18/10/26
+ * Evaluates a {@link ConflictPolicy} on each conflict reported by roothelper during copy/move,
+ * in place of the conflict dialog; stats (and checksums, if required by the policy) are queried on
+ * separate pooled connections, while the transfer connection waits for the decision.
+ * Only per-item decisions are returned (never the *_ALL ones), so that roothelper keeps reporting
+ * each conflict, including the ones inside merged directories.
+ * Without roothelper (in-app copy, see {@link ParallelCopyEngine}) stats and checksums are taken with java.io.File
+ */
+
+public class ConflictPolicyResolver {
+
+    public static final int RENAME_CANDIDATES_PER_QUERY = 16;
+
+    public final ConflictPolicy policy;
+    private final RootHelperClient rh; // null for in-app copy
+
+    public String lastNewName; // for CD_REN_SRC decisions
+
+    private final Map<ConflictDecision,Integer> counts = new EnumMap<>(ConflictDecision.class);
+    private int checksumComparisons = 0;
+
+    public ConflictPolicyResolver(ConflictPolicy policy, @Nullable RootHelperClient rh) {
+        this.policy = policy;
+        this.rh = rh;
+    }
+
+    /**
+     * @return the decision taken by the policy, or null if it cannot be evaluated
+     * (e.g. stats unavailable), in which case the conflict dialog is shown
+     */
+    public ConflictDecision decide(ConflictType srcType, String src, ConflictType destType, String dest) throws IOException {
+        lastNewName = null;
+        ConflictDecision d = evaluate(srcType, src, destType, dest);
+        if (d == null) return null; // left to the user
+        Integer c = counts.get(d);
+        counts.put(d, c == null ? 1 : c+1);
+        return d;
+    }
+
+    private ConflictDecision evaluate(ConflictType srcType, String src, ConflictType destType, String dest) throws IOException {
+        if (src.equals(dest)) return rename(dest); // copy onto itself, only copy-with-rename makes sense
+        if (srcType == ConflictType.DIR && destType == ConflictType.DIR) return ConflictDecision.CD_MERGE;
+        if (srcType != destType) return policy.keepsBoth() ? rename(dest) : ConflictDecision.CD_SKIP;
+
+        switch (policy) {
+            case SKIP:
+                return ConflictDecision.CD_SKIP;
+            case OVERWRITE:
+                return ConflictDecision.CD_OVERWRITE;
+            case RENAME:
+                return rename(dest);
+        }
+
+        BatchStats st = statBatch(Arrays.asList(src, dest), true);
+        // a failed stat must never be read as "older" or "different", ask instead
+        boolean sizesKnown = st.size[0] >= 0 && st.size[1] >= 0;
+        boolean datesKnown = st.mtime[0] >= 0 && st.mtime[1] >= 0;
+        boolean sameSize = st.size[0] == st.size[1];
+        boolean sameDate = st.mtime[0] == st.mtime[1];
+
+        switch (policy) {
+            case OVERWRITE_IF_NEWER:
+                if (!datesKnown) return null;
+                return st.mtime[0] > st.mtime[1] ? ConflictDecision.CD_OVERWRITE : ConflictDecision.CD_SKIP;
+            case SKIP_SAME_ELSE_OVERWRITE:
+                if (!sizesKnown || !datesKnown) return null;
+                return sameSize && sameDate ? ConflictDecision.CD_SKIP : ConflictDecision.CD_OVERWRITE;
+            case SKIP_SAME_ELSE_RENAME:
+                if (!sizesKnown || !datesKnown) return null;
+                return sameSize && sameDate ? ConflictDecision.CD_SKIP : rename(dest);
+            case SKIP_IDENTICAL_ELSE_RENAME:
+                if (!sizesKnown) return null;
+                return sameSize && sameContent(src, dest) ? ConflictDecision.CD_SKIP : rename(dest);
+            default:
+                throw new RuntimeException("Guard block");
+        }
+    }
+
+    private BatchStats statBatch(List<String> paths, boolean withStats) throws IOException {
+        if (rh != null) return rh.statBatch(paths, withStats);
+        BatchStats st = new BatchStats(paths.size());
+        for (int i = 0; i < st.count; i++) {
+            File f = new File(paths.get(i));
+            if (!f.exists()) continue;
+            st.flags[i] = (byte) (BatchStats.EXISTS | (f.isFile() ? BatchStats.IS_FILE : 0) | (f.isDirectory() ? BatchStats.IS_DIR : 0));
+            if (withStats) {
+                long mtime = f.lastModified(); // 0 on error
+                st.size[i] = f.length();
+                st.mtime[i] = mtime > 0 ? mtime/1000 : -1;
+            }
+        }
+        return st;
+    }
+
+    private boolean sameContent(String src, String dest) throws IOException {
+        checksumComparisons++;
+        if (rh == null) {
+            try {
+                return Arrays.equals(Checksums.md5(new File(src)), Checksums.md5(new File(dest)));
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+        StreamsPair transfer = rh.rs; // hashFile exposes its own connection there, keep the transfer one cancellable
+        try {
+            byte[] a = rh.hashFile(new LocalPathContent(src), HashRequestCodes.md5, new BitSet(4));
+            byte[] b = rh.hashFile(new LocalPathContent(dest), HashRequestCodes.md5, new BitSet(4));
+            return a != null && Arrays.equals(a, b);
+        }
+        finally {
+            rh.rs = transfer;
+        }
+    }
+
+    // first free "name (n).ext" in the destination folder
+    private ConflictDecision rename(String dest) throws IOException {
+        File f = new File(dest);
+        String parent = f.getParent();
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+
+        for (int start = 1; ; start += RENAME_CANDIDATES_PER_QUERY) {
+            List<String> names = new ArrayList<>(RENAME_CANDIDATES_PER_QUERY);
+            List<String> paths = new ArrayList<>(RENAME_CANDIDATES_PER_QUERY);
+            for (int n = start; n < start+RENAME_CANDIDATES_PER_QUERY; n++) {
+                String candidate = base+" ("+n+")"+ext;
+                names.add(candidate);
+                paths.add(parent+"/"+candidate);
+            }
+            BatchStats st = statBatch(paths, false);
+            for (int k = 0; k < names.size(); k++) {
+                if (!st.exists(k)) {
+                    lastNewName = names.get(k);
+                    return ConflictDecision.CD_REN_SRC;
+                }
+            }
+        }
+    }
+
+    public int getResolvedCount() {
+        int t = 0;
+        for (int c : counts.values()) t += c;
+        return t;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getResolvedCount()).append(" conflicts resolved by policy \"").append(policy.label).append("\"");
+        for (Map.Entry<ConflictDecision,Integer> e : counts.entrySet())
+            sb.append("\n").append(e.getKey().name().substring(3).toLowerCase()).append(": ").append(e.getValue());
+        if (checksumComparisons > 0) sb.append("\nchecksum comparisons: ").append(checksumComparisons);
+        return sb.toString();
+    }
+}
@@ -1,5 +1,6 @@
 package it.pgp.xfiles.utils;
 
+import android.support.annotation.Nullable;
 import android.widget.Toast;
 
 import java.util.ArrayList;
@@ -13,6 +14,9 @@ import it.pgp.xfiles.MainActivity;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.enums.ProviderType;
 import it.pgp.xfiles.exceptions.DirCommanderException;
+import it.pgp.xfiles.utils.dircontent.DirListingCache;
+import it.pgp.xfiles.utils.dircontent.DirListingListener;
+import it.pgp.xfiles.utils.dircontent.DirPrefetcher;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
 import it.pgp.xfiles.utils.dircontent.LocalDirWithContent;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
@@ -52,14 +56,33 @@ public class DirCommander {
         previousListViewPositions = tmp2;
     }
 
+    // listings shared by all commanders, see DirListingCache
+    public static final DirListingCache listingCache = new DirListingCache();
+    public static final DirPrefetcher prefetcher = new DirPrefetcher(listingCache);
+
+    // refresh always lists the dir again (and updates the cached listing)
     private GenericDirWithContent validateDirAccess(BasePathContent dir) {
+        return validateDirAccess(dir,null,false);
+    }
+
+    // navigation shows cached listings if available
+    private GenericDirWithContent validateDirAccess(BasePathContent dir, @Nullable DirListingListener listener) {
+        return validateDirAccess(dir,listener,true);
+    }
+
+    private GenericDirWithContent validateDirAccess(BasePathContent dir, @Nullable DirListingListener listener, boolean useCache) {
         FileOperationHelper helper = MainActivity.mainActivity.getFileOpsHelper(dir.providerType);
         switch (dir.providerType) {
             case LOCAL:
             case XFILES_REMOTE:
             case SFTP:
             case SMB:
-                return helper.listDirectory(dir);
+                if (useCache) {
+                    GenericDirWithContent cached = listingCache.get(dir);
+                    if (cached != null) return cached;
+                }
+                String key = DirListingCache.keyOf(dir); // path may be replaced on redirect
+                return listingCache.put(key,helper.listDirectory(dir,listener));
             case LOCAL_WITHIN_ARCHIVE:
                 return helper.listArchive(dir);
             default: // URL_DOWNLOAD is not a goDir label
@@ -180,35 +203,52 @@ public class DirCommander {
 
     // offset < 0 -> go back, > 0 -> go ahead
     public GenericDirWithContent shiftNPlaces(int offset, int previousPosition) {
+        return shiftNPlaces(offset,previousPosition,null);
+    }
+
+    /**
+     * @param listener receives partial content while the target dir is being listed, may be null
+     */
+    public GenericDirWithContent shiftNPlaces(int offset, int previousPosition, @Nullable DirListingListener listener) {
+        // offsets of merged back/ahead requests may exceed the available positions, stop at the first or last one
+        int targetIndex = Math.max(0, Math.min(currentIndex + offset, recentDirs.size()-1));
+
         // cannot go back, no previous dir (assume you cannot delete the folder you're in)
         // OR cannot go ahead, already last item of commander
         // in such cases, refresh current dir and also do not set previous positions
-        if ((offset < 0 && currentIndex==0) || (offset > 0 && recentDirs.size()==currentIndex+1))
-            return validateDirAccess(recentDirs.get(currentIndex));
+        if (targetIndex == currentIndex)
+            return validateDirAccess(recentDirs.get(currentIndex),listener);
 
-        int targetIndex = currentIndex + offset;
         BasePathContent bpc = recentDirs.get(targetIndex);
         if(bpc == null)
             return new GenericDirWithContent(FileOpsErrorCodes.ILLEGAL_ARGUMENT);
 
-        GenericDirWithContent cwd = validateDirAccess(bpc);
+        GenericDirWithContent cwd = validateDirAccess(bpc,listener);
         if (cwd == null || cwd.errorCode != null)
             return new GenericDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_SHIFT);
         cwd.listViewPosition = previousListViewPositions.get(targetIndex); // may be null when moving ahead
 
-        // set current position
-        previousListViewPositions.put(currentIndex,previousPosition);
-
-        currentIndex = targetIndex;
+        // set current position, unless superseded by a newer navigation meanwhile
+        if (!NavigationScheduler.commit(() -> {
+            previousListViewPositions.put(currentIndex,previousPosition);
+            currentIndex = targetIndex;
+        })) throw new NavigationScheduler.Cancelled();
         return cwd;
     }
 
     public GenericDirWithContent setDir(BasePathContent dir, int previousPosition) {
+        return setDir(dir,previousPosition,null);
+    }
+
+    /**
+     * @param listener receives partial content while the target dir is being listed, may be null
+     */
+    public GenericDirWithContent setDir(BasePathContent dir, int previousPosition, @Nullable DirListingListener listener) {
         GenericDirWithContent cwd;
         if (recentDirs.size()<currentIndex+1) // guard block
             throw new RuntimeException("Commander error");
 
-        cwd = validateDirAccess(dir);
+        cwd = validateDirAccess(dir,listener);
         if (cwd.errorCode != null)
             return cwd;
 
@@ -216,13 +256,16 @@ public class DirCommander {
         if(dir.equals(recentDirs.get(currentIndex)))
             return cwd;
 
-        if (recentDirs.size()>currentIndex+1) {
-            // resize array list, set new element (currentIndex remains unchanged)
-            truncateListMaps(currentIndex);
-        }
-        previousListViewPositions.put(currentIndex,previousPosition);
-        currentIndex++;
-        recentDirs.put(currentIndex,dir);
+        // unless superseded by a newer navigation meanwhile
+        if (!NavigationScheduler.commit(() -> {
+            if (recentDirs.size()>currentIndex+1) {
+                // resize array list, set new element (currentIndex remains unchanged)
+                truncateListMaps(currentIndex);
+            }
+            previousListViewPositions.put(currentIndex,previousPosition);
+            currentIndex++;
+            recentDirs.put(currentIndex,dir);
+        })) throw new NavigationScheduler.Cancelled();
 
         return cwd;
     }
@@ -15,6 +15,7 @@ import it.pgp.xfiles.items.SingleStatsItem;
 import it.pgp.xfiles.roothelperclient.HashRequestCodes;
 import it.pgp.xfiles.roothelperclient.resps.folderStats_resp;
 import it.pgp.xfiles.service.BaseBackgroundTask;
+import it.pgp.xfiles.utils.dircontent.DirListingListener;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 
@@ -45,6 +46,12 @@ public interface FileOperationHelper {
                     BitSet dirHashOpts) throws IOException;
 
     GenericDirWithContent listDirectory(BasePathContent directory);
+
+    // entries are also delivered in batches to listener while the listing is in progress,
+    // providers without incremental listing support just return the complete one
+    default GenericDirWithContent listDirectory(BasePathContent directory, @Nullable DirListingListener listener) {
+        return listDirectory(directory);
+    }
     GenericDirWithContent listArchive(BasePathContent archivePath);
 
     int compressToArchive(BasePathContent srcDirectory,
@@ -0,0 +1,123 @@
+package it.pgp.xfiles.utils;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+
+import it.pgp.xfiles.enums.conflicthandling.ConflictDecision;
+import it.pgp.xfiles.enums.conflicthandling.ConflictPolicy;
+import it.pgp.xfiles.enums.conflicthandling.ConflictType;
+import it.pgp.xfiles.service.BaseBackgroundTask;
+
+/**
+ * Created by pgp on 18/10/26
+ * Conflict handling for in-app copies ({@link ParallelCopyEngine}), with the same rules as roothelper ones:
+ * the job's {@link ConflictPolicy} decides first, then the conflict dialog is shown;
+ * *_ALL decisions taken in the dialog apply to all following conflicts of the same kind
+ * (directory over directory, or any other)
+ */
+
+public class InAppConflictResolver implements ParallelCopyEngine.ConflictCallback {
+
+    private final BaseBackgroundTask task; // cancelled on CD_CANCEL, nullable
+    public final ConflictPolicyResolver policyResolver;
+    private final ConflictDecisionHolder holder = new ConflictDecisionHolder();
+
+    private ConflictDecision allDirs, allOthers;
+
+    public InAppConflictResolver(ConflictPolicy policy, @Nullable BaseBackgroundTask task) {
+        this.task = task;
+        policyResolver = new ConflictPolicyResolver(policy, null);
+    }
+
+    @Override
+    public File resolve(File src, File dest) throws IOException {
+        ConflictType srcType = src.isDirectory() ? ConflictType.DIR : ConflictType.FILE;
+        ConflictType destType = dest.isDirectory() ? ConflictType.DIR : ConflictType.FILE;
+        boolean dirs = srcType == ConflictType.DIR && destType == ConflictType.DIR;
+
+        String newName = null;
+        ConflictDecision d = dirs ? allDirs : allOthers;
+        if (d == null && policyResolver.policy != ConflictPolicy.ASK) {
+            d = policyResolver.decide(srcType, src.getAbsolutePath(), destType, dest.getAbsolutePath());
+            newName = policyResolver.lastNewName;
+        }
+        if (d == null) {
+            if (!holder.ask(srcType, src.getAbsolutePath(), destType, dest.getAbsolutePath()))
+                d = ConflictDecision.CD_CANCEL; // activity closed meanwhile, nobody to ask
+            else {
+                d = holder.lastDecision;
+                newName = holder.lastNewName;
+            }
+        }
+        if (d == null) d = ConflictDecision.CD_CANCEL; // wait for the dialog interrupted
+
+        switch (d) {
+            case CD_SKIP_ALL:
+            case CD_OVERWRITE_ALL:
+            case CD_MERGE_ALL:
+            case CD_REN_SRC_ALL:
+            case CD_REN_DEST_ALL:
+                if (dirs) allDirs = d;
+                else allOthers = d;
+        }
+
+        switch (d) {
+            case CD_SKIP:
+            case CD_SKIP_ALL:
+                return null;
+            case CD_MERGE:
+            case CD_MERGE_ALL:
+                return dest;
+            case CD_OVERWRITE:
+            case CD_OVERWRITE_ALL:
+                if (src.equals(dest)) return null; // not offered by the dialog, nothing to overwrite with
+                if (dirs) return dest; // merged, colliding files are conflicts on their own
+                if (destType == ConflictType.DIR) XFilesUtils.deleteDirectory(dest);
+                else if (srcType == ConflictType.DIR) dest.delete();
+                // else, a regular file is truncated on copy
+                if (destType != srcType && dest.exists())
+                    throw new IOException("Unable to overwrite "+dest);
+                return dest;
+            case CD_REN_SRC:
+                return checkNewName(newName, src, dest);
+            case CD_REN_SRC_ALL:
+                return freeName(dest);
+            case CD_REN_DEST:
+                renameTo(dest, new File(dest.getParentFile(), newName));
+                return dest;
+            case CD_REN_DEST_ALL:
+                renameTo(dest, freeName(dest));
+                return dest;
+            case CD_CANCEL:
+                if (task != null) task.cancelTask();
+                return null;
+            default:
+                throw new RuntimeException("Guard block");
+        }
+    }
+
+    private File checkNewName(String newName, File src, File dest) throws IOException {
+        File f = new File(dest.getParentFile(), newName);
+        // the new name may be taken as well, that is a conflict on its own
+        return f.exists() ? resolve(src, f) : f;
+    }
+
+    private static void renameTo(File dest, File renamed) throws IOException {
+        if (renamed.exists() || !dest.renameTo(renamed))
+            throw new IOException("Unable to rename "+dest+" to "+renamed.getName());
+    }
+
+    // first free "name (n).ext", as ConflictPolicyResolver does with roothelper
+    private static File freeName(File dest) {
+        String name = dest.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        for (int n = 1; ; n++) {
+            File f = new File(dest.getParentFile(), base+" ("+n+")"+ext);
+            if (!f.exists()) return f;
+        }
+    }
+}
@@ -43,6 +43,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import it.pgp.xfiles.roothelperclient.RHCodec;
 import it.pgp.xfiles.roothelperclient.ResponseCodes;
 
 /**
@@ -102,7 +103,7 @@ public class Misc {
     }
 
     public static int receiveBaseResponse(DataInputStream i) throws IOException {
-        byte resp = i.readByte();
+        byte resp = i.readByte(); // served from the codec buffer on framed connections
         ResponseCodes c = ResponseCodes.getCode(resp);
 
         if(c != null) {
@@ -110,9 +111,7 @@ public class Misc {
                 case RESPONSE_OK:
                     return 0;
                 case RESPONSE_ERROR:
-                    byte[] errno_ = new byte[4];
-                    i.readFully(errno_);
-                    int errno = (int) castBytesToUnsignedNumber(errno_,4);
+                    int errno = (int) RHCodec.readUInt32(i);
                     Log.e("roothelper", "Error returned from roothelper server: " + errno);
                     return errno;
                 default:
@@ -125,24 +124,17 @@ public class Misc {
     }
 
     public static long receiveTotalOrProgress(DataInputStream i) throws IOException {
-        byte[] b = new byte[8];
-        i.readFully(b);
-        return castBytesToUnsignedNumber(b,null);
+        return RHCodec.readInt64(i);
     }
 
     public static String receiveStringWithLen(DataInputStream i) throws IOException {
-        byte[] tmp = new byte[2];
-        i.readFully(tmp);
-        int len = (int) castBytesToUnsignedNumber(tmp,2);
-        tmp = new byte[len];
-        i.readFully(tmp);
-        return new String(tmp);
+        int len = RHCodec.readUInt16(i);
+        return RHCodec.readUTF8(i,len);
     }
 
     public static void sendStringWithLen(OutputStream o, String s) throws IOException {
         byte[] b = s.getBytes();
-        byte[] len = castUnsignedNumberToBytes(b.length,2);
-        o.write(len);
+        RHCodec.writeUInt16(o,b.length);
         o.write(b);
     }
 
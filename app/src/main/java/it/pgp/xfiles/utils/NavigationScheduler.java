@@ -0,0 +1,251 @@
+package it.pgp.xfiles.utils;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Latest-wins scheduler of navigation requests (go dir, back/ahead, refresh) of a browser page
+ * (a request is never rejected because another one is still in progress).
+ *
+ * Each request starts immediately on its own thread, and makes the previous one stale:
+ * - a blocking listing of a stale request is aborted through the hook registered by the provider
+ *   on the navigation thread ({@link #setAbortHook}, e.g. closing its RH connection), or cooperatively
+ *   by provider loops ({@link #checkCancelled()});
+ * - a stale request never changes the dir commander state, since state changes are committed through
+ *   {@link #commit}, atomically with respect to cancellation; its outcome is shown only if it had already
+ *   committed, and no newer request has shown its own ({@link Navigation#claimUi()});
+ * - a back/ahead request following one not yet committed is merged with it (offsets are summed),
+ *   so that rapid presses move by as many positions with a single listing.
+ * Latency of completed navigations (from request to content shown) is logged and averaged.
+ */
+
+public class NavigationScheduler {
+
+    /**
+     * Thrown on a navigation thread when its request has become stale, ends the request silently
+     */
+    public static class Cancelled extends RuntimeException {
+        public Cancelled() {
+            super("Navigation superseded by a newer one");
+        }
+    }
+
+    public interface Task {
+        // failures are to be reported by the task itself, other than being logged they are ignored
+        void run(Navigation n);
+    }
+
+    public final class Navigation {
+        public final long id;
+        public final int offset; // back/ahead positions, 0 for other requests
+        private final long startTime = SystemClock.elapsedRealtime();
+
+        // guarded by the scheduler
+        private boolean cancelled = false;
+        private boolean committed = false;
+        private AutoCloseable abortHook;
+
+        private volatile boolean finished = false; // background part ended
+
+        Navigation(long id, int offset) {
+            this.id = id;
+            this.offset = offset;
+        }
+
+        public boolean isCancelled() {
+            synchronized (NavigationScheduler.this) {
+                return cancelled;
+            }
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public boolean isLatest() {
+            synchronized (NavigationScheduler.this) {
+                return latest == this;
+            }
+        }
+
+        // called with the scheduler lock held, returns whether the state change had already been committed
+        private boolean cancel() {
+            cancelled = true;
+            if (abortHook != null) {
+                try {
+                    abortHook.close();
+                }
+                catch (Exception ignored) {}
+                abortHook = null;
+            }
+            return committed;
+        }
+
+        /**
+         * To be called on the UI thread before showing the outcome of the navigation
+         * @return false if it became stale before committing its state change, or if a newer navigation
+         * has already shown its own outcome (in both cases, nothing has to be shown)
+         */
+        public boolean claimUi() {
+            synchronized (NavigationScheduler.this) {
+                if ((cancelled && !committed) || id < lastShownId) return false;
+                lastShownId = id;
+                return true;
+            }
+        }
+
+        /**
+         * To be called on the UI thread once the content has been shown
+         */
+        public void done() {
+            long latency = SystemClock.elapsedRealtime() - startTime;
+            synchronized (NavigationScheduler.this) {
+                completed++;
+                lastLatencyMs = latency;
+                maxLatencyMs = Math.max(maxLatencyMs, latency);
+                avgLatencyMs = (completed == 1) ? latency : avgLatencyMs + LATENCY_ALPHA * (latency - avgLatencyMs);
+            }
+            Log.d(NavigationScheduler.class.getName(), "Navigation "+id+" completed in "+latency+" ms, "+NavigationScheduler.this);
+        }
+
+        private NavigationScheduler getScheduler() {
+            return NavigationScheduler.this;
+        }
+    }
+
+    private static final double LATENCY_ALPHA = 0.2;
+
+    private static final ThreadLocal<Navigation> current = new ThreadLocal<>();
+
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    private long lastId = 0;
+    private long lastShownId = 0;
+    private Navigation latest; // guarded by this
+
+    // metrics, guarded by this
+    private long completed = 0;
+    private long superseded = 0;
+    private long merged = 0;
+    private long lastLatencyMs = 0;
+    private long maxLatencyMs = 0;
+    private double avgLatencyMs = 0;
+
+    /**
+     * Starts a navigation, making the current one stale
+     */
+    public Navigation submit(Task task) {
+        return submit(0, task);
+    }
+
+    /**
+     * @param offset positions to move back (negative) or ahead (positive), the task must read
+     *               the actual (possibly merged) offset from {@link Navigation#offset}
+     */
+    public Navigation submit(int offset, Task task) {
+        final Navigation n;
+        synchronized (this) {
+            if (latest != null) {
+                // a finished one is cancelled as well, its UI part may not have run yet
+                boolean inProgress = !latest.finished;
+                boolean wasCommitted = latest.cancel();
+                if (inProgress) superseded++;
+                if (offset != 0 && latest.offset != 0 && inProgress && !wasCommitted) {
+                    offset += latest.offset;
+                    merged++;
+                }
+            }
+            n = new Navigation(++lastId, offset);
+            latest = n;
+        }
+        threads.execute(() -> {
+            current.set(n);
+            try {
+                task.run(n);
+            }
+            catch (Cancelled ignored) {}
+            catch (RuntimeException e) {
+                // not propagated, an uncaught exception on a pool thread would kill the process
+                Log.e(NavigationScheduler.class.getName(), "Navigation "+n.id+" failed", e);
+            }
+            finally {
+                current.remove();
+                n.finished = true;
+            }
+        });
+        return n;
+    }
+
+    /**
+     * Makes the current navigation stale, without starting a new one
+     */
+    public synchronized void cancel() {
+        if (latest != null && !latest.finished) {
+            latest.cancel();
+            superseded++;
+        }
+    }
+
+    /**
+     * Runs a state change for the navigation of the calling thread, unless it has become stale
+     * (callers not running on a navigation thread always run it)
+     * @return false if the navigation has become stale, and the state change has not been run
+     */
+    public static boolean commit(Runnable stateChange) {
+        Navigation n = current.get();
+        if (n == null) {
+            stateChange.run();
+            return true;
+        }
+        synchronized (n.getScheduler()) {
+            if (n.cancelled) return false;
+            stateChange.run();
+            n.committed = true;
+            return true;
+        }
+    }
+
+    /**
+     * Registers the resource of the blocking operation in progress on the calling navigation thread,
+     * to be closed if the navigation becomes stale (null to unregister); no-op outside navigation threads
+     */
+    public static void setAbortHook(@Nullable AutoCloseable hook) {
+        Navigation n = current.get();
+        if (n == null) return;
+        synchronized (n.getScheduler()) {
+            if (n.cancelled && hook != null) {
+                try {
+                    hook.close();
+                }
+                catch (Exception ignored) {}
+                return;
+            }
+            n.abortHook = hook;
+        }
+    }
+
+    /**
+     * @throws Cancelled if the navigation of the calling thread has become stale
+     */
+    public static void checkCancelled() {
+        Navigation n = current.get();
+        if (n != null && n.isCancelled()) throw new Cancelled();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NavigationScheduler{" +
+                "completed=" + completed +
+                ", superseded=" + superseded +
+                ", merged=" + merged +
+                ", lastLatencyMs=" + lastLatencyMs +
+                ", avgLatencyMs=" + Math.round(avgLatencyMs) +
+                ", maxLatencyMs=" + maxLatencyMs +
+                '}';
+    }
+}
@@ -0,0 +1,248 @@
+package it.pgp.xfiles.utils;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.pgp.xfiles.service.BaseBackgroundTask;
+import it.pgp.xfiles.service.visualization.ThroughputEstimator;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Pure-Java copy, for when roothelper is not available.
+ * The source trees are walked once by the calling thread, which creates destination directories
+ * and feeds regular files to a bounded work queue as soon as they are found (totals grow while scanning);
+ * a small pool of workers copies them concurrently, so that per-file overhead of small files overlaps.
+ * Files larger than {@link #LARGE_FILE_THRESHOLD} are copied one at a time in chunks with transferTo,
+ * with progress and cancellation checks between chunks.
+ * Cancellation is cooperative: {@link #cancel()} is checked by scanner and workers between files and chunks,
+ * a file left incomplete by a worker is deleted.
+ * Existing destinations are resolved by the scanner through a {@link ConflictCallback} before queueing
+ * (see {@link InAppConflictResolver}), so that the conflict dialog and policies work as with roothelper.
+ */
+
+public class ParallelCopyEngine {
+
+    public static final long LARGE_FILE_THRESHOLD = 4*1024*1024;
+    public static final long CHUNK_SIZE = 8*1024*1024;
+    public static final int QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final class CopyItem {
+        final File src, dest;
+        final long size;
+
+        CopyItem(File src, File dest, long size) {
+            this.src = src;
+            this.dest = dest;
+            this.size = size;
+        }
+    }
+
+    private static final CopyItem END = new CopyItem(null, null, 0);
+
+    public interface ConflictCallback {
+        /**
+         * Called by the scanning thread for a source whose destination already exists
+         * @return the destination to copy src to (dest itself for overwriting or merging), or null to skip src
+         */
+        @Nullable File resolve(File src, File dest) throws IOException;
+    }
+
+    private final BaseBackgroundTask task; // for progress, nullable
+    private final int workers;
+    private final ConflictCallback conflicts; // nullable, existing destinations are overwritten (or merged into)
+
+    private final BlockingQueue<CopyItem> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Semaphore largeFileSlot = new Semaphore(1); // concurrent streams of big files only add seeks
+    private final AtomicLong totalBytes = new AtomicLong();
+    private volatile boolean cancelled = false;
+    private volatile IOException firstError;
+
+    public ParallelCopyEngine(@Nullable BaseBackgroundTask task, int workers, @Nullable ConflictCallback conflicts) {
+        this.task = task;
+        this.workers = Math.max(1, workers);
+        this.conflicts = conflicts;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void fail(IOException e) {
+        if (firstError == null) firstError = e;
+        cancelled = true;
+    }
+
+    /**
+     * Copies each source (file or directory tree) into dstFolder
+     */
+    public void copy(List<File> sources, File dstFolder) throws IOException {
+        if (task != null) {
+            task.progress.reset();
+            task.progress.throughput.enterPhase(ThroughputEstimator.Phase.TRANSFER);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Future<?>[] futures = new Future[workers];
+        for (int i=0; i<workers; i++)
+            futures[i] = pool.submit(this::workerLoop);
+
+        try {
+            scan(sources, dstFolder);
+        }
+        catch (IOException e) {
+            fail(e);
+        }
+        finally {
+            // one end marker per worker, after all items (or on abort, once workers drain the queue)
+            for (int i=0; i<workers; i++) putUninterruptibly(END);
+            pool.shutdown();
+        }
+
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            }
+            catch (Exception e) {
+                fail(new IOException("Copy worker error", e));
+            }
+        }
+        try {
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ignored) {}
+
+        if (firstError != null) throw firstError;
+        if (cancelled) throw new IOException("Copy cancelled");
+    }
+
+    private void scan(List<File> sources, File dstFolder) throws IOException {
+        Deque<File[]> stack = new ArrayDeque<>(); // (src, dest) pairs
+        for (File s : sources) stack.push(new File[]{s, new File(dstFolder, s.getName())});
+
+        while (!stack.isEmpty() && !cancelled) {
+            File[] p = stack.pop();
+            File src = p[0], dest = p[1];
+            if (conflicts != null && dest.exists()) {
+                dest = conflicts.resolve(src, dest);
+                if (dest == null || cancelled) continue; // skipped
+            }
+            if (src.isDirectory()) {
+                if (dest.getAbsolutePath().startsWith(src.getAbsolutePath()+"/"))
+                    throw new IOException("Cannot copy directory "+src+" into itself");
+                if (!dest.isDirectory() && !dest.mkdirs())
+                    throw new IOException("Unable to create directory "+dest);
+                File[] children = src.listFiles();
+                if (children == null) throw new IOException("Unable to list "+src);
+                for (File c : children) stack.push(new File[]{c, new File(dest, c.getName())});
+            }
+            else if (src.isFile()) {
+                long size = src.length();
+                long total = totalBytes.addAndGet(size);
+                if (task != null) task.progress.setOuterTotal(total);
+                putUninterruptibly(new CopyItem(src, dest, size));
+            }
+            else Log.w(getClass().getName(), "Skipping special or vanished file "+src);
+        }
+    }
+
+    private void putUninterruptibly(CopyItem item) {
+        for (;;) {
+            try {
+                queue.put(item);
+                return;
+            }
+            catch (InterruptedException ignored) {}
+        }
+    }
+
+    private void workerLoop() {
+        for (;;) {
+            CopyItem item;
+            try {
+                item = queue.take();
+            }
+            catch (InterruptedException e) {
+                continue;
+            }
+            if (item == END) return;
+            if (cancelled) continue; // drain, so that the scanner is never blocked on a full queue
+            try {
+                if (item.size >= LARGE_FILE_THRESHOLD) copyLarge(item);
+                else copySmall(item);
+                if (task != null && !cancelled) task.progress.addFiles(1);
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void copySmall(CopyItem item) throws IOException {
+        long pos = 0;
+        try (FileChannel source = new FileInputStream(item.src).getChannel();
+             FileChannel destination = new FileOutputStream(item.dest).getChannel()) {
+            long size = source.size();
+            while (pos < size) {
+                long n = source.transferTo(pos, size - pos, destination);
+                if (n <= 0) break;
+                pos += n;
+            }
+        }
+        catch (IOException e) {
+            item.dest.delete();
+            throw e;
+        }
+        if (task != null) {
+            task.progress.addOuter(pos);
+            task.progress.addBytes(pos);
+        }
+    }
+
+    private void copyLarge(CopyItem item) throws IOException {
+        largeFileSlot.acquireUninterruptibly();
+        boolean complete = false;
+        try (FileChannel source = new FileInputStream(item.src).getChannel();
+             FileChannel destination = new FileOutputStream(item.dest).getChannel()) {
+            long size = source.size();
+            long pos = 0;
+            while (pos < size) {
+                if (cancelled) return;
+                long n = source.transferTo(pos, Math.min(CHUNK_SIZE, size - pos), destination);
+                if (n <= 0) break;
+                pos += n;
+                if (task != null) {
+                    task.progress.addOuter(n);
+                    task.progress.addBytes(n);
+                    task.progress.setInner(pos, size);
+                }
+            }
+            complete = true;
+        }
+        finally {
+            largeFileSlot.release();
+            if (!complete) item.dest.delete();
+        }
+    }
+}
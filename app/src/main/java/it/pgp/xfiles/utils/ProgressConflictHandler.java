@@ -7,25 +7,34 @@ import java.util.HashMap;
 import java.util.Map;
 
 import it.pgp.xfiles.MainActivity;
-import it.pgp.xfiles.dialogs.ConflictDialog;
 import it.pgp.xfiles.enums.CopyMoveMode;
 import it.pgp.xfiles.enums.conflicthandling.ConflictDecision;
+import it.pgp.xfiles.enums.conflicthandling.ConflictPolicy;
 import it.pgp.xfiles.enums.conflicthandling.ConflictType;
 import it.pgp.xfiles.enums.conflicthandling.ErrorDecision;
 import it.pgp.xfiles.service.BaseBackgroundTask;
+import it.pgp.xfiles.service.TaskScheduler;
+import it.pgp.xfiles.service.visualization.ThroughputEstimator.Phase;
 
 /**
  * Class that handles progress and conflict resolution interactions for file copy, based on status map
  * code ported from python fileCopy_socketStatusMap
  */
 
-public class ProgressConflictHandler {
+public class ProgressConflictHandler extends ConflictDecisionHolder {
 
     @FunctionalInterface
     private interface fromStatusInterface {
         void from(ProgressConflictHandler handler) throws IOException;
     }
 
+    /**
+     * Notified, in transfer order, when items end (transferred, or skipped on conflict resolution)
+     */
+    public interface ItemCompletionListener {
+        void onItemsCompleted(long count, boolean skipped) throws IOException;
+    }
+
     /////////////////////////////////////////
     private static void commonTransition(ProgressConflictHandler handler) throws IOException {
         long n = Misc.receiveTotalOrProgress(handler.rs.i);
@@ -47,10 +56,8 @@ public class ProgressConflictHandler {
 
     private static void publishAfterSizeReceived(ProgressConflictHandler handler, long n) throws IOException {
         handler.currentFileSize = n;
-        handler.task.publishProgressWrapper(
-                new Pair<>(handler.currentFileCount,handler.totalFileCount),
-                new Pair<>(0L,1L)
-        );
+        handler.task.progress.throughput.enterPhase(Phase.TRANSFER);
+        handler.task.progress.set(handler.progressBase+handler.totalSizeSoFar,handler.getOverallTotal(),0,1);
     }
 
     // strategy for transition functions
@@ -66,10 +73,11 @@ public class ProgressConflictHandler {
 //        );
 
         // NEW, uses total size info
-        handler.task.publishProgressWrapper(
-                new Pair<>(handler.totalSizeSoFar,handler.totalSize),
-                new Pair<>(0L,1L)
-        );
+        handler.task.progress.set(handler.progressBase+handler.totalSizeSoFar,handler.getOverallTotal(),0,1);
+        handler.task.progress.setBytes(handler.progressBase+handler.totalSizeSoFar);
+        handler.task.progress.addFiles(1);
+        if (handler.completionListener != null) handler.completionListener.onItemsCompleted(1,false);
+        handler.task.progress.throughput.enterPhase(Phase.CLOSE); // until next file's size, per-file overhead
 
         commonTransition(handler);
     };
@@ -91,23 +99,34 @@ public class ProgressConflictHandler {
         Log.d("Progress", "Conflict type is: "+((int)xtype.getValue())+" "+ xtype.name());
         Log.d("Progress", "Conflicting paths are: "+x+" of type "+xtype.name()+", "+y+" of type"+ytype.name());
 
-        // launch conflict decision dialog and wait for it to be dismissed
-        MainActivity.mainActivity.runOnUiThread(()->new ConflictDialog(
-                MainActivity.mainActivity,
-                xtype,
-                x,
-                ytype,
-                y,
-                handler // to set taken decision and optionally new filename
-        ).show());
-        synchronized (ConflictDecision.m) {
+        if (handler.resolver != null && handler.resolver.policy != ConflictPolicy.ASK) {
+            // rule chosen up front, no UI round trip
+            ConflictDecision d = null;
             try {
-                ConflictDecision.m.wait();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                d = handler.resolver.decide(xtype,x,ytype,y);
             }
+            catch (IOException e) {
+                Log.e("Progress", "Unable to evaluate conflict policy, asking instead", e);
+            }
+            if (d != null) {
+                handler.lastDecision = d;
+                handler.lastNewName = handler.resolver.lastNewName;
+                sendDecision(handler);
+                return;
+            }
+        }
+
+        // launch conflict decision dialog and wait for it to be dismissed
+        handler.task.progress.throughput.enterPhase(Phase.CONFLICT_WAIT);
+        if (!handler.ask(xtype,x,ytype,y)) { // activity closed meanwhile, nobody to ask
+            handler.lastDecision = ConflictDecision.CD_CANCEL;
+            handler.lastNewName = null;
         }
 
+        sendDecision(handler);
+    };
+
+    private static void sendDecision(ProgressConflictHandler handler) throws IOException {
         handler.rs.o.write(handler.lastDecision.getValue());
         if (handler.lastDecision == ConflictDecision.CD_REN_SRC ||
                 handler.lastDecision == ConflictDecision.CD_REN_DEST) {
@@ -115,7 +134,7 @@ public class ProgressConflictHandler {
         }
 
         commonTransition(handler);
-    };
+    }
 
     static fromStatusInterface fromSKIP = handler -> {
         long outerProgressIncrement = Misc.receiveTotalOrProgress(handler.rs.i);
@@ -133,10 +152,10 @@ public class ProgressConflictHandler {
 //        );
 
         // END
-        handler.task.publishProgressWrapper(
-                new Pair<>(handler.totalSizeSoFar,handler.totalSize),
-                new Pair<>(0L,1L)
-        );
+        handler.task.progress.set(handler.progressBase+handler.totalSizeSoFar,handler.getOverallTotal(),0,1);
+        handler.task.progress.setBytes(handler.progressBase+handler.totalSizeSoFar);
+        handler.task.progress.addFiles(outerProgressIncrement);
+        if (handler.completionListener != null) handler.completionListener.onItemsCompleted(outerProgressIncrement,true);
 
         commonTransition(handler);
     };
@@ -184,10 +203,10 @@ public class ProgressConflictHandler {
 //                    (int)Math.round(n*100.0/handler.currentFileSize)
 //            );
             // NEW, uses total size info
-            handler.task.publishProgressWrapper(
-                    new Pair<>((handler.totalSizeSoFar+n),handler.totalSize),
-                    new Pair<>(n,handler.currentFileSize)
-            );
+            handler.task.progress.set(handler.progressBase+handler.totalSizeSoFar+n,handler.getOverallTotal(),n,handler.currentFileSize);
+            handler.task.progress.setBytes(handler.progressBase+handler.totalSizeSoFar+n);
+            // all data written, what remains until EOF is close (and sync) of the file
+            if (n == handler.currentFileSize) handler.task.progress.throughput.enterPhase(Phase.CLOSE);
 
             handler.currentStatus = Status.PROGRESS;
         }
@@ -247,8 +266,14 @@ public class ProgressConflictHandler {
     private final long totalSize;
     private long totalSizeSoFar = 0; // rounded to last completed file
 
-    public String lastNewName;
-    public ConflictDecision lastDecision;
+    // for a request that is one batch of a larger job: progress is offset by what was transferred before,
+    // and the total is the job's one as currently known, instead of the request's
+    private long progressBase = 0;
+    private boolean partOfJob = false;
+
+    private ItemCompletionListener completionListener;
+    private ConflictPolicyResolver resolver;
+    private boolean reportConflicts = true;
 
     public ProgressConflictHandler(StreamsPair rs,
                                    BaseBackgroundTask task,
@@ -262,6 +287,31 @@ public class ProgressConflictHandler {
         this.mode = mode;
     }
 
+    public ProgressConflictHandler setCompletionListener(ItemCompletionListener completionListener) {
+        this.completionListener = completionListener;
+        return this;
+    }
+
+    /**
+     * @param reportConflicts false if the resolver is shared across requests, and its report is up to the caller
+     */
+    public ProgressConflictHandler setConflictResolver(ConflictPolicyResolver resolver, boolean reportConflicts) {
+        this.resolver = resolver;
+        this.reportConflicts = reportConflicts;
+        return this;
+    }
+
+    public ProgressConflictHandler setPartOfJob(long progressBase) {
+        this.progressBase = progressBase;
+        this.partOfJob = true;
+        return this;
+    }
+
+    private long getOverallTotal() {
+        // the job's total may not include yet what roothelper counted for this request (directories sent as a whole)
+        return partOfJob ? Math.max(task.progress.getOuterTotal(), progressBase+totalSize) : totalSize;
+    }
+
     public void start() throws IOException {
         commonTransition(this); // needed to receive first size info as size and not as progress
         while(copyRunning)
@@ -275,5 +325,16 @@ public class ProgressConflictHandler {
             MainActivity.showToast(errOrWarn);
         }
 
+        if (reportConflicts) reportConflicts(resolver, mode);
+    }
+
+    // summary report of decisions taken without asking
+    public static void reportConflicts(ConflictPolicyResolver resolver, CopyMoveMode mode) {
+        if (resolver != null && resolver.getResolvedCount() > 0) {
+            String report = resolver.report();
+            Log.i("Progress", report);
+            MainActivity.showToast(report);
+            TaskScheduler.instance.addSummary(mode.name().toLowerCase()+" conflicts", report);
+        }
     }
 }
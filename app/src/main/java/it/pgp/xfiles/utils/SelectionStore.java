@@ -0,0 +1,292 @@
+package it.pgp.xfiles.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.pgp.xfiles.BrowserItem;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Compact, immutable list of selected item names (children of a same parent, which is kept by the owner),
+ * with optional attributes: names are stored as a single UTF-8 pool plus offsets, attributes as primitive arrays,
+ * instead of one {@link BrowserItem} (or String) object per item; list views create elements on access.
+ *
+ * When serialized (e.g. as part of service params), only a handle is written: the store is kept in a process-wide
+ * registry until released by the task consuming it, and the handle is resolved back to the same instance on
+ * deserialization. Large registered stores can be spilled to a file on memory pressure ({@link #spillAll()}),
+ * and are reloaded (and the file deleted) on next access; spill files are kept in the files dir,
+ * since the cache dir may be cleared by the system meanwhile.
+ */
+
+public class SelectionStore implements Serializable {
+
+    /**
+     * Implemented by params holding stores, released when their task ends
+     */
+    public interface Holder {
+        void releaseSelection();
+    }
+
+    public static final int SPILL_THRESHOLD = 4096; // items, smaller stores are never spilled
+
+    private static final Charset UTF8 = StandardCharsets.UTF_8;
+    private static final byte FLAG_DIR = 1;
+    private static final byte FLAG_LINK = 2;
+
+    private static final Map<Long,SelectionStore> registry = new ConcurrentHashMap<>();
+    private static final Set<SelectionStore> large = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<SelectionStore,Boolean>()));
+    private static final AtomicLong lastHandle = new AtomicLong(System.currentTimeMillis());
+    private static volatile File spillDir;
+
+    public final int size;
+    private final boolean hasAttributes;
+    private final long handle = lastHandle.incrementAndGet();
+
+    // guarded by this, null while spilled
+    private byte[] pool;
+    private int[] offsets; // name i is pool[offsets[i]..offsets[i+1])
+    private byte[] flags;
+    private long[] sizes;
+    private long[] mtimes; // ms
+
+    private SelectionStore(int size, boolean hasAttributes) {
+        this.size = size;
+        this.hasAttributes = hasAttributes;
+        offsets = new int[size+1];
+        if (hasAttributes) {
+            flags = new byte[size];
+            sizes = new long[size];
+            mtimes = new long[size];
+        }
+    }
+
+    public static SelectionStore ofItems(List<BrowserItem> items) {
+        SelectionStore s = new SelectionStore(items.size(), true);
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        int i = 0;
+        for (BrowserItem b : items) {
+            byte[] name = b.filename.getBytes(UTF8);
+            names.write(name, 0, name.length);
+            s.offsets[i+1] = s.offsets[i] + name.length;
+            if (b.isDirectory != null && b.isDirectory) s.flags[i] |= FLAG_DIR;
+            if (b.isLink != null && b.isLink) s.flags[i] |= FLAG_LINK;
+            s.sizes[i] = b.size == null ? 0 : b.size;
+            s.mtimes[i] = b.date == null ? 0 : b.date.getTime();
+            i++;
+        }
+        s.pool = names.toByteArray();
+        return s;
+    }
+
+    public static SelectionStore ofNames(List<String> names) {
+        SelectionStore s = new SelectionStore(names.size(), false);
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        int i = 0;
+        for (String n : names) {
+            byte[] name = n.getBytes(UTF8);
+            pool.write(name, 0, name.length);
+            s.offsets[i+1] = s.offsets[i] + name.length;
+            i++;
+        }
+        s.pool = pool.toByteArray();
+        return s;
+    }
+
+    /**
+     * Sets the spill dir, and removes files spilled by previous processes (once per process)
+     */
+    public static synchronized void init(Context context) {
+        if (spillDir != null) return;
+        File d = new File(context.getFilesDir(), "selections");
+        File[] stale = d.listFiles();
+        if (stale != null) for (File f : stale) f.delete();
+        spillDir = d;
+    }
+
+    /**
+     * Writes large registered stores to disk and frees their memory, to be called on memory pressure
+     */
+    public static void spillAll() {
+        List<SelectionStore> l;
+        synchronized (large) {
+            l = new ArrayList<>(large);
+        }
+        for (SelectionStore s : l) {
+            try {
+                s.spill();
+            }
+            catch (IOException e) {
+                Log.e(SelectionStore.class.getName(), "Unable to spill selection "+s.handle, e);
+            }
+        }
+    }
+
+    private File getSpillFile() {
+        return new File(spillDir, handle+".sel");
+    }
+
+    private synchronized void spill() throws IOException {
+        if (pool == null || spillDir == null) return;
+        if (!spillDir.exists() && !spillDir.mkdirs()) throw new IOException("Unable to create "+spillDir);
+        File f = getSpillFile();
+        try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 65536))) {
+            o.writeInt(pool.length);
+            o.write(pool);
+            for (int i=0; i<=size; i++) o.writeInt(offsets[i]);
+            if (hasAttributes) {
+                o.write(flags);
+                for (int i=0; i<size; i++) o.writeLong(sizes[i]);
+                for (int i=0; i<size; i++) o.writeLong(mtimes[i]);
+            }
+        }
+        catch (IOException e) {
+            f.delete();
+            throw e;
+        }
+        pool = null;
+        offsets = null;
+        flags = null;
+        sizes = null;
+        mtimes = null;
+    }
+
+    private void ensureLoaded() {
+        if (pool != null) return;
+        File f = getSpillFile();
+        try (DataInputStream i = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 65536))) {
+            byte[] p = new byte[i.readInt()];
+            i.readFully(p);
+            offsets = new int[size+1];
+            for (int k=0; k<=size; k++) offsets[k] = i.readInt();
+            if (hasAttributes) {
+                flags = new byte[size];
+                i.readFully(flags);
+                sizes = new long[size];
+                for (int k=0; k<size; k++) sizes[k] = i.readLong();
+                mtimes = new long[size];
+                for (int k=0; k<size; k++) mtimes[k] = i.readLong();
+            }
+            pool = p;
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Unable to reload spilled selection "+handle, e);
+        }
+        f.delete(); // written again on next spill
+    }
+
+    public synchronized String getName(int i) {
+        ensureLoaded();
+        return new String(pool, offsets[i], offsets[i+1]-offsets[i], UTF8);
+    }
+
+    public synchronized BrowserItem getItem(int i) {
+        ensureLoaded();
+        String name = new String(pool, offsets[i], offsets[i+1]-offsets[i], UTF8);
+        if (!hasAttributes) return new BrowserItem(name, 0, new Date(0), false, false);
+        return new BrowserItem(name, sizes[i], new Date(mtimes[i]),
+                (flags[i] & FLAG_DIR) != 0, (flags[i] & FLAG_LINK) != 0);
+    }
+
+    private static abstract class View<T> extends AbstractList<T> implements RandomAccess {}
+
+    public List<BrowserItem> asBrowserItems() {
+        return new View<BrowserItem>() {
+            @Override
+            public BrowserItem get(int i) {
+                return getItem(i);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public List<String> asNames() {
+        return asPaths("");
+    }
+
+    /**
+     * @param prefix parent path, including the trailing separator
+     */
+    public List<String> asPaths(String prefix) {
+        return new View<String>() {
+            @Override
+            public String get(int i) {
+                return prefix+getName(i);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Removes the store from the registry of serialized ones, and its spill file if any;
+     * local references stay valid (e.g. a copy list pasted again), the store is kept in memory until registered again
+     */
+    public void release() {
+        registry.remove(handle);
+        large.remove(this);
+        synchronized (this) {
+            try {
+                ensureLoaded();
+            }
+            catch (RuntimeException e) {
+                Log.e(getClass().getName(), "Released selection "+handle+" is lost", e);
+            }
+        }
+    }
+
+    // only the handle goes into the serialized stream
+    private Object writeReplace() throws ObjectStreamException {
+        registry.put(handle, this);
+        if (size >= SPILL_THRESHOLD) large.add(this); // only registered stores are spilled
+        return new Handle(handle);
+    }
+
+    private static class Handle implements Serializable {
+        final long handle;
+
+        Handle(long handle) {
+            this.handle = handle;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            SelectionStore s = registry.get(handle);
+            if (s == null) throw new InvalidObjectException("Selection "+handle+" has been released");
+            return s;
+        }
+    }
+}
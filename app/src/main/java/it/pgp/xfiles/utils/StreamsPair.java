@@ -1,8 +1,11 @@
 package it.pgp.xfiles.utils;
 
 import java.io.DataInputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
 
+import it.pgp.xfiles.roothelperclient.FramedInputStream;
+import it.pgp.xfiles.roothelperclient.FramedOutputStream;
 import it.pgp.xfiles.roothelperclient.RootHelperClient;
 
 /**
@@ -14,8 +17,16 @@ public abstract class StreamsPair implements AutoCloseable {
     public DataInputStream i;
     public OutputStream o;
 
+    // wraps raw socket streams with the buffered RH wire codec
+    protected void setFramedStreams(InputStream rawIn, OutputStream rawOut) {
+        FramedOutputStream fo = new FramedOutputStream(rawOut);
+        o = fo;
+        i = new FramedInputStream(rawIn, fo);
+    }
+
     @Override
     public void close() {
+        try {o.flush();} catch (Exception ignored) {}
         try {i.close();} catch (Exception ignored) {}
         try {o.close();} catch (Exception ignored) {}
     }
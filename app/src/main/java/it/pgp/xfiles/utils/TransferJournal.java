@@ -0,0 +1,332 @@
+package it.pgp.xfiles.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.CopyMoveListPathContent;
+import it.pgp.xfiles.enums.CopyMoveMode;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * On-disk journal of a copy/move job, for resuming it after the process has been killed.
+ *
+ * The file starts with a header, written once (to a temporary file, then renamed): mode, source parent dir,
+ * destination dir and the selected top-level items.
+ * Then records are appended: one per file or directory to be transferred, as soon as it is found by the scan
+ * (path relative to both source parent and destination dir, size, modification time, flags),
+ * one each time a file transfer ends (entry index, outcome), and an end-of-scan marker once all entries are known.
+ * Completion records always follow the entry they refer to; a truncated last record, left by a kill
+ * during a write, is ignored on reading.
+ * The journal is deleted when the job completes.
+ * Journaling is opt-in ({@link #enabled}): a journaled job is planned client-side, so directory-level
+ * conflicts are not prompted as a whole.
+ */
+
+public class TransferJournal {
+
+    private static final int MAGIC = 0x584A524E; // XJRN
+    private static final int FORMAT_VERSION = 2;
+    private static final String EXT = ".jnl";
+
+    public static final byte FLAG_DIR = 1;
+    public static final byte FLAG_DEST_EXISTED = 2; // destination already present when planning, never deleted on resume
+
+    private static final byte REC_ENTRY = 1;
+    private static final byte REC_DONE = 2;
+    private static final byte REC_SKIPPED = 3;
+    private static final byte REC_SCAN_COMPLETE = 4;
+
+    private static final long SYNC_INTERVAL_MS = 1000;
+
+    public static final String PREF_KEY = "RESUMABLE_TRANSFERS";
+    public static volatile boolean enabled = false; // for local copy/move jobs created afterwards
+
+    public static class Entry {
+        public final String relPath;
+        public final long size;
+        public final long mtime;
+        public final byte flags;
+
+        public Entry(String relPath, long size, long mtime, byte flags) {
+            this.relPath = relPath;
+            this.size = size;
+            this.mtime = mtime;
+            this.flags = flags;
+        }
+
+        public boolean isDir() {
+            return (flags & FLAG_DIR) != 0;
+        }
+
+        public boolean destExisted() {
+            return (flags & FLAG_DEST_EXISTED) != 0;
+        }
+    }
+
+    public final File file;
+    public final CopyMoveMode mode;
+    public final String srcParent;
+    public final String destDir;
+    public final List<BrowserItem> topLevel;
+
+    // guarded by this
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String,Integer> indexes = new HashMap<>();
+    private final BitSet done = new BitSet();
+    private final BitSet skipped = new BitSet();
+    private boolean scanComplete = false;
+
+    private FileOutputStream recordsFos;
+    private DataOutputStream records;
+    private long lastSync;
+
+    private TransferJournal(File file, CopyMoveMode mode, String srcParent, String destDir, List<BrowserItem> topLevel) {
+        this.file = file;
+        this.mode = mode;
+        this.srcParent = srcParent;
+        this.destDir = destDir;
+        this.topLevel = topLevel;
+    }
+
+    public static File getJournalDir(Context context) {
+        return new File(context.getFilesDir(), "transferJournals");
+    }
+
+    /**
+     * @return journals of jobs which have not completed
+     */
+    public static List<File> listPending(File journalDir) {
+        List<File> l = new ArrayList<>();
+        File[] files = journalDir.listFiles((dir, name) -> name.endsWith(EXT));
+        if (files != null) for (File f : files) l.add(f);
+        return l;
+    }
+
+    public static TransferJournal create(File journalDir, CopyMoveMode mode, String srcParent, String destDir,
+                                         List<BrowserItem> topLevel) throws IOException {
+        if (!journalDir.exists() && !journalDir.mkdirs())
+            throw new IOException("Unable to create journal dir "+journalDir);
+        File f = new File(journalDir, System.currentTimeMillis()+"_"+Integer.toHexString(System.identityHashCode(topLevel))+EXT);
+        File tmp = new File(f.getPath()+".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream o = new DataOutputStream(new BufferedOutputStream(fos, 65536))) {
+            o.writeInt(MAGIC);
+            o.writeInt(FORMAT_VERSION);
+            o.writeByte(mode.ordinal());
+            o.writeUTF(srcParent);
+            o.writeUTF(destDir);
+            o.writeInt(topLevel.size());
+            for (BrowserItem b : topLevel) {
+                o.writeUTF(b.filename);
+                o.writeLong(b.size == null ? 0 : b.size);
+                o.writeLong(b.date == null ? 0 : b.date.getTime());
+                o.writeBoolean(b.isDirectory != null && b.isDirectory);
+                o.writeBoolean(b.isLink != null && b.isLink);
+            }
+            o.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            throw new IOException("Unable to store journal "+f);
+        }
+        return new TransferJournal(f, mode, srcParent, destDir, topLevel);
+    }
+
+    public static TransferJournal open(File f) throws IOException {
+        try (DataInputStream i = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 65536))) {
+            if (i.readInt() != MAGIC || i.readInt() != FORMAT_VERSION) throw new IOException("Unknown journal format");
+            CopyMoveMode mode = CopyMoveMode.values()[i.readUnsignedByte()];
+            String srcParent = i.readUTF();
+            String destDir = i.readUTF();
+            int n = i.readInt();
+            List<BrowserItem> topLevel = new ArrayList<>(n);
+            for (int k = 0; k < n; k++) {
+                String name = i.readUTF();
+                long size = i.readLong();
+                long mtime = i.readLong();
+                boolean isDir = i.readBoolean();
+                boolean isLink = i.readBoolean();
+                topLevel.add(new BrowserItem(name, size, new Date(mtime), isDir, isLink));
+            }
+
+            TransferJournal j = new TransferJournal(f, mode, srcParent, destDir, topLevel);
+            try {
+                for (;;) {
+                    byte tag = i.readByte();
+                    switch (tag) {
+                        case REC_ENTRY:
+                            Entry e = new Entry(i.readUTF(), i.readLong(), i.readLong(), i.readByte());
+                            j.indexes.put(e.relPath, j.entries.size());
+                            j.entries.add(e);
+                            break;
+                        case REC_DONE:
+                        case REC_SKIPPED:
+                            int idx = i.readInt();
+                            if (idx < 0 || idx >= j.entries.size()) throw new IOException("Corrupted journal record");
+                            j.done.set(idx);
+                            if (tag == REC_SKIPPED) j.skipped.set(idx);
+                            break;
+                        case REC_SCAN_COMPLETE:
+                            j.scanComplete = true;
+                            break;
+                        default:
+                            throw new IOException("Corrupted journal record");
+                    }
+                }
+            }
+            catch (EOFException ignored) {} // end of records, or truncated last one
+            return j;
+        }
+    }
+
+    public CopyMoveListPathContent getCopyMoveList() {
+        return new CopyMoveListPathContent(topLevel, mode, new LocalPathContent(srcParent));
+    }
+
+    public BasePathContent getDestPath() {
+        return new LocalPathContent(destDir);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized Entry getEntry(int idx) {
+        return entries.get(idx);
+    }
+
+    /**
+     * @return index of the entry with the given relative path, or -1 if not recorded
+     */
+    public synchronized int indexOf(String relPath) {
+        Integer idx = indexes.get(relPath);
+        return idx == null ? -1 : idx;
+    }
+
+    public synchronized String getSrc(int idx) {
+        return srcParent+"/"+entries.get(idx).relPath;
+    }
+
+    public synchronized String getDest(int idx) {
+        return destDir+"/"+entries.get(idx).relPath;
+    }
+
+    public synchronized boolean isScanComplete() {
+        return scanComplete;
+    }
+
+    public synchronized boolean isDone(int idx) {
+        return done.get(idx);
+    }
+
+    public synchronized boolean isSkipped(int idx) {
+        return skipped.get(idx);
+    }
+
+    // forget a completion record, when verification of the transferred file fails
+    public synchronized void clearDone(int idx) {
+        done.clear(idx);
+        skipped.clear(idx);
+    }
+
+    public synchronized boolean allDone() {
+        if (!scanComplete) return false;
+        for (int k = 0; k < entries.size(); k++)
+            if (!entries.get(k).isDir() && !done.get(k)) return false;
+        return true;
+    }
+
+    private void ensureRecordsStream() throws IOException {
+        if (records == null) {
+            recordsFos = new FileOutputStream(file, true);
+            records = new DataOutputStream(new BufferedOutputStream(recordsFos, 4096));
+        }
+    }
+
+    // records are synced to disk at most once per second, so a kill may lose the last ones
+    private void maybeSync() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - lastSync >= SYNC_INTERVAL_MS) {
+            records.flush();
+            recordsFos.getFD().sync();
+            lastSync = now;
+        }
+    }
+
+    /**
+     * @return index of the new entry
+     */
+    public synchronized int appendEntry(Entry e) throws IOException {
+        ensureRecordsStream();
+        records.writeByte(REC_ENTRY);
+        records.writeUTF(e.relPath);
+        records.writeLong(e.size);
+        records.writeLong(e.mtime);
+        records.writeByte(e.flags);
+        int idx = entries.size();
+        indexes.put(e.relPath, idx);
+        entries.add(e);
+        maybeSync();
+        return idx;
+    }
+
+    public synchronized void markScanComplete() throws IOException {
+        if (scanComplete) return;
+        ensureRecordsStream();
+        records.writeByte(REC_SCAN_COMPLETE);
+        scanComplete = true;
+        maybeSync();
+    }
+
+    /**
+     * Appends a completion record; if lost on a kill, the file is checked again on resume
+     */
+    public synchronized void markDone(int idx, boolean wasSkipped) throws IOException {
+        done.set(idx);
+        if (wasSkipped) skipped.set(idx);
+        ensureRecordsStream();
+        records.writeByte(wasSkipped ? REC_SKIPPED : REC_DONE);
+        records.writeInt(idx);
+        maybeSync();
+    }
+
+    public synchronized void close() {
+        if (records == null) return;
+        try {
+            records.flush();
+            recordsFos.getFD().sync();
+            records.close();
+        }
+        catch (IOException e) {
+            Log.e(getClass().getName(), "Unable to close journal "+file, e);
+        }
+        records = null;
+        recordsFos = null;
+    }
+
+    public void delete() {
+        close();
+        file.delete();
+    }
+}
@@ -20,17 +20,21 @@ import it.pgp.Native;
 import it.pgp.xfiles.BrowserItem;
 import it.pgp.xfiles.CopyMoveListPathContent;
 import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.enums.CopyMoveMode;
 import it.pgp.xfiles.enums.FileMode;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.enums.ProviderType;
+import it.pgp.xfiles.enums.conflicthandling.ConflictPolicy;
 import it.pgp.xfiles.items.FileCreationAdvancedOptions;
 import it.pgp.xfiles.items.SingleStatsItem;
 import it.pgp.xfiles.roothelperclient.HashRequestCodes;
 import it.pgp.xfiles.roothelperclient.RootHelperClient;
 import it.pgp.xfiles.roothelperclient.resps.folderStats_resp;
 import it.pgp.xfiles.service.BaseBackgroundTask;
+import it.pgp.xfiles.utils.dircontent.DirListingListener;
 import it.pgp.xfiles.utils.dircontent.GenericDirWithContent;
 import it.pgp.xfiles.utils.dircontent.LocalDirWithContent;
+import it.pgp.xfiles.utils.dircontent.ListingBatcher;
 import it.pgp.xfiles.utils.pathcontent.BasePathContent;
 import it.pgp.xfiles.utils.pathcontent.LocalPathContent;
 import it.pgp.xfiles.utils.pathcontent.XREPathContent;
@@ -44,7 +48,8 @@ public class XFilesUtils implements FileOperationHelper {
 
     // for publishing progress from within a long term task (copy/move/compress/extract/upload/download)
     BaseBackgroundTask task;
-    long totalFilesForProgress,currentFilesForProgress;
+    private volatile ParallelCopyEngine copyEngine; // current copy, for cancelling it
+    public ConflictPolicy conflictPolicy = ConflictPolicy.ASK; // for copies, as in RootHelperClient
 
     private RootHelperClient rhc;
 
@@ -61,38 +66,11 @@ public class XFilesUtils implements FileOperationHelper {
     @Override
     public void destroyProgressSupport() {
         task = null;
-        totalFilesForProgress = 0;
-        currentFilesForProgress = 0;
     }
 
-    public int getTotalFilesCount(File file) {
-        File[] files = file.listFiles();
-        int count = 0;
-        for (File f : files) {
-            if (f.isDirectory()) count += getTotalFilesCount(f);
-            else count++;
-        }
-        return count;
-    }
-
-    public void copyFileOrDirectory(File srcFileOrDir, File dstFolder) throws IOException {
-        if (srcFileOrDir.isDirectory()) {
-            File[] files = srcFileOrDir.listFiles();
-            for (File file : files) {
-                File src1 = new File(srcFileOrDir, file.getName());
-                File dst1 = new File(dstFolder,srcFileOrDir.getName());
-                copyFileOrDirectory(src1, dst1);
-            }
-        } else {
-            copyFile(srcFileOrDir, new File(dstFolder,srcFileOrDir.getName()));
-
-//            try {Thread.sleep(1000);} catch (InterruptedException ignored) {}
-
-            if(task != null) {
-                currentFilesForProgress++;
-                task.publishProgressWrapper(new Pair<>(currentFilesForProgress, totalFilesForProgress));
-            }
-        }
+    public void cancelCopy() {
+        ParallelCopyEngine e = copyEngine;
+        if (e != null) e.cancel();
     }
 
     public static void copyFile(File sourceFile, File destFile) throws IOException {
@@ -161,12 +139,17 @@ public class XFilesUtils implements FileOperationHelper {
     }
 
     public void copyFilesToDirectory(CopyMoveListPathContent files, File dstFolder) throws IOException {
-        totalFilesForProgress = 0;
-        for (String pathname : files)
-            totalFilesForProgress += getTotalFilesCount(new File(pathname));
-
-        for (String pathname: files)
-            copyFileOrDirectory(new File(pathname),dstFolder);
+        List<File> sources = new ArrayList<>();
+        for (String pathname : files) sources.add(new File(pathname));
+        InAppConflictResolver conflicts = new InAppConflictResolver(conflictPolicy, task);
+        copyEngine = new ParallelCopyEngine(task, ParallelCopyEngine.DEFAULT_WORKERS, conflicts);
+        try {
+            copyEngine.copy(sources, dstFolder);
+        }
+        finally {
+            copyEngine = null;
+            ProgressConflictHandler.reportConflicts(conflicts.policyResolver, CopyMoveMode.COPY);
+        }
     }
 
     public void moveFilesToDirectory(CopyMoveListPathContent files, File dstFolder) throws IOException {
@@ -347,10 +330,15 @@ public class XFilesUtils implements FileOperationHelper {
 
     @Override
     public GenericDirWithContent listDirectory(BasePathContent directory) {
+        return listDirectory(directory,null);
+    }
+
+    @Override
+    public GenericDirWithContent listDirectory(BasePathContent directory, @Nullable DirListingListener listener) {
         if(directory instanceof XREPathContent) {
             try {refreshRHClient();}
             catch(IOException e) {return new GenericDirWithContent(FileOpsErrorCodes.ROOTHELPER_INIT_ERROR);}
-            return rhc.listDirectory(directory);
+            return rhc.listDirectory(directory,listener);
         }
         File[] content = new File(directory.dir).listFiles();
         if(content == null) {
@@ -358,8 +346,11 @@ public class XFilesUtils implements FileOperationHelper {
             return new LocalDirWithContent(FileOpsErrorCodes.COMMANDER_CANNOT_ACCESS); // TODO specialize error code (enum to be created) in callers from dir commander
         }
         ArrayList<BrowserItem> l = new ArrayList<>();
+        ListingBatcher batcher = ListingBatcher.of(directory,listener);
         for(File f : content) {
-            l.add(new BrowserItem(f.getName(),f.length(),new Date(f.lastModified()),f.isDirectory(), Native.isSymLink(f.getAbsolutePath())>0)); // getCanonicalPath not enough to fully determine symlink attribute (files in symlinked folders), and Files.isSymbolicLink is available only with minAPI >= 26
+            BrowserItem b = new BrowserItem(f.getName(),f.length(),new Date(f.lastModified()),f.isDirectory(), Native.isSymLink(f.getAbsolutePath())>0); // getCanonicalPath not enough to fully determine symlink attribute (files in symlinked folders), and Files.isSymbolicLink is available only with minAPI >= 26
+            l.add(b);
+            if(batcher != null) batcher.add(b);
         }
         return new LocalDirWithContent(directory.dir, l);
     }
@@ -5,6 +5,7 @@ import java.util.List;
 import it.pgp.xfiles.BrowserItem;
 import it.pgp.xfiles.enums.FileOpsErrorCodes;
 import it.pgp.xfiles.enums.ProviderType;
+import it.pgp.xfiles.roothelperclient.IncrementalArchiveListing;
 
 /**
  * Created by pgp on 13/05/17
@@ -14,6 +15,10 @@ public class ArchiveSubDirWithContent extends GenericDirWithContent {
 
     public String archivePath; // archive absolute pathname in the local filesystem
 
+    // non-null if content comes from a partial archive index, still being enumerated
+    public IncrementalArchiveListing pendingListing;
+    public int listedFirstChild; // used by pendingListing to find children added after this listing
+
     public ArchiveSubDirWithContent(String archivePath, String dir, List<BrowserItem> content) {
         super(dir, content);
         this.providerType = ProviderType.LOCAL_WITHIN_ARCHIVE;
@@ -0,0 +1,271 @@
+package it.pgp.xfiles.utils.dircontent;
+
+import android.support.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.RandomAccess;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.roothelperclient.RHCodec;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Columnar, primitive-only representation of a directory listing:
+ * filenames are stored as UTF-8 slices of a single shared byte pool, other attributes
+ * in parallel primitive arrays, so that decoding a huge RH ls response allocates only a few arrays
+ * (grown geometrically) instead of several objects per entry.
+ *
+ * UI code still works on List&lt;BrowserItem&gt;, through {@link View}, which materializes items lazily,
+ * only when they are actually accessed (e.g. when they become visible in the browser adapter).
+ */
+
+public class DirListing {
+
+    public static final byte FLAG_DIR = 1;
+    public static final byte FLAG_LINK = 2;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int INITIAL_POOL_SIZE = 8192;
+
+    public int count = 0;
+
+    public byte[] namePool = new byte[INITIAL_POOL_SIZE];
+    public int namePoolSize = 0;
+    public int[] nameOffsets = new int[INITIAL_CAPACITY+1]; // name i is namePool[nameOffsets[i],nameOffsets[i+1])
+
+    public long[] size = new long[INITIAL_CAPACITY];
+    public long[] mtime = new long[INITIAL_CAPACITY]; // milliseconds
+    public byte[] flags = new byte[INITIAL_CAPACITY];
+
+    private void ensureCapacity(int entries, int poolBytes) {
+        if (entries > size.length) {
+            int newCapacity = Math.max(entries, size.length*2);
+            size = Arrays.copyOf(size, newCapacity);
+            mtime = Arrays.copyOf(mtime, newCapacity);
+            flags = Arrays.copyOf(flags, newCapacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, newCapacity+1);
+        }
+        if (poolBytes > namePool.length) {
+            namePool = Arrays.copyOf(namePool, Math.max(poolBytes, namePool.length*2));
+        }
+    }
+
+    public void add(byte[] name, int off, int len, long size, long mtime, byte flags) {
+        ensureCapacity(count+1, namePoolSize+len);
+        System.arraycopy(name,off,namePool,namePoolSize,len);
+        append(len,size,mtime,flags);
+    }
+
+    public void add(String name, long size, long mtime, boolean isDirectory, boolean isLink) {
+        byte[] b = name.getBytes(StandardCharsets.UTF_8);
+        add(b,0,b.length,size,mtime,(byte)((isDirectory?FLAG_DIR:0)|(isLink?FLAG_LINK:0)));
+    }
+
+    // columnar copy of a listing built as items (e.g. by remote providers)
+    public static DirListing of(List<BrowserItem> items) {
+        DirListing l = new DirListing();
+        for (BrowserItem b : items)
+            l.add(b.filename, b.size == null ? 0 : b.size, b.date == null ? 0 : b.date.getTime(),
+                    Boolean.TRUE.equals(b.isDirectory), Boolean.TRUE.equals(b.isLink));
+        return l;
+    }
+
+    private void append(int nameLen, long size, long mtime, byte flags) {
+        namePoolSize += nameLen;
+        this.size[count] = size;
+        this.mtime[count] = mtime;
+        this.flags[count] = flags;
+        count++;
+        nameOffsets[count] = namePoolSize;
+    }
+
+    // flags from the first char of RH permission string (d: dir, l: link, L: link to dir)
+    public static byte flagsFromPermissionType(int c) {
+        switch (c) {
+            case 'd':
+                return FLAG_DIR;
+            case 'l':
+                return FLAG_LINK;
+            case 'L':
+                return FLAG_DIR | FLAG_LINK;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Decodes one RH ls response entry (same wire format as {@link it.pgp.xfiles.roothelperclient.resps.ls_resp})
+     * directly into the columns
+     * @return false on end of list
+     */
+    public boolean readNext(DataInputStream i) throws IOException {
+        int filename_len = RHCodec.readUInt16(i);
+        if (filename_len == 0) return false; // end of list indication
+        ensureCapacity(count+1, namePoolSize+filename_len);
+        i.readFully(namePool,namePoolSize,filename_len);
+        long date = RHCodec.readUInt32(i);
+        byte f = flagsFromPermissionType(RHCodec.readUInt8(i));
+        // only the type char of the 10-byte permission string is needed here
+        RHCodec.skipFully(i,9);
+        long sz = RHCodec.readInt64(i);
+        append(filename_len, sz, date*1000L, f);
+        return true;
+    }
+
+    public static DirListing readLsResps(DataInputStream i) throws IOException {
+        DirListing l = new DirListing();
+        while (l.readNext(i));
+        return l;
+    }
+
+    public String getName(int i) {
+        int start = nameOffsets[i];
+        return new String(namePool, start, nameOffsets[i+1]-start, StandardCharsets.UTF_8);
+    }
+
+    public boolean isDirectory(int i) {
+        return (flags[i] & FLAG_DIR) != 0;
+    }
+
+    public boolean isLink(int i) {
+        return (flags[i] & FLAG_LINK) != 0;
+    }
+
+    /**
+     * Byte-wise comparison of UTF-8 names, consistent in sign with {@link String#compareTo} (UTF-16 unit order),
+     * so that columnar and item-based sorting agree.
+     * Plain unsigned UTF-8 byte order is code point order, which differs from UTF-16 order only between
+     * supplementary chars (surrogate pairs, lead bytes F0-F4) and chars in U+E000-U+FFFF (lead bytes EE-EF):
+     * the latter are moved above the former. Since the common prefix is equal, the first differing bytes
+     * are either both lead bytes or both continuation bytes.
+     */
+    public int compareNames(int a, int b) {
+        int i = nameOffsets[a], iEnd = nameOffsets[a+1];
+        int j = nameOffsets[b], jEnd = nameOffsets[b+1];
+        for (; i < iEnd && j < jEnd; i++, j++) {
+            int d = utf16OrderKey(namePool[i] & 0xFF) - utf16OrderKey(namePool[j] & 0xFF);
+            if (d != 0) return d;
+        }
+        return (iEnd - nameOffsets[a]) - (jEnd - nameOffsets[b]);
+    }
+
+    private static int utf16OrderKey(int b) {
+        return (b == 0xEE || b == 0xEF) ? b + 0x10 : b;
+    }
+
+    // same entries, in the same order
+    public boolean contentEquals(DirListing other) {
+        if (count != other.count || namePoolSize != other.namePoolSize) return false;
+        for (int i=0; i<count; i++) {
+            if (nameOffsets[i+1] != other.nameOffsets[i+1] || size[i] != other.size[i] ||
+                    mtime[i] != other.mtime[i] || flags[i] != other.flags[i]) return false;
+        }
+        for (int k=0; k<namePoolSize; k++)
+            if (namePool[k] != other.namePool[k]) return false;
+        return true;
+    }
+
+    public long estimatedMemorySize() {
+        return 64L + namePool.length + 4L*nameOffsets.length + 17L*size.length;
+    }
+
+    public BrowserItem toBrowserItem(int i) {
+        return new BrowserItem(getName(i), size[i], new Date(mtime[i]), isDirectory(i), isLink(i));
+    }
+
+    public View asList() {
+        return new View(this, null);
+    }
+
+    /**
+     * @param materialized items already created for the first entries (e.g. while streaming the listing),
+     *                     reused by the view
+     */
+    public View asList(List<BrowserItem> materialized) {
+        return new View(this, materialized);
+    }
+
+    /**
+     * List view over a {@link DirListing}, in the order given by a permutation of entry indexes.
+     * BrowserItems are created on first access and then kept (they hold the selection state).
+     */
+    public static class View extends AbstractList<BrowserItem> implements RandomAccess {
+        public final DirListing listing;
+        private int[] order;
+        private int[] positions; // inverse of order, built on demand
+        private BrowserItem[] items;
+
+        View(DirListing listing, @Nullable List<BrowserItem> materialized) {
+            this.listing = listing;
+            order = new int[listing.count];
+            for (int k=0;k<order.length;k++) order[k] = k;
+            items = new BrowserItem[listing.count];
+            if (materialized != null)
+                for (int k=0;k<materialized.size();k++) items[k] = materialized.get(k);
+        }
+
+        @Override
+        public BrowserItem get(int index) {
+            BrowserItem b = items[index];
+            if (b == null) {
+                b = listing.toBrowserItem(order[index]);
+                items[index] = b;
+            }
+            return b;
+        }
+
+        // needed by Collections.sort fallback on generic comparators
+        @Override
+        public BrowserItem set(int index, BrowserItem element) {
+            BrowserItem old = get(index);
+            items[index] = element;
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return order.length;
+        }
+
+        // listing index of the entry currently at position index
+        public int entryAt(int index) {
+            return order[index];
+        }
+
+        // current position of a listing entry, stays valid across reorderings unlike positions themselves
+        public int positionOf(int entry) {
+            if (positions == null) {
+                positions = new int[order.length];
+                for (int k=0;k<order.length;k++) positions[order[k]] = k;
+            }
+            return positions[entry];
+        }
+
+        public BrowserItem getByEntry(int entry) {
+            return get(positionOf(entry));
+        }
+
+        /**
+         * Reorders the view, so that the element at position k is the one previously at pos[k]
+         * (used by {@link it.pgp.xfiles.comparators.KeyedSorter})
+         */
+        public void permute(int[] pos) {
+            int[] newOrder = new int[order.length];
+            BrowserItem[] newItems = new BrowserItem[items.length];
+            for (int k=0;k<pos.length;k++) {
+                newOrder[k] = order[pos[k]];
+                newItems[k] = items[pos[k]];
+            }
+            order = newOrder;
+            items = newItems;
+            positions = null;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package it.pgp.xfiles.utils.dircontent;
+
+import android.os.FileObserver;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.enums.ProviderType;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Cache of directory listings (local, root, SFTP and SMB), for showing a dir instantly when navigating
+ * back to it, or to a dir prefetched by {@link DirPrefetcher}.
+ *
+ * Entries are columnar {@link DirListing}s (built from the items, for providers not returning them),
+ * keyed by provider and requested path; each lookup returns a new view over the listing, so that items
+ * (and their selection state) are never shared between adapters. The cache is an access-ordered LinkedHashMap,
+ * bounded by the estimated heap size of the listings and by a number of entries (each local entry holds
+ * an inotify watch).
+ *
+ * Every local entry watches its dir with a {@link FileObserver}, and is dropped on the first change of its content
+ * (or of the dir itself), so that a modified dir is listed again on next access; remote dirs cannot be watched,
+ * so their entries expire after {@link #REMOTE_TTL_MS}. Since watches on dirs not readable by the app fail silently,
+ * and subdirectory mtimes are not covered by a watch on their parent, a listing served from the cache
+ * is always revalidated in background as well ({@link #revalidate}).
+ * XRE dirs are not cached: their listings go through the single connection of the session (shared with the
+ * UI operations), which must not be kept busy or aborted by revalidations or prefetches.
+ */
+
+public class DirListingCache {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 16L*1024*1024;
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final long REMOTE_TTL_MS = 120000;
+
+    private static final int WATCH_MASK = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MODIFY |
+            FileObserver.ATTRIB | FileObserver.CLOSE_WRITE | FileObserver.MOVED_FROM | FileObserver.MOVED_TO |
+            FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    public interface RevalidationListener {
+        // called on the revalidation thread, with the fresh content of a changed dir
+        void onChanged(GenericDirWithContent fresh);
+    }
+
+    private class Entry {
+        final String key;
+        final GenericDirWithContent template; // provider attributes and resolved dir (differs from key on redirect)
+        final DirListing listing;
+        final long footprint;
+        final long expiry; // Long.MAX_VALUE for watched entries
+        final FileObserver observer; // null for remote entries
+
+        Entry(String key, GenericDirWithContent cwd) {
+            this.key = key;
+            template = cwd.copyWithContent(null);
+            listing = (cwd.content instanceof DirListing.View) ?
+                    ((DirListing.View) cwd.content).listing : DirListing.of(cwd.content);
+            footprint = listing.estimatedMemorySize();
+            if (cwd.providerType == ProviderType.LOCAL) {
+                expiry = Long.MAX_VALUE;
+                observer = new FileObserver(cwd.dir, WATCH_MASK) {
+                    @Override
+                    public void onEvent(int event, String path) {
+                        invalidate(Entry.this);
+                    }
+                };
+            }
+            else {
+                expiry = SystemClock.elapsedRealtime() + REMOTE_TTL_MS;
+                observer = null;
+            }
+        }
+
+        boolean isExpired() {
+            return SystemClock.elapsedRealtime() > expiry;
+        }
+
+        void startWatching() {
+            if (observer != null) observer.startWatching();
+        }
+
+        void stopWatching() {
+            if (observer != null) observer.stopWatching();
+        }
+    }
+
+    private final long memoryBudget;
+    private final int maxEntries;
+    private long memoryUsed = 0;
+    private final LinkedHashMap<String,Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ExecutorService revalidator = Executors.newSingleThreadExecutor();
+
+    public DirListingCache(long memoryBudget, int maxEntries) {
+        this.memoryBudget = memoryBudget;
+        this.maxEntries = maxEntries;
+    }
+
+    public DirListingCache() {
+        this(DEFAULT_MEMORY_BUDGET, DEFAULT_MAX_ENTRIES);
+    }
+
+    public static boolean isCacheable(ProviderType providerType) {
+        switch (providerType) {
+            case LOCAL:
+            case SFTP:
+            case SMB:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * To be taken before listing dir, since providers replace the path on redirect
+     * (remote path contents include the endpoint in their string form)
+     */
+    public static String keyOf(BasePathContent dir) {
+        return dir.providerType.name()+":"+dir;
+    }
+
+    /**
+     * @return a new dir content over the cached listing (marked as {@link GenericDirWithContent#fromCache}),
+     * or null if not cached; on redirected paths, dir is updated as the provider would do
+     */
+    public GenericDirWithContent get(BasePathContent dir) {
+        if (!isCacheable(dir.providerType)) return null;
+        Entry e = lookup(keyOf(dir));
+        if (e == null) return null;
+        dir.dir = e.template.dir;
+        GenericDirWithContent cwd = e.template.copyWithContent(e.listing.asList());
+        cwd.fromCache = true;
+        return cwd;
+    }
+
+    public boolean contains(BasePathContent dir) {
+        return isCacheable(dir.providerType) && lookup(keyOf(dir)) != null;
+    }
+
+    private synchronized Entry lookup(String key) {
+        Entry e = memory.get(key);
+        if (e != null && e.isExpired()) {
+            invalidate(e);
+            return null;
+        }
+        return e;
+    }
+
+    /**
+     * Caches the outcome of a listing, if successful
+     * @param key the one of the requested path, see {@link #keyOf}
+     * @return the same dir content
+     */
+    public GenericDirWithContent put(String key, GenericDirWithContent cwd) {
+        add(key, cwd);
+        return cwd;
+    }
+
+    // returns the estimated size of the cached listing (0 if not cached), for DirPrefetcher memory budget
+    long add(String key, GenericDirWithContent cwd) {
+        if (cwd == null || cwd.errorCode != null || cwd.content == null || !isCacheable(cwd.providerType)) return 0;
+        Entry e = new Entry(key, cwd);
+        put(e);
+        return e.footprint;
+    }
+
+    // watches are started and stopped under the lock, so that an evicted entry is never left watching
+    private synchronized void put(Entry e) {
+        Entry old = removeFromMemory(e.key);
+        if (old != null) old.stopWatching();
+        memory.put(e.key, e);
+        memoryUsed += e.footprint;
+        e.startWatching();
+        // evict least recently used listings, always keeping the one just added
+        Iterator<Map.Entry<String,Entry>> it = memory.entrySet().iterator();
+        while ((memoryUsed > memoryBudget || memory.size() > maxEntries) && memory.size() > 1) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            memoryUsed -= eldest.footprint;
+            eldest.stopWatching();
+        }
+    }
+
+    private synchronized void invalidate(Entry e) {
+        if (memory.get(e.key) != e) return; // already replaced or evicted
+        removeFromMemory(e.key);
+        e.stopWatching();
+    }
+
+    /**
+     * Drops all the cached listings, e.g. on memory pressure
+     */
+    public synchronized void clear() {
+        for (Entry e : memory.values()) e.stopWatching();
+        memory.clear();
+        memoryUsed = 0;
+    }
+
+    private Entry removeFromMemory(String key) {
+        Entry old = memory.remove(key);
+        if (old != null) memoryUsed -= old.footprint;
+        return old;
+    }
+
+    /**
+     * Lists again, in background, a dir just shown from the cache; the listener is notified only if
+     * the fresh listing differs from the cached one (or the dir is no longer accessible)
+     * @param path the path shown (already resolved by {@link #get})
+     */
+    public void revalidate(BasePathContent path, GenericDirWithContent shown, RevalidationListener listener) {
+        if (!(shown.content instanceof DirListing.View)) return;
+        final DirListing cached = ((DirListing.View) shown.content).listing;
+        final BasePathContent target = path.getCopy();
+        revalidator.execute(() -> {
+            try {
+                GenericDirWithContent fresh = MainActivity.mainActivity.getFileOpsHelper(target.providerType)
+                        .listDirectory(target);
+                if (fresh.errorCode == null && fresh.content != null &&
+                        cached.contentEquals((fresh.content instanceof DirListing.View) ?
+                                ((DirListing.View) fresh.content).listing : DirListing.of(fresh.content))) return;
+                replace(cached, fresh);
+                listener.onChanged(fresh);
+            }
+            catch (Exception e) {
+                Log.e(getClass().getName(), "Unable to revalidate listing of "+target, e);
+            }
+        });
+    }
+
+    // replaces the entries holding a stale listing (under all the paths it has been requested with)
+    private synchronized void replace(DirListing stale, GenericDirWithContent fresh) {
+        Entry[] entries = memory.values().toArray(new Entry[0]);
+        for (Entry e : entries) {
+            if (e.listing != stale) continue;
+            invalidate(e);
+            put(e.key, fresh);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package it.pgp.xfiles.utils.dircontent;
+
+import java.util.List;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+
+/**
+ * Receives directory entries while a listing is still in progress (see {@link ListingBatcher}).
+ * Called on the listing thread, batches are unsorted and never reused by the caller.
+ */
+
+public interface DirListingListener {
+    void onBatch(BasePathContent dir, List<BrowserItem> batch);
+}
@@ -0,0 +1,172 @@
+package it.pgp.xfiles.utils.dircontent;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import it.pgp.xfiles.MainActivity;
+import it.pgp.xfiles.service.TaskScheduler;
+import it.pgp.xfiles.utils.NavigationScheduler;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+
+/**
+ * Created by pgp on 18/10/26
+ *
+ * Speculative listing of the dirs most likely to be opened next (back/ahead history, parent, first visible
+ * subdirs), into the {@link DirListingCache}, so that opening them on high-latency providers is a cache hit.
+ *
+ * A round is scheduled once a dir has been shown, and starts after {@link #IDLE_DELAY_MS} if no navigation
+ * has started meanwhile and no file operation is running. Candidates are listed at background thread priority
+ * by at most {@link #MAX_CONCURRENT} workers, each one on its own {@link NavigationScheduler}, so that
+ * {@link #cancel()} (called as soon as a real navigation starts) aborts blocking RH listings and stops
+ * SFTP/SMB ones the same way a superseded navigation does.
+ * Only dirs on the endpoint of the shown one are candidates (no new connections or authentications are started),
+ * and a round stops once its listings exceed {@link #ROUND_MEMORY_BUDGET}, so that it never evicts
+ * most of the cache.
+ */
+
+public class DirPrefetcher {
+
+    public static final long IDLE_DELAY_MS = 500;
+    public static final int MAX_CANDIDATES = 8;
+    public static final int MAX_CONCURRENT = 2;
+    public static final long ROUND_MEMORY_BUDGET = 4L*1024*1024;
+
+    private final DirListingCache cache;
+    private final NavigationScheduler[] workers = new NavigationScheduler[MAX_CONCURRENT];
+
+    private Runnable pendingRound; // UI thread only
+
+    // guarded by this
+    private final ArrayDeque<BasePathContent> queue = new ArrayDeque<>();
+    private long round = 0;
+    private long roundBytes = 0;
+
+    // metrics, guarded by this
+    private long rounds = 0;
+    private long prefetched = 0;
+    private long prefetchedBytes = 0;
+
+    public DirPrefetcher(DirListingCache cache) {
+        this.cache = cache;
+        for (int k=0; k<workers.length; k++) workers[k] = new NavigationScheduler();
+    }
+
+    // path string without the dir part (e.g. sftp://user@host:port)
+    private static String endpointOf(BasePathContent p) {
+        String s = p.toString();
+        return (p.dir != null && s.endsWith(p.dir)) ? s.substring(0, s.length()-p.dir.length()) : s;
+    }
+
+    public interface CandidateSource {
+        // called on the UI thread when the round starts, in decreasing likelihood order
+        List<BasePathContent> getCandidates();
+    }
+
+    /**
+     * To be called on the UI thread once a dir has been shown, supersedes the round in progress;
+     * candidates on other endpoints, duplicated or already cached are skipped
+     */
+    public void schedule(BasePathContent shown, CandidateSource source) {
+        cancel();
+        if (!DirListingCache.isCacheable(shown.providerType)) return;
+        pendingRound = () -> {
+            pendingRound = null;
+            if (!TaskScheduler.instance.isIdle()) return; // don't compete with file operations
+            List<BasePathContent> selected = select(shown, source.getCandidates());
+            if (!selected.isEmpty()) start(selected);
+        };
+        MainActivity.handler.postDelayed(pendingRound, IDLE_DELAY_MS);
+    }
+
+    private List<BasePathContent> select(BasePathContent shown, List<BasePathContent> candidates) {
+        String endpoint = endpointOf(shown);
+        Set<String> keys = new HashSet<>();
+        keys.add(DirListingCache.keyOf(shown));
+        List<BasePathContent> selected = new ArrayList<>();
+        for (BasePathContent c : candidates) {
+            if (selected.size() == MAX_CANDIDATES) break;
+            if (c == null || c.providerType != shown.providerType || !endpoint.equals(endpointOf(c))) continue;
+            if (keys.add(DirListingCache.keyOf(c)) && !cache.contains(c)) selected.add(c);
+        }
+        return selected;
+    }
+
+    /**
+     * To be called on the UI thread when a navigation starts: drops the scheduled round,
+     * and aborts the listings in progress
+     */
+    public void cancel() {
+        if (pendingRound != null) {
+            MainActivity.handler.removeCallbacks(pendingRound);
+            pendingRound = null;
+        }
+        synchronized (this) {
+            queue.clear();
+            round++;
+        }
+        for (NavigationScheduler w : workers) w.cancel();
+    }
+
+    private void start(List<BasePathContent> selected) {
+        final long r;
+        synchronized (this) {
+            queue.addAll(selected);
+            roundBytes = 0;
+            rounds++;
+            r = round;
+        }
+        for (NavigationScheduler w : workers) w.submit(n -> work(r));
+    }
+
+    private void work(long r) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        for(;;) {
+            BasePathContent path;
+            synchronized (this) {
+                if (r != round || roundBytes >= ROUND_MEMORY_BUDGET) return;
+                path = queue.poll();
+            }
+            if (path == null) return;
+            if (cache.contains(path)) continue; // cached meanwhile by a navigation
+
+            path = path.getCopy(); // providers replace the path on redirect, history entries are not touched
+            String key = DirListingCache.keyOf(path);
+            GenericDirWithContent cwd;
+            try {
+                cwd = MainActivity.mainActivity.getFileOpsHelper(path.providerType).listDirectory(path);
+            }
+            catch (NavigationScheduler.Cancelled e) {
+                throw e;
+            }
+            catch (Exception e) {
+                Log.e(getClass().getName(), "Unable to prefetch "+path, e);
+                continue;
+            }
+
+            synchronized (this) {
+                if (r != round) return; // a navigation has started, it may have changed the dir
+            }
+            long footprint = cache.add(key, cwd);
+            synchronized (this) {
+                roundBytes += footprint;
+                prefetchedBytes += footprint;
+                if (footprint > 0) prefetched++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DirPrefetcher{" +
+                "rounds=" + rounds +
+                ", prefetched=" + prefetched +
+                ", prefetchedBytes=" + prefetchedBytes +
+                '}';
+    }
+}
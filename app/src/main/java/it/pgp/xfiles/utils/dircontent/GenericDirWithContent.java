@@ -11,10 +11,10 @@ import it.pgp.xfiles.enums.ProviderType;
  *
  * represent the response to UI activities, that is, a response to be visualized through an ArrayAdapter or similar
  * the content here must represent ONE level in a filesystem hierarchy (only children of the folder,
- * NOT all the archive entries in case of archive - the VMap caching must be done at FileOpsHelper/RootHelperClient level)
+ * NOT all the archive entries in case of archive - the archive index caching must be done at FileOpsHelper/RootHelperClient level)
  */
 
-public class GenericDirWithContent {
+public class GenericDirWithContent implements Cloneable {
     public ProviderType providerType;
     /*
     content of dir for providerType:
@@ -27,6 +27,7 @@ public class GenericDirWithContent {
     public List<BrowserItem> content; // each BrowserItem contains a filename
     public FileOpsErrorCodes errorCode; // null on success, errno-equivalent or descriptive commander error otherwise
     public Integer listViewPosition;
+    public boolean fromCache = false; // served by DirListingCache, to be revalidated once shown
 
     public GenericDirWithContent(String dir, List<BrowserItem> content) {
         this.dir = dir;
@@ -35,6 +36,20 @@ public class GenericDirWithContent {
     }
 
 
+    // shallow copy over another content, keeping subclass attributes (e.g. auth data)
+    public GenericDirWithContent copyWithContent(List<BrowserItem> content) {
+        try {
+            GenericDirWithContent c = (GenericDirWithContent) clone();
+            c.content = content;
+            c.listViewPosition = 0;
+            c.fromCache = false;
+            return c;
+        }
+        catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /* TODO
      * in all subclasses errorCode constructors (or equivalently in this one first)
      * add dir as input parameter, to have complete information about error
@@ -0,0 +1,58 @@
+package it.pgp.xfiles.utils.dircontent;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.pgp.xfiles.BrowserItem;
+import it.pgp.xfiles.utils.pathcontent.BasePathContent;
+
+/**
+ * Groups entries produced by a provider's listing loop into pages for a {@link DirListingListener}.
+ *
+ * The first page is about one screenful (or whatever arrived within {@link #MAX_DELAY_MS}),
+ * the following ones double in size, so that the first rows are shown almost immediately
+ * while the number of UI updates stays logarithmic in the directory size.
+ * Entries still pending when the listing ends are not flushed, the complete listing returned
+ * by the provider supersedes them.
+ */
+
+public class ListingBatcher {
+
+    public static final int FIRST_BATCH_SIZE = 64;
+    public static final int MAX_BATCH_SIZE = 8192;
+    public static final long MAX_DELAY_MS = 50;
+
+    private final BasePathContent dir;
+    private final DirListingListener listener;
+
+    private List<BrowserItem> pending = new ArrayList<>();
+    private int batchSize = FIRST_BATCH_SIZE;
+    private long lastEmit = SystemClock.uptimeMillis();
+
+    private ListingBatcher(BasePathContent dir, DirListingListener listener) {
+        this.dir = dir;
+        this.listener = listener;
+    }
+
+    @Nullable
+    public static ListingBatcher of(BasePathContent dir, @Nullable DirListingListener listener) {
+        return listener == null ? null : new ListingBatcher(dir, listener);
+    }
+
+    public void add(BrowserItem b) {
+        pending.add(b);
+        if (pending.size() >= batchSize || SystemClock.uptimeMillis() - lastEmit >= MAX_DELAY_MS)
+            emit();
+    }
+
+    private void emit() {
+        List<BrowserItem> batch = pending;
+        pending = new ArrayList<>();
+        batchSize = Math.min(batchSize*2, MAX_BATCH_SIZE);
+        listener.onBatch(dir, batch);
+        lastEmit = SystemClock.uptimeMillis();
+    }
+}